@@ -0,0 +1,236 @@
+package com.jpmc.sagemaker.studio.benchmarks;
+
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPoolConfig;
+import com.jpmc.sagemaker.studio.backend.BackendSslContextConfig;
+import com.jpmc.sagemaker.studio.backend.BackendSslContextFactory;
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.backend.CircuitBreakerConfig;
+import com.jpmc.sagemaker.studio.benchmarks.support.StandInBackend;
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimitConfig;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimiter;
+import com.jpmc.sagemaker.studio.reverseproxy.BackendHttpChannelInitializer;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudget;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudgetConfig;
+import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyConfig;
+import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyInitializer;
+import com.jpmc.sagemaker.studio.routing.Route;
+import com.jpmc.sagemaker.studio.routing.RouteTable;
+import com.jpmc.sagemaker.studio.routing.Router;
+import com.jpmc.sagemaker.studio.server.ServerTransport;
+import com.jpmc.sagemaker.studio.server.ServerTransportConfig;
+import com.jpmc.sagemaker.studio.tls.FrontendTls;
+import com.jpmc.sagemaker.studio.tls.FrontendTlsConfig;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Time to load a burst of requests the way JupyterLab does on start up, from a
+ * Browser on 6 HTTP/1.1 keep-alive connections or on one h2c connection with a
+ * stream per request, through the proxy to a local stand-in backend.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.properties")
+@State(Scope.Benchmark)
+public class Http2FrontendBenchmark {
+
+    // What Browsers open per host over HTTP/1.1
+    private static final int HTTP_1_1_CONNECTIONS = 6;
+    private static final String URI = "/jupyter/default/api/contents";
+
+    public enum Protocol {
+        HTTP_1_1, H2C
+    }
+
+    @Param({ "HTTP_1_1", "H2C" })
+    public Protocol protocol;
+
+    @Param({ "32" })
+    public int requests;
+
+    @Param({ "0", "20" })
+    public long backendDelayMillis;
+
+    private StandInBackend backend;
+    private ServerTransport serverTransport;
+    private Channel proxyChannel;
+    private EventLoopGroup browserGroup;
+    private final List<Channel> connections = new ArrayList<>();
+    private final AtomicInteger unsentRequests = new AtomicInteger();
+    private volatile CountDownLatch pendingResponses;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        backend = new StandInBackend(2, 1024, backendDelayMillis);
+        final Router router = new Router(RouteTable.builder()
+                .defaultRoute(Route.builder().host("localhost").port(backend.getPort()).tls(true).build())
+                .build());
+
+        final ReverseProxyConfig reverseProxyConfig = ReverseProxyConfig.fromSystemProperties().toBuilder()
+                .http2Enabled(true).build();
+        final ResponseCache responseCache = new ResponseCache(ResponseCacheConfig.fromSystemProperties());
+        final SslContext backendSslContext = BackendSslContextFactory
+                .create(BackendSslContextConfig.fromSystemProperties());
+        serverTransport = new ServerTransport(ServerTransportConfig.builder().acceptorThreads(1)
+                .workerThreads(Runtime.getRuntime().availableProcessors()).build());
+        final MemoryBudget memoryBudget = new MemoryBudget(MemoryBudgetConfig.fromSystemProperties());
+        final ProxyMetrics proxyMetrics = new ProxyMetrics(serverTransport.getWorkerGroup(), responseCache,
+                memoryBudget);
+        final BackendConnectionPool backendConnectionPool = new BackendConnectionPool(
+                BackendConnectionPoolConfig.fromSystemProperties(), backendSslContext,
+                new BackendHttpChannelInitializer(reverseProxyConfig, responseCache, proxyMetrics, memoryBudget));
+        proxyChannel = serverTransport.bind(0, new ReverseProxyInitializer(reverseProxyConfig,
+                backendConnectionPool, backendSslContext, router, responseCache, proxyMetrics, memoryBudget,
+                new RateLimiter(RateLimitConfig.fromSystemProperties()),
+                new CircuitBreaker(CircuitBreakerConfig.fromSystemProperties(), backendSslContext,
+                        backendConnectionPool.getResolver(), proxyMetrics),
+                new FrontendTls(FrontendTlsConfig.builder().build(), false)), 1)
+                .get(0);
+
+        browserGroup = new NioEventLoopGroup(1);
+        final Bootstrap bootstrap = new Bootstrap().group(browserGroup).channel(NioSocketChannel.class);
+        if (protocol == Protocol.H2C) {
+            connections.add(bootstrap.handler(new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(final Channel channel) {
+                    channel.pipeline().addLast(Http2FrameCodecBuilder.forClient().build(),
+                            new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()));
+                }
+            }).connect(proxyChannel.localAddress()).sync().channel());
+        } else {
+            for (int i = 0; i < HTTP_1_1_CONNECTIONS; i++) {
+                connections.add(bootstrap.handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(final Channel channel) {
+                        channel.pipeline().addLast(new HttpClientCodec(), new HttpObjectAggregator(1 << 20),
+                                new Http11ResponseHandler());
+                    }
+                }).connect(proxyChannel.localAddress()).sync().channel());
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        for (Channel connection : connections) {
+            connection.close();
+        }
+        browserGroup.shutdownGracefully();
+        proxyChannel.close();
+        serverTransport.shutdownGracefully();
+        backend.close();
+    }
+
+    @Benchmark
+    public void loadBurst() throws Exception {
+        final CountDownLatch responses = new CountDownLatch(requests);
+        pendingResponses = responses;
+        if (protocol == Protocol.H2C) {
+            final Http2StreamChannelBootstrap streamBootstrap = new Http2StreamChannelBootstrap(connections.get(0))
+                    .handler(new Http2ResponseHandler());
+            for (int i = 0; i < requests; i++) {
+                streamBootstrap.open().addListener(future -> {
+                    final Http2StreamChannel stream = (Http2StreamChannel) future.getNow();
+                    final Http2Headers headers = new DefaultHttp2Headers().method("GET").scheme("http").path(URI)
+                            .authority("localhost");
+                    stream.writeAndFlush(new DefaultHttp2HeadersFrame(headers, true));
+                });
+            }
+        } else {
+            // Like a Browser, a connection sends its next request once the previous one
+            // is answered
+            unsentRequests.set(requests);
+            for (Channel connection : connections) {
+                sendNextRequest(connection);
+            }
+        }
+        if (!responses.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(responses.getCount() + " responses are missing");
+        }
+    }
+
+    private void sendNextRequest(final Channel connection) {
+        if (unsentRequests.getAndDecrement() > 0) {
+            final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, URI);
+            request.headers().set(HttpHeaderNames.HOST, "localhost");
+            connection.writeAndFlush(request);
+        }
+    }
+
+    private final class Http11ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext channelHandlerContext,
+                final FullHttpResponse response) {
+            pendingResponses.countDown();
+            sendNextRequest(channelHandlerContext.channel());
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private final class Http2ResponseHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) {
+            final boolean endStream = message instanceof Http2HeadersFrame && ((Http2HeadersFrame) message).isEndStream()
+                    || message instanceof Http2DataFrame && ((Http2DataFrame) message).isEndStream();
+            ReferenceCountUtil.release(message);
+            if (endStream) {
+                pendingResponses.countDown();
+                channelHandlerContext.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.jpmc.sagemaker.studio.benchmarks;
+
+import com.jpmc.sagemaker.studio.benchmarks.support.EmbeddedProxy;
+import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyConfig;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequestEncoder;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One keep-alive request and response through the full proxy pipeline built by
+ * ReverseProxyInitializer and the pooled Backend connection, from request bytes
+ * of the Browser to response bytes back to it. Run with -prof gc to see the
+ * bytes allocated per round trip.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.properties")
+@State(Scope.Thread)
+public class HttpRoundTripBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean streaming;
+
+    @Param({ "256", "65536" })
+    public int responseBytes;
+
+    private EmbeddedProxy proxy;
+    private ByteBuf request;
+
+    @Setup
+    public void start() throws Exception {
+        final ByteBuf responseBody = Unpooled.unreleasableBuffer(
+                Unpooled.directBuffer(responseBytes).writeZero(responseBytes));
+        proxy = new EmbeddedProxy(ReverseProxyConfig.fromSystemProperties().toBuilder().streamingEnabled(streaming)
+                .build(), () -> new ChannelHandler[] { new HttpServerCodec(), new HttpObjectAggregator(1 << 20),
+                        new Responder(responseBody) });
+
+        final FullHttpRequest fullRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                "/jupyter/default/api/contents/work?content=1");
+        fullRequest.headers().set(HttpHeaderNames.HOST, "localhost:8080")
+                .set(HttpHeaderNames.ACCEPT, "application/json")
+                .set(HttpHeaderNames.COOKIE, "_xsrf=2|1f2e3d4c|5a6b7c8d|1700000000; studio_user=user-1");
+        request = Unpooled.unreleasableBuffer(EmbeddedProxy.encode(new HttpRequestEncoder(), fullRequest));
+    }
+
+    @TearDown
+    public void stop() {
+        proxy.close();
+    }
+
+    @Benchmark
+    public int roundTrip() {
+        proxy.getFrontend().writeInbound(request.duplicate());
+        proxy.pump();
+        return EmbeddedProxy.drainOutbound(proxy.getFrontend());
+    }
+
+    private static final class Responder extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        private final ByteBuf body;
+
+        Responder(final ByteBuf body) {
+            this.body = body;
+        }
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext channelHandlerContext, final FullHttpRequest request) {
+            final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    body.duplicate());
+            HttpUtil.setContentLength(response, body.readableBytes());
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json");
+            channelHandlerContext.writeAndFlush(response);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.jpmc.sagemaker.studio.benchmarks;
+
+import com.jpmc.sagemaker.studio.routing.BackendGroup;
+import com.jpmc.sagemaker.studio.routing.BackendLoad;
+import com.jpmc.sagemaker.studio.routing.LoadBalancer;
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of picking the member of a backend group for a request and accounting
+ * for it like the proxy does, from several threads sharing the group like
+ * event loops do. The kernel benchmark measures the consistent hash that keeps
+ * kernel requests on one member.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.properties")
+@Threads(4)
+@State(Scope.Benchmark)
+public class LoadBalancingBenchmark {
+
+    @Param({ LoadBalancer.ROUND_ROBIN, LoadBalancer.LEAST_REQUESTS, LoadBalancer.PEAK_EWMA })
+    public String loadBalancer;
+
+    @Param({ "2", "8" })
+    public int members;
+
+    private BackendGroup group;
+    private final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+            "/jupyter/default/api/contents/work?content=1");
+    private final HttpRequest kernelRequest = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+            "/jupyter/default/api/kernels/0f3a9c6e-5b1d-4c1e-9a52-3c2b7c1d9e10/channels?session_id=1b2c3d4e");
+
+    @Setup
+    public void buildGroup() {
+        final List<Route> routes = new ArrayList<>();
+        for (int i = 0; i < members; i++) {
+            routes.add(Route.builder().host("replica-" + i + ".studio.local").port(8888).tls(false).build());
+        }
+        group = new BackendGroup(routes, LoadBalancer.forName(loadBalancer));
+    }
+
+    @Benchmark
+    public Route request() {
+        final Route route = group.select(request);
+        final BackendLoad load = route.getLoad();
+        load.requestStarted();
+        load.latencyObserved(1_000_000);
+        load.requestFinished();
+        return route;
+    }
+
+    @Benchmark
+    public Route kernel() {
+        return group.select(kernelRequest);
+    }
+}
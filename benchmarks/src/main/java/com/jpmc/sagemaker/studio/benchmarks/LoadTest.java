@@ -0,0 +1,402 @@
+package com.jpmc.sagemaker.studio.benchmarks;
+
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPoolConfig;
+import com.jpmc.sagemaker.studio.backend.BackendSslContextConfig;
+import com.jpmc.sagemaker.studio.backend.BackendSslContextFactory;
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.backend.CircuitBreakerConfig;
+import com.jpmc.sagemaker.studio.benchmarks.support.BlockingHttpClient;
+import com.jpmc.sagemaker.studio.benchmarks.support.BlockingWebSocketClient;
+import com.jpmc.sagemaker.studio.benchmarks.support.JupyterStandInBackend;
+import com.jpmc.sagemaker.studio.benchmarks.support.LatencyRecorder;
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.metrics.RequestTimingConfig;
+import com.jpmc.sagemaker.studio.metrics.RequestTimings;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimitConfig;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimiter;
+import com.jpmc.sagemaker.studio.reverseproxy.BackendHttpChannelInitializer;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudget;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudgetConfig;
+import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyConfig;
+import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyInitializer;
+import com.jpmc.sagemaker.studio.routing.Route;
+import com.jpmc.sagemaker.studio.routing.RouteTable;
+import com.jpmc.sagemaker.studio.routing.Router;
+import com.jpmc.sagemaker.studio.server.ServerTransport;
+import com.jpmc.sagemaker.studio.server.ServerTransportConfig;
+import com.jpmc.sagemaker.studio.tls.FrontendTls;
+import com.jpmc.sagemaker.studio.tls.FrontendTlsConfig;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.handler.ssl.SslContext;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test of the proxy on localhost. It starts a
+ * {@link JupyterStandInBackend} and the proxy on real sockets, then drives the
+ * proxy with keep-alive HTTP clients fetching assets and JSON documents and
+ * with WebSocket clients executing cells on a kernel channel. After a warmup it
+ * reports the throughput and the p50, p99 and p99.9 latencies of each kind of
+ * traffic, and the bytes the proxy's event loops allocated.
+ *
+ * <p>
+ * Settings are read from system properties starting with loadtest., see
+ * {@link Settings}. The proxy reads its usual reverseproxy.* properties, so a
+ * run can switch features on and off. With loadtest.reportFile set, the
+ * results are also written as key=value lines for comparing releases. With
+ * reverseproxy.timing.enabled set, the phase timings of the slowest requests
+ * are printed after the results. Run it with run_load_test.sh.
+ */
+public final class LoadTest {
+
+    private static final String PROPERTY_PREFIX = "loadtest.";
+    // Threads of the proxy's worker group, see ServerTransport
+    private static final String PROXY_THREAD_PREFIX = "worker-";
+    private static final String EXECUTE_REQUEST = "{\"channel\": \"shell\", \"header\": {\"msg_id\": \"%s\", "
+            + "\"msg_type\": \"execute_request\"}, \"content\": {\"code\": \"print('hello')\"}}";
+
+    private LoadTest() {
+    }
+
+    /**
+     * Settings of a run.
+     */
+    static final class Settings {
+
+        final int warmupSeconds = Integer.getInteger(PROPERTY_PREFIX + "warmupSeconds", 10);
+        final int durationSeconds = Integer.getInteger(PROPERTY_PREFIX + "durationSeconds", 30);
+        final int httpClients = Integer.getInteger(PROPERTY_PREFIX + "httpClients", 16);
+        // Share of the HTTP requests that fetch an asset rather than a JSON document
+        final double assetShare = Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "assetShare", "0.2"));
+        final int assetBytes = Integer.getInteger(PROPERTY_PREFIX + "assetBytes", 256 * 1024);
+        final int jsonBytes = Integer.getInteger(PROPERTY_PREFIX + "jsonBytes", 4 * 1024);
+        final int webSocketClients = Integer.getInteger(PROPERTY_PREFIX + "webSocketClients", 4);
+        final int messagesPerExecution = Integer.getInteger(PROPERTY_PREFIX + "messagesPerExecution", 10);
+        final int messageBytes = Integer.getInteger(PROPERTY_PREFIX + "messageBytes", 512);
+        final int backendThreads = Integer.getInteger(PROPERTY_PREFIX + "backendThreads", 2);
+        final String reportFile = System.getProperty(PROPERTY_PREFIX + "reportFile");
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Settings settings = new Settings();
+        try (JupyterStandInBackend backend = new JupyterStandInBackend(settings.backendThreads, settings.assetBytes,
+                settings.jsonBytes, settings.messagesPerExecution, settings.messageBytes)) {
+            final ServerTransport serverTransport = new ServerTransport(ServerTransportConfig.fromSystemProperties());
+            final RequestTimings requestTimings = new RequestTimings(RequestTimingConfig.fromSystemProperties());
+            try {
+                final Channel proxyChannel = startProxy(serverTransport, backend.getPort(), requestTimings);
+                run(settings, ((InetSocketAddress) proxyChannel.localAddress()).getPort());
+                proxyChannel.close();
+                if (requestTimings.isEnabled()) {
+                    final ByteBuf slowest = Unpooled.buffer();
+                    requestTimings.writeTo(slowest);
+                    System.out.print(slowest.toString(StandardCharsets.UTF_8));
+                    slowest.release();
+                }
+            } finally {
+                serverTransport.shutdownGracefully();
+            }
+        }
+    }
+
+    private static Channel startProxy(final ServerTransport serverTransport, final int backendPort,
+            final RequestTimings requestTimings) throws Exception {
+        final Router router = new Router(RouteTable.builder()
+                .defaultRoute(Route.builder().host("localhost").port(backendPort).tls(true).build()).build());
+        final ReverseProxyConfig reverseProxyConfig = ReverseProxyConfig.fromSystemProperties();
+        final ResponseCache responseCache = new ResponseCache(ResponseCacheConfig.fromSystemProperties());
+        final SslContext backendSslContext = BackendSslContextFactory
+                .create(BackendSslContextConfig.fromSystemProperties());
+        final MemoryBudget memoryBudget = new MemoryBudget(MemoryBudgetConfig.fromSystemProperties());
+        final ProxyMetrics proxyMetrics = new ProxyMetrics(serverTransport.getWorkerGroup(), responseCache,
+                memoryBudget, ByteBufAllocator.DEFAULT, requestTimings);
+        final BackendConnectionPool backendConnectionPool = new BackendConnectionPool(
+                BackendConnectionPoolConfig.fromSystemProperties(), backendSslContext,
+                new BackendHttpChannelInitializer(reverseProxyConfig, responseCache, proxyMetrics, memoryBudget));
+        return serverTransport.bind(0, new ReverseProxyInitializer(reverseProxyConfig, backendConnectionPool,
+                backendSslContext, router, responseCache, proxyMetrics, memoryBudget,
+                new RateLimiter(RateLimitConfig.fromSystemProperties()),
+                new CircuitBreaker(CircuitBreakerConfig.fromSystemProperties(), backendSslContext,
+                        backendConnectionPool.getResolver(), proxyMetrics),
+                new FrontendTls(FrontendTlsConfig.builder().build(), false)), 1).get(0);
+    }
+
+    private static void run(final Settings settings, final int proxyPort) throws Exception {
+        final long startNanos = System.nanoTime();
+        final long measureFromNanos = startNanos + TimeUnit.SECONDS.toNanos(settings.warmupSeconds);
+        final long measureUntilNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(settings.durationSeconds);
+
+        final List<Thread> threads = new ArrayList<>();
+        final List<LatencyRecorder> assets = new ArrayList<>();
+        final List<LatencyRecorder> documents = new ArrayList<>();
+        final List<LatencyRecorder> executions = new ArrayList<>();
+        for (int i = 0; i < settings.httpClients; i++) {
+            final HttpLoad load = new HttpLoad(settings, proxyPort, measureFromNanos, measureUntilNanos);
+            assets.add(load.assets);
+            documents.add(load.documents);
+            threads.add(new Thread(load, "loadtest-http-" + i));
+        }
+        for (int i = 0; i < settings.webSocketClients; i++) {
+            final WebSocketLoad load = new WebSocketLoad(proxyPort, measureFromNanos, measureUntilNanos);
+            executions.add(load.executions);
+            threads.add(new Thread(load, "loadtest-websocket-" + i));
+        }
+        threads.forEach(Thread::start);
+
+        TimeUnit.NANOSECONDS.sleep(measureFromNanos - System.nanoTime());
+        final ResourceUsage usage = new ResourceUsage();
+        TimeUnit.NANOSECONDS.sleep(measureUntilNanos - System.nanoTime());
+        usage.stop();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final Report report = new Report(settings.durationSeconds);
+        report.traffic("http_asset", LatencyRecorder.merge(assets));
+        report.traffic("http_json", LatencyRecorder.merge(documents));
+        report.traffic("websocket_execution", LatencyRecorder.merge(executions));
+        report.usage(usage);
+        report.print(System.out, settings);
+        if (settings.reportFile != null) {
+            Files.write(Paths.get(settings.reportFile), report.lines, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Keep-alive HTTP client fetching assets and JSON documents back to back.
+     */
+    private static final class HttpLoad implements Runnable {
+
+        private final Settings settings;
+        private final int proxyPort;
+        private final long measureFromNanos;
+        private final long measureUntilNanos;
+        private final LatencyRecorder assets = new LatencyRecorder();
+        private final LatencyRecorder documents = new LatencyRecorder();
+
+        HttpLoad(final Settings settings, final int proxyPort, final long measureFromNanos,
+                final long measureUntilNanos) {
+            this.settings = settings;
+            this.proxyPort = proxyPort;
+            this.measureFromNanos = measureFromNanos;
+            this.measureUntilNanos = measureUntilNanos;
+        }
+
+        @Override
+        public void run() {
+            BlockingHttpClient client = null;
+            long startNanos;
+            while ((startNanos = System.nanoTime()) - measureUntilNanos < 0) {
+                final boolean asset = ThreadLocalRandom.current().nextDouble() < settings.assetShare;
+                final LatencyRecorder recorder = asset ? assets : documents;
+                final boolean measured = startNanos - measureFromNanos >= 0;
+                try {
+                    if (client == null) {
+                        client = new BlockingHttpClient("localhost", proxyPort);
+                    }
+                    client.get(asset ? "/jupyter/default/static/lab/main.js"
+                            : "/jupyter/default/api/contents/work?content=1");
+                    if (measured) {
+                        recorder.record(System.nanoTime() - startNanos);
+                    }
+                } catch (final IOException exception) {
+                    if (measured) {
+                        recorder.error();
+                    }
+                    client = closeQuietly(client);
+                }
+            }
+            closeQuietly(client);
+        }
+    }
+
+    /**
+     * WebSocket client executing cells on a kernel channel back to back, each
+     * one until the kernel reports it is idle again.
+     */
+    private static final class WebSocketLoad implements Runnable {
+
+        private final int proxyPort;
+        private final long measureFromNanos;
+        private final long measureUntilNanos;
+        private final LatencyRecorder executions = new LatencyRecorder();
+
+        WebSocketLoad(final int proxyPort, final long measureFromNanos, final long measureUntilNanos) {
+            this.proxyPort = proxyPort;
+            this.measureFromNanos = measureFromNanos;
+            this.measureUntilNanos = measureUntilNanos;
+        }
+
+        @Override
+        public void run() {
+            BlockingWebSocketClient client = null;
+            long startNanos;
+            for (int execution = 0; (startNanos = System.nanoTime()) - measureUntilNanos < 0; execution++) {
+                final boolean measured = startNanos - measureFromNanos >= 0;
+                try {
+                    if (client == null) {
+                        client = new BlockingWebSocketClient("localhost", proxyPort, "/jupyter/default/api/kernels/"
+                                + UUID.randomUUID() + "/channels?session_id=" + UUID.randomUUID());
+                    }
+                    client.sendText(String.format(EXECUTE_REQUEST, execution));
+                    while (!client.readText().contains(JupyterStandInBackend.IDLE_STATUS)) {
+                        // Output of the cell
+                    }
+                    if (measured) {
+                        executions.record(System.nanoTime() - startNanos);
+                    }
+                } catch (final IOException exception) {
+                    if (measured) {
+                        executions.error();
+                    }
+                    client = closeQuietly(client);
+                }
+            }
+            closeQuietly(client);
+        }
+    }
+
+    private static <T extends AutoCloseable> T closeQuietly(final T closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (final Exception exception) {
+                // Replaced by a new connection anyway
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bytes allocated and garbage collections during the measurement.
+     */
+    private static final class ResourceUsage {
+
+        private final com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private final Map<Long, Long> proxyThreadBytes = proxyThreadAllocatedBytes();
+        private final long startTotalBytes = totalAllocatedBytes();
+        private final long startCollections = collections();
+        private final long startCollectionMillis = collectionMillis();
+        private long proxyBytes;
+        private long totalBytes;
+        private long gcCollections;
+        private long gcMillis;
+
+        void stop() {
+            for (Map.Entry<Long, Long> thread : proxyThreadAllocatedBytes().entrySet()) {
+                // Threads started during the measurement allocated all of their bytes in it
+                proxyBytes += thread.getValue() - proxyThreadBytes.getOrDefault(thread.getKey(), 0L);
+            }
+            totalBytes = totalAllocatedBytes() - startTotalBytes;
+            gcCollections = collections() - startCollections;
+            gcMillis = collectionMillis() - startCollectionMillis;
+        }
+
+        private Map<Long, Long> proxyThreadAllocatedBytes() {
+            final Map<Long, Long> allocatedBytes = new HashMap<>();
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith(PROXY_THREAD_PREFIX)) {
+                    allocatedBytes.put(thread.getId(), threadMXBean.getThreadAllocatedBytes(thread.getId()));
+                }
+            }
+            return allocatedBytes;
+        }
+
+        private long totalAllocatedBytes() {
+            long allocatedBytes = 0;
+            for (long bytes : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+                allocatedBytes += Math.max(bytes, 0);
+            }
+            return allocatedBytes;
+        }
+
+        private static long collections() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+        }
+
+        private static long collectionMillis() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+        }
+    }
+
+    /**
+     * Results of a run, as a table for people and key=value lines for scripts.
+     */
+    private static final class Report {
+
+        private final int durationSeconds;
+        private final List<String> table = new ArrayList<>();
+        private final List<String> lines = new ArrayList<>();
+        private long operations;
+
+        Report(final int durationSeconds) {
+            this.durationSeconds = durationSeconds;
+        }
+
+        void traffic(final String name, final LatencyRecorder latencies) {
+            operations += latencies.getCount();
+            final double perSecond = (double) latencies.getCount() / durationSeconds;
+            table.add(String.format(Locale.ROOT, "%-20s %10d %12.1f %9.3f %9.3f %9.3f %8d", name,
+                    latencies.getCount(), perSecond, millis(latencies, 50), millis(latencies, 99),
+                    millis(latencies, 99.9), latencies.getErrors()));
+            lines.add(name + ".count=" + latencies.getCount());
+            lines.add(name + ".per_second=" + String.format(Locale.ROOT, "%.1f", perSecond));
+            lines.add(name + ".p50_ms=" + String.format(Locale.ROOT, "%.3f", millis(latencies, 50)));
+            lines.add(name + ".p99_ms=" + String.format(Locale.ROOT, "%.3f", millis(latencies, 99)));
+            lines.add(name + ".p999_ms=" + String.format(Locale.ROOT, "%.3f", millis(latencies, 99.9)));
+            lines.add(name + ".errors=" + latencies.getErrors());
+        }
+
+        void usage(final ResourceUsage usage) {
+            lines.add("proxy.allocated_mb_per_second="
+                    + String.format(Locale.ROOT, "%.1f", usage.proxyBytes / 1e6 / durationSeconds));
+            lines.add("proxy.allocated_bytes_per_operation=" + usage.proxyBytes / Math.max(operations, 1));
+            lines.add("jvm.allocated_mb_per_second="
+                    + String.format(Locale.ROOT, "%.1f", usage.totalBytes / 1e6 / durationSeconds));
+            lines.add("jvm.gc_collections=" + usage.gcCollections);
+            lines.add("jvm.gc_millis=" + usage.gcMillis);
+        }
+
+        void print(final PrintStream out, final Settings settings) {
+            out.printf(Locale.ROOT, "%d s after %d s of warmup: %d HTTP clients (%.0f%% assets of %d bytes, "
+                    + "JSON of %d bytes), %d WebSocket clients (%d messages of %d bytes per execution)%n",
+                    settings.durationSeconds, settings.warmupSeconds, settings.httpClients,
+                    settings.assetShare * 100, settings.assetBytes, settings.jsonBytes, settings.webSocketClients,
+                    settings.messagesPerExecution, settings.messageBytes);
+            out.printf("%-20s %10s %12s %9s %9s %9s %8s%n", "traffic", "count", "per second", "p50 ms", "p99 ms",
+                    "p99.9 ms", "errors");
+            table.forEach(out::println);
+            // Resource usage does not go in the table
+            lines.stream().filter(line -> line.startsWith("proxy.") || line.startsWith("jvm."))
+                    .forEach(out::println);
+        }
+
+        private static double millis(final LatencyRecorder latencies, final double percentile) {
+            return latencies.getPercentileNanos(percentile) / 1e6;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.jpmc.sagemaker.studio.benchmarks;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+import com.jpmc.sagemaker.studio.routing.RouteTable;
+import com.jpmc.sagemaker.studio.routing.Router;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of routing one request by path prefix or by cookie, for route tables of
+ * different sizes. Lookups cycle through pre-built requests for random users.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.properties")
+@State(Scope.Thread)
+public class RouteLookupBenchmark {
+
+    private static final int REQUESTS = 1024;
+
+    @Param({ "10", "1000", "100000" })
+    public int routes;
+
+    private Router router;
+    private HttpRequest[] pathRequests;
+    private HttpRequest[] cookieRequests;
+    private int next;
+
+    @Setup
+    public void buildRouteTable() {
+        final RouteTable.Builder routeTable = RouteTable.builder()
+                .defaultRoute(Route.builder().host("default.studio.local").port(443).tls(true).build());
+        for (int user = 0; user < routes; user++) {
+            final Route route = Route.builder().host("d-" + user + ".studio.local").port(443).tls(true).build();
+            routeTable.pathPrefix("/jupyter/user-" + user + "/", route);
+            routeTable.cookie("studio_user", "user-" + user, route);
+        }
+        router = new Router(routeTable.build());
+
+        final Random random = new Random(42);
+        pathRequests = new HttpRequest[REQUESTS];
+        cookieRequests = new HttpRequest[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            final int user = random.nextInt(routes);
+            pathRequests[i] = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/jupyter/user-" + user
+                    + "/api/kernels/0f3a9c6e-5b1d-4c1e-9a52-3c2b7c1d9e10/channels?session_id=1b2c3d4e");
+            cookieRequests[i] = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                    "/jupyter/default/api/contents");
+            cookieRequests[i].headers().set(HttpHeaderNames.COOKIE,
+                    "_xsrf=2|1f2e3d4c|5a6b7c8d; studio_user=user-" + user + "; theme=dark");
+        }
+    }
+
+    @Benchmark
+    public Route pathPrefix() {
+        return router.route(pathRequests[next++ & (REQUESTS - 1)]);
+    }
+
+    @Benchmark
+    public Route cookie() {
+        return router.route(cookieRequests[next++ & (REQUESTS - 1)]);
+    }
+}
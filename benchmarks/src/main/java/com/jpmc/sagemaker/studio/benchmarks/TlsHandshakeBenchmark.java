@@ -0,0 +1,124 @@
+package com.jpmc.sagemaker.studio.benchmarks;
+
+import com.jpmc.sagemaker.studio.tls.FrontendTls;
+import com.jpmc.sagemaker.studio.tls.FrontendTlsConfig;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Browser TLS handshakes per second terminated by {@link FrontendTls}, with the
+ * JDK provider against OpenSSL (netty-tcnative). Each handshake runs between
+ * two EmbeddedChannels on the benchmark thread, so the score is the CPU cost of
+ * both ends without the network. The Browser end is always the JDK provider,
+ * its share of the cost is the same for both servers.
+ *
+ * <p>
+ * With resumption, every Browser handshake offers the session of the previous
+ * one: a session id from the server's cache for TLSv1.2, or the session
+ * ticket for TLSv1.3, which the OpenSSL server decrypts with its ticket key.
+ * A resumed TLSv1.3 handshake skips the certificate but still runs an ECDHE
+ * exchange, so it saves much less than a resumed TLSv1.2 one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.properties")
+@State(Scope.Thread)
+public class TlsHandshakeBenchmark {
+
+    private static final String HOST = "localhost";
+    private static final int PORT = 8081;
+
+    @Param({ "JDK", "OPENSSL" })
+    public SslProvider provider;
+
+    @Param({ "TLSv1.2", "TLSv1.3" })
+    public String protocol;
+
+    @Param({ "false", "true" })
+    public boolean resumption;
+
+    private SelfSignedCertificate certificate;
+    private FrontendTls frontendTls;
+    private SslContext clientSslContext;
+
+    @Setup
+    public void start() throws Exception {
+        certificate = new SelfSignedCertificate(HOST);
+        frontendTls = new FrontendTls(FrontendTlsConfig.builder().enabled(true)
+                .openSslPreferred(provider == SslProvider.OPENSSL)
+                .certificateChainFile(certificate.certificate().getPath())
+                .privateKeyFile(certificate.privateKey().getPath()).sessionCacheSize(1024)
+                .sessionTimeoutSeconds(3600).ticketKeyRotationMillis(3_600_000).build(), true);
+        frontendTls.load();
+        if (frontendTls.getProvider() != provider) {
+            throw new IllegalStateException("The " + provider + " provider is not available");
+        }
+        clientSslContext = SslContextBuilder.forClient().sslProvider(SslProvider.JDK).protocols(protocol)
+                .trustManager(InsecureTrustManagerFactory.INSTANCE).build();
+    }
+
+    @TearDown
+    public void stop() {
+        frontendTls.stop();
+        certificate.delete();
+    }
+
+    @Benchmark
+    public Object handshake() {
+        // Sessions are only looked up for handlers that name the peer
+        final SslHandler client = resumption ? clientSslContext.newHandler(ByteBufAllocator.DEFAULT, HOST, PORT)
+                : clientSslContext.newHandler(ByteBufAllocator.DEFAULT);
+        final EmbeddedChannel browser = new EmbeddedChannel(client);
+        final EmbeddedChannel proxy = new EmbeddedChannel(frontendTls.newHandler(ByteBufAllocator.DEFAULT));
+        try {
+            exchangeBytes(browser, proxy);
+            // The session tickets of TLSv1.3 follow the handshake, along with the first data
+            proxy.writeOutbound(Unpooled.wrappedBuffer(new byte[1]));
+            exchangeBytes(browser, proxy);
+            return client.handshakeFuture().syncUninterruptibly().getNow();
+        } finally {
+            browser.finishAndReleaseAll();
+            proxy.finishAndReleaseAll();
+        }
+    }
+
+    private static void exchangeBytes(final EmbeddedChannel browser, final EmbeddedChannel proxy) {
+        boolean moved;
+        do {
+            moved = false;
+            ByteBuf bytes;
+            while ((bytes = browser.readOutbound()) != null) {
+                moved |= bytes.isReadable();
+                proxy.writeInbound(bytes);
+            }
+            while ((bytes = proxy.readOutbound()) != null) {
+                moved |= bytes.isReadable();
+                browser.writeInbound(bytes);
+            }
+        } while (moved);
+    }
+}
@@ -0,0 +1,140 @@
+package com.jpmc.sagemaker.studio.benchmarks;
+
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPoolConfig;
+import com.jpmc.sagemaker.studio.backend.BackendSslContextConfig;
+import com.jpmc.sagemaker.studio.backend.BackendSslContextFactory;
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.backend.CircuitBreakerConfig;
+import com.jpmc.sagemaker.studio.benchmarks.support.BlockingHttpClient;
+import com.jpmc.sagemaker.studio.benchmarks.support.StandInBackend;
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimitConfig;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimiter;
+import com.jpmc.sagemaker.studio.reverseproxy.BackendHttpChannelInitializer;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudget;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudgetConfig;
+import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyConfig;
+import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyInitializer;
+import com.jpmc.sagemaker.studio.routing.Route;
+import com.jpmc.sagemaker.studio.routing.RouteTable;
+import com.jpmc.sagemaker.studio.routing.Router;
+import com.jpmc.sagemaker.studio.server.ServerTransport;
+import com.jpmc.sagemaker.studio.server.ServerTransportConfig;
+import com.jpmc.sagemaker.studio.server.TransportType;
+import com.jpmc.sagemaker.studio.tls.FrontendTls;
+import com.jpmc.sagemaker.studio.tls.FrontendTlsConfig;
+import io.netty.channel.Channel;
+import io.netty.handler.ssl.SslContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second through the proxy on the NIO and native transports, with
+ * keep-alive clients and a local stand-in backend.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.properties")
+@Threads(8)
+public class TransportThroughputBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Proxy {
+
+        @Param({ "NIO", "EPOLL" })
+        public TransportType transportType;
+
+        @Param({ "1024" })
+        public int responseBytes;
+
+        private StandInBackend backend;
+        private ServerTransport serverTransport;
+        private Channel proxyChannel;
+
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            if (!transportType.isAvailable()) {
+                throw new IllegalStateException(transportType + " transport is not available on this host");
+            }
+            backend = new StandInBackend(2, responseBytes);
+            final Router router = new Router(RouteTable.builder()
+                    .defaultRoute(Route.builder().host("localhost").port(backend.getPort()).tls(true).build())
+                    .build());
+
+            final ReverseProxyConfig reverseProxyConfig = ReverseProxyConfig.fromSystemProperties();
+            final ResponseCache responseCache = new ResponseCache(ResponseCacheConfig.fromSystemProperties());
+            final SslContext backendSslContext = BackendSslContextFactory
+                    .create(BackendSslContextConfig.fromSystemProperties());
+            serverTransport = new ServerTransport(ServerTransportConfig.builder()
+                    .nativeTransportPreferred(transportType == TransportType.EPOLL).acceptorThreads(2)
+                    .workerThreads(Runtime.getRuntime().availableProcessors()).build());
+            final MemoryBudget memoryBudget = new MemoryBudget(MemoryBudgetConfig.fromSystemProperties());
+            final ProxyMetrics proxyMetrics = new ProxyMetrics(serverTransport.getWorkerGroup(), responseCache,
+                    memoryBudget);
+            final BackendConnectionPool backendConnectionPool = new BackendConnectionPool(
+                    BackendConnectionPoolConfig.fromSystemProperties(), backendSslContext,
+                    new BackendHttpChannelInitializer(reverseProxyConfig, responseCache, proxyMetrics, memoryBudget));
+
+            proxyChannel = serverTransport.bind(0, new ReverseProxyInitializer(reverseProxyConfig,
+                    backendConnectionPool, backendSslContext, router, responseCache, proxyMetrics, memoryBudget,
+                    new RateLimiter(RateLimitConfig.fromSystemProperties()),
+                    new CircuitBreaker(CircuitBreakerConfig.fromSystemProperties(), backendSslContext,
+                            backendConnectionPool.getResolver(), proxyMetrics),
+                    new FrontendTls(FrontendTlsConfig.builder().build(), false)), 1)
+                    .get(0);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            proxyChannel.close();
+            serverTransport.shutdownGracefully();
+            backend.close();
+        }
+
+        int getPort() {
+            return ((InetSocketAddress) proxyChannel.localAddress()).getPort();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private BlockingHttpClient httpClient;
+
+        @Setup(Level.Trial)
+        public void connect(final Proxy proxy) throws IOException {
+            httpClient = new BlockingHttpClient("localhost", proxy.getPort());
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            httpClient.close();
+        }
+    }
+
+    @Benchmark
+    public int proxiedGet(final Client client) throws IOException {
+        return client.httpClient.get("/jupyter/default/api/contents");
+    }
+}
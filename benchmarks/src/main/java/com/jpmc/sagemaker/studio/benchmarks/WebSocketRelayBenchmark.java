@@ -0,0 +1,146 @@
+package com.jpmc.sagemaker.studio.benchmarks;
+
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.backend.CircuitBreakerConfig;
+import com.jpmc.sagemaker.studio.benchmarks.support.EmbeddedProxy;
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
+import com.jpmc.sagemaker.studio.metrics.FrontendMetricsHandler;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.metrics.RequestTiming;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudget;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudgetConfig;
+import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyConfig;
+import com.jpmc.sagemaker.studio.reverseproxy.WebSocketRequestConnectionHandler;
+import com.jpmc.sagemaker.studio.reverseproxy.WebSocketResponseConnectionHandler;
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.resolver.DefaultAddressResolverGroup;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relaying one WebSocket frame through the proxy's WS handlers in either
+ * direction once both handshakes are done, with the frame codecs in place or in
+ * tunnel mode. Run with -prof gc to see the bytes allocated per frame.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.properties")
+@State(Scope.Thread)
+public class WebSocketRelayBenchmark {
+
+    @Param({ "128", "16384" })
+    public int frameBytes;
+
+    @Param({ "false", "true" })
+    public boolean tunnel;
+
+    private EmbeddedChannel frontend;
+    private EmbeddedChannel backend;
+    private ByteBuf browserFrame;
+    private ByteBuf backendFrame;
+
+    @Setup
+    public void start() throws Exception {
+        final ReverseProxyConfig reverseProxyConfig = ReverseProxyConfig.fromSystemProperties().toBuilder()
+                .webSocketTunnelEnabled(tunnel).build();
+        final FullHttpRequest upgradeRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                "/jupyter/default/api/kernels/0f3a9c6e/channels?session_id=1b2c3d4e");
+        upgradeRequest.headers().set(HttpHeaderNames.HOST, "localhost:8080")
+                .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE)
+                .set(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET)
+                .set(HttpHeaderNames.SEC_WEBSOCKET_VERSION, "13")
+                .set(HttpHeaderNames.SEC_WEBSOCKET_KEY, "dGhlIHNhbXBsZSBub25jZQ==");
+
+        // Wired the way HttpRequestConnectionHandler and WebSocketRequestConnectionHandler
+        // do it, with the Backend WS channel handed in instead of connected
+        final Route route = Route.builder().host("localhost").port(8443).tls(false).build();
+        final String frontendWebsocketURL = "ws://localhost:8080" + upgradeRequest.uri();
+        final ProxyMetrics proxyMetrics = new ProxyMetrics(ImmediateEventExecutor.INSTANCE, new ResponseCache(
+                ResponseCacheConfig.builder().enabled(false).pathMarkers(Collections.emptyList()).build()),
+                new MemoryBudget(MemoryBudgetConfig.builder().enabled(false).build()));
+        final WebSocketRequestConnectionHandler requestHandler = new WebSocketRequestConnectionHandler(
+                upgradeRequest, frontendWebsocketURL, route, reverseProxyConfig, null, proxyMetrics,
+                DefaultAddressResolverGroup.INSTANCE, new CircuitBreaker(CircuitBreakerConfig.builder().build(), null,
+                        DefaultAddressResolverGroup.INSTANCE, proxyMetrics), RequestTiming.NONE);
+        frontend = new EmbeddedChannel(false, false, new HttpServerCodec(), new FrontendMetricsHandler(proxyMetrics),
+                requestHandler);
+        backend = new EmbeddedChannel(false, false, new HttpClientCodec(), new HttpObjectAggregator(1 << 16),
+                new WebSocketResponseConnectionHandler(frontend,
+                        WebSocketClientHandshakerFactory.newHandshaker(route.getWebSocketURI(upgradeRequest.uri()),
+                                WebSocketVersion.V13, null, true, upgradeRequest.headers(), 1 << 20),
+                        upgradeRequest, frontendWebsocketURL, reverseProxyConfig, RequestTiming.NONE));
+        requestHandler.setBackendWSChannel(backend);
+        frontend.register();
+        backend.register();
+
+        final EmbeddedChannel backendServer = new EmbeddedChannel(new HttpServerCodec(),
+                new HttpObjectAggregator(1 << 16), new WebSocketServerProtocolHandler("/jupyter", null, true, 1 << 20, false,
+                        true));
+        while (EmbeddedProxy.pump(backend, backendServer)) {
+            frontend.runPendingTasks();
+        }
+        backendServer.finishAndReleaseAll();
+        if (frontend.pipeline().get(HttpServerCodec.class) != null) {
+            throw new IllegalStateException("The WebSocket handshake did not complete");
+        }
+        EmbeddedProxy.drainOutbound(frontend);
+
+        final ByteBuf payload = Unpooled.buffer(frameBytes).writeZero(frameBytes);
+        browserFrame = Unpooled.unreleasableBuffer(EmbeddedProxy.encode(new WebSocket13FrameEncoder(true),
+                new BinaryWebSocketFrame(payload.retainedDuplicate())));
+        backendFrame = Unpooled.unreleasableBuffer(EmbeddedProxy.encode(new WebSocket13FrameEncoder(false),
+                new BinaryWebSocketFrame(payload)));
+    }
+
+    @TearDown
+    public void stop() {
+        frontend.finishAndReleaseAll();
+        backend.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public int browserToBackend() {
+        frontend.writeInbound(browserFrame.duplicate());
+        return EmbeddedProxy.drainOutbound(backend);
+    }
+
+    @Benchmark
+    public int backendToBrowser() {
+        backend.writeInbound(backendFrame.duplicate());
+        return EmbeddedProxy.drainOutbound(frontend);
+    }
+}
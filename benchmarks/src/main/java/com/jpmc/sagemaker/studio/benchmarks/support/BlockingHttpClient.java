@@ -0,0 +1,73 @@
+package com.jpmc.sagemaker.studio.benchmarks.support;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keep-alive HTTP/1.1 client over a plain socket. It only understands
+ * Content-Length framed responses, which is all the stand-in backend sends.
+ */
+public class BlockingHttpClient implements AutoCloseable {
+
+    private static final String CONTENT_LENGTH = "content-length:";
+
+    private final Socket socket;
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+    private final StringBuilder line = new StringBuilder();
+
+    public BlockingHttpClient(final String host, final int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        inputStream = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+        outputStream = socket.getOutputStream();
+    }
+
+    /**
+     * Sends a GET request and reads the whole response.
+     *
+     * @return the number of body bytes received.
+     */
+    public int get(final String uri) throws IOException {
+        outputStream.write(("GET " + uri + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        outputStream.flush();
+
+        int contentLength = 0;
+        for (String header = readLine(); !header.isEmpty(); header = readLine()) {
+            if (header.regionMatches(true, 0, CONTENT_LENGTH, 0, CONTENT_LENGTH.length())) {
+                contentLength = Integer.parseInt(header.substring(CONTENT_LENGTH.length()).trim());
+            }
+        }
+        for (long remaining = contentLength; remaining > 0;) {
+            final long skipped = inputStream.skip(remaining);
+            if (skipped <= 0) {
+                throw new EOFException("Connection closed with " + remaining + " body bytes left");
+            }
+            remaining -= skipped;
+        }
+        return contentLength;
+    }
+
+    private String readLine() throws IOException {
+        line.setLength(0);
+        for (int b = inputStream.read(); b != '\n'; b = inputStream.read()) {
+            if (b < 0) {
+                throw new EOFException("Connection closed while reading the response head");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
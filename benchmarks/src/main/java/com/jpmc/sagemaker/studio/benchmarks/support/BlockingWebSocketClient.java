@@ -0,0 +1,131 @@
+package com.jpmc.sagemaker.studio.benchmarks.support;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * WebSocket client over a plain socket, for one load generator thread. It
+ * offers no extensions, sends masked text frames and reads the unfragmented
+ * text frames the stand-in backend sends, relayed by the proxy.
+ */
+public class BlockingWebSocketClient implements AutoCloseable {
+
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+    private static final int FIN = 0x80;
+    private static final int MASKED = 0x80;
+
+    private final Socket socket;
+    private final DataInputStream inputStream;
+    private final OutputStream outputStream;
+    private byte[] payload = new byte[1024];
+
+    public BlockingWebSocketClient(final String host, final int port, final String uri) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        outputStream = socket.getOutputStream();
+
+        outputStream.write(("GET " + uri + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\nUpgrade: websocket\r\n"
+                + "Connection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        outputStream.flush();
+        final String statusLine = readLine();
+        if (!statusLine.startsWith("HTTP/1.1 101")) {
+            throw new IOException("WebSocket handshake failed: " + statusLine);
+        }
+        while (!readLine().isEmpty()) {
+            // Headers of the handshake response
+        }
+    }
+
+    public void sendText(final String text) throws IOException {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        writeFrame(OPCODE_TEXT, bytes, bytes.length);
+    }
+
+    /**
+     * Reads the next text frame, answering pings on the way.
+     *
+     * @return the text of the frame.
+     */
+    public String readText() throws IOException {
+        while (true) {
+            final int opcode = inputStream.readUnsignedByte() & 0x0F;
+            long length = inputStream.readUnsignedByte() & 0x7F;
+            if (length == 126) {
+                length = inputStream.readUnsignedShort();
+            } else if (length == 127) {
+                length = inputStream.readLong();
+            }
+            if (length > payload.length) {
+                payload = new byte[(int) length];
+            }
+            inputStream.readFully(payload, 0, (int) length);
+            if (opcode == OPCODE_TEXT) {
+                return new String(payload, 0, (int) length, StandardCharsets.UTF_8);
+            }
+            if (opcode == OPCODE_CLOSE) {
+                throw new EOFException("WebSocket closed by the server");
+            }
+            if (opcode == OPCODE_PING) {
+                writeFrame(OPCODE_PONG, payload, (int) length);
+            } else if (opcode != OPCODE_PONG) {
+                throw new IOException("Unexpected WebSocket frame, opcode " + opcode);
+            }
+        }
+    }
+
+    private void writeFrame(final int opcode, final byte[] bytes, final int bytesLength) throws IOException {
+        final byte[] frame = new byte[bytesLength + 14];
+        int length = 0;
+        frame[length++] = (byte) (FIN | opcode);
+        if (bytesLength < 126) {
+            frame[length++] = (byte) (MASKED | bytesLength);
+        } else if (bytesLength < 65536) {
+            frame[length++] = (byte) (MASKED | 126);
+            frame[length++] = (byte) (bytesLength >>> 8);
+            frame[length++] = (byte) bytesLength;
+        } else {
+            frame[length++] = (byte) (MASKED | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                frame[length++] = (byte) ((long) bytesLength >>> shift);
+            }
+        }
+        final int mask = ThreadLocalRandom.current().nextInt();
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            frame[length++] = (byte) (mask >>> shift);
+        }
+        for (int i = 0; i < bytesLength; i++) {
+            frame[length++] = (byte) (bytes[i] ^ (mask >>> (24 - 8 * (i & 3))));
+        }
+        outputStream.write(frame, 0, length);
+        outputStream.flush();
+    }
+
+    private String readLine() throws IOException {
+        final StringBuilder line = new StringBuilder();
+        for (int b = inputStream.read(); b != '\n'; b = inputStream.read()) {
+            if (b < 0) {
+                throw new EOFException("Connection closed during the WebSocket handshake");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
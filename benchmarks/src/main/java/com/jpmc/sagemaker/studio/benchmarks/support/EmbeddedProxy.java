@@ -0,0 +1,216 @@
+package com.jpmc.sagemaker.studio.benchmarks.support;
+
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPoolConfig;
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.backend.CircuitBreakerConfig;
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimitConfig;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimiter;
+import com.jpmc.sagemaker.studio.reverseproxy.BackendHttpChannelInitializer;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudget;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudgetConfig;
+import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyConfig;
+import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyInitializer;
+import com.jpmc.sagemaker.studio.routing.Route;
+import com.jpmc.sagemaker.studio.routing.RouteTable;
+import com.jpmc.sagemaker.studio.routing.Router;
+import com.jpmc.sagemaker.studio.tls.FrontendTls;
+import com.jpmc.sagemaker.studio.tls.FrontendTlsConfig;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.NoopAddressResolver;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Runs the proxy's real HTTP pipelines on EmbeddedChannels. The Browser
+ * connection and the pooled connections the proxy opens to a Backend Server
+ * share one EmbeddedEventLoop, and {@link #pump()} moves bytes between the proxy
+ * side of a Backend connection and a stand-in Backend Server channel. No sockets
+ * or threads are involved, so a benchmark measures the handlers alone.
+ */
+public final class EmbeddedProxy implements AutoCloseable {
+
+    private final Supplier<ChannelHandler[]> backendServerHandlers;
+    private final ProxyMetrics proxyMetrics;
+    private final ProxyChannel frontend;
+    // Proxy side of each Backend connection mapped to the stand-in Backend Server
+    private final Map<Channel, EmbeddedChannel> backendConnections = new LinkedHashMap<>();
+
+    /**
+     * @param backendServerHandlers builds the pipeline of the stand-in Backend
+     *                              Server for each connection the proxy opens.
+     */
+    public EmbeddedProxy(final ReverseProxyConfig reverseProxyConfig,
+            final Supplier<ChannelHandler[]> backendServerHandlers) throws Exception {
+        this.backendServerHandlers = backendServerHandlers;
+
+        final ResponseCache responseCache = new ResponseCache(ResponseCacheConfig.builder().enabled(false)
+                .pathMarkers(Collections.emptyList()).build());
+        final MemoryBudget memoryBudget = new MemoryBudget(MemoryBudgetConfig.builder().enabled(false).build());
+        proxyMetrics = new ProxyMetrics(ImmediateEventExecutor.INSTANCE, responseCache, memoryBudget);
+        final BackendConnectionPool backendConnectionPool = new BackendConnectionPool(
+                BackendConnectionPoolConfig.builder().maxConnectionsPerHost(1).maxPendingAcquires(16)
+                        .acquireTimeoutMillis(1000).maxIdleMillis(60_000).build(),
+                null, new RecordingInitializer(new BackendHttpChannelInitializer(reverseProxyConfig, responseCache,
+                        proxyMetrics, memoryBudget)),
+                new UnresolvedAddressResolverGroup());
+        final Router router = new Router(RouteTable.builder()
+                .defaultRoute(Route.builder().host("localhost").port(8443).tls(false).build()).build());
+
+        frontend = new ProxyChannel();
+        frontend.pipeline().addLast(new ReverseProxyInitializer(reverseProxyConfig, backendConnectionPool, null,
+                router, responseCache, proxyMetrics, memoryBudget,
+                new RateLimiter(RateLimitConfig.builder().enabled(false).build()),
+                new CircuitBreaker(CircuitBreakerConfig.builder().enabled(false).build(), null,
+                        backendConnectionPool.getResolver(), proxyMetrics),
+                new FrontendTls(FrontendTlsConfig.builder().build(), false)));
+        frontend.register();
+    }
+
+    public EmbeddedChannel getFrontend() {
+        return frontend;
+    }
+
+    public ProxyMetrics getProxyMetrics() {
+        return proxyMetrics;
+    }
+
+    /**
+     * Moves bytes between the proxy and the stand-in Backend Servers until
+     * neither side has anything left to send.
+     */
+    public void pump() {
+        boolean moved;
+        do {
+            frontend.runPendingTasks();
+            moved = false;
+            for (Map.Entry<Channel, EmbeddedChannel> connection : backendConnections.entrySet()) {
+                moved |= pump((EmbeddedChannel) connection.getKey(), connection.getValue());
+            }
+        } while (moved);
+    }
+
+    /**
+     * Moves the bytes both channels wrote to the other one, once.
+     *
+     * @return true if there were any.
+     */
+    public static boolean pump(final EmbeddedChannel client, final EmbeddedChannel server) {
+        boolean moved = false;
+        Object message;
+        while ((message = client.readOutbound()) != null) {
+            server.writeInbound(message);
+            moved = true;
+        }
+        while ((message = server.readOutbound()) != null) {
+            client.writeInbound(message);
+            moved = true;
+        }
+        return moved;
+    }
+
+    /**
+     * Releases everything the channel wrote.
+     *
+     * @return the number of bytes written.
+     */
+    public static int drainOutbound(final EmbeddedChannel channel) {
+        int bytes = 0;
+        Object message;
+        while ((message = channel.readOutbound()) != null) {
+            if (message instanceof ByteBuf) {
+                bytes += ((ByteBuf) message).readableBytes();
+            }
+            ReferenceCountUtil.release(message);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the bytes written by a single handler, copied into one buffer.
+     */
+    public static ByteBuf encode(final ChannelHandler encoder, final Object message) {
+        final EmbeddedChannel channel = new EmbeddedChannel(encoder);
+        channel.writeOutbound(message);
+        final ByteBuf bytes = Unpooled.buffer();
+        ByteBuf part;
+        while ((part = channel.readOutbound()) != null) {
+            bytes.writeBytes(part);
+            part.release();
+        }
+        channel.finishAndReleaseAll();
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        for (Map.Entry<Channel, EmbeddedChannel> connection : backendConnections.entrySet()) {
+            ((EmbeddedChannel) connection.getKey()).finishAndReleaseAll();
+            connection.getValue().finishAndReleaseAll();
+        }
+        frontend.finishAndReleaseAll();
+    }
+
+    /**
+     * EmbeddedChannel that is not registered on construction, so the proxy can
+     * open more of them with a Bootstrap on the Browser channel's event loop.
+     */
+    public static final class ProxyChannel extends EmbeddedChannel {
+
+        public ProxyChannel() {
+            super(DefaultChannelId.newInstance(), false, false);
+        }
+    }
+
+    /**
+     * Bootstrap asks the event loop for its termination future to cache a
+     * resolver per loop, which an EmbeddedEventLoop does not have. Addresses are
+     * never looked at by an EmbeddedChannel anyway.
+     */
+    private static final class UnresolvedAddressResolverGroup extends AddressResolverGroup<SocketAddress> {
+
+        @Override
+        public AddressResolver<SocketAddress> getResolver(final EventExecutor executor) {
+            return newResolver(executor);
+        }
+
+        @Override
+        protected AddressResolver<SocketAddress> newResolver(final EventExecutor executor) {
+            return new NoopAddressResolver(executor);
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private final class RecordingInitializer extends ChannelInitializer<Channel> {
+
+        private final ChannelHandler backendInitializer;
+
+        RecordingInitializer(final ChannelHandler backendInitializer) {
+            this.backendInitializer = backendInitializer;
+        }
+
+        @Override
+        protected void initChannel(final Channel channel) {
+            backendConnections.put(channel, new EmbeddedChannel(backendServerHandlers.get()));
+            channel.pipeline().addLast(backendInitializer);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.jpmc.sagemaker.studio.benchmarks.support;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.CharsetUtil;
+
+import java.net.InetSocketAddress;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTPS server on localhost that answers like a Jupyter Server, for driving the
+ * proxy without a SageMaker Studio domain. Paths under /static/ are answered
+ * with an asset, other paths with a JSON document, each of a configured size.
+ * A kernel channel, /api/kernels/{id}/channels, is a WebSocket that answers
+ * every execute request with a stream of kernel messages ending in an idle
+ * status, like a cell printing its output.
+ */
+public class JupyterStandInBackend implements AutoCloseable {
+
+    public static final String STATIC_PATH = "/static/";
+    public static final String IDLE_STATUS = "\"execution_state\": \"idle\"";
+
+    private static final Pattern KERNEL_CHANNELS = Pattern.compile(".*/api/kernels/[^/]+/channels");
+    private static final Pattern MESSAGE_ID = Pattern.compile("\"msg_id\"\\s*:\\s*\"([^\"]*)\"");
+
+    private final EventLoopGroup eventLoopGroup;
+    private final Channel channel;
+
+    /**
+     * @param messagesPerExecution kernel messages sent for each execute request,
+     *                             including the busy and idle status messages.
+     */
+    public JupyterStandInBackend(final int threads, final int assetBytes, final int jsonBytes,
+            final int messagesPerExecution, final int messageBytes) throws Exception {
+        final SelfSignedCertificate certificate = new SelfSignedCertificate();
+        final SslContext sslContext = SslContextBuilder.forServer(certificate.certificate(), certificate.privateKey())
+                .build();
+        final ByteBuf asset = Unpooled.unreleasableBuffer(Unpooled.directBuffer(assetBytes).writeZero(assetBytes));
+        final ByteBuf json = Unpooled.unreleasableBuffer(Unpooled.directBuffer(jsonBytes)
+                .writeBytes(padded("{\"type\": \"directory\", \"content\": [", "]}", jsonBytes)));
+        final HttpHandler httpHandler = new HttpHandler(asset, json);
+        final KernelHandler kernelHandler = new KernelHandler(messagesPerExecution, messageBytes);
+
+        eventLoopGroup = new NioEventLoopGroup(threads);
+        channel = new ServerBootstrap().group(eventLoopGroup).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(final SocketChannel socketChannel) {
+                        socketChannel.pipeline().addLast(sslContext.newHandler(socketChannel.alloc()));
+                        socketChannel.pipeline().addLast(new HttpServerCodec());
+                        socketChannel.pipeline().addLast(new HttpObjectAggregator(1024 * 1024));
+                        socketChannel.pipeline().addLast(httpHandler);
+                        socketChannel.pipeline().addLast(kernelHandler);
+                    }
+                }).bind("localhost", 0).sync().channel();
+    }
+
+    public int getPort() {
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    @Override
+    public void close() {
+        channel.close();
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    /**
+     * @return the prefix and suffix with blanks in between, so the result is
+     *         the given number of bytes long, or just long enough to hold both.
+     */
+    static byte[] padded(final String prefix, final String suffix, final int bytes) {
+        final StringBuilder builder = new StringBuilder(Math.max(bytes, prefix.length() + suffix.length()))
+                .append(prefix);
+        while (builder.length() < bytes - suffix.length()) {
+            builder.append(' ');
+        }
+        return builder.append(suffix).toString().getBytes(CharsetUtil.UTF_8);
+    }
+
+    @ChannelHandler.Sharable
+    private static class HttpHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        private final ByteBuf asset;
+        private final ByteBuf json;
+
+        HttpHandler(final ByteBuf asset, final ByteBuf json) {
+            this.asset = asset;
+            this.json = json;
+        }
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext channelHandlerContext, final FullHttpRequest request) {
+            if (KERNEL_CHANNELS.matcher(new QueryStringDecoder(request.uri()).path()).matches()) {
+                final WebSocketServerHandshaker handshaker = new WebSocketServerHandshakerFactory(
+                        "wss://localhost" + request.uri(), null, false).newHandshaker(request);
+                if (handshaker == null) {
+                    WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(channelHandlerContext.channel());
+                } else {
+                    handshaker.handshake(channelHandlerContext.channel(), request);
+                }
+                return;
+            }
+            final boolean isAsset = request.uri().contains(STATIC_PATH);
+            final ByteBuf body = (isAsset ? asset : json).duplicate();
+            final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    body);
+            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes())
+                    .set(HttpHeaderNames.CONTENT_TYPE, isAsset ? "application/javascript"
+                            : HttpHeaderValues.APPLICATION_JSON);
+            channelHandlerContext.writeAndFlush(response);
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static class KernelHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+
+        private final int messagesPerExecution;
+        private final int messageBytes;
+
+        KernelHandler(final int messagesPerExecution, final int messageBytes) {
+            this.messagesPerExecution = messagesPerExecution;
+            this.messageBytes = messageBytes;
+        }
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext channelHandlerContext, final WebSocketFrame frame) {
+            if (frame instanceof CloseWebSocketFrame) {
+                channelHandlerContext.writeAndFlush(frame.retainedDuplicate()).addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+            if (frame instanceof PingWebSocketFrame) {
+                channelHandlerContext.writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
+                return;
+            }
+            if (!(frame instanceof TextWebSocketFrame)) {
+                return;
+            }
+            final Matcher matcher = MESSAGE_ID.matcher(((TextWebSocketFrame) frame).text());
+            final String parentId = matcher.find() ? matcher.group(1) : "";
+            final int outputs = Math.max(0, messagesPerExecution - 2);
+            channelHandlerContext.write(message(parentId, "status", "\"execution_state\": \"busy\""));
+            for (int i = 0; i < outputs; i++) {
+                channelHandlerContext.write(message(parentId, "stream", "\"name\": \"stdout\", \"text\": \""));
+            }
+            channelHandlerContext.writeAndFlush(message(parentId, "status", IDLE_STATUS));
+        }
+
+        private TextWebSocketFrame message(final String parentId, final String type, final String content) {
+            final String prefix = "{\"channel\": \"iopub\", \"header\": {\"msg_type\": \"" + type
+                    + "\"}, \"parent_header\": {\"msg_id\": \"" + parentId + "\"}, \"content\": {" + content;
+            final String suffix = content.endsWith("\"") ? "\"}}" : "}}";
+            return new TextWebSocketFrame(Unpooled.wrappedBuffer(padded(prefix, suffix, messageBytes)));
+        }
+    }
+}
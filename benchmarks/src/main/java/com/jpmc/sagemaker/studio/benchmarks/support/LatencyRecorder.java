@@ -0,0 +1,62 @@
+package com.jpmc.sagemaker.studio.benchmarks.support;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Every latency one load generator thread measured, kept as is so percentiles
+ * are exact rather than bucketed. Not thread safe; recorders of several
+ * threads are merged once they stopped.
+ */
+public final class LatencyRecorder {
+
+    private long[] nanos = new long[4096];
+    private int count;
+    private int errors;
+
+    public void record(final long durationNanos) {
+        if (count == nanos.length) {
+            nanos = Arrays.copyOf(nanos, count * 2);
+        }
+        nanos[count++] = durationNanos;
+    }
+
+    public void error() {
+        errors++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the latencies of all recorders, sorted.
+     */
+    public static LatencyRecorder merge(final Collection<LatencyRecorder> recorders) {
+        final LatencyRecorder merged = new LatencyRecorder();
+        merged.nanos = new long[Math.max(1, recorders.stream().mapToInt(LatencyRecorder::getCount).sum())];
+        for (LatencyRecorder recorder : recorders) {
+            System.arraycopy(recorder.nanos, 0, merged.nanos, merged.count, recorder.count);
+            merged.count += recorder.count;
+            merged.errors += recorder.errors;
+        }
+        Arrays.sort(merged.nanos, 0, merged.count);
+        return merged;
+    }
+
+    /**
+     * @param percentile between 0 and 100, of a merged recorder.
+     * @return the latency at the percentile, 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(final double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        final int rank = (int) Math.ceil(percentile / 100 * count);
+        return nanos[Math.min(count, Math.max(rank, 1)) - 1];
+    }
+}
@@ -0,0 +1,102 @@
+package com.jpmc.sagemaker.studio.benchmarks.support;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal HTTPS server on localhost standing in for the Jupyter Server behind
+ * the proxy. Every request is answered with a fixed size body, optionally after
+ * a delay.
+ */
+public class StandInBackend implements AutoCloseable {
+
+    private final EventLoopGroup eventLoopGroup;
+    private final Channel channel;
+
+    public StandInBackend(final int threads, final int responseBytes) throws Exception {
+        this(threads, responseBytes, 0);
+    }
+
+    /**
+     * @param responseDelayMillis how long the server takes to answer, like a
+     *                            Jupyter Server listing a directory.
+     */
+    public StandInBackend(final int threads, final int responseBytes, final long responseDelayMillis)
+            throws Exception {
+        final SelfSignedCertificate certificate = new SelfSignedCertificate();
+        final SslContext sslContext = SslContextBuilder.forServer(certificate.certificate(), certificate.privateKey())
+                .build();
+        final ByteBuf body = Unpooled.unreleasableBuffer(Unpooled.directBuffer(responseBytes).writeZero(responseBytes));
+
+        eventLoopGroup = new NioEventLoopGroup(threads);
+        channel = new ServerBootstrap().group(eventLoopGroup).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(final SocketChannel socketChannel) {
+                        socketChannel.pipeline().addLast(sslContext.newHandler(socketChannel.alloc()));
+                        socketChannel.pipeline().addLast(new HttpServerCodec());
+                        socketChannel.pipeline().addLast(new HttpObjectAggregator(1024 * 1024));
+                        socketChannel.pipeline().addLast(new FixedResponseHandler(body, responseDelayMillis));
+                    }
+                }).bind("localhost", 0).sync().channel();
+    }
+
+    public int getPort() {
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    @Override
+    public void close() {
+        channel.close();
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    @ChannelHandler.Sharable
+    private static class FixedResponseHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        private final ByteBuf body;
+        private final long responseDelayMillis;
+
+        FixedResponseHandler(final ByteBuf body, final long responseDelayMillis) {
+            this.body = body;
+            this.responseDelayMillis = responseDelayMillis;
+        }
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext channelHandlerContext, final FullHttpRequest request) {
+            final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    body.duplicate());
+            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
+            if (responseDelayMillis > 0) {
+                channelHandlerContext.executor().schedule(() -> channelHandlerContext.writeAndFlush(response),
+                        responseDelayMillis, TimeUnit.MILLISECONDS);
+            } else {
+                channelHandlerContext.writeAndFlush(response);
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+# Install the proxy so the benchmark module can depend on it.
+mvn install -DskipTests
+
+# Build the self-contained JMH jar (benchmarks/target/benchmarks.jar).
+mvn -f benchmarks/pom.xml package
+
+# Run all benchmarks, or pass a regex to select some, e.g. TransportThroughputBenchmark.
+# Add -prof gc to report the bytes allocated per operation (gc.alloc.rate.norm).
+java -jar benchmarks/target/benchmarks.jar "$@"
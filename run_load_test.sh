@@ -0,0 +1,12 @@
+# Install the proxy so the benchmark module can depend on it.
+mvn install -DskipTests
+
+# Build the self-contained jar (benchmarks/target/benchmarks.jar).
+mvn -f benchmarks/pom.xml package
+
+# Run the end-to-end load test against a local Jupyter stand-in. Settings are system
+# properties, e.g. -Dloadtest.durationSeconds=60 -Dloadtest.httpClients=32, and the proxy
+# takes its usual reverseproxy.* properties. Add -Dloadtest.reportFile=load-test.properties
+# to keep the results for comparing releases.
+java -Dlog4j.configurationFile=log4j2-benchmarks.properties "$@" \
+    -cp benchmarks/target/benchmarks.jar com.jpmc.sagemaker.studio.benchmarks.LoadTest
@@ -28,6 +28,7 @@ public class StudioReverseProxyService {
         } finally {
             component.getHealthCheckServer().stopServer();
             component.getReverseProxyServer().stopServer();
+            component.getServerTransport().shutdownGracefully();
         }
     }
 
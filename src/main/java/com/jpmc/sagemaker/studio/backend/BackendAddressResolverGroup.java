@@ -0,0 +1,80 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.DefaultAddressResolverGroup;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.DnsServerAddressStreamProviders;
+import io.netty.resolver.dns.NoopDnsCache;
+import io.netty.resolver.dns.SequentialDnsServerAddressStreamProvider;
+import io.netty.util.concurrent.EventExecutor;
+import lombok.extern.log4j.Log4j2;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the host names of the Backend Servers without blocking the event
+ * loops. Each event loop gets its own DNS resolver, and the resolved addresses
+ * are cached across event loops for the TTL of their records, see
+ * {@link CachingDnsNameResolver}.
+ */
+@Log4j2
+public class BackendAddressResolverGroup extends AddressResolverGroup<InetSocketAddress> {
+
+    private final BackendDnsConfig config;
+    private final Class<? extends DatagramChannel> datagramChannelClass;
+    private final ConcurrentMap<String, ResolvedAddresses> cache = new ConcurrentHashMap<>();
+
+    /**
+     * @param datagramChannelClass UDP channel of the transport of the event loops
+     *                             that connect to the Backend Servers.
+     */
+    public BackendAddressResolverGroup(final BackendDnsConfig config,
+            final Class<? extends DatagramChannel> datagramChannelClass) {
+        this.config = config;
+        this.datagramChannelClass = datagramChannelClass;
+    }
+
+    /**
+     * @return the resolver group to connect to the Backend Servers with, the
+     *         blocking JDK resolver if asynchronous resolution is disabled.
+     */
+    public static AddressResolverGroup<?> create(final BackendDnsConfig config,
+            final Class<? extends DatagramChannel> datagramChannelClass) {
+        if (!config.isAsyncEnabled()) {
+            log.info("Resolving Backend host names with the JDK resolver.");
+            return DefaultAddressResolverGroup.INSTANCE;
+        }
+        return new BackendAddressResolverGroup(config, datagramChannelClass);
+    }
+
+    @Override
+    protected AddressResolver<InetSocketAddress> newResolver(final EventExecutor executor) {
+        final DnsNameResolverBuilder builder = new DnsNameResolverBuilder((EventLoop) executor)
+                .channelType(datagramChannelClass).resolvedAddressTypes(config.getResolvedAddressTypes())
+                .queryTimeoutMillis(config.getQueryTimeoutMillis())
+                // Addresses are cached by CachingDnsNameResolver, across event loops
+                .resolveCache(NoopDnsCache.INSTANCE)
+                .nameServerProvider(config.getNameServers().isEmpty()
+                        ? DnsServerAddressStreamProviders.platformDefault()
+                        : new SequentialDnsServerAddressStreamProvider(toAddresses(config.getNameServers())));
+        return new CachingDnsNameResolver(executor, builder.build(), cache, config).asAddressResolver();
+    }
+
+    private static InetSocketAddress[] toAddresses(final List<String> nameServers) {
+        final InetSocketAddress[] addresses = new InetSocketAddress[nameServers.size()];
+        for (int i = 0; i < addresses.length; i++) {
+            final String nameServer = nameServers.get(i).trim();
+            final int colon = nameServer.lastIndexOf(':');
+            addresses[i] = colon < 0 ? new InetSocketAddress(nameServer, 53)
+                    : new InetSocketAddress(nameServer.substring(0, colon),
+                            Integer.parseInt(nameServer.substring(colon + 1)));
+        }
+        return addresses;
+    }
+}
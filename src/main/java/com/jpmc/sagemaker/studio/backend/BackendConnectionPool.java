@@ -0,0 +1,321 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+import com.jpmc.sagemaker.studio.utils.NettyUtils;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.channel.pool.ChannelPoolHandler;
+import io.netty.channel.pool.ChannelPoolMap;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.DefaultAddressResolverGroup;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of keep-alive HTTP connections to the Backend Servers. Pools are kept per
+ * event loop and keyed by {@link Route}, so a pooled channel is only ever
+ * used by frontend channels of the event loop that created it and no locking is
+ * needed on the request path. When the SslContext offers h2, TLS routes whose
+ * Backend Server negotiates it lease a stream of a shared HTTP/2 connection
+ * instead, see {@link Http2BackendConnections}. Either way the leased channel
+ * carries one request at a time.
+ */
+@Log4j2
+public class BackendConnectionPool {
+
+    private static final AttributeKey<ChannelPool> POOL = AttributeKey.valueOf("backendConnectionPool");
+    private static final AttributeKey<Channel> FRONTEND_CHANNEL = AttributeKey.valueOf("backendFrontendChannel");
+    private static final AttributeKey<Long> RELEASED_AT_NANOS = AttributeKey.valueOf("backendReleasedAtNanos");
+    private static final AttributeKey<Route> ROUTE = AttributeKey.valueOf("backendRoute");
+    private static final AttributeKey<Boolean> PRECONNECTED = AttributeKey.valueOf("backendPreconnected");
+
+    private final BackendConnectionPoolConfig config;
+    private final ChannelHandler backendInitializer;
+    private final SslContext sslContext;
+    @Getter
+    private final AddressResolverGroup<?> resolver;
+    private final ConcurrentMap<EventLoop, EventLoopPools> poolsByEventLoop = new ConcurrentHashMap<>();
+    private final boolean http2Offered;
+
+    public BackendConnectionPool(final BackendConnectionPoolConfig config,
+            final SslContext sslContext, final ChannelHandler backendInitializer) {
+        this(config, sslContext, backendInitializer, DefaultAddressResolverGroup.INSTANCE);
+    }
+
+    /**
+     * @param resolver resolves the host names of the Backend Servers when a new
+     *                 connection is opened, see {@link BackendAddressResolverGroup}.
+     */
+    public BackendConnectionPool(final BackendConnectionPoolConfig config, final SslContext sslContext,
+            final ChannelHandler backendInitializer, final AddressResolverGroup<?> resolver) {
+        this.config = config;
+        this.sslContext = sslContext;
+        this.backendInitializer = backendInitializer;
+        this.resolver = resolver;
+        this.http2Offered = sslContext != null
+                && sslContext.applicationProtocolNegotiator().protocols().contains(ApplicationProtocolNames.HTTP_2);
+    }
+
+    /**
+     * Leases a connection to the backend of the route for the frontend channel,
+     * or a stream of an HTTP/2 connection. Must be called on the frontend
+     * channel's event loop, the returned future completes on it.
+     */
+    public Future<Channel> acquire(final Channel frontendChannel, final Route route) {
+        final EventLoopPools eventLoopPools = eventLoopPools(frontendChannel);
+        final Future<Channel> acquired = http2Offered && route.isTls()
+                ? eventLoopPools.http2Connections.computeIfAbsent(route,
+                        key -> new Http2BackendConnections(eventLoopPools.pools.get(key), backendInitializer, config))
+                        .acquire(frontendChannel.eventLoop())
+                : eventLoopPools.pools.get(route).acquire();
+        return acquired.addListener(future -> {
+            if (future.isSuccess()) {
+                ((Channel) future.getNow()).attr(FRONTEND_CHANNEL).set(frontendChannel);
+            }
+        });
+    }
+
+    /**
+     * Leases a connection to the backend of the route for a frontend channel
+     * that has not sent its request yet. Must be called on the frontend
+     * channel's event loop, and every preconnect must be ended with
+     * {@link #endPreconnect}.
+     *
+     * @return the leased connection, or null if preconnecting is disabled or the
+     *         event loop already has as many preconnects as it may have.
+     */
+    public Future<Channel> preconnect(final Channel frontendChannel, final Route route) {
+        if (!config.isPreconnectEnabled()) {
+            return null;
+        }
+        final EventLoopPools eventLoopPools = eventLoopPools(frontendChannel);
+        if (eventLoopPools.preconnects >= config.getMaxPreconnectsPerEventLoop()) {
+            log.debug("Not preconnecting to {}, {} preconnects on {} already.", route, eventLoopPools.preconnects,
+                    frontendChannel.eventLoop());
+            return null;
+        }
+        eventLoopPools.preconnects++;
+        return acquire(frontendChannel, route).addListener(future -> {
+            if (future.isSuccess()) {
+                ((Channel) future.getNow()).attr(PRECONNECTED).set(Boolean.TRUE);
+            }
+        });
+    }
+
+    /**
+     * Ends a preconnect of the frontend channel. A connection that is not used
+     * goes back to the pool once it is connected.
+     *
+     * @param use whether the frontend channel wants the connection for its
+     *            request.
+     * @return the connection to send the request on, or null if it is not to be
+     *         used or the Backend Server has closed it in the meantime.
+     */
+    public Future<Channel> endPreconnect(final Channel frontendChannel, final Future<Channel> preconnect,
+            final boolean use) {
+        eventLoopPools(frontendChannel).preconnects--;
+        if (use && !(preconnect.isSuccess() && !preconnect.getNow().isActive())) {
+            return preconnect.addListener(future -> {
+                if (future.isSuccess()) {
+                    ((Channel) future.getNow()).attr(PRECONNECTED).set(null);
+                }
+            });
+        }
+        preconnect.addListener((Future<Channel> future) -> {
+            if (future.isSuccess()) {
+                release(future.getNow(), true);
+            }
+        });
+        return null;
+    }
+
+    /**
+     * @return true if the backend channel is leased to a frontend channel that
+     *         has not sent a request on it yet.
+     */
+    public static boolean isPreconnected(final Channel backendChannel) {
+        return backendChannel.attr(PRECONNECTED).get() != null;
+    }
+
+    /**
+     * @return the frontend channel the backend channel is currently leased to, or
+     *         null while it is idle in the pool.
+     */
+    public static Channel getFrontendChannel(final Channel backendChannel) {
+        return backendChannel.attr(FRONTEND_CHANNEL).get();
+    }
+
+    /**
+     * @return the route the backend channel, or the connection of the stream,
+     *         connects to.
+     */
+    public static Route getRoute(final Channel backendChannel) {
+        return NettyUtils.connectionChannel(backendChannel).attr(ROUTE).get();
+    }
+
+    /**
+     * Returns a leased backend channel to its pool. Channels that are not reusable
+     * are closed first so the pool drops them instead of handing them out again.
+     * A stream of an HTTP/2 connection is closed, it only carries one request.
+     */
+    public static void release(final Channel backendChannel, final boolean reusable) {
+        if (backendChannel.attr(FRONTEND_CHANNEL).getAndSet(null) == null) {
+            return;
+        }
+        backendChannel.attr(PRECONNECTED).set(null);
+        if (backendChannel instanceof Http2StreamChannel) {
+            backendChannel.close();
+            return;
+        }
+        final ChannelPool pool = backendChannel.attr(POOL).get();
+        if (reusable) {
+            backendChannel.attr(RELEASED_AT_NANOS).set(System.nanoTime());
+            pool.release(backendChannel);
+        } else {
+            backendChannel.close().addListener(future -> pool.release(backendChannel));
+        }
+    }
+
+    /**
+     * @return true if the backend channel is currently leased to the given
+     *         frontend channel.
+     */
+    public static boolean isLeasedBy(final Channel backendChannel, final Channel frontendChannel) {
+        return backendChannel.attr(FRONTEND_CHANNEL).get() == frontendChannel;
+    }
+
+    /**
+     * Closes the backend channel if it is still serving the given frontend
+     * channel, e.g. because the browser went away in the middle of a response.
+     */
+    public static void closeIfLeasedBy(final Channel backendChannel, final Channel frontendChannel) {
+        if (isLeasedBy(backendChannel, frontendChannel)) {
+            backendChannel.close();
+        }
+    }
+
+    private EventLoopPools eventLoopPools(final Channel frontendChannel) {
+        return poolsByEventLoop.computeIfAbsent(frontendChannel.eventLoop(),
+                eventLoop -> new EventLoopPools(newPoolMap(frontendChannel)));
+    }
+
+    private ChannelPoolMap<Route, FixedChannelPool> newPoolMap(final Channel frontendChannel) {
+        final Bootstrap bootstrap = new Bootstrap().group(frontendChannel.eventLoop())
+                .channel(NettyUtils.connectionChannel(frontendChannel).getClass()).resolver(resolver)
+                .option(ChannelOption.AUTO_READ, false);
+
+        return new AbstractChannelPoolMap<Route, FixedChannelPool>() {
+            @Override
+            protected FixedChannelPool newPool(final Route route) {
+                log.debug("Creating a Backend connection pool for {} on {}.", route, frontendChannel.eventLoop());
+                final BackendChannelPoolHandler poolHandler = new BackendChannelPoolHandler(route);
+                final FixedChannelPool pool = new HappyEyeballsChannelPool(
+                        bootstrap.clone().remoteAddress(InetSocketAddress.createUnresolved(route.getHost(),
+                                route.getPort())),
+                        poolHandler, BackendConnectionPool.this::isHealthy, config.getAcquireTimeoutMillis(),
+                        config.getMaxConnectionsPerHost(), config.getMaxPendingAcquires());
+                poolHandler.pool = pool;
+                return pool;
+            }
+        };
+    }
+
+    private Future<Boolean> isHealthy(final Channel channel) {
+        final Long releasedAtNanos = channel.attr(RELEASED_AT_NANOS).get();
+        final boolean expired = releasedAtNanos != null
+                && System.nanoTime() - releasedAtNanos > TimeUnit.MILLISECONDS.toNanos(config.getMaxIdleMillis());
+        if (expired) {
+            log.debug("Closing Backend channel {} that was idle for too long.", channel);
+            channel.close();
+            return channel.eventLoop().newSucceededFuture(Boolean.FALSE);
+        }
+        return ChannelHealthChecker.ACTIVE.isHealthy(channel);
+    }
+
+    /**
+     * Connects new channels to every address of the host name of its route in
+     * turn, see {@link HappyEyeballsConnector}.
+     */
+    private static final class HappyEyeballsChannelPool extends FixedChannelPool {
+
+        HappyEyeballsChannelPool(final Bootstrap bootstrap, final ChannelPoolHandler handler,
+                final ChannelHealthChecker healthCheck, final long acquireTimeoutMillis, final int maxConnections,
+                final int maxPendingAcquires) {
+            super(bootstrap, handler, healthCheck, AcquireTimeoutAction.FAIL, acquireTimeoutMillis, maxConnections,
+                    maxPendingAcquires, true, true);
+        }
+
+        @Override
+        protected ChannelFuture connectChannel(final Bootstrap bootstrap) {
+            return HappyEyeballsConnector.connect(bootstrap, (InetSocketAddress) bootstrap.config().remoteAddress());
+        }
+    }
+
+    /**
+     * Pools of one event loop, only used from that event loop.
+     */
+    private static final class EventLoopPools {
+
+        private final ChannelPoolMap<Route, FixedChannelPool> pools;
+        // Of the TLS routes, when the SslContext offers h2
+        private final Map<Route, Http2BackendConnections> http2Connections = new HashMap<>();
+        // Connections currently leased ahead of a request
+        private int preconnects;
+
+        EventLoopPools(final ChannelPoolMap<Route, FixedChannelPool> pools) {
+            this.pools = pools;
+        }
+    }
+
+    private class BackendChannelPoolHandler extends AbstractChannelPoolHandler {
+
+        private final Route route;
+        private ChannelPool pool;
+
+        BackendChannelPoolHandler(final Route route) {
+            this.route = route;
+        }
+
+        @Override
+        public void channelCreated(final Channel channel) {
+            log.debug("Creating a BackendHTTP Channel to {}.", route);
+            channel.attr(POOL).set(pool);
+            channel.attr(ROUTE).set(route);
+            if (route.isTls()) {
+                channel.pipeline().addLast(sslContext.newHandler(channel.alloc(), route.getHost(), route.getPort()));
+            }
+            // Signals connections that sit unused in the pool so they can be closed
+            channel.pipeline().addLast(new IdleStateHandler(0, 0, config.getMaxIdleMillis(), TimeUnit.MILLISECONDS));
+            channel.pipeline().addLast(backendInitializer);
+        }
+
+        @Override
+        public void channelReleased(final Channel channel) {
+            // Keep a read pending while idle so a close from the Backend Server is noticed
+            // and the channel fails the health check on the next acquire.
+            channel.read();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Limits for the keep-alive connections kept to the Backend Server. Defaults can
+ * be overridden through JVM system properties on the start command.
+ */
+@Value
+@Builder
+public class BackendConnectionPoolConfig {
+
+    private static final String PROPERTY_PREFIX = "reverseproxy.backend.pool.";
+
+    /**
+     * Maximum number of connections (leased and idle) per host and port, per event
+     * loop.
+     */
+    int maxConnectionsPerHost;
+
+    /**
+     * Maximum number of acquires waiting for a connection once the per host limit
+     * is reached.
+     */
+    int maxPendingAcquires;
+
+    /**
+     * Time an acquire may wait for a free connection before failing.
+     */
+    long acquireTimeoutMillis;
+
+    /**
+     * Time an idle connection may stay in the pool before it is closed.
+     */
+    long maxIdleMillis;
+
+    /**
+     * Lease a connection to the default route as soon as a Browser connects, so
+     * the connect and TLS handshake overlap with the Browser sending its first
+     * request. The lease is returned to the pool if the request goes elsewhere.
+     */
+    boolean preconnectEnabled;
+
+    /**
+     * Maximum number of connections leased ahead of a request at once, per event
+     * loop. Browsers open connections they may never use, this keeps them from
+     * holding on to all pooled connections.
+     */
+    int maxPreconnectsPerEventLoop;
+
+    /**
+     * Maximum number of requests in flight on one HTTP/2 connection, lowered to
+     * what the Backend Server allows. Another connection is opened once every
+     * connection has as many, within maxConnectionsPerHost.
+     */
+    int http2MaxConcurrentStreams;
+
+    /**
+     * Flow control window of each stream of an HTTP/2 connection, the response
+     * bytes the Backend Server may send ahead of the Browser reading them.
+     */
+    int http2InitialWindowSizeBytes;
+
+    public static BackendConnectionPoolConfig fromSystemProperties() {
+        return BackendConnectionPoolConfig.builder()
+                .maxConnectionsPerHost(Integer.getInteger(PROPERTY_PREFIX + "maxConnectionsPerHost", 32))
+                .maxPendingAcquires(Integer.getInteger(PROPERTY_PREFIX + "maxPendingAcquires", 256))
+                .acquireTimeoutMillis(Long.getLong(PROPERTY_PREFIX + "acquireTimeoutMillis", 10_000L))
+                .maxIdleMillis(Long.getLong(PROPERTY_PREFIX + "maxIdleMillis", 60_000L))
+                .preconnectEnabled(Boolean.getBoolean(PROPERTY_PREFIX + "preconnectEnabled"))
+                .maxPreconnectsPerEventLoop(Integer.getInteger(PROPERTY_PREFIX + "maxPreconnectsPerEventLoop", 8))
+                .http2MaxConcurrentStreams(Integer.getInteger(PROPERTY_PREFIX + "http2MaxConcurrentStreams", 100))
+                .http2InitialWindowSizeBytes(
+                        Integer.getInteger(PROPERTY_PREFIX + "http2InitialWindowSizeBytes", 1024 * 1024))
+                .build();
+    }
+}
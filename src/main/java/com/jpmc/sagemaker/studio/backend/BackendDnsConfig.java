@@ -0,0 +1,76 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import io.netty.resolver.ResolvedAddressTypes;
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How the host names of the Backend Servers are resolved. Defaults can be
+ * overridden through JVM system properties on the start command.
+ */
+@Value
+@Builder
+public class BackendDnsConfig {
+
+    private static final String PROPERTY_PREFIX = "reverseproxy.backend.dns.";
+
+    /**
+     * Resolve asynchronously on the event loops. Otherwise the JDK resolver is
+     * used, which blocks the event loop for every new Backend connection.
+     */
+    boolean asyncEnabled;
+
+    /**
+     * Bounds for the TTL of the DNS records. Resolved addresses are cached for
+     * the record TTL within these bounds.
+     */
+    int minTtlSeconds;
+
+    int maxTtlSeconds;
+
+    /**
+     * Time a host name that does not exist is remembered for.
+     */
+    int negativeTtlSeconds;
+
+    /**
+     * Cached addresses are resolved again in the background when they are used
+     * within this share of their TTL before they expire, so names that are in use
+     * do not wait for a lookup when their records expire.
+     */
+    int refreshAheadPercent;
+
+    long queryTimeoutMillis;
+
+    /**
+     * Address families to resolve. The preferred family of a *_PREFERRED type is
+     * connected to first, then the addresses of the families are tried
+     * alternately, see {@link HappyEyeballsConnector}.
+     */
+    ResolvedAddressTypes resolvedAddressTypes;
+
+    /**
+     * DNS servers as host:port. The servers of /etc/resolv.conf are used when
+     * empty.
+     */
+    List<String> nameServers;
+
+    public static BackendDnsConfig fromSystemProperties() {
+        final String nameServers = System.getProperty(PROPERTY_PREFIX + "nameServers", "");
+        return BackendDnsConfig.builder()
+                .asyncEnabled(Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "asyncEnabled", "true")))
+                .minTtlSeconds(Integer.getInteger(PROPERTY_PREFIX + "minTtlSeconds", 1))
+                .maxTtlSeconds(Integer.getInteger(PROPERTY_PREFIX + "maxTtlSeconds", 300))
+                .negativeTtlSeconds(Integer.getInteger(PROPERTY_PREFIX + "negativeTtlSeconds", 5))
+                .refreshAheadPercent(Integer.getInteger(PROPERTY_PREFIX + "refreshAheadPercent", 20))
+                .queryTimeoutMillis(Long.getLong(PROPERTY_PREFIX + "queryTimeoutMillis", 2_000L))
+                .resolvedAddressTypes(ResolvedAddressTypes
+                        .valueOf(System.getProperty(PROPERTY_PREFIX + "resolvedAddressTypes", "IPV4_PREFERRED")))
+                .nameServers(nameServers.isEmpty() ? Collections.emptyList() : Arrays.asList(nameServers.split(",")))
+                .build();
+    }
+}
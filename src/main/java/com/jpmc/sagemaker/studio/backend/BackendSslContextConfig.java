@@ -0,0 +1,47 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * TLS settings for connections to the Backend Server. Defaults can be
+ * overridden through JVM system properties on the start command.
+ */
+@Value
+@Builder
+public class BackendSslContextConfig {
+
+    private static final String PROPERTY_PREFIX = "reverseproxy.backend.tls.";
+
+    /**
+     * Use the OpenSSL provider (netty-tcnative) when it is on the classpath.
+     */
+    boolean openSslPreferred;
+
+    /**
+     * Number of TLS sessions kept for resumption, keyed by peer host and port.
+     */
+    long sessionCacheSize;
+
+    /**
+     * Time a cached TLS session may be resumed for.
+     */
+    long sessionTimeoutSeconds;
+
+    /**
+     * Offer h2 through ALPN. Backend Servers that pick it get a few multiplexed
+     * HTTP/2 connections instead of one HTTP/1.1 connection per request in
+     * flight, others keep speaking HTTP/1.1.
+     */
+    boolean http2Enabled;
+
+    public static BackendSslContextConfig fromSystemProperties() {
+        return BackendSslContextConfig.builder()
+                .openSslPreferred(
+                        Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "openSslPreferred", "true")))
+                .sessionCacheSize(Long.getLong(PROPERTY_PREFIX + "sessionCacheSize", 1024L))
+                .sessionTimeoutSeconds(Long.getLong(PROPERTY_PREFIX + "sessionTimeoutSeconds", 3600L))
+                .http2Enabled(Boolean.getBoolean(PROPERTY_PREFIX + "http2Enabled"))
+                .build();
+    }
+}
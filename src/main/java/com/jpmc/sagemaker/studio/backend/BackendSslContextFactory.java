@@ -0,0 +1,50 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import lombok.extern.log4j.Log4j2;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * Builds the client SslContext shared by every connection to the Backend
+ * Server. The context owns the TLS session cache, so handlers must be created
+ * with {@link SslContext#newHandler(io.netty.buffer.ByteBufAllocator, String, int)}
+ * for repeat handshakes to the same host and port to be resumed.
+ */
+@Log4j2
+public class BackendSslContextFactory {
+
+    public static final String BACKEND_SSL_CONTEXT = "backendSslContext";
+
+    public static SslContext create(final BackendSslContextConfig config) throws SSLException {
+        final SslProvider provider = config.isOpenSslPreferred() && OpenSsl.isAvailable() ? SslProvider.OPENSSL
+                : SslProvider.JDK;
+        log.info("Building the Backend SSL Context with the {} provider.", provider);
+
+        // Required for HTTPS request
+        // TODO: Remove InsecureTrustManagerFactory once we have backend encryption
+        // enabled
+        final SslContextBuilder builder = SslContextBuilder.forClient().sslProvider(provider)
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .sessionCacheSize(config.getSessionCacheSize())
+                .sessionTimeout(config.getSessionTimeoutSeconds());
+        if (config.isHttp2Enabled()) {
+            // HTTP/2 forbids the weaker cipher suites, see BackendConnectionPool for what
+            // happens once h2 is negotiated
+            builder.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                    .applicationProtocolConfig(new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+                            ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                            ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                            ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,265 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.dns.DefaultDnsQuestion;
+import io.netty.handler.codec.dns.DnsRawRecord;
+import io.netty.handler.codec.dns.DnsRecord;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.resolver.InetNameResolver;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.util.NetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import lombok.extern.log4j.Log4j2;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves host names with the non-blocking {@link DnsNameResolver} of one
+ * event loop and keeps the addresses in a cache shared by all event loops for
+ * the TTL of their records. Addresses that are used shortly before they expire
+ * are resolved again in the background. With a *_PREFERRED address type both
+ * families are queried at once and their addresses are interleaved, preferred
+ * family first, for the {@link HappyEyeballsConnector} to try in turn. As in
+ * RFC 8305 the addresses are handed out as soon as the preferred family
+ * answers, or shortly after the other one did, and are cached again with both
+ * families once both have answered.
+ */
+@Log4j2
+class CachingDnsNameResolver extends InetNameResolver {
+
+    // Wait for the preferred family after the other one answered, the Resolution Delay of RFC 8305
+    private static final long RESOLUTION_DELAY_MILLIS = 50;
+
+    private final DnsNameResolver dnsNameResolver;
+    private final ConcurrentMap<String, ResolvedAddresses> cache;
+    private final BackendDnsConfig config;
+    // Queried in parallel, the addresses of the first one come first
+    private final DnsRecordType[] recordTypes;
+
+    CachingDnsNameResolver(final EventExecutor executor, final DnsNameResolver dnsNameResolver,
+            final ConcurrentMap<String, ResolvedAddresses> cache, final BackendDnsConfig config) {
+        super(executor);
+        this.dnsNameResolver = dnsNameResolver;
+        this.cache = cache;
+        this.config = config;
+        this.recordTypes = recordTypes(config);
+    }
+
+    @Override
+    protected void doResolve(final String inetHost, final Promise<InetAddress> promise) {
+        final Promise<List<InetAddress>> allPromise = executor().newPromise();
+        allPromise.addListener((Future<List<InetAddress>> future) -> {
+            if (future.isSuccess()) {
+                promise.trySuccess(future.getNow().get(0));
+            } else {
+                promise.tryFailure(future.cause());
+            }
+        });
+        doResolveAll(inetHost, allPromise);
+    }
+
+    @Override
+    protected void doResolveAll(final String inetHost, final Promise<List<InetAddress>> promise) {
+        final byte[] literal = NetUtil.createByteArrayFromIpAddressString(inetHost);
+        if (literal != null) {
+            try {
+                promise.trySuccess(Collections.singletonList(InetAddress.getByAddress(literal)));
+            } catch (final UnknownHostException exception) {
+                promise.tryFailure(exception);
+            }
+            return;
+        }
+        // Names in /etc/hosts, such as localhost, are not looked up in DNS
+        final InetAddress hostsFileAddress = dnsNameResolver.hostsFileEntriesResolver().address(inetHost,
+                config.getResolvedAddressTypes());
+        if (hostsFileAddress != null) {
+            promise.trySuccess(Collections.singletonList(hostsFileAddress));
+            return;
+        }
+
+        final long nowNanos = System.nanoTime();
+        final ResolvedAddresses cached = cache.get(inetHost);
+        if (cached != null && !cached.isExpired(nowNanos)) {
+            if (cached.startRefresh(nowNanos)) {
+                log.debug("Refreshing the addresses of {} ahead of their expiry.", inetHost);
+                lookup(inetHost).addListener((Future<ResolvedAddresses> future) -> {
+                    if (!future.isSuccess()) {
+                        log.warn("Refreshing the addresses of {} failed.", inetHost, future.cause());
+                        cached.refreshFailed();
+                    }
+                });
+            }
+            complete(cached, promise);
+            return;
+        }
+
+        lookup(inetHost).addListener((Future<ResolvedAddresses> future) -> {
+            if (future.isSuccess()) {
+                complete(future.getNow(), promise);
+            } else {
+                promise.tryFailure(future.cause());
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        dnsNameResolver.close();
+    }
+
+    private static void complete(final ResolvedAddresses resolved, final Promise<List<InetAddress>> promise) {
+        if (resolved.getAddresses() != null) {
+            promise.trySuccess(resolved.getAddresses());
+        } else {
+            promise.tryFailure(resolved.getFailure());
+        }
+    }
+
+    /**
+     * Queries all record types of the configured address types and caches the
+     * addresses. Completes with the addresses of the preferred family before the
+     * other query is answered, see {@link #answered}. Fails only when no query
+     * got an answer at all, a host name without records is cached as not found.
+     */
+    private Future<ResolvedAddresses> lookup(final String inetHost) {
+        final Promise<ResolvedAddresses> promise = executor().newPromise();
+        final List<List<InetAddress>> addressesByType = new ArrayList<>(recordTypes.length);
+        final long[] minTtlSeconds = { Long.MAX_VALUE };
+        final int[] outstanding = { recordTypes.length };
+        final Throwable[] lastFailure = new Throwable[1];
+
+        for (int i = 0; i < recordTypes.length; i++) {
+            addressesByType.add(Collections.emptyList());
+            final int typeIndex = i;
+            dnsNameResolver.resolveAll(new DefaultDnsQuestion(inetHost, recordTypes[i]))
+                    .addListener((Future<List<DnsRecord>> future) -> {
+                        // The DnsNameResolver completes its futures on this resolver's event loop
+                        if (future.isSuccess()) {
+                            addressesByType.set(typeIndex, toAddresses(inetHost, future.getNow(), minTtlSeconds));
+                        } else {
+                            lastFailure[0] = future.cause();
+                        }
+                        if (--outstanding[0] == 0) {
+                            final ResolvedAddresses resolved = toResolvedAddresses(inetHost, addressesByType,
+                                    minTtlSeconds[0], lastFailure[0]);
+                            if (resolved != null) {
+                                cache.put(inetHost, resolved);
+                                promise.trySuccess(resolved);
+                            } else {
+                                promise.tryFailure(lastFailure[0]);
+                            }
+                        } else if (!addressesByType.get(typeIndex).isEmpty()) {
+                            answered(inetHost, typeIndex, addressesByType, minTtlSeconds, promise);
+                        }
+                    });
+        }
+        return promise.addListener(future -> {
+            if (!future.isSuccess()) {
+                log.warn("Unable to resolve {}.", inetHost, future.cause());
+            }
+        });
+    }
+
+    /**
+     * Completes the lookup with the addresses of the family that answered while
+     * the other query is still outstanding: right away for the preferred
+     * family, after the resolution delay for the other one unless the preferred
+     * family answers meanwhile.
+     */
+    private void answered(final String inetHost, final int typeIndex, final List<List<InetAddress>> addressesByType,
+            final long[] minTtlSeconds, final Promise<ResolvedAddresses> promise) {
+        final Runnable complete = () -> {
+            if (!promise.isDone()) {
+                final ResolvedAddresses resolved = toResolvedAddresses(inetHost, addressesByType, minTtlSeconds[0],
+                        null);
+                cache.put(inetHost, resolved);
+                promise.trySuccess(resolved);
+            }
+        };
+        if (typeIndex == 0) {
+            complete.run();
+        } else {
+            executor().schedule(complete, RESOLUTION_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return null if no query got an answer.
+     */
+    private ResolvedAddresses toResolvedAddresses(final String inetHost,
+            final List<List<InetAddress>> addressesByType, final long minTtlSeconds, final Throwable lastFailure) {
+        final List<InetAddress> addresses = interleave(addressesByType);
+        final long nowNanos = System.nanoTime();
+        if (!addresses.isEmpty()) {
+            final long ttlSeconds = Math.max(config.getMinTtlSeconds(),
+                    Math.min(config.getMaxTtlSeconds(), minTtlSeconds));
+            log.debug("Resolved {} to {} for {}s.", inetHost, addresses, ttlSeconds);
+            return ResolvedAddresses.found(addresses, ttlSeconds, config.getRefreshAheadPercent(), nowNanos);
+        }
+        if (lastFailure != null && !(lastFailure instanceof UnknownHostException)) {
+            // A timeout or an unreachable DNS server says nothing about the host name
+            return null;
+        }
+        return ResolvedAddresses.notFound(new UnknownHostException("Failed to resolve '" + inetHost + "'"),
+                config.getNegativeTtlSeconds(), nowNanos);
+    }
+
+    private static List<InetAddress> toAddresses(final String inetHost, final List<DnsRecord> records,
+            final long[] minTtlSeconds) {
+        final List<InetAddress> addresses = new ArrayList<>(records.size());
+        try {
+            for (DnsRecord record : records) {
+                if (record instanceof DnsRawRecord && (record.type() == DnsRecordType.A
+                        || record.type() == DnsRecordType.AAAA)) {
+                    addresses.add(InetAddress.getByAddress(inetHost,
+                            ByteBufUtil.getBytes(((DnsRawRecord) record).content())));
+                    minTtlSeconds[0] = Math.min(minTtlSeconds[0], record.timeToLive());
+                }
+            }
+        } catch (final UnknownHostException exception) {
+            // Only thrown for addresses that are neither 4 nor 16 bytes long
+            log.warn("Ignoring a malformed address record of {}.", inetHost, exception);
+        } finally {
+            for (DnsRecord record : records) {
+                ReferenceCountUtil.release(record);
+            }
+        }
+        return addresses;
+    }
+
+    private static List<InetAddress> interleave(final List<List<InetAddress>> addressesByType) {
+        final int total = addressesByType.stream().mapToInt(List::size).sum();
+        final List<InetAddress> addresses = new ArrayList<>(total);
+        for (int i = 0; addresses.size() < total; i++) {
+            for (List<InetAddress> typeAddresses : addressesByType) {
+                if (i < typeAddresses.size()) {
+                    addresses.add(typeAddresses.get(i));
+                }
+            }
+        }
+        return addresses;
+    }
+
+    private static DnsRecordType[] recordTypes(final BackendDnsConfig config) {
+        switch (config.getResolvedAddressTypes()) {
+            case IPV4_ONLY:
+                return new DnsRecordType[] { DnsRecordType.A };
+            case IPV6_ONLY:
+                return new DnsRecordType[] { DnsRecordType.AAAA };
+            case IPV6_PREFERRED:
+                return new DnsRecordType[] { DnsRecordType.AAAA, DnsRecordType.A };
+            case IPV4_PREFERRED:
+            default:
+                return new DnsRecordType[] { DnsRecordType.A, DnsRecordType.AAAA };
+        }
+    }
+}
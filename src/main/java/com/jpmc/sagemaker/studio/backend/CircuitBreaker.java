@@ -0,0 +1,285 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.routing.BackendHealth;
+import com.jpmc.sagemaker.studio.routing.Route;
+import com.jpmc.sagemaker.studio.utils.NettyUtils;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.log4j.Log4j2;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passive outlier detection for the Backend Servers. The request path reports
+ * connect failures and responses, and the circuit to a Backend Server opens
+ * after too many connect failures in a row, or once too many of the responses
+ * of a window failed. While the circuit is open its requests are answered with
+ * a 503 right away and a {@link com.jpmc.sagemaker.studio.routing.BackendGroup}
+ * sends them to other members, instead of every Browser waiting for the
+ * connect and TLS timeouts of a Backend Server that is down.
+ *
+ * <p>
+ * An open circuit is probed off the request path, by a task scheduled on the
+ * event loop that opened it: a connection of its own that completes the TLS
+ * handshake and, with a probe path, gets a response that is not a 5xx. A
+ * successful probe closes the circuit, a failed one keeps it open twice as long
+ * as before. The state of each circuit is kept in the {@link BackendHealth} of
+ * its {@link Route}.
+ */
+@Log4j2
+public class CircuitBreaker {
+
+    private static final String PROBE_HANDLER = "probeResponseHandler";
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final CircuitBreakerConfig config;
+    private final SslContext sslContext;
+    private final AddressResolverGroup<?> resolver;
+    private final ProxyMetrics proxyMetrics;
+    private final long windowNanos;
+    private final long slowResponseNanos;
+    private final long openNanos;
+    private final long maxOpenNanos;
+
+    /**
+     * @param sslContext of the connections to the Backend Servers, to probe the
+     *                   TLS handshake.
+     * @param resolver   of the connections to the Backend Servers, see
+     *                   {@link BackendConnectionPool#getResolver()}.
+     */
+    public CircuitBreaker(final CircuitBreakerConfig config, final SslContext sslContext,
+            final AddressResolverGroup<?> resolver, final ProxyMetrics proxyMetrics) {
+        this.config = config;
+        this.sslContext = sslContext;
+        this.resolver = resolver;
+        this.proxyMetrics = proxyMetrics;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(config.getWindowMillis());
+        this.slowResponseNanos = TimeUnit.MILLISECONDS.toNanos(config.getSlowResponseMillis());
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(config.getOpenMillis());
+        this.maxOpenNanos = Math.max(openNanos, TimeUnit.MILLISECONDS.toNanos(config.getMaxOpenMillis()));
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * @return false if the circuit to the Backend Server of the route is open,
+     *         and the request has to be answered with a 503.
+     */
+    public boolean allowRequest(final Route route) {
+        if (!config.isEnabled() || route.getHealth().isClosed()) {
+            return true;
+        }
+        proxyMetrics.requestRejectedByCircuit();
+        return false;
+    }
+
+    /**
+     * @return the seconds until the Backend Server of an open circuit is probed
+     *         next, for the Retry-After of the 503.
+     */
+    public long getRetryAfterSeconds(final Route route) {
+        final long nanos = route.getHealth().getRetryAtNanos() - System.nanoTime();
+        // Rounded up, there is no point in coming back before the probe
+        return Math.max(1, (nanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND);
+    }
+
+    public void connected(final Route route) {
+        if (config.isEnabled()) {
+            route.getHealth().connected();
+        }
+    }
+
+    /**
+     * @param frontendChannel whose event loop probes the Backend Server if the
+     *                        circuit opens.
+     */
+    public void connectFailed(final Channel frontendChannel, final Route route) {
+        if (config.isEnabled()
+                && route.getHealth().connectFailed() >= config.getConsecutiveConnectFailures()) {
+            open(frontendChannel, route, "consecutive connect failures");
+        }
+    }
+
+    /**
+     * The headers of the final response arrived.
+     */
+    public void responseReceived(final Channel frontendChannel, final Route route,
+            final HttpResponseStatus status, final long latencyNanos) {
+        if (config.isEnabled()) {
+            recordResponse(frontendChannel, route, status.code() >= 500
+                    || slowResponseNanos > 0 && latencyNanos > slowResponseNanos);
+        }
+    }
+
+    /**
+     * The Backend Server closed the connection before the response arrived.
+     */
+    public void responseFailed(final Channel frontendChannel, final Route route) {
+        if (config.isEnabled()) {
+            recordResponse(frontendChannel, route, true);
+        }
+    }
+
+    private void recordResponse(final Channel frontendChannel, final Route route, final boolean failed) {
+        if (route.getHealth().recordResponse(failed, System.nanoTime(), windowNanos, config.getMinimumResponses(),
+                config.getFailureRatePercent())) {
+            open(frontendChannel, route, "failed responses");
+        }
+    }
+
+    private void open(final Channel frontendChannel, final Route route, final String reason) {
+        if (!route.getHealth().open(System.nanoTime(), openNanos)) {
+            return;
+        }
+        log.warn("Opening the circuit to {} after {}, probing it in {} ms.", route, reason, config.getOpenMillis());
+        proxyMetrics.circuitChanged(true);
+        scheduleProbe(frontendChannel.eventLoop(), NettyUtils.connectionChannel(frontendChannel).getClass(), route,
+                openNanos);
+    }
+
+    private void scheduleProbe(final EventLoop eventLoop, final Class<? extends Channel> channelClass,
+            final Route route, final long delayNanos) {
+        eventLoop.schedule(() -> probe(eventLoop, channelClass, route), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void probe(final EventLoop eventLoop, final Class<? extends Channel> channelClass, final Route route) {
+        if (!route.getHealth().startProbe()) {
+            return;
+        }
+        log.debug("Probing {}.", route);
+        final Promise<Boolean> healthy = eventLoop.newPromise();
+        final Bootstrap bootstrap = new Bootstrap().group(eventLoop).channel(channelClass).resolver(resolver)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) config.getProbeTimeoutMillis())
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(final Channel channel) {
+                        if (route.isTls()) {
+                            channel.pipeline().addLast(
+                                    sslContext.newHandler(channel.alloc(), route.getHost(), route.getPort()));
+                        }
+                        channel.pipeline().addLast(PROBE_HANDLER, new ProbeResponseHandler(healthy));
+                    }
+                });
+        final ChannelFuture connect = HappyEyeballsConnector.connect(bootstrap,
+                InetSocketAddress.createUnresolved(route.getHost(), route.getPort()));
+        connect.addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                healthy.trySuccess(Boolean.FALSE);
+                return;
+            }
+            final SslHandler sslHandler = future.channel().pipeline().get(SslHandler.class);
+            if (sslHandler == null) {
+                sendProbeRequest(future.channel(), route, healthy);
+                return;
+            }
+            sslHandler.handshakeFuture().addListener(handshake -> {
+                if (!handshake.isSuccess()) {
+                    healthy.trySuccess(Boolean.FALSE);
+                } else if (ApplicationProtocolNames.HTTP_2.equals(sslHandler.applicationProtocol())) {
+                    // Only the HTTP/1.1 probe request is spoken, the handshake has to do
+                    healthy.trySuccess(Boolean.TRUE);
+                } else {
+                    sendProbeRequest(future.channel(), route, healthy);
+                }
+            });
+        });
+        final ScheduledFuture<?> timeout = eventLoop.schedule(() -> healthy.trySuccess(Boolean.FALSE),
+                config.getProbeTimeoutMillis(), TimeUnit.MILLISECONDS);
+        healthy.addListener((Future<Boolean> future) -> {
+            timeout.cancel(false);
+            if (!connect.cancel(false)) {
+                connect.channel().close();
+            }
+            probed(eventLoop, channelClass, route, future.getNow());
+        });
+    }
+
+    private void sendProbeRequest(final Channel channel, final Route route, final Promise<Boolean> healthy) {
+        if (config.getProbePath() == null) {
+            healthy.trySuccess(Boolean.TRUE);
+            return;
+        }
+        channel.pipeline().addBefore(PROBE_HANDLER, null, new HttpClientCodec());
+        final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                config.getProbePath(), Unpooled.EMPTY_BUFFER);
+        request.headers().set(HttpHeaderNames.HOST, route.getHost());
+        channel.writeAndFlush(request);
+    }
+
+    private void probed(final EventLoop eventLoop, final Class<? extends Channel> channelClass, final Route route,
+            final boolean healthy) {
+        final BackendHealth health = route.getHealth();
+        if (healthy) {
+            log.info("Closing the circuit to {}, the probe succeeded.", route);
+            health.probeSucceeded(System.nanoTime());
+            proxyMetrics.circuitChanged(false);
+        } else {
+            final long nextOpenNanos = health.probeFailed(System.nanoTime(), maxOpenNanos);
+            log.warn("Probe of {} failed, keeping the circuit open for {} ms.", route,
+                    TimeUnit.NANOSECONDS.toMillis(nextOpenNanos));
+            scheduleProbe(eventLoop, channelClass, route, nextOpenNanos);
+        }
+    }
+
+    /**
+     * Completes the probe with the status of the response to its request, or
+     * as failed once the connection fails.
+     */
+    private static final class ProbeResponseHandler extends SimpleChannelInboundHandler<HttpObject> {
+
+        private final Promise<Boolean> healthy;
+
+        ProbeResponseHandler(final Promise<Boolean> healthy) {
+            this.healthy = healthy;
+        }
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext channelHandlerContext, final HttpObject message) {
+            if (message instanceof HttpResponse) {
+                final int code = ((HttpResponse) message).status().code();
+                if (code >= 200) {
+                    healthy.trySuccess(code < 500);
+                }
+            }
+        }
+
+        @Override
+        public void channelInactive(final ChannelHandlerContext channelHandlerContext) {
+            healthy.trySuccess(Boolean.FALSE);
+        }
+
+        @Override
+        public void exceptionCaught(final ChannelHandlerContext channelHandlerContext, final Throwable cause) {
+            log.debug("Probe failed", cause);
+            healthy.trySuccess(Boolean.FALSE);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * When the circuit to a Backend Server opens and how it is probed while open.
+ * Defaults can be overridden through JVM system properties on the start
+ * command.
+ */
+@Value
+@Builder
+public class CircuitBreakerConfig {
+
+    private static final String PROPERTY_PREFIX = "reverseproxy.circuitbreaker.";
+
+    /**
+     * Fail requests to a Backend Server fast once it keeps failing, instead of
+     * waiting for its connect and TLS timeouts.
+     */
+    boolean enabled;
+
+    /**
+     * Connect failures in a row that open the circuit.
+     */
+    int consecutiveConnectFailures;
+
+    /**
+     * Length of the window in which failed responses are counted.
+     */
+    long windowMillis;
+
+    /**
+     * Responses a window needs before its failure rate may open the circuit.
+     */
+    int minimumResponses;
+
+    /**
+     * Percentage of failed responses in a window that opens the circuit. A
+     * response fails with a 5xx status, by arriving later than
+     * slowResponseMillis, or when the Backend Server closes the connection
+     * without one.
+     */
+    int failureRatePercent;
+
+    /**
+     * Time to the response headers that counts as a failure, 0 to not count
+     * slow responses.
+     */
+    long slowResponseMillis;
+
+    /**
+     * Time the circuit stays open before the Backend Server is probed, doubled
+     * after every failed probe.
+     */
+    long openMillis;
+
+    /**
+     * Longest time the circuit stays open between probes.
+     */
+    long maxOpenMillis;
+
+    /**
+     * Time a probe may take to connect, handshake and get its response.
+     */
+    long probeTimeoutMillis;
+
+    /**
+     * Path a probe sends a GET to after connecting, which must not answer with
+     * a 5xx. Null to only probe the connect and TLS handshake.
+     */
+    String probePath;
+
+    public static CircuitBreakerConfig fromSystemProperties() {
+        return CircuitBreakerConfig.builder()
+                .enabled(Boolean.getBoolean(PROPERTY_PREFIX + "enabled"))
+                .consecutiveConnectFailures(Integer.getInteger(PROPERTY_PREFIX + "consecutiveConnectFailures", 5))
+                .windowMillis(Long.getLong(PROPERTY_PREFIX + "windowMillis", 10_000L))
+                .minimumResponses(Integer.getInteger(PROPERTY_PREFIX + "minimumResponses", 20))
+                .failureRatePercent(Integer.getInteger(PROPERTY_PREFIX + "failureRatePercent", 50))
+                .slowResponseMillis(Long.getLong(PROPERTY_PREFIX + "slowResponseMillis", 30_000L))
+                .openMillis(Long.getLong(PROPERTY_PREFIX + "openMillis", 5_000L))
+                .maxOpenMillis(Long.getLong(PROPERTY_PREFIX + "maxOpenMillis", 60_000L))
+                .probeTimeoutMillis(Long.getLong(PROPERTY_PREFIX + "probeTimeoutMillis", 3_000L))
+                .probePath(System.getProperty(PROPERTY_PREFIX + "probePath"))
+                .build();
+    }
+}
@@ -0,0 +1,185 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.DefaultChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.resolver.AddressResolver;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.log4j.Log4j2;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects to the Backend Servers the Happy Eyeballs way (RFC 8305). All
+ * addresses of the host name are resolved and tried in the order of the
+ * resolver, which alternates the address families, see
+ * {@link CachingDnsNameResolver}. The next address is tried as soon as the
+ * attempt before it fails, or alongside it when it has not connected within the
+ * attempt delay. The first attempt that connects wins, the others are closed.
+ */
+@Log4j2
+public final class HappyEyeballsConnector {
+
+    /**
+     * Head start of an attempt before the next address is tried as well, the
+     * Connection Attempt Delay RFC 8305 recommends.
+     */
+    public static final long ATTEMPT_DELAY_MILLIS = 250;
+
+    private final Bootstrap bootstrap;
+    private final Channel firstChannel;
+    private final ConnectPromise promise;
+    private final long attemptDelayMillis;
+    // Of all attempts, those that failed are closed already
+    private final List<Channel> channels = new ArrayList<>();
+    private List<SocketAddress> addresses;
+    private int nextAddress;
+    private int connecting;
+    private ScheduledFuture<?> nextAttempt;
+
+    private HappyEyeballsConnector(final Bootstrap bootstrap, final Channel firstChannel,
+            final long attemptDelayMillis) {
+        // Every attempt runs on the event loop of the first one
+        this.bootstrap = bootstrap.clone(firstChannel.eventLoop());
+        this.firstChannel = firstChannel;
+        this.promise = new ConnectPromise(firstChannel);
+        this.attemptDelayMillis = attemptDelayMillis;
+    }
+
+    /**
+     * Connects a channel of the bootstrap to the unresolved address, resolved with
+     * the resolver of the bootstrap. Until an attempt connects, the channel of the
+     * returned future is that of the first attempt. Cancelling the future closes
+     * the attempts that are still connecting.
+     */
+    public static ChannelFuture connect(final Bootstrap bootstrap, final InetSocketAddress remoteAddress) {
+        return connect(bootstrap, remoteAddress, ATTEMPT_DELAY_MILLIS);
+    }
+
+    static ChannelFuture connect(final Bootstrap bootstrap, final InetSocketAddress remoteAddress,
+            final long attemptDelayMillis) {
+        final ChannelFuture registered = bootstrap.register();
+        if (registered.isDone() && !registered.isSuccess()) {
+            // The channel could not be created, e.g. for lack of file descriptors
+            return registered;
+        }
+        final HappyEyeballsConnector connector = new HappyEyeballsConnector(bootstrap, registered.channel(),
+                attemptDelayMillis);
+        connector.promise.addListener(future -> connector.closeLosers());
+        registered.addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                connector.resolve(remoteAddress);
+            } else {
+                connector.promise.tryFailure(future.cause());
+            }
+        });
+        return connector.promise;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resolve(final InetSocketAddress remoteAddress) {
+        final AddressResolver<SocketAddress> resolver = (AddressResolver<SocketAddress>) bootstrap.config()
+                .resolver().getResolver(firstChannel.eventLoop());
+        // Completes on the event loop
+        resolver.resolveAll(remoteAddress).addListener((Future<List<SocketAddress>> future) -> {
+            if (!future.isSuccess()) {
+                firstChannel.close();
+                promise.tryFailure(future.cause());
+                return;
+            }
+            addresses = future.getNow();
+            attempt();
+        });
+    }
+
+    private void attempt() {
+        if (promise.isDone()) {
+            return;
+        }
+        final SocketAddress address = addresses.get(nextAddress);
+        final ChannelFuture connect = nextAddress++ == 0
+                ? firstChannel.connect(address).addListener(ChannelFutureListener.CLOSE_ON_FAILURE)
+                : bootstrap.connect(address);
+        log.debug("Connecting {} to {}.", connect.channel(), address);
+        channels.add(connect.channel());
+        connecting++;
+        if (nextAddress < addresses.size()) {
+            nextAttempt = firstChannel.eventLoop().schedule(this::attempt, attemptDelayMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        connect.addListener((ChannelFutureListener) this::attempted);
+    }
+
+    private void attempted(final ChannelFuture connect) {
+        connecting--;
+        if (connect.isSuccess()) {
+            if (!promise.connected(connect.channel())) {
+                connect.channel().close();
+            }
+            return;
+        }
+        log.debug("Connecting {} failed.", connect.channel(), connect.cause());
+        if (nextAddress < addresses.size()) {
+            // No need to wait out the delay of the next attempt
+            nextAttempt.cancel(false);
+            attempt();
+        } else if (connecting == 0) {
+            promise.tryFailure(connect.cause());
+        }
+    }
+
+    private void closeLosers() {
+        if (nextAttempt != null) {
+            nextAttempt.cancel(false);
+        }
+        final Channel winner = promise.isSuccess() ? promise.channel() : null;
+        if (winner == null) {
+            // Not yet part of the attempts while resolving
+            firstChannel.close();
+        }
+        // Closing an attempt that is still connecting fails it, which calls attempted
+        for (Channel channel : new ArrayList<>(channels)) {
+            if (channel != winner) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Future of the connect, its channel is the one of the attempt that
+     * connected.
+     */
+    private static final class ConnectPromise extends DefaultChannelPromise {
+
+        private volatile Channel connectedChannel;
+
+        ConnectPromise(final Channel firstChannel) {
+            super(firstChannel);
+        }
+
+        @Override
+        public Channel channel() {
+            final Channel channel = connectedChannel;
+            return channel != null ? channel : super.channel();
+        }
+
+        /**
+         * @return false if the connect is over already, e.g. cancelled.
+         */
+        boolean connected(final Channel channel) {
+            if (isDone()) {
+                return false;
+            }
+            connectedChannel = channel;
+            return trySuccess();
+        }
+    }
+}
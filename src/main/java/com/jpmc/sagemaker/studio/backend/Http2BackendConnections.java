@@ -0,0 +1,214 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseNotifier;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connections of one event loop to the Backend Server of one TLS route, for a
+ * pool whose SslContext offers h2. The first connection finds out through ALPN
+ * whether the Backend Server speaks HTTP/2. If it does, connections taken from
+ * the pool are kept open and each request is sent on a stream of its own, on the
+ * connection with the fewest streams below the stream limit. Otherwise requests
+ * are sent on pooled HTTP/1.1 connections as for any other route. Only used from
+ * its event loop.
+ */
+@Log4j2
+final class Http2BackendConnections {
+
+    private final ChannelPool pool;
+    private final ChannelHandler streamInitializer;
+    private final BackendConnectionPoolConfig config;
+    private final List<Channel> connections = new ArrayList<>(2);
+    // Next requests wait for the connection being opened rather than open more
+    private Future<Channel> connecting;
+    // Whether the Backend Server negotiated HTTP/2, null until a connection did
+    private Boolean http2;
+
+    /**
+     * @param streamInitializer builds the pipeline of each stream, the same way
+     *                          it does for HTTP/1.1 connections.
+     */
+    Http2BackendConnections(final ChannelPool pool, final ChannelHandler streamInitializer,
+            final BackendConnectionPoolConfig config) {
+        this.pool = pool;
+        this.streamInitializer = streamInitializer;
+        this.config = config;
+    }
+
+    /**
+     * @return a new stream on an HTTP/2 connection, or a pooled HTTP/1.1
+     *         connection if the Backend Server does not speak HTTP/2.
+     */
+    Future<Channel> acquire(final EventLoop eventLoop) {
+        if (Boolean.FALSE.equals(http2)) {
+            return pool.acquire();
+        }
+        final Channel connection = leastBusyConnection();
+        if (connection != null) {
+            return openStream(connection, eventLoop.newPromise());
+        }
+        final Promise<Channel> promise = eventLoop.newPromise();
+        if (connecting != null) {
+            connecting.addListener(future -> acquire(eventLoop)
+                    .addListener(new PromiseNotifier<Channel, Future<Channel>>(promise)));
+            return promise;
+        }
+        connecting = promise;
+        pool.acquire().addListener((Future<Channel> future) -> {
+            if (!future.isSuccess()) {
+                connecting = null;
+                promise.setFailure(future.cause());
+                return;
+            }
+            final Channel channel = future.getNow();
+            final SslHandler sslHandler = channel.pipeline().get(SslHandler.class);
+            sslHandler.handshakeFuture().addListener(handshakeFuture -> {
+                connecting = null;
+                if (!handshakeFuture.isSuccess()) {
+                    // The channel is closed by the SslHandler and dropped by the pool
+                    pool.release(channel);
+                    promise.setFailure(handshakeFuture.cause());
+                } else if (ApplicationProtocolNames.HTTP_2.equals(sslHandler.applicationProtocol())) {
+                    http2 = Boolean.TRUE;
+                    startHttp2(channel);
+                    openStream(channel, promise);
+                } else {
+                    log.info("Backend Server {} does not speak HTTP/2, using HTTP/1.1.", channel.remoteAddress());
+                    http2 = Boolean.FALSE;
+                    promise.setSuccess(channel);
+                }
+            });
+        });
+        return promise;
+    }
+
+    /**
+     * @return the connection with the fewest open streams that may open one more,
+     *         or null.
+     */
+    private Channel leastBusyConnection() {
+        Channel leastBusy = null;
+        int fewestStreams = Integer.MAX_VALUE;
+        for (Channel connection : connections) {
+            final Http2ConnectionState state = connection.pipeline().get(Http2ConnectionState.class);
+            if (state.canOpenStream() && state.openStreams < fewestStreams) {
+                leastBusy = connection;
+                fewestStreams = state.openStreams;
+            }
+        }
+        return leastBusy;
+    }
+
+    /**
+     * Swaps the HTTP/1.1 handlers of a connection that negotiated h2 for the
+     * HTTP/2 ones. The connection stays out of the pool until it is closed.
+     */
+    private void startHttp2(final Channel channel) {
+        log.debug("Starting HTTP/2 on Backend connection {}.", channel);
+        final ChannelPipeline pipeline = channel.pipeline();
+        final ChannelHandlerContext idleStateContext = pipeline.context(IdleStateHandler.class);
+        while (pipeline.lastContext() != idleStateContext) {
+            pipeline.removeLast();
+        }
+        final Http2Settings settings = Http2Settings.defaultSettings().pushEnabled(false)
+                .initialWindowSize(config.getHttp2InitialWindowSizeBytes());
+        pipeline.addLast(Http2FrameCodecBuilder.forClient().initialSettings(settings).build());
+        pipeline.addLast(new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()));
+        pipeline.addLast(new Http2ConnectionState());
+        // Streams are read as their responses are relayed, the connection itself is
+        // always read to receive the frames of all of them
+        channel.config().setAutoRead(true);
+        connections.add(channel);
+    }
+
+    private Future<Channel> openStream(final Channel connection, final Promise<Channel> promise) {
+        final Http2ConnectionState state = connection.pipeline().get(Http2ConnectionState.class);
+        state.openStreams++;
+        new Http2StreamChannelBootstrap(connection).option(ChannelOption.AUTO_READ, false)
+                .handler(streamInitializer).open().addListener((Future<Http2StreamChannel> future) -> {
+                    if (future.isSuccess()) {
+                        future.getNow().closeFuture().addListener(closeFuture -> state.streamClosed());
+                        promise.setSuccess(future.getNow());
+                    } else {
+                        state.streamClosed();
+                        promise.setFailure(future.cause());
+                    }
+                });
+        return promise;
+    }
+
+    /**
+     * Counts the streams of an HTTP/2 connection and closes the connection once
+     * it is idle, or drained after the Backend Server sent a GOAWAY.
+     */
+    private final class Http2ConnectionState extends ChannelInboundHandlerAdapter {
+
+        private ChannelHandlerContext context;
+        private Http2FrameCodec codec;
+        private int openStreams;
+
+        @Override
+        public void handlerAdded(final ChannelHandlerContext channelHandlerContext) {
+            context = channelHandlerContext;
+            codec = channelHandlerContext.pipeline().get(Http2FrameCodec.class);
+        }
+
+        boolean canOpenStream() {
+            // The Backend Server's own limit applies once its SETTINGS arrived
+            return context.channel().isActive() && !codec.connection().goAwayReceived()
+                    && openStreams < Math.min(config.getHttp2MaxConcurrentStreams(),
+                            codec.connection().local().maxActiveStreams());
+        }
+
+        void streamClosed() {
+            openStreams--;
+            if (openStreams == 0 && codec.connection().goAwayReceived()) {
+                log.debug("Closing drained HTTP/2 Backend connection {}.", context.channel());
+                context.close();
+            }
+        }
+
+        @Override
+        public void userEventTriggered(final ChannelHandlerContext channelHandlerContext, final Object event)
+                throws Exception {
+            if (event instanceof IdleStateEvent && openStreams == 0) {
+                log.debug("Closing idle HTTP/2 Backend connection {}.", channelHandlerContext.channel());
+                channelHandlerContext.close();
+                return;
+            }
+            super.userEventTriggered(channelHandlerContext, event);
+        }
+
+        @Override
+        public void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+            log.debug("HTTP/2 Backend connection {} is Inactive.", channelHandlerContext.channel());
+            connections.remove(channelHandlerContext.channel());
+            // Frees its place in the pool
+            pool.release(channelHandlerContext.channel());
+            super.channelInactive(channelHandlerContext);
+        }
+    }
+}
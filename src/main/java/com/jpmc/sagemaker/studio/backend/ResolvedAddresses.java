@@ -0,0 +1,68 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Addresses of a host name, or the failure to find any, as cached by the
+ * {@link BackendAddressResolverGroup} until the TTL of the records expires.
+ */
+final class ResolvedAddresses {
+
+    private final List<InetAddress> addresses;
+    private final UnknownHostException failure;
+    private final long expiresAtNanos;
+    private final long refreshAtNanos;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private ResolvedAddresses(final List<InetAddress> addresses, final UnknownHostException failure,
+            final long expiresAtNanos, final long refreshAtNanos) {
+        this.addresses = addresses;
+        this.failure = failure;
+        this.expiresAtNanos = expiresAtNanos;
+        this.refreshAtNanos = refreshAtNanos;
+    }
+
+    static ResolvedAddresses found(final List<InetAddress> addresses, final long ttlSeconds,
+            final int refreshAheadPercent, final long nowNanos) {
+        final long ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        return new ResolvedAddresses(addresses, null, nowNanos + ttlNanos,
+                nowNanos + ttlNanos - ttlNanos * refreshAheadPercent / 100);
+    }
+
+    static ResolvedAddresses notFound(final UnknownHostException failure, final long ttlSeconds,
+            final long nowNanos) {
+        final long expiresAtNanos = nowNanos + TimeUnit.SECONDS.toNanos(ttlSeconds);
+        return new ResolvedAddresses(null, failure, expiresAtNanos, expiresAtNanos);
+    }
+
+    /**
+     * @return the addresses, or null if the host name does not exist.
+     */
+    List<InetAddress> getAddresses() {
+        return addresses;
+    }
+
+    UnknownHostException getFailure() {
+        return failure;
+    }
+
+    boolean isExpired(final long nowNanos) {
+        return nowNanos - expiresAtNanos >= 0;
+    }
+
+    /**
+     * @return true for the first caller once the addresses are due to be resolved
+     *         again in the background.
+     */
+    boolean startRefresh(final long nowNanos) {
+        return nowNanos - refreshAtNanos >= 0 && refreshing.compareAndSet(false, true);
+    }
+
+    void refreshFailed() {
+        refreshing.set(false);
+    }
+}
@@ -0,0 +1,61 @@
+package com.jpmc.sagemaker.studio.cache;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * The Cache-Control directives the cache acts on.
+ */
+final class CacheControl {
+
+    boolean noStore;
+    boolean noCache;
+    boolean isPrivate;
+    long maxAgeSeconds = -1;
+    long sharedMaxAgeSeconds = -1;
+
+    private CacheControl() {
+    }
+
+    static CacheControl parse(final HttpHeaders headers) {
+        final CacheControl cacheControl = new CacheControl();
+        for (String header : headers.getAll(HttpHeaderNames.CACHE_CONTROL)) {
+            for (String directive : header.split(",")) {
+                final int equals = directive.indexOf('=');
+                final String name = (equals < 0 ? directive : directive.substring(0, equals)).trim().toLowerCase();
+                final String value = equals < 0 ? null : directive.substring(equals + 1).trim().replace("\"", "");
+                switch (name) {
+                    case "no-store":
+                        cacheControl.noStore = true;
+                        break;
+                    case "no-cache":
+                        cacheControl.noCache = true;
+                        break;
+                    case "private":
+                        cacheControl.isPrivate = true;
+                        break;
+                    case "max-age":
+                        cacheControl.maxAgeSeconds = parseSeconds(value);
+                        break;
+                    case "s-maxage":
+                        cacheControl.sharedMaxAgeSeconds = parseSeconds(value);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        if ("no-cache".equalsIgnoreCase(headers.get(HttpHeaderNames.PRAGMA))) {
+            cacheControl.noCache = true;
+        }
+        return cacheControl;
+    }
+
+    private static long parseSeconds(final String value) {
+        try {
+            return value == null ? -1 : Math.max(0, Long.parseLong(value));
+        } catch (final NumberFormatException exception) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.jpmc.sagemaker.studio.cache;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+import lombok.Value;
+
+/**
+ * Identifies a cached response. Backends may serve different builds, so
+ * responses are never shared across routes.
+ */
+@Value
+class CacheKey {
+
+    Route route;
+
+    String uri;
+
+    // Responses may be encoded differently per Accept-Encoding
+    String acceptEncoding;
+}
@@ -0,0 +1,83 @@
+package com.jpmc.sagemaker.studio.cache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A cached 200 response. The body is a pooled buffer owned by the
+ * {@link ResponseCache}; a lookup retains it for the caller.
+ */
+public final class CachedResponse {
+
+    private final CacheKey key;
+    private final HttpHeaders headers;
+    private final ByteBuf body;
+    private final long storedAtNanos;
+    private final long freshForNanos;
+    private final long initialAgeSeconds;
+    private final AtomicBoolean revalidating = new AtomicBoolean();
+
+    CachedResponse(final CacheKey key, final HttpHeaders headers, final ByteBuf body, final long storedAtNanos,
+            final long freshForNanos, final long initialAgeSeconds) {
+        this.key = key;
+        this.headers = headers;
+        this.body = body;
+        this.storedAtNanos = storedAtNanos;
+        this.freshForNanos = freshForNanos;
+        this.initialAgeSeconds = initialAgeSeconds;
+    }
+
+    CacheKey getKey() {
+        return key;
+    }
+
+    HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    ByteBuf getBody() {
+        return body;
+    }
+
+    String getETag() {
+        return headers.get(HttpHeaderNames.ETAG);
+    }
+
+    String getLastModified() {
+        return headers.get(HttpHeaderNames.LAST_MODIFIED);
+    }
+
+    boolean isFresh(final long nowNanos) {
+        return nowNanos - storedAtNanos < freshForNanos;
+    }
+
+    /**
+     * @return how long the entry has been stale, zero while it is fresh.
+     */
+    long getStaleNanos(final long nowNanos) {
+        return Math.max(0, nowNanos - storedAtNanos - freshForNanos);
+    }
+
+    long getAgeSeconds(final long nowNanos) {
+        return initialAgeSeconds + TimeUnit.NANOSECONDS.toSeconds(nowNanos - storedAtNanos);
+    }
+
+    boolean hasValidator() {
+        return getETag() != null || getLastModified() != null;
+    }
+
+    /**
+     * @return true for the one caller that gets to revalidate the entry.
+     */
+    boolean startRevalidation() {
+        return revalidating.compareAndSet(false, true);
+    }
+
+    void finishRevalidation() {
+        revalidating.set(false);
+    }
+}
@@ -0,0 +1,335 @@
+package com.jpmc.sagemaker.studio.cache;
+
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.AsciiString;
+import io.netty.util.concurrent.Future;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared cache of static asset responses. Bodies are kept in pooled direct
+ * buffers under a global byte budget, evicting the least recently used entries.
+ * Entries are filled by {@link ResponseCacheHandler} on Backend channels and
+ * served by the request handler without going to the Backend Server. Stale
+ * entries with a validator are served for a while longer and revalidated in the
+ * background with a conditional request.
+ */
+@Log4j2
+public class ResponseCache {
+
+    // HttpHeaderNames.KEEP_ALIVE is deprecated, the header is still sent by HTTP/1.0 servers
+    private static final AsciiString KEEP_ALIVE = AsciiString.cached("keep-alive");
+
+    private final ResponseCacheConfig config;
+    // Access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<CacheKey, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+
+    public ResponseCache(final ResponseCacheConfig config) {
+        this.config = config;
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    int getMaxEntrySizeBytes() {
+        return config.getMaxEntrySizeBytes();
+    }
+
+    /**
+     * @return a cached response the request can be answered with, retained for
+     *         the caller and handed back through {@link #toResponse}, or null.
+     */
+    public CachedResponse lookup(final Route route, final HttpRequest request) {
+        final CacheKey key = keyFor(route, request);
+        if (key == null) {
+            return null;
+        }
+        // A forced reload from the Browser goes to the Backend Server and refills the entry
+        final CacheControl cacheControl = CacheControl.parse(request.headers());
+        if (!cacheControl.noCache && !cacheControl.noStore) {
+            final long nowNanos = System.nanoTime();
+            synchronized (this) {
+                final CachedResponse cached = entries.get(key);
+                if (cached != null && (cached.isFresh(nowNanos) || cached.hasValidator() && cached
+                        .getStaleNanos(nowNanos) < TimeUnit.MILLISECONDS.toNanos(config.getStaleWhileRevalidateMillis()))) {
+                    cached.getBody().retain();
+                    hits.increment();
+                    return cached;
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Builds the answer to the request from a response returned by
+     * {@link #lookup}: a 304 if the Browser's validator still matches, the cached
+     * response otherwise.
+     */
+    public FullHttpResponse toResponse(final HttpRequest request, final CachedResponse cached) {
+        final long ageSeconds = cached.getAgeSeconds(System.nanoTime());
+        if (isNotModified(request, cached)) {
+            cached.getBody().release();
+            notModified.increment();
+            final HttpHeaders headers = new DefaultHttpHeaders();
+            copyValidationHeaders(cached.getHeaders(), headers);
+            headers.setInt(HttpHeaderNames.AGE, (int) Math.min(Integer.MAX_VALUE, ageSeconds));
+            return new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.NOT_MODIFIED,
+                    Unpooled.EMPTY_BUFFER, headers, EmptyHttpHeaders.INSTANCE);
+        }
+        final HttpHeaders headers = cached.getHeaders().copy();
+        headers.setInt(HttpHeaderNames.AGE, (int) Math.min(Integer.MAX_VALUE, ageSeconds));
+        return new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.OK,
+                cached.getBody().duplicate(), headers, EmptyHttpHeaders.INSTANCE);
+    }
+
+    /**
+     * Sends a conditional request for a stale entry to the Backend Server, unless
+     * the entry is fresh or already being revalidated. The Browser request is
+     * used as a template so the Backend Server sees the same credentials.
+     */
+    public void revalidateIfStale(final Channel frontendChannel, final Route route, final HttpRequest request,
+            final CachedResponse cached, final BackendConnectionPool backendConnectionPool) {
+        if (cached.isFresh(System.nanoTime()) || !cached.startRevalidation()) {
+            return;
+        }
+        revalidations.increment();
+        final RevalidationRequest revalidationRequest = new RevalidationRequest(request, cached);
+        backendConnectionPool.acquire(frontendChannel, route).addListener((Future<Channel> future) -> {
+            if (!future.isSuccess()) {
+                log.debug("Unable to revalidate {}", request.uri(), future.cause());
+                revalidationRequest.release();
+                cached.finishRevalidation();
+                return;
+            }
+            final Channel backendChannel = future.getNow();
+            backendChannel.writeAndFlush(revalidationRequest).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+            backendChannel.read();
+        });
+    }
+
+    /**
+     * @return the key to cache the response to the request under, or null if the
+     *         request is not for a shared static asset.
+     */
+    CacheKey keyFor(final Route route, final HttpRequest request) {
+        if (!config.isEnabled() || route == null || !HttpMethod.GET.equals(request.method())) {
+            return null;
+        }
+        final HttpHeaders headers = request.headers();
+        if (headers.contains(HttpHeaderNames.AUTHORIZATION) || headers.contains(HttpHeaderNames.RANGE)) {
+            return null;
+        }
+        final String uri = request.uri();
+        final int pathEnd = uri.indexOf('?');
+        final String path = pathEnd < 0 ? uri : uri.substring(0, pathEnd);
+        for (String pathMarker : config.getPathMarkers()) {
+            if (path.contains(pathMarker)) {
+                return new CacheKey(route, uri, headers.get(HttpHeaderNames.ACCEPT_ENCODING, ""));
+            }
+        }
+        return null;
+    }
+
+    boolean isCacheable(final HttpResponse response) {
+        if (!HttpResponseStatus.OK.equals(response.status())) {
+            return false;
+        }
+        final HttpHeaders headers = response.headers();
+        final CacheControl cacheControl = CacheControl.parse(headers);
+        if (cacheControl.noStore || cacheControl.noCache || cacheControl.isPrivate
+                || headers.contains(HttpHeaderNames.SET_COOKIE)
+                || headers.getInt(HttpHeaderNames.CONTENT_LENGTH, 0) > config.getMaxEntrySizeBytes()) {
+            return false;
+        }
+        for (String vary : headers.getAll(HttpHeaderNames.VARY)) {
+            for (String field : vary.split(",")) {
+                if (!HttpHeaderNames.ACCEPT_ENCODING.contentEqualsIgnoreCase(field.trim())) {
+                    return false;
+                }
+            }
+        }
+        return getFreshnessSeconds(headers, cacheControl) > 0 || headers.contains(HttpHeaderNames.ETAG)
+                || headers.contains(HttpHeaderNames.LAST_MODIFIED);
+    }
+
+    /**
+     * Stores a response, taking ownership of the body.
+     */
+    void store(final CacheKey key, final HttpHeaders responseHeaders, final ByteBuf body) {
+        final HttpHeaders headers = responseHeaders.copy();
+        headers.remove(HttpHeaderNames.CONNECTION);
+        headers.remove(KEEP_ALIVE);
+        headers.remove(HttpHeaderNames.TRANSFER_ENCODING);
+        headers.remove(HttpHeaderNames.AGE);
+        headers.setInt(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
+        put(newEntry(key, headers, body, responseHeaders));
+    }
+
+    /**
+     * Extends the lifetime of an entry the Backend Server answered a
+     * revalidation of with 304 Not Modified.
+     */
+    void refresh(final CachedResponse cached, final HttpResponse notModifiedResponse) {
+        final HttpHeaders headers = cached.getHeaders().copy();
+        copyValidationHeaders(notModifiedResponse.headers(), headers);
+        synchronized (this) {
+            if (entries.get(cached.getKey()) != cached) {
+                // Evicted or replaced in the meantime
+                return;
+            }
+            put(newEntry(cached.getKey(), headers, cached.getBody().retain(), notModifiedResponse.headers()));
+        }
+    }
+
+    synchronized void invalidate(final CachedResponse cached) {
+        if (entries.get(cached.getKey()) == cached) {
+            entries.remove(cached.getKey());
+            sizeBytes -= cached.getBody().readableBytes();
+            cached.getBody().release();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getNotModified() {
+        return notModified.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getRevalidations() {
+        return revalidations.sum();
+    }
+
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    private synchronized void put(final CachedResponse cached) {
+        final int size = cached.getBody().readableBytes();
+        if (size > config.getMaxEntrySizeBytes() || size > config.getMaxSizeBytes()) {
+            cached.getBody().release();
+            return;
+        }
+        final CachedResponse replaced = entries.put(cached.getKey(), cached);
+        if (replaced != null) {
+            sizeBytes -= replaced.getBody().readableBytes();
+            replaced.getBody().release();
+        }
+        sizeBytes += size;
+
+        final Iterator<Map.Entry<CacheKey, CachedResponse>> leastRecentlyUsed = entries.entrySet().iterator();
+        while (sizeBytes > config.getMaxSizeBytes() && leastRecentlyUsed.hasNext()) {
+            final CachedResponse evicted = leastRecentlyUsed.next().getValue();
+            leastRecentlyUsed.remove();
+            sizeBytes -= evicted.getBody().readableBytes();
+            evicted.getBody().release();
+            evictions.increment();
+        }
+    }
+
+    private static CachedResponse newEntry(final CacheKey key, final HttpHeaders headers, final ByteBuf body,
+            final HttpHeaders responseHeaders) {
+        final long freshnessSeconds = getFreshnessSeconds(headers, CacheControl.parse(headers));
+        final long initialAgeSeconds = Math.max(0, responseHeaders.getInt(HttpHeaderNames.AGE, 0));
+        return new CachedResponse(key, headers, body, System.nanoTime(),
+                TimeUnit.SECONDS.toNanos(Math.max(0, freshnessSeconds - initialAgeSeconds)), initialAgeSeconds);
+    }
+
+    private static long getFreshnessSeconds(final HttpHeaders headers, final CacheControl cacheControl) {
+        if (cacheControl.sharedMaxAgeSeconds >= 0) {
+            return cacheControl.sharedMaxAgeSeconds;
+        }
+        if (cacheControl.maxAgeSeconds >= 0) {
+            return cacheControl.maxAgeSeconds;
+        }
+        final Date expires = parseDate(headers.get(HttpHeaderNames.EXPIRES));
+        if (expires != null) {
+            final Date date = parseDate(headers.get(HttpHeaderNames.DATE));
+            final long dateMillis = date != null ? date.getTime() : System.currentTimeMillis();
+            return TimeUnit.MILLISECONDS.toSeconds(expires.getTime() - dateMillis);
+        }
+        return 0;
+    }
+
+    private static boolean isNotModified(final HttpRequest request, final CachedResponse cached) {
+        final String ifNoneMatch = request.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            final String etag = cached.getETag();
+            if (etag == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                final String trimmed = candidate.trim();
+                if ("*".equals(trimmed) || stripWeak(trimmed).equals(stripWeak(etag))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        final Date ifModifiedSince = parseDate(request.headers().get(HttpHeaderNames.IF_MODIFIED_SINCE));
+        final Date lastModified = parseDate(cached.getLastModified());
+        return ifModifiedSince != null && lastModified != null && !lastModified.after(ifModifiedSince);
+    }
+
+    private static void copyValidationHeaders(final HttpHeaders from, final HttpHeaders to) {
+        for (CharSequence name : new CharSequence[] { HttpHeaderNames.ETAG, HttpHeaderNames.LAST_MODIFIED,
+                HttpHeaderNames.CACHE_CONTROL, HttpHeaderNames.EXPIRES, HttpHeaderNames.DATE, HttpHeaderNames.VARY }) {
+            if (from.contains(name)) {
+                to.set(name, from.getAll(name));
+            }
+        }
+    }
+
+    private static String stripWeak(final String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static Date parseDate(final String value) {
+        return value == null ? null : DateFormatter.parseHttpDate(value);
+    }
+}
@@ -0,0 +1,55 @@
+package com.jpmc.sagemaker.studio.cache;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Settings of the cache for static JupyterLab assets. Defaults can be
+ * overridden through JVM system properties on the start command.
+ */
+@Value
+@Builder
+public class ResponseCacheConfig {
+
+    private static final String PROPERTY_PREFIX = "reverseproxy.cache.";
+
+    boolean enabled;
+
+    /**
+     * Total size of the cached bodies. Least recently used entries are evicted
+     * beyond it.
+     */
+    long maxSizeBytes;
+
+    /**
+     * Larger responses are not cached.
+     */
+    int maxEntrySizeBytes;
+
+    /**
+     * Only GET requests whose path contains one of these are cached. The proxy is
+     * shared by many users, so this is limited to assets that are the same for
+     * everybody.
+     */
+    List<String> pathMarkers;
+
+    /**
+     * How long after an entry became stale it may still be served while it is
+     * revalidated in the background.
+     */
+    long staleWhileRevalidateMillis;
+
+    public static ResponseCacheConfig fromSystemProperties() {
+        return ResponseCacheConfig.builder()
+                .enabled(Boolean.getBoolean(PROPERTY_PREFIX + "enabled"))
+                .maxSizeBytes(Long.getLong(PROPERTY_PREFIX + "maxSizeBytes", 64L * 1024 * 1024))
+                .maxEntrySizeBytes(Integer.getInteger(PROPERTY_PREFIX + "maxEntrySizeBytes", 8 * 1024 * 1024))
+                .pathMarkers(Arrays.asList(
+                        System.getProperty(PROPERTY_PREFIX + "pathMarkers", "/static/,/lab/extensions/").split(",")))
+                .staleWhileRevalidateMillis(Long.getLong(PROPERTY_PREFIX + "staleWhileRevalidateMillis", 60_000L))
+                .build();
+    }
+}
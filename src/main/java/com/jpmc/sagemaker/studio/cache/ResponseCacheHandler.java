@@ -0,0 +1,179 @@
+package com.jpmc.sagemaker.studio.cache;
+
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Sits in the pipeline of a Backend channel, in front of the handler relaying
+ * responses to the Browser. Copies cacheable responses into the
+ * {@link ResponseCache} as they pass through and consumes the responses to
+ * revalidation requests, which have no Browser waiting for them.
+ */
+@Log4j2
+public class ResponseCacheHandler extends ChannelDuplexHandler {
+
+    private final ResponseCache responseCache;
+    private final Queue<PendingRequest> pendingRequests = new ArrayDeque<>();
+
+    private PendingRequest current;
+    private HttpHeaders fillHeaders;
+    private ByteBuf fillBody;
+    private boolean reusable;
+
+    public ResponseCacheHandler(final ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext channelHandlerContext, final Object message,
+            final ChannelPromise promise) {
+        if (message instanceof RevalidationRequest) {
+            final CachedResponse cached = ((RevalidationRequest) message).getCached();
+            pendingRequests.add(new PendingRequest(cached.getKey(), cached));
+        } else if (message instanceof HttpRequest) {
+            pendingRequests.add(new PendingRequest(responseCache.keyFor(
+                    BackendConnectionPool.getRoute(channelHandlerContext.channel()), (HttpRequest) message), null));
+        }
+        channelHandlerContext.write(message, promise);
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) {
+        if (message instanceof HttpResponse) {
+            final HttpResponse response = (HttpResponse) message;
+            if (HttpStatusClass.INFORMATIONAL.equals(response.status().codeClass())) {
+                // The final response follows on the same connection
+                final PendingRequest pending = pendingRequests.peek();
+                if (pending != null && pending.revalidating != null) {
+                    ReferenceCountUtil.release(message);
+                    return;
+                }
+                channelHandlerContext.fireChannelRead(message);
+                return;
+            }
+            current = pendingRequests.poll();
+            if (current != null) {
+                startResponse(channelHandlerContext, response);
+            }
+        }
+
+        final PendingRequest request = current;
+        if (request != null && message instanceof HttpContent) {
+            appendContent(((HttpContent) message).content());
+            if (message instanceof LastHttpContent) {
+                finishResponse(channelHandlerContext);
+            }
+        }
+
+        if (request != null && request.revalidating != null) {
+            ReferenceCountUtil.release(message);
+        } else {
+            channelHandlerContext.fireChannelRead(message);
+        }
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+        releaseFill();
+        final PendingRequest pending = current != null ? current : pendingRequests.peek();
+        if (pending != null && pending.revalidating != null) {
+            // Nobody is waiting for this response, so the Browser channel the connection
+            // was leased to must not be closed along with it.
+            BackendConnectionPool.release(channelHandlerContext.channel(), false);
+        }
+        for (PendingRequest request : pendingRequests) {
+            if (request.revalidating != null) {
+                request.revalidating.finishRevalidation();
+            }
+        }
+        if (current != null && current.revalidating != null) {
+            current.revalidating.finishRevalidation();
+        }
+        pendingRequests.clear();
+        current = null;
+        super.channelInactive(channelHandlerContext);
+    }
+
+    @Override
+    public void handlerRemoved(final ChannelHandlerContext channelHandlerContext) {
+        releaseFill();
+    }
+
+    private void startResponse(final ChannelHandlerContext channelHandlerContext, final HttpResponse response) {
+        reusable = HttpUtil.isKeepAlive(response);
+        final CachedResponse revalidating = current.revalidating;
+        if (revalidating != null && HttpResponseStatus.NOT_MODIFIED.equals(response.status())) {
+            log.debug("Cached {} is still valid", current.key.getUri());
+            responseCache.refresh(revalidating, response);
+        } else if (current.key != null && responseCache.isCacheable(response)) {
+            fillHeaders = response.headers().copy();
+            final int contentLength = (int) Math.min(HttpUtil.getContentLength(response, 8192L),
+                    responseCache.getMaxEntrySizeBytes());
+            fillBody = channelHandlerContext.alloc().directBuffer(contentLength, responseCache.getMaxEntrySizeBytes());
+        } else if (revalidating != null) {
+            responseCache.invalidate(revalidating);
+        }
+    }
+
+    private void appendContent(final ByteBuf content) {
+        if (fillBody == null) {
+            return;
+        }
+        if (content.readableBytes() > fillBody.maxWritableBytes()) {
+            log.debug("Not caching {}, it is larger than {} bytes", current.key.getUri(),
+                    responseCache.getMaxEntrySizeBytes());
+            releaseFill();
+            return;
+        }
+        fillBody.writeBytes(content, content.readerIndex(), content.readableBytes());
+    }
+
+    private void finishResponse(final ChannelHandlerContext channelHandlerContext) {
+        if (fillBody != null) {
+            responseCache.store(current.key, fillHeaders, fillBody);
+            fillBody = null;
+            fillHeaders = null;
+        }
+        if (current.revalidating != null) {
+            current.revalidating.finishRevalidation();
+            BackendConnectionPool.release(channelHandlerContext.channel(), reusable);
+        }
+        current = null;
+    }
+
+    private void releaseFill() {
+        if (fillBody != null) {
+            fillBody.release();
+            fillBody = null;
+            fillHeaders = null;
+        }
+    }
+
+    private static final class PendingRequest {
+
+        final CacheKey key;
+        // The stale entry a revalidation request was sent for, null for Browser requests
+        final CachedResponse revalidating;
+
+        PendingRequest(final CacheKey key, final CachedResponse revalidating) {
+            this.key = key;
+            this.revalidating = revalidating;
+        }
+    }
+}
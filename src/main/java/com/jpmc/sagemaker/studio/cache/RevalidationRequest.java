@@ -0,0 +1,40 @@
+package com.jpmc.sagemaker.studio.cache;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpUtil;
+
+/**
+ * Conditional GET for a stale {@link CachedResponse}. Its response is consumed
+ * by {@link ResponseCacheHandler} and never reaches a Browser.
+ */
+final class RevalidationRequest extends DefaultFullHttpRequest {
+
+    private final CachedResponse cached;
+
+    RevalidationRequest(final HttpRequest template, final CachedResponse cached) {
+        super(template.protocolVersion(), HttpMethod.GET, template.uri(), Unpooled.EMPTY_BUFFER);
+        this.cached = cached;
+
+        final HttpHeaders headers = headers().set(template.headers());
+        headers.remove(HttpHeaderNames.IF_NONE_MATCH);
+        headers.remove(HttpHeaderNames.IF_MODIFIED_SINCE);
+        headers.remove(HttpHeaderNames.CONTENT_LENGTH);
+        headers.remove(HttpHeaderNames.TRANSFER_ENCODING);
+        if (cached.getETag() != null) {
+            headers.set(HttpHeaderNames.IF_NONE_MATCH, cached.getETag());
+        }
+        if (cached.getLastModified() != null) {
+            headers.set(HttpHeaderNames.IF_MODIFIED_SINCE, cached.getLastModified());
+        }
+        HttpUtil.setKeepAlive(this, true);
+    }
+
+    CachedResponse getCached() {
+        return cached;
+    }
+}
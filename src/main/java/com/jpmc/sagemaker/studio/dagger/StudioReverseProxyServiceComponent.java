@@ -2,6 +2,7 @@ package com.jpmc.sagemaker.studio.dagger;
 
 import com.jpmc.sagemaker.studio.server.HealthCheckServer;
 import com.jpmc.sagemaker.studio.server.ReverseProxyServer;
+import com.jpmc.sagemaker.studio.server.ServerTransport;
 import dagger.Component;
 
 import javax.inject.Singleton;
@@ -13,4 +14,6 @@ public interface StudioReverseProxyServiceComponent {
     HealthCheckServer getHealthCheckServer();
 
     ReverseProxyServer getReverseProxyServer();
+
+    ServerTransport getServerTransport();
 }
@@ -1,17 +1,52 @@
 package com.jpmc.sagemaker.studio.dagger;
 
+import com.jpmc.sagemaker.studio.backend.BackendAddressResolverGroup;
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import com.jpmc.sagemaker.studio.backend.BackendDnsConfig;
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPoolConfig;
+import com.jpmc.sagemaker.studio.backend.BackendSslContextConfig;
+import com.jpmc.sagemaker.studio.backend.BackendSslContextFactory;
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.backend.CircuitBreakerConfig;
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
 import com.jpmc.sagemaker.studio.health.PingHandler;
 import com.jpmc.sagemaker.studio.health.PingInitializer;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.metrics.RequestTimingConfig;
+import com.jpmc.sagemaker.studio.metrics.RequestTimings;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimitConfig;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimiter;
+import com.jpmc.sagemaker.studio.reverseproxy.BackendHttpChannelInitializer;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudget;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudgetConfig;
+import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyConfig;
 import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyInitializer;
+import com.jpmc.sagemaker.studio.routing.RouteTable;
+import com.jpmc.sagemaker.studio.routing.RouteTableFileWatcher;
+import com.jpmc.sagemaker.studio.routing.Router;
+import com.jpmc.sagemaker.studio.routing.RoutingConfig;
+import com.jpmc.sagemaker.studio.server.ServerTransport;
+import com.jpmc.sagemaker.studio.server.ServerTransportConfig;
+import com.jpmc.sagemaker.studio.tls.FrontendTls;
+import com.jpmc.sagemaker.studio.tls.FrontendTlsConfig;
 import dagger.Module;
 import dagger.Provides;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.SslContext;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 @Module
 public class StudioReverseProxyServiceModule {
 
     @Provides
-    public PingHandler pingHandler() {
-        return new PingHandler();
+    public PingHandler pingHandler(final ProxyMetrics proxyMetrics) {
+        return new PingHandler(proxyMetrics);
     }
 
     @Provides
@@ -20,7 +55,174 @@ public class StudioReverseProxyServiceModule {
     }
 
     @Provides
-    public ReverseProxyInitializer reverseProxyInitializer() {
-        return new ReverseProxyInitializer();
+    public ServerTransportConfig serverTransportConfig() {
+        return ServerTransportConfig.fromSystemProperties();
+    }
+
+    @Provides
+    @Singleton
+    public ServerTransport serverTransport(final ServerTransportConfig serverTransportConfig) {
+        return new ServerTransport(serverTransportConfig);
+    }
+
+    @Provides
+    public ReverseProxyConfig reverseProxyConfig() {
+        return ReverseProxyConfig.fromSystemProperties();
+    }
+
+    @Provides
+    public BackendConnectionPoolConfig backendConnectionPoolConfig() {
+        return BackendConnectionPoolConfig.fromSystemProperties();
+    }
+
+    @Provides
+    public BackendDnsConfig backendDnsConfig() {
+        return BackendDnsConfig.fromSystemProperties();
+    }
+
+    @Provides
+    public BackendSslContextConfig backendSslContextConfig() {
+        return BackendSslContextConfig.fromSystemProperties();
+    }
+
+    @Provides
+    @Singleton
+    @Named(BackendSslContextFactory.BACKEND_SSL_CONTEXT)
+    public SslContext backendSslContext(final BackendSslContextConfig backendSslContextConfig) {
+        try {
+            return BackendSslContextFactory.create(backendSslContextConfig);
+        } catch (final SSLException exception) {
+            throw new IllegalStateException("Unable to build the Backend SSL Context", exception);
+        }
+    }
+
+    @Provides
+    public ResponseCacheConfig responseCacheConfig() {
+        return ResponseCacheConfig.fromSystemProperties();
+    }
+
+    @Provides
+    @Singleton
+    public ResponseCache responseCache(final ResponseCacheConfig responseCacheConfig) {
+        return new ResponseCache(responseCacheConfig);
+    }
+
+    @Provides
+    public MemoryBudgetConfig memoryBudgetConfig() {
+        return MemoryBudgetConfig.fromSystemProperties();
+    }
+
+    @Provides
+    @Singleton
+    public MemoryBudget memoryBudget(final MemoryBudgetConfig memoryBudgetConfig) {
+        return new MemoryBudget(memoryBudgetConfig);
+    }
+
+    @Provides
+    public RateLimitConfig rateLimitConfig() {
+        return RateLimitConfig.fromSystemProperties();
+    }
+
+    @Provides
+    @Singleton
+    public RateLimiter rateLimiter(final RateLimitConfig rateLimitConfig) {
+        return new RateLimiter(rateLimitConfig);
+    }
+
+    @Provides
+    public RequestTimingConfig requestTimingConfig() {
+        return RequestTimingConfig.fromSystemProperties();
+    }
+
+    @Provides
+    @Singleton
+    public ProxyMetrics proxyMetrics(final ServerTransport serverTransport, final ResponseCache responseCache,
+            final MemoryBudget memoryBudget, final RequestTimingConfig requestTimingConfig) {
+        return new ProxyMetrics(serverTransport.getWorkerGroup(), responseCache, memoryBudget,
+                ByteBufAllocator.DEFAULT, new RequestTimings(requestTimingConfig));
+    }
+
+    @Provides
+    @Singleton
+    public BackendConnectionPool backendConnectionPool(final ReverseProxyConfig reverseProxyConfig,
+            final BackendConnectionPoolConfig backendConnectionPoolConfig,
+            @Named(BackendSslContextFactory.BACKEND_SSL_CONTEXT) final SslContext backendSslContext,
+            final ResponseCache responseCache, final ProxyMetrics proxyMetrics, final MemoryBudget memoryBudget,
+            final BackendDnsConfig backendDnsConfig, final ServerTransport serverTransport,
+            final FrontendTlsConfig frontendTlsConfig) {
+        return new BackendConnectionPool(backendConnectionPoolConfig, backendSslContext,
+                new BackendHttpChannelInitializer(reverseProxyConfig, responseCache, proxyMetrics, memoryBudget,
+                        frontendTlsConfig.isEnabled()),
+                BackendAddressResolverGroup.create(backendDnsConfig,
+                        serverTransport.getTransportType().getDatagramChannelClass()));
+    }
+
+    @Provides
+    public CircuitBreakerConfig circuitBreakerConfig() {
+        return CircuitBreakerConfig.fromSystemProperties();
+    }
+
+    @Provides
+    @Singleton
+    public CircuitBreaker circuitBreaker(final CircuitBreakerConfig circuitBreakerConfig,
+            @Named(BackendSslContextFactory.BACKEND_SSL_CONTEXT) final SslContext backendSslContext,
+            final BackendConnectionPool backendConnectionPool, final ProxyMetrics proxyMetrics) {
+        return new CircuitBreaker(circuitBreakerConfig, backendSslContext, backendConnectionPool.getResolver(),
+                proxyMetrics);
+    }
+
+    @Provides
+    public RoutingConfig routingConfig() {
+        return RoutingConfig.fromSystemProperties();
+    }
+
+    @Provides
+    @Singleton
+    public Router router(final RoutingConfig routingConfig) {
+        final Router router = new Router(RouteTable.builder().defaultRoute(routingConfig.getDefaultRoute()).build());
+        if (routingConfig.getRouteTableFile() != null) {
+            final RouteTableFileWatcher watcher = new RouteTableFileWatcher(
+                    Paths.get(routingConfig.getRouteTableFile()), router, routingConfig.getDefaultRoute(),
+                    routingConfig.getAffinityCookie());
+            try {
+                watcher.load();
+            } catch (final IOException | IllegalArgumentException exception) {
+                throw new IllegalStateException("Unable to load the route table", exception);
+            }
+            watcher.start(routingConfig.getReloadIntervalMillis());
+        }
+        return router;
+    }
+
+    @Provides
+    public FrontendTlsConfig frontendTlsConfig() {
+        return FrontendTlsConfig.fromSystemProperties();
+    }
+
+    @Provides
+    @Singleton
+    public FrontendTls frontendTls(final FrontendTlsConfig frontendTlsConfig,
+            final ReverseProxyConfig reverseProxyConfig) {
+        final FrontendTls frontendTls = new FrontendTls(frontendTlsConfig, reverseProxyConfig.isHttp2Enabled());
+        if (frontendTlsConfig.isEnabled()) {
+            try {
+                frontendTls.load();
+            } catch (final IOException | IllegalArgumentException exception) {
+                throw new IllegalStateException("Unable to build the Frontend SSL Context", exception);
+            }
+            frontendTls.start();
+        }
+        return frontendTls;
+    }
+
+    @Provides
+    public ReverseProxyInitializer reverseProxyInitializer(final ReverseProxyConfig reverseProxyConfig,
+            final BackendConnectionPool backendConnectionPool,
+            @Named(BackendSslContextFactory.BACKEND_SSL_CONTEXT) final SslContext backendSslContext,
+            final Router router, final ResponseCache responseCache, final ProxyMetrics proxyMetrics,
+            final MemoryBudget memoryBudget, final RateLimiter rateLimiter, final CircuitBreaker circuitBreaker,
+            final FrontendTls frontendTls) {
+        return new ReverseProxyInitializer(reverseProxyConfig, backendConnectionPool, backendSslContext, router,
+                responseCache, proxyMetrics, memoryBudget, rateLimiter, circuitBreaker, frontendTls);
     }
 }
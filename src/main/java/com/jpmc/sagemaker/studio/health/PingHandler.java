@@ -1,5 +1,7 @@
 package com.jpmc.sagemaker.studio.health;
 
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.metrics.RequestTimings;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
@@ -20,13 +22,23 @@ import lombok.extern.log4j.Log4j2;
 
 /**
  * Channel Inbound Handler that processes the Ping HTTPRequest and send the 200
- * HTTPResponse
+ * HTTPResponse. It also serves the {@link ProxyMetrics} on /metrics, and the
+ * phase timings of the slowest recent requests on /slow_requests when they are
+ * enabled, see {@link RequestTimings}.
  */
 @ChannelHandler.Sharable
 @Log4j2
 public class PingHandler extends SimpleChannelInboundHandler<HttpRequest> {
 
     private static final String DEEP_PING_URI = "/deep_ping";
+    private static final String METRICS_URI = "/metrics";
+    private static final String SLOW_REQUESTS_URI = "/slow_requests";
+
+    private final ProxyMetrics proxyMetrics;
+
+    public PingHandler(final ProxyMetrics proxyMetrics) {
+        this.proxyMetrics = proxyMetrics;
+    }
 
     @Override
     protected void channelRead0(final ChannelHandlerContext channelHandlerContext, final HttpRequest httpRequest)
@@ -34,6 +46,18 @@ public class PingHandler extends SimpleChannelInboundHandler<HttpRequest> {
         log.info("Ping Request Received: {}.", httpRequest);
         if (DEEP_PING_URI.equals(httpRequest.uri())) {
             handlePing(channelHandlerContext, httpRequest);
+        } else if (METRICS_URI.equals(httpRequest.uri())) {
+            final ByteBuf metrics = channelHandlerContext.alloc().buffer();
+            proxyMetrics.writeTo(metrics);
+            final HttpResponse response = buildHttpResponse(HttpResponseStatus.OK, metrics);
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, ProxyMetrics.CONTENT_TYPE);
+            channelHandlerContext.writeAndFlush(response);
+        } else if (SLOW_REQUESTS_URI.equals(httpRequest.uri()) && proxyMetrics.getRequestTimings().isEnabled()) {
+            final ByteBuf slowRequests = channelHandlerContext.alloc().buffer();
+            proxyMetrics.getRequestTimings().writeTo(slowRequests);
+            final HttpResponse response = buildHttpResponse(HttpResponseStatus.OK, slowRequests);
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, RequestTimings.CONTENT_TYPE);
+            channelHandlerContext.writeAndFlush(response);
         } else {
             channelHandlerContext.writeAndFlush(
                     buildHttpResponse(HttpResponseStatus.NOT_FOUND, Unpooled.EMPTY_BUFFER).retainedDuplicate());
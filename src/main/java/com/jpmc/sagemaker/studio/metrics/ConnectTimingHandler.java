@@ -0,0 +1,52 @@
+package com.jpmc.sagemaker.studio.metrics;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.ssl.SslHandler;
+
+import java.net.SocketAddress;
+
+/**
+ * Times the TCP connect of a Backend connection and the TLS handshake that
+ * follows it, then takes itself out of the pipeline. Host names are resolved
+ * before the connect reaches the pipeline, so lookups are not included.
+ */
+public class ConnectTimingHandler extends ChannelOutboundHandlerAdapter {
+
+    private final ProxyMetrics proxyMetrics;
+
+    public ConnectTimingHandler(final ProxyMetrics proxyMetrics) {
+        this.proxyMetrics = proxyMetrics;
+    }
+
+    @Override
+    public void connect(final ChannelHandlerContext channelHandlerContext, final SocketAddress remoteAddress,
+            final SocketAddress localAddress, final ChannelPromise promise) throws Exception {
+        final long connectStartNanos = System.nanoTime();
+        promise.addListener((ChannelFutureListener) connectFuture -> {
+            if (connectFuture.isSuccess()) {
+                final long connectedNanos = System.nanoTime();
+                proxyMetrics.backendConnected(connectedNanos - connectStartNanos);
+                final SslHandler sslHandler = connectFuture.channel().pipeline().get(SslHandler.class);
+                if (sslHandler != null) {
+                    sslHandler.handshakeFuture().addListener(handshakeFuture -> {
+                        if (handshakeFuture.isSuccess()) {
+                            proxyMetrics.tlsHandshakeCompleted(System.nanoTime() - connectedNanos);
+                        }
+                    });
+                }
+            }
+            removeFrom(connectFuture);
+        });
+        super.connect(channelHandlerContext, remoteAddress, localAddress, promise);
+    }
+
+    private void removeFrom(final ChannelFuture connectFuture) {
+        if (connectFuture.channel().pipeline().context(this) != null) {
+            connectFuture.channel().pipeline().remove(this);
+        }
+    }
+}
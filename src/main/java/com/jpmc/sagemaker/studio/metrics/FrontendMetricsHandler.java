@@ -0,0 +1,122 @@
+package com.jpmc.sagemaker.studio.metrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+
+/**
+ * Records the requests, responses and WebSocket traffic of one Browser
+ * connection in {@link ProxyMetrics}. It sits right behind the HTTP codec, so
+ * once a WebSocket handshake replaced the codec it sees the decoded frames, or
+ * the raw bytes in tunnel mode. On an HTTP/2 stream channel it counts the
+ * stream instead of a connection.
+ */
+public class FrontendMetricsHandler extends ChannelDuplexHandler {
+
+    // Deeper pipelines of requests are counted but not timed
+    private static final int MAX_TIMED_REQUESTS = 8;
+
+    private final ProxyMetrics proxyMetrics;
+    // Arrival times of the requests that have not been answered yet, oldest first
+    private final long[] requestStartNanos = new long[MAX_TIMED_REQUESTS];
+    private int oldestRequest;
+    private int pendingRequests;
+    private boolean firstByteSent;
+    private boolean active;
+    private boolean stream;
+    private boolean webSocket;
+
+    public FrontendMetricsHandler(final ProxyMetrics proxyMetrics) {
+        this.proxyMetrics = proxyMetrics;
+    }
+
+    @Override
+    public void channelActive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+        active = true;
+        stream = channelHandlerContext.channel() instanceof Http2StreamChannel;
+        if (stream) {
+            proxyMetrics.http2StreamOpened();
+        } else {
+            proxyMetrics.httpConnectionOpened();
+        }
+        super.channelActive(channelHandlerContext);
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+        if (message instanceof HttpRequest) {
+            proxyMetrics.requestReceived();
+            if (pendingRequests < MAX_TIMED_REQUESTS) {
+                requestStartNanos[(oldestRequest + pendingRequests) % MAX_TIMED_REQUESTS] = System.nanoTime();
+                pendingRequests++;
+            }
+        } else if (webSocket) {
+            relayed(ProxyMetrics.Direction.BROWSER_TO_BACKEND, message);
+        }
+        super.channelRead(channelHandlerContext, message);
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext channelHandlerContext, final Object message,
+            final ChannelPromise promise) throws Exception {
+        if (message instanceof HttpResponse) {
+            responseSent((HttpResponse) message);
+        } else if (webSocket) {
+            relayed(ProxyMetrics.Direction.BACKEND_TO_BROWSER, message);
+        }
+        super.write(channelHandlerContext, message, promise);
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+        if (active) {
+            active = false;
+            if (stream) {
+                proxyMetrics.http2StreamClosed();
+            } else if (webSocket) {
+                proxyMetrics.webSocketClosed();
+            } else {
+                proxyMetrics.httpConnectionClosed();
+            }
+        }
+        super.channelInactive(channelHandlerContext);
+    }
+
+    private void responseSent(final HttpResponse response) {
+        final HttpResponseStatus status = response.status();
+        proxyMetrics.responseSent(status.codeClass());
+        if (pendingRequests == 0) {
+            return;
+        }
+        if (!firstByteSent) {
+            proxyMetrics.timeToFirstByte(System.nanoTime() - requestStartNanos[oldestRequest]);
+            firstByteSent = true;
+        }
+        // A 100 Continue is followed by the actual response to the same request
+        final boolean switchingProtocols = HttpResponseStatus.SWITCHING_PROTOCOLS.equals(status);
+        if (switchingProtocols || !HttpStatusClass.INFORMATIONAL.equals(status.codeClass())) {
+            oldestRequest = (oldestRequest + 1) % MAX_TIMED_REQUESTS;
+            pendingRequests--;
+            firstByteSent = false;
+        }
+        if (switchingProtocols && active && !webSocket) {
+            webSocket = true;
+            proxyMetrics.webSocketOpened();
+        }
+    }
+
+    private void relayed(final ProxyMetrics.Direction direction, final Object message) {
+        if (message instanceof WebSocketFrame) {
+            proxyMetrics.webSocketRelayed(direction, 1, ((WebSocketFrame) message).content().readableBytes());
+        } else if (message instanceof ByteBuf) {
+            proxyMetrics.webSocketRelayed(direction, 0, ((ByteBuf) message).readableBytes());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.jpmc.sagemaker.studio.metrics;
+
+import io.netty.buffer.ByteBuf;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets: every power of two
+ * between 16 microseconds and about 33 seconds is split in two, so a recorded
+ * value is off by at most half a bucket (25%). Recording a value does not
+ * allocate.
+ */
+public final class LatencyHistogram {
+
+    private static final int MIN_MAGNITUDE = 4;
+    private static final int MAX_MAGNITUDE = 24;
+    // One bucket up to 2^MIN_MAGNITUDE, two per power of two above it and one for
+    // everything beyond the last bound
+    private static final int BUCKETS = 2 + 2 * (MAX_MAGNITUDE - MIN_MAGNITUDE + 1);
+    private static final String[] BUCKET_BOUNDS = new String[BUCKETS - 1];
+
+    static {
+        BUCKET_BOUNDS[0] = toSeconds(1L << MIN_MAGNITUDE);
+        for (int magnitude = MIN_MAGNITUDE; magnitude <= MAX_MAGNITUDE; magnitude++) {
+            final int index = 1 + 2 * (magnitude - MIN_MAGNITUDE);
+            BUCKET_BOUNDS[index] = toSeconds(3L << (magnitude - 1));
+            BUCKET_BOUNDS[index + 1] = toSeconds(1L << (magnitude + 1));
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sumMicros = new LongAdder();
+
+    public void record(final long durationNanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(durationNanos, 0));
+        counts.incrementAndGet(bucketOf(micros));
+        sumMicros.add(micros);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    static int bucketOf(final long micros) {
+        if (micros <= 1L << MIN_MAGNITUDE) {
+            return 0;
+        }
+        // 2^magnitude < micros <= 2^(magnitude + 1), the next bit tells which half
+        final int magnitude = 63 - Long.numberOfLeadingZeros(micros - 1);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        return 1 + 2 * (magnitude - MIN_MAGNITUDE) + (int) ((micros - 1) >>> (magnitude - 1) & 1);
+    }
+
+    /**
+     * Writes the histogram in the Prometheus text format.
+     */
+    void writeTo(final ByteBuf out, final String name, final String help) {
+        TextExposition.writeHeader(out, name, help, "histogram");
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            cumulative += counts.get(i);
+            TextExposition.writeSample(out, name, "_bucket", "le", BUCKET_BOUNDS[i], cumulative);
+        }
+        cumulative += counts.get(BUCKETS - 1);
+        TextExposition.writeSample(out, name, "_bucket", "le", "+Inf", cumulative);
+        TextExposition.writeSecondsSample(out, name, "_sum", sumMicros.sum());
+        TextExposition.writeSample(out, name, "_count", null, null, cumulative);
+    }
+
+    private static String toSeconds(final long micros) {
+        return BigDecimal.valueOf(micros, 6).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,425 @@
+package com.jpmc.sagemaker.studio.metrics;
+
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudget;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the Reverse Proxy, served in the
+ * Prometheus text format on the health check server's /metrics. Everything is
+ * recorded with lock-free adders from the event loops, and the gauges of the
+ * buffer allocator, the event loops, the {@link ResponseCache} and the
+ * {@link MemoryBudget} are read when the metrics are written. The phase
+ * timings of single requests are kept apart, in {@link RequestTimings}.
+ */
+public class ProxyMetrics {
+
+    /**
+     * Direction of WebSocket traffic through the proxy.
+     */
+    public enum Direction {
+        BROWSER_TO_BACKEND("browser_to_backend"), BACKEND_TO_BROWSER("backend_to_browser");
+
+        private final String label;
+
+        Direction(final String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Why the proxy closed a connection that went quiet.
+     */
+    public enum ReapCause {
+        READER_IDLE("reader_idle"), WRITER_IDLE("writer_idle"), ALL_IDLE("all_idle"), PING_TIMEOUT("ping_timeout");
+
+        private final String label;
+
+        ReapCause(final String label) {
+            this.label = label;
+        }
+    }
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final HttpStatusClass[] STATUS_CLASSES = HttpStatusClass.values();
+    private static final String[] STATUS_CLASS_LABELS = { "1xx", "2xx", "3xx", "4xx", "5xx", "unknown" };
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final ReapCause[] REAP_CAUSES = ReapCause.values();
+
+    private final EventExecutorGroup eventLoops;
+    private final ResponseCache responseCache;
+    private final MemoryBudget memoryBudget;
+    private final ByteBufAllocator allocator;
+    private final RequestTimings requestTimings;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder[] responses = newAdders(STATUS_CLASSES.length);
+    private final LongAdder activeHttpConnections = new LongAdder();
+    private final LongAdder activeHttp2Streams = new LongAdder();
+    private final LongAdder activeWebSocketConnections = new LongAdder();
+    private final LongAdder[] webSocketFrames = newAdders(DIRECTIONS.length);
+    private final LongAdder[] webSocketBytes = newAdders(DIRECTIONS.length);
+    private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+    private final LatencyHistogram backendConnectTime = new LatencyHistogram();
+    private final LatencyHistogram tlsHandshakeTime = new LatencyHistogram();
+    private final LongAdder usedPreconnects = new LongAdder();
+    private final LongAdder unusedPreconnects = new LongAdder();
+    private final LongAdder rateThrottledRequests = new LongAdder();
+    private final LongAdder concurrencyThrottledRequests = new LongAdder();
+    private final LongAdder[] reapedConnections = newAdders(REAP_CAUSES.length);
+    private final LongAdder openedCircuits = new LongAdder();
+    private final LongAdder closedCircuits = new LongAdder();
+    private final LongAdder circuitRejectedRequests = new LongAdder();
+
+    /**
+     * @param eventLoops whose pending tasks are reported.
+     */
+    public ProxyMetrics(final EventExecutorGroup eventLoops, final ResponseCache responseCache,
+            final MemoryBudget memoryBudget) {
+        this(eventLoops, responseCache, memoryBudget, ByteBufAllocator.DEFAULT);
+    }
+
+    public ProxyMetrics(final EventExecutorGroup eventLoops, final ResponseCache responseCache,
+            final MemoryBudget memoryBudget, final ByteBufAllocator allocator) {
+        this(eventLoops, responseCache, memoryBudget, allocator,
+                new RequestTimings(RequestTimingConfig.builder().build()));
+    }
+
+    public ProxyMetrics(final EventExecutorGroup eventLoops, final ResponseCache responseCache,
+            final MemoryBudget memoryBudget, final ByteBufAllocator allocator, final RequestTimings requestTimings) {
+        this.eventLoops = eventLoops;
+        this.responseCache = responseCache;
+        this.memoryBudget = memoryBudget;
+        this.allocator = allocator;
+        this.requestTimings = requestTimings;
+    }
+
+    public RequestTimings getRequestTimings() {
+        return requestTimings;
+    }
+
+    public void requestReceived() {
+        requests.increment();
+    }
+
+    public void responseSent(final HttpStatusClass statusClass) {
+        responses[statusClass.ordinal()].increment();
+    }
+
+    public void timeToFirstByte(final long nanos) {
+        timeToFirstByte.record(nanos);
+    }
+
+    public void backendConnected(final long nanos) {
+        backendConnectTime.record(nanos);
+    }
+
+    public void tlsHandshakeCompleted(final long nanos) {
+        tlsHandshakeTime.record(nanos);
+    }
+
+    /**
+     * @param used whether the connection leased ahead of the request served it.
+     */
+    public void preconnectEnded(final boolean used) {
+        (used ? usedPreconnects : unusedPreconnects).increment();
+    }
+
+    /**
+     * A request was answered with a 429.
+     *
+     * @param rate whether the user sent too many requests per second, rather
+     *             than too many at once.
+     */
+    public void requestThrottled(final boolean rate) {
+        (rate ? rateThrottledRequests : concurrencyThrottledRequests).increment();
+    }
+
+    /**
+     * A connection, on either leg, was closed because it went quiet.
+     */
+    public void connectionReaped(final ReapCause cause) {
+        reapedConnections[cause.ordinal()].increment();
+    }
+
+    /**
+     * The circuit to a Backend Server opened, or closed again after a probe.
+     */
+    public void circuitChanged(final boolean opened) {
+        (opened ? openedCircuits : closedCircuits).increment();
+    }
+
+    /**
+     * A request was answered with a 503 because the circuit to its Backend
+     * Server is open.
+     */
+    public void requestRejectedByCircuit() {
+        circuitRejectedRequests.increment();
+    }
+
+    public void httpConnectionOpened() {
+        activeHttpConnections.increment();
+    }
+
+    public void httpConnectionClosed() {
+        activeHttpConnections.decrement();
+    }
+
+    public void http2StreamOpened() {
+        activeHttp2Streams.increment();
+    }
+
+    public void http2StreamClosed() {
+        activeHttp2Streams.decrement();
+    }
+
+    /**
+     * A Browser connection was upgraded to a WebSocket.
+     */
+    public void webSocketOpened() {
+        activeHttpConnections.decrement();
+        activeWebSocketConnections.increment();
+    }
+
+    /**
+     * A WebSocket was bootstrapped on an HTTP/2 stream, which is still counted
+     * as an open stream.
+     */
+    public void webSocketStreamOpened() {
+        activeWebSocketConnections.increment();
+    }
+
+    public void webSocketClosed() {
+        activeWebSocketConnections.decrement();
+    }
+
+    /**
+     * @param frames 0 for bytes relayed in tunnel mode, where frames are not
+     *               decoded.
+     */
+    public void webSocketRelayed(final Direction direction, final int frames, final long bytes) {
+        webSocketFrames[direction.ordinal()].add(frames);
+        webSocketBytes[direction.ordinal()].add(bytes);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getResponses(final HttpStatusClass statusClass) {
+        return responses[statusClass.ordinal()].sum();
+    }
+
+    public long getActiveHttpConnections() {
+        return activeHttpConnections.sum();
+    }
+
+    public long getActiveHttp2Streams() {
+        return activeHttp2Streams.sum();
+    }
+
+    public long getActiveWebSocketConnections() {
+        return activeWebSocketConnections.sum();
+    }
+
+    public long getWebSocketFrames(final Direction direction) {
+        return webSocketFrames[direction.ordinal()].sum();
+    }
+
+    public long getWebSocketBytes(final Direction direction) {
+        return webSocketBytes[direction.ordinal()].sum();
+    }
+
+    public long getPreconnects(final boolean used) {
+        return (used ? usedPreconnects : unusedPreconnects).sum();
+    }
+
+    public long getThrottledRequests(final boolean rate) {
+        return (rate ? rateThrottledRequests : concurrencyThrottledRequests).sum();
+    }
+
+    public long getReapedConnections(final ReapCause cause) {
+        return reapedConnections[cause.ordinal()].sum();
+    }
+
+    public long getCircuitChanges(final boolean opened) {
+        return (opened ? openedCircuits : closedCircuits).sum();
+    }
+
+    public long getCircuitRejectedRequests() {
+        return circuitRejectedRequests.sum();
+    }
+
+    public LatencyHistogram getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format.
+     */
+    public void writeTo(final ByteBuf out) {
+        TextExposition.writeHeader(out, "proxy_http_requests_total", "HTTP requests received from Browsers.",
+                "counter");
+        TextExposition.writeSample(out, "proxy_http_requests_total", null, null, null, requests.sum());
+        TextExposition.writeHeader(out, "proxy_http_responses_total", "HTTP responses sent to Browsers.", "counter");
+        for (int i = 0; i < STATUS_CLASSES.length; i++) {
+            TextExposition.writeSample(out, "proxy_http_responses_total", null, "status_class",
+                    STATUS_CLASS_LABELS[i], responses[i].sum());
+        }
+        timeToFirstByte.writeTo(out, "proxy_http_time_to_first_byte_seconds",
+                "Time from receiving a request to sending the response headers.");
+        backendConnectTime.writeTo(out, "proxy_backend_connect_seconds",
+                "Time to open a TCP connection to a Backend Server.");
+        tlsHandshakeTime.writeTo(out, "proxy_backend_tls_handshake_seconds",
+                "Time of the TLS handshake with a Backend Server.");
+        TextExposition.writeHeader(out, "proxy_backend_preconnects_total",
+                "Backend connections leased when a Browser connected, before its request.", "counter");
+        TextExposition.writeSample(out, "proxy_backend_preconnects_total", null, "result", "used",
+                usedPreconnects.sum());
+        TextExposition.writeSample(out, "proxy_backend_preconnects_total", null, "result", "unused",
+                unusedPreconnects.sum());
+        TextExposition.writeHeader(out, "proxy_http_throttled_requests_total",
+                "HTTP requests answered with a 429 by the per user limits.", "counter");
+        TextExposition.writeSample(out, "proxy_http_throttled_requests_total", null, "reason", "rate",
+                rateThrottledRequests.sum());
+        TextExposition.writeSample(out, "proxy_http_throttled_requests_total", null, "reason", "concurrency",
+                concurrencyThrottledRequests.sum());
+        TextExposition.writeHeader(out, "proxy_connections_reaped_total",
+                "Browser and Backend connections closed by the proxy because they went quiet.", "counter");
+        for (ReapCause cause : REAP_CAUSES) {
+            TextExposition.writeSample(out, "proxy_connections_reaped_total", null, "cause", cause.label,
+                    reapedConnections[cause.ordinal()].sum());
+        }
+        TextExposition.writeHeader(out, "proxy_backend_circuit_transitions_total",
+                "Circuits to Backend Servers opened by failures, and closed again by a probe.", "counter");
+        TextExposition.writeSample(out, "proxy_backend_circuit_transitions_total", null, "state", "open",
+                openedCircuits.sum());
+        TextExposition.writeSample(out, "proxy_backend_circuit_transitions_total", null, "state", "closed",
+                closedCircuits.sum());
+        TextExposition.writeHeader(out, "proxy_http_circuit_rejected_requests_total",
+                "HTTP requests answered with a 503 because the circuit to their Backend Server is open.", "counter");
+        TextExposition.writeSample(out, "proxy_http_circuit_rejected_requests_total", null, null, null,
+                circuitRejectedRequests.sum());
+
+        writeGauge(out, "proxy_http_active_connections", "Open HTTP connections from Browsers.",
+                activeHttpConnections.sum());
+        writeGauge(out, "proxy_http2_active_streams", "Open HTTP/2 streams from Browsers.",
+                activeHttp2Streams.sum());
+        writeGauge(out, "proxy_websocket_active_connections", "Open WebSocket connections from Browsers.",
+                activeWebSocketConnections.sum());
+        TextExposition.writeHeader(out, "proxy_websocket_frames_total",
+                "WebSocket frames relayed, not counted in tunnel mode.", "counter");
+        for (Direction direction : DIRECTIONS) {
+            TextExposition.writeSample(out, "proxy_websocket_frames_total", null, "direction", direction.label,
+                    webSocketFrames[direction.ordinal()].sum());
+        }
+        TextExposition.writeHeader(out, "proxy_websocket_bytes_total",
+                "WebSocket payload bytes relayed, raw bytes in tunnel mode.", "counter");
+        for (Direction direction : DIRECTIONS) {
+            TextExposition.writeSample(out, "proxy_websocket_bytes_total", null, "direction", direction.label,
+                    webSocketBytes[direction.ordinal()].sum());
+        }
+
+        writeCacheMetrics(out);
+        writeMemoryBudgetMetrics(out);
+        writeAllocatorMetrics(out);
+        writeEventLoopMetrics(out);
+    }
+
+    private void writeCacheMetrics(final ByteBuf out) {
+        TextExposition.writeHeader(out, "proxy_cache_requests_total", "Response cache lookups.", "counter");
+        TextExposition.writeSample(out, "proxy_cache_requests_total", null, "result", "hit", responseCache.getHits());
+        TextExposition.writeSample(out, "proxy_cache_requests_total", null, "result", "miss",
+                responseCache.getMisses());
+        TextExposition.writeSample(out, "proxy_cache_requests_total", null, "result", "not_modified",
+                responseCache.getNotModified());
+        writeCounter(out, "proxy_cache_revalidations_total", "Background revalidations of stale entries.",
+                responseCache.getRevalidations());
+        writeCounter(out, "proxy_cache_evictions_total", "Entries evicted from the response cache.",
+                responseCache.getEvictions());
+        writeGauge(out, "proxy_cache_entries", "Entries in the response cache.", responseCache.getEntries());
+        writeGauge(out, "proxy_cache_size_bytes", "Size of the cached bodies.", responseCache.getSizeBytes());
+    }
+
+    private void writeMemoryBudgetMetrics(final ByteBuf out) {
+        writeGauge(out, "proxy_memory_budget_in_flight_bytes", "Bytes of aggregated HTTP bodies held in memory.",
+                memoryBudget.getInFlightBytes());
+        writeGauge(out, "proxy_memory_budget_max_bytes", "Bytes of aggregated HTTP bodies that may be held at once.",
+                memoryBudget.getMaxInFlightBytes());
+        TextExposition.writeHeader(out, "proxy_memory_budget_rejections_total",
+                "Large HTTP bodies turned away because they did not fit in the memory budget.", "counter");
+        TextExposition.writeSample(out, "proxy_memory_budget_rejections_total", null, "message", "request",
+                memoryBudget.getRejections(true));
+        TextExposition.writeSample(out, "proxy_memory_budget_rejections_total", null, "message", "response",
+                memoryBudget.getRejections(false));
+    }
+
+    private void writeAllocatorMetrics(final ByteBuf out) {
+        if (!(allocator instanceof ByteBufAllocatorMetricProvider)) {
+            return;
+        }
+        final ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) allocator).metric();
+        writeGauge(out, "netty_allocator_used_heap_memory_bytes", "Heap memory held by the buffer allocator.",
+                metric.usedHeapMemory());
+        writeGauge(out, "netty_allocator_used_direct_memory_bytes", "Direct memory held by the buffer allocator.",
+                metric.usedDirectMemory());
+        if (metric instanceof PooledByteBufAllocatorMetric) {
+            final PooledByteBufAllocatorMetric pooledMetric = (PooledByteBufAllocatorMetric) metric;
+            writeGauge(out, "netty_allocator_thread_local_caches", "Thread local caches of the pooled allocator.",
+                    pooledMetric.numThreadLocalCaches());
+            long activeAllocations = 0;
+            long activeBytes = 0;
+            for (PoolArenaMetric arena : pooledMetric.directArenas()) {
+                activeAllocations += arena.numActiveAllocations();
+                activeBytes += arena.numActiveBytes();
+            }
+            writeGauge(out, "netty_allocator_direct_active_allocations",
+                    "Direct buffers currently allocated from the pooled arenas.", activeAllocations);
+            writeGauge(out, "netty_allocator_direct_active_bytes",
+                    "Bytes of the chunks in use by the pooled direct arenas.", activeBytes);
+        }
+    }
+
+    private void writeEventLoopMetrics(final ByteBuf out) {
+        TextExposition.writeHeader(out, "netty_event_loop_pending_tasks", "Tasks waiting to run on an event loop.",
+                "gauge");
+        int index = 0;
+        for (EventExecutor eventLoop : eventLoops) {
+            if (eventLoop instanceof SingleThreadEventExecutor) {
+                TextExposition.writeSample(out, "netty_event_loop_pending_tasks", null, "event_loop",
+                        Integer.toString(index), ((SingleThreadEventExecutor) eventLoop).pendingTasks());
+            }
+            index++;
+        }
+    }
+
+    private static void writeCounter(final ByteBuf out, final String name, final String help, final long value) {
+        TextExposition.writeHeader(out, name, help, "counter");
+        TextExposition.writeSample(out, name, null, null, null, value);
+    }
+
+    private static void writeGauge(final ByteBuf out, final String name, final String help, final long value) {
+        TextExposition.writeHeader(out, name, help, "gauge");
+        TextExposition.writeSample(out, name, null, null, null, value);
+    }
+
+    private static LongAdder[] newAdders(final int count) {
+        final LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,245 @@
+package com.jpmc.sagemaker.studio.metrics;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+import com.jpmc.sagemaker.studio.utils.NettyUtils;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.Future;
+
+import java.util.Arrays;
+
+/**
+ * When one proxied request, or WebSocket handshake, reached each of its
+ * phases, relative to when its headers were decoded. The record is only used
+ * from the event loop of the Browser channel, which its Backend channel shares,
+ * until it is finished and handed to {@link RequestTimings}. It is not changed
+ * after that.
+ */
+public final class RequestTiming {
+
+    /**
+     * What the request was proxied as.
+     */
+    public enum Kind {
+        HTTP, WEBSOCKET
+    }
+
+    /**
+     * Phases of a request, in the order they are normally reached. A phase that
+     * was not reached, e.g. the TLS handshake of a reused Backend connection, is
+     * left out.
+     */
+    public enum Phase {
+        /**
+         * The whole request, including its body, was received from the Browser.
+         */
+        DECODED("decoded"),
+        /**
+         * A Backend connection was leased from the pool, or connected for a
+         * WebSocket.
+         */
+        BACKEND_ACQUIRED("backend_acquired"),
+        /**
+         * The TLS handshake of a new Backend connection finished.
+         */
+        TLS_HANDSHAKE("tls_handshake"),
+        /**
+         * The end of the request, or the WebSocket handshake request, was written
+         * to the Backend Server.
+         */
+        REQUEST_WRITTEN("request_written"),
+        /**
+         * The response headers arrived from the Backend Server.
+         */
+        FIRST_BYTE("first_byte"),
+        /**
+         * The end of the response, or of the WebSocket handshake response, was
+         * flushed to the Browser.
+         */
+        LAST_BYTE_FLUSHED("last_byte_flushed");
+
+        private final String label;
+
+        Phase(final String label) {
+            this.label = label;
+        }
+
+        String getLabel() {
+            return label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * Timing of the requests that are not recorded, it ignores everything.
+     */
+    public static final RequestTiming NONE = new RequestTiming(null, Kind.HTTP, null, null, null);
+
+    private final RequestTimings timings;
+    private final Kind kind;
+    private final HttpMethod method;
+    private final String uri;
+    private final Route route;
+    private final long startedAtMillis;
+    private final long startNanos;
+    // Nanoseconds from the start to each phase, -1 for the phases not reached
+    private final long[] phaseNanos = new long[PHASES.length];
+    private int status;
+    private long durationNanos = -1;
+    private long finishedAtNanos;
+
+    RequestTiming(final RequestTimings timings, final Kind kind, final HttpMethod method, final String uri,
+            final Route route) {
+        this.timings = timings;
+        this.kind = kind;
+        this.method = method;
+        this.uri = pathOf(uri);
+        this.route = route;
+        this.startedAtMillis = timings != null ? System.currentTimeMillis() : 0;
+        this.startNanos = timings != null ? System.nanoTime() : 0;
+        Arrays.fill(phaseNanos, -1);
+    }
+
+    /**
+     * Records that the request reached the phase now, unless it reached it
+     * before.
+     */
+    public void phase(final Phase phase) {
+        if (isRecording() && phaseNanos[phase.ordinal()] < 0) {
+            phaseNanos[phase.ordinal()] = System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * Records the phase once the write or connect succeeds.
+     */
+    public void phaseOnSuccess(final Phase phase, final Future<?> future) {
+        if (isRecording()) {
+            future.addListener(completed -> {
+                if (completed.isSuccess()) {
+                    phase(phase);
+                }
+            });
+        }
+    }
+
+    /**
+     * Records the end of the TLS handshake with the Backend Server, if the
+     * Backend connection is still in it. A reused connection is past it.
+     */
+    public void awaitTlsHandshake(final Channel backendChannel) {
+        if (!isRecording()) {
+            return;
+        }
+        final SslHandler sslHandler = NettyUtils.connectionChannel(backendChannel).pipeline().get(SslHandler.class);
+        if (sslHandler != null && !sslHandler.handshakeFuture().isDone()) {
+            phaseOnSuccess(Phase.TLS_HANDSHAKE, sslHandler.handshakeFuture());
+        }
+    }
+
+    /**
+     * @param status of the response of the Backend Server.
+     */
+    public void status(final int status) {
+        if (isRecording()) {
+            this.status = status;
+        }
+    }
+
+    /**
+     * Finishes the timing once the last write of the response to the Browser is
+     * flushed.
+     */
+    public void finishOnFlush(final Future<?> lastWrite) {
+        if (isRecording()) {
+            lastWrite.addListener(completed -> {
+                if (completed.isSuccess()) {
+                    phase(Phase.LAST_BYTE_FLUSHED);
+                }
+                finish();
+            });
+        }
+    }
+
+    /**
+     * Hands the timing to {@link RequestTimings}. A request that is finished
+     * before its response was flushed, because either side went away, is
+     * recorded with the phases it reached.
+     */
+    public void finish() {
+        if (isRecording()) {
+            finishedAtNanos = System.nanoTime();
+            durationNanos = finishedAtNanos - startNanos;
+            timings.record(this);
+        }
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the path of the request URI. The query is not kept, Jupyter
+     *         passes tokens in it and the timings are served without
+     *         authentication.
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * @return the wall clock time the request headers were decoded at.
+     */
+    public long getStartedAtMillis() {
+        return startedAtMillis;
+    }
+
+    /**
+     * @return the status of the Backend response, 0 if none arrived.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the time from decoding the request headers to finishing, -1 while
+     *         the request is in flight.
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    long getFinishedAtNanos() {
+        return finishedAtNanos;
+    }
+
+    /**
+     * @return the time from decoding the request headers to the phase, -1 if
+     *         the request did not reach it.
+     */
+    public long getPhaseNanos(final Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    private static String pathOf(final String uri) {
+        if (uri == null) {
+            return null;
+        }
+        final int query = uri.indexOf('?');
+        return query < 0 ? uri : uri.substring(0, query);
+    }
+
+    private boolean isRecording() {
+        return timings != null && durationNanos < 0;
+    }
+}
@@ -0,0 +1,43 @@
+package com.jpmc.sagemaker.studio.metrics;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Settings of the per request phase timings kept for the health check
+ * server's /slow_requests. Defaults can be overridden through JVM system
+ * properties on the start command.
+ */
+@Value
+@Builder
+public class RequestTimingConfig {
+
+    private static final String PROPERTY_PREFIX = "reverseproxy.timing.";
+
+    boolean enabled;
+
+    /**
+     * Number of finished requests kept, the oldest is overwritten by the next
+     * one. Rounded up to a power of two.
+     */
+    int bufferSize;
+
+    /**
+     * Only requests that finished this recently are reported.
+     */
+    long windowMillis;
+
+    /**
+     * Number of the slowest requests of the window that are reported.
+     */
+    int slowestCount;
+
+    public static RequestTimingConfig fromSystemProperties() {
+        return RequestTimingConfig.builder()
+                .enabled(Boolean.getBoolean(PROPERTY_PREFIX + "enabled"))
+                .bufferSize(Integer.getInteger(PROPERTY_PREFIX + "bufferSize", 4096))
+                .windowMillis(Long.getLong(PROPERTY_PREFIX + "windowMillis", 300_000L))
+                .slowestCount(Integer.getInteger(PROPERTY_PREFIX + "slowestCount", 20))
+                .build();
+    }
+}
@@ -0,0 +1,129 @@
+package com.jpmc.sagemaker.studio.metrics;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.http.HttpMethod;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ring buffer of the {@link RequestTiming}s of the requests that finished
+ * last, served on the health check server's /slow_requests. Event loops record
+ * a finished timing with one increment and one store, without locks, and the
+ * oldest timing is overwritten once the buffer is full. The slowest requests
+ * of the window are only picked when they are asked for.
+ */
+public class RequestTimings {
+
+    public static final String CONTENT_TYPE = "text/plain; charset=utf-8";
+
+    private static final Comparator<RequestTiming> SLOWEST_FIRST = Comparator
+            .comparingLong(RequestTiming::getDurationNanos).reversed();
+
+    private final RequestTimingConfig config;
+    private final AtomicReferenceArray<RequestTiming> buffer;
+    private final int mask;
+    private final AtomicLong recorded = new AtomicLong();
+
+    public RequestTimings(final RequestTimingConfig config) {
+        this.config = config;
+        final int size = config.isEnabled() ? Math.max(1, config.getBufferSize()) : 1;
+        final int capacity = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+        this.buffer = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * Starts timing a request whose headers were just decoded.
+     *
+     * @return the timing to record the phases of the request in, which ignores
+     *         them if timings are disabled.
+     */
+    public RequestTiming start(final RequestTiming.Kind kind, final HttpMethod method, final String uri,
+            final Route route) {
+        return config.isEnabled() ? new RequestTiming(this, kind, method, uri, route) : RequestTiming.NONE;
+    }
+
+    /**
+     * @return the number of requests recorded since the start, including the
+     *         ones that were overwritten since.
+     */
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    /**
+     * @return the slowest requests that finished within the window, slowest
+     *         first.
+     */
+    public List<RequestTiming> getSlowest() {
+        final long windowStartNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(config.getWindowMillis());
+        final List<RequestTiming> finished = new ArrayList<>();
+        for (int i = 0; i < buffer.length(); i++) {
+            final RequestTiming timing = buffer.get(i);
+            if (timing != null && timing.getFinishedAtNanos() - windowStartNanos >= 0) {
+                finished.add(timing);
+            }
+        }
+        finished.sort(SLOWEST_FIRST);
+        return finished.size() > config.getSlowestCount()
+                ? new ArrayList<>(finished.subList(0, config.getSlowestCount()))
+                : finished;
+    }
+
+    /**
+     * Writes the slowest requests of the window, one per line with the time of
+     * each phase in milliseconds from the decoded request headers.
+     */
+    public void writeTo(final ByteBuf out) {
+        final List<RequestTiming> slowest = getSlowest();
+        final StringBuilder text = new StringBuilder();
+        text.append("# ").append(slowest.size()).append(" slowest requests finished in the last ")
+                .append(TimeUnit.MILLISECONDS.toSeconds(config.getWindowMillis())).append(" s, ")
+                .append(recorded.get()).append(" recorded in total\n");
+        for (RequestTiming timing : slowest) {
+            appendMillis(text.append("duration_ms="), timing.getDurationNanos());
+            text.append(" kind=").append(timing.getKind().name().toLowerCase(Locale.ROOT))
+                    .append(" method=").append(timing.getMethod())
+                    .append(" uri=").append(timing.getUri())
+                    .append(" route=").append(timing.getRoute())
+                    .append(" status=").append(timing.getStatus() > 0 ? String.valueOf(timing.getStatus()) : "-")
+                    .append(" started_at=").append(Instant.ofEpochMilli(timing.getStartedAtMillis()));
+            for (RequestTiming.Phase phase : RequestTiming.Phase.values()) {
+                if (timing.getPhaseNanos(phase) >= 0) {
+                    appendMillis(text.append(' ').append(phase.getLabel()).append("_ms="),
+                            timing.getPhaseNanos(phase));
+                }
+            }
+            text.append('\n');
+        }
+        ByteBufUtil.writeUtf8(out, text);
+    }
+
+    void record(final RequestTiming timing) {
+        // The store publishes the finished timing to the threads reading the buffer
+        buffer.set((int) (recorded.getAndIncrement() & mask), timing);
+    }
+
+    private static void appendMillis(final StringBuilder text, final long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        final long fraction = micros % 1000;
+        text.append(micros / 1000).append('.');
+        if (fraction < 100) {
+            text.append(fraction < 10 ? "00" : "0");
+        }
+        text.append(fraction);
+    }
+}
@@ -0,0 +1,79 @@
+package com.jpmc.sagemaker.studio.metrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+/**
+ * Writes samples in the Prometheus text exposition format straight into a
+ * buffer, without building strings for the numbers.
+ */
+final class TextExposition {
+
+    private static final int MICROS_PER_SECOND = 1_000_000;
+
+    private TextExposition() {
+    }
+
+    static void writeHeader(final ByteBuf out, final String name, final String help, final String type) {
+        ByteBufUtil.writeAscii(out, "# HELP ");
+        ByteBufUtil.writeAscii(out, name);
+        out.writeByte(' ');
+        ByteBufUtil.writeAscii(out, help);
+        ByteBufUtil.writeAscii(out, "\n# TYPE ");
+        ByteBufUtil.writeAscii(out, name);
+        out.writeByte(' ');
+        ByteBufUtil.writeAscii(out, type);
+        out.writeByte('\n');
+    }
+
+    /**
+     * Writes a sample with at most one label, the label is left out if its name
+     * is null.
+     */
+    static void writeSample(final ByteBuf out, final String name, final String suffix, final String labelName,
+            final String labelValue, final long value) {
+        writeName(out, name, suffix, labelName, labelValue);
+        writeLong(out, value);
+        out.writeByte('\n');
+    }
+
+    static void writeSecondsSample(final ByteBuf out, final String name, final String suffix, final long micros) {
+        writeName(out, name, suffix, null, null);
+        writeLong(out, micros / MICROS_PER_SECOND);
+        out.writeByte('.');
+        final long fraction = micros % MICROS_PER_SECOND;
+        for (int divisor = MICROS_PER_SECOND / 10; divisor > fraction && divisor > 1; divisor /= 10) {
+            out.writeByte('0');
+        }
+        writeLong(out, fraction);
+        out.writeByte('\n');
+    }
+
+    private static void writeName(final ByteBuf out, final String name, final String suffix, final String labelName,
+            final String labelValue) {
+        ByteBufUtil.writeAscii(out, name);
+        if (suffix != null) {
+            ByteBufUtil.writeAscii(out, suffix);
+        }
+        if (labelName != null) {
+            out.writeByte('{');
+            ByteBufUtil.writeAscii(out, labelName);
+            ByteBufUtil.writeAscii(out, "=\"");
+            ByteBufUtil.writeAscii(out, labelValue);
+            ByteBufUtil.writeAscii(out, "\"}");
+        }
+        out.writeByte(' ');
+    }
+
+    private static void writeLong(final ByteBuf out, final long value) {
+        if (value < 0) {
+            out.writeByte('-');
+            writeLong(out, -value);
+            return;
+        }
+        if (value >= 10) {
+            writeLong(out, value / 10);
+        }
+        out.writeByte('0' + (int) (value % 10));
+    }
+}
@@ -0,0 +1,69 @@
+package com.jpmc.sagemaker.studio.ratelimit;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Settings of the limits applied to each user of the proxy. Defaults can be
+ * overridden through JVM system properties on the start command.
+ */
+@Value
+@Builder
+public class RateLimitConfig {
+
+    private static final String PROPERTY_PREFIX = "reverseproxy.ratelimit.";
+
+    boolean enabled;
+
+    /**
+     * Request header naming the user, looked at before the cookie. Not used if
+     * null.
+     */
+    String userHeader;
+
+    /**
+     * Cookie naming the user. Requests without the header or the cookie are
+     * limited by the address of the Browser.
+     */
+    String userCookie;
+
+    /**
+     * Requests and WebSocket upgrades a user may send per second, on average.
+     */
+    double requestsPerSecond;
+
+    /**
+     * Requests a user may send at once after being idle, above the average rate.
+     */
+    int burst;
+
+    /**
+     * Requests of a user that may wait for their responses at once, across all
+     * of the user's connections.
+     */
+    int maxConcurrentRequests;
+
+    /**
+     * WebSocket connections a user may have open at once.
+     */
+    int maxWebSockets;
+
+    /**
+     * How long the limits of a user without open requests or WebSockets are
+     * kept after the user's last request.
+     */
+    long idleExpiryMillis;
+
+    public static RateLimitConfig fromSystemProperties() {
+        return RateLimitConfig.builder()
+                .enabled(Boolean.getBoolean(PROPERTY_PREFIX + "enabled"))
+                .userHeader(System.getProperty(PROPERTY_PREFIX + "userHeader"))
+                .userCookie(System.getProperty(PROPERTY_PREFIX + "userCookie", "studio_user"))
+                .requestsPerSecond(Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "requestsPerSecond", "50")))
+                .burst(Integer.getInteger(PROPERTY_PREFIX + "burst", 100))
+                .maxConcurrentRequests(Integer.getInteger(PROPERTY_PREFIX + "maxConcurrentRequests", 32))
+                .maxWebSockets(Integer.getInteger(PROPERTY_PREFIX + "maxWebSockets", 32))
+                .idleExpiryMillis(Long.getLong(PROPERTY_PREFIX + "idleExpiryMillis", 300_000L))
+                .build();
+    }
+}
@@ -0,0 +1,198 @@
+package com.jpmc.sagemaker.studio.ratelimit;
+
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.utils.HttpUtils;
+import com.jpmc.sagemaker.studio.utils.NettyUtils;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.log4j.Log4j2;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the {@link RateLimiter} to the requests of one Browser connection,
+ * or HTTP/2 stream, before they reach the HttpRequestConnectionHandler. The
+ * user is named by the configured header or cookie, or else by the address of
+ * the Browser. A request counts against the user's concurrent requests until
+ * its response has been written, a WebSocket upgrade against the user's
+ * WebSockets until the connection closes. Requests over a limit are answered
+ * with a 429 and a Retry-After. Since responses go out in request order, the
+ * 429 to a pipelined request waits for the responses before it, and the
+ * connection is closed after it.
+ */
+@Log4j2
+public class RateLimitHandler extends ChannelDuplexHandler {
+
+    private static final String CONCURRENCY_RETRY_AFTER_SECONDS = "1";
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final RateLimiter rateLimiter;
+    private final ProxyMetrics proxyMetrics;
+    // Requests passed on whose responses have not been written yet, oldest first
+    private final ArrayDeque<Admitted> admitted = new ArrayDeque<>();
+    // User of the WebSocket the connection was upgraded to
+    private RateLimiter.UserLimits webSocketUser;
+    // Content of a request that was turned away
+    private boolean discarding;
+    // 429 waiting for the responses to the requests before it
+    private FullHttpResponse deferredResponse;
+
+    public RateLimitHandler(final RateLimiter rateLimiter, final ProxyMetrics proxyMetrics) {
+        this.rateLimiter = rateLimiter;
+        this.proxyMetrics = proxyMetrics;
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+        if (deferredResponse != null) {
+            // Left for the Browser to send again, once the connection is closed
+            ReferenceCountUtil.release(message);
+            return;
+        }
+        if (discarding && !(message instanceof HttpRequest)) {
+            discarding = !(message instanceof LastHttpContent);
+            ReferenceCountUtil.release(message);
+            return;
+        }
+        if (message instanceof HttpRequest) {
+            final HttpRequest request = (HttpRequest) message;
+            final boolean webSocket = HttpUtils.isWebSocketUpgradeRequest(request.headers());
+            final RateLimiter.UserLimits user = rateLimiter.user(userOf(channelHandlerContext, request));
+            if (!user.tryOpen(webSocket)) {
+                throttle(channelHandlerContext, request, false, CONCURRENCY_RETRY_AFTER_SECONDS);
+                return;
+            }
+            final long retryAfterNanos = user.tryTakeToken();
+            if (retryAfterNanos > 0) {
+                user.close(webSocket);
+                throttle(channelHandlerContext, request, true, toRetryAfterSeconds(retryAfterNanos));
+                return;
+            }
+            admitted.add(new Admitted(user, webSocket));
+        }
+        super.channelRead(channelHandlerContext, message);
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext channelHandlerContext, final Object message,
+            final ChannelPromise promise) throws Exception {
+        if (message instanceof HttpResponse && !admitted.isEmpty()) {
+            final HttpResponseStatus status = ((HttpResponse) message).status();
+            if (HttpResponseStatus.SWITCHING_PROTOCOLS.equals(status) && admitted.peek().webSocket) {
+                // Counted until the connection closes
+                webSocketUser = admitted.poll().user;
+            } else if (!HttpStatusClass.INFORMATIONAL.equals(status.codeClass())) {
+                admitted.peek().answered = true;
+            }
+        }
+        if (message instanceof LastHttpContent && !admitted.isEmpty() && admitted.peek().answered) {
+            final Admitted answered = admitted.poll();
+            answered.user.close(answered.webSocket);
+            if (admitted.isEmpty() && deferredResponse != null) {
+                super.write(channelHandlerContext, message, promise);
+                final FullHttpResponse response = deferredResponse;
+                deferredResponse = null;
+                channelHandlerContext.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+        }
+        super.write(channelHandlerContext, message, promise);
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+        for (Admitted request : admitted) {
+            request.user.close(request.webSocket);
+        }
+        admitted.clear();
+        if (webSocketUser != null) {
+            webSocketUser.close(true);
+            webSocketUser = null;
+        }
+        if (deferredResponse != null) {
+            deferredResponse.release();
+            deferredResponse = null;
+        }
+        super.channelInactive(channelHandlerContext);
+    }
+
+    private String userOf(final ChannelHandlerContext channelHandlerContext, final HttpRequest request) {
+        final RateLimitConfig config = rateLimiter.getConfig();
+        final HttpHeaders headers = request.headers();
+        String user = config.getUserHeader() == null ? null : headers.get(config.getUserHeader());
+        if (user == null && config.getUserCookie() != null) {
+            user = HttpUtils.getCookieValue(headers, config.getUserCookie());
+        }
+        if (user == null) {
+            final SocketAddress address = NettyUtils.connectionChannel(channelHandlerContext.channel())
+                    .remoteAddress();
+            user = address instanceof InetSocketAddress
+                    ? ((InetSocketAddress) address).getAddress().getHostAddress()
+                    : String.valueOf(address);
+        }
+        return user;
+    }
+
+    private void throttle(final ChannelHandlerContext channelHandlerContext, final HttpRequest request,
+            final boolean rate, final String retryAfterSeconds) {
+        log.warn("Throttling request {}: too many {}.", request.uri(), rate ? "requests per second"
+                : "concurrent requests");
+        proxyMetrics.requestThrottled(rate);
+        final boolean keepAlive = HttpUtil.isKeepAlive(request);
+        ReferenceCountUtil.release(request);
+        discarding = !(request instanceof LastHttpContent);
+
+        final FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(),
+                HttpResponseStatus.TOO_MANY_REQUESTS, Unpooled.EMPTY_BUFFER);
+        HttpUtil.setContentLength(response, 0);
+        response.headers().set(HttpHeaderNames.RETRY_AFTER, retryAfterSeconds);
+        if (admitted.isEmpty()) {
+            HttpUtil.setKeepAlive(response, keepAlive);
+            channelHandlerContext.writeAndFlush(response)
+                    .addListener(keepAlive ? ChannelFutureListener.CLOSE_ON_FAILURE : ChannelFutureListener.CLOSE);
+        } else {
+            // Behind the responses to the earlier requests. The requests after it cannot
+            // be answered in order anymore, so the connection ends with the 429.
+            HttpUtil.setKeepAlive(response, false);
+            deferredResponse = response;
+        }
+    }
+
+    private static String toRetryAfterSeconds(final long nanos) {
+        // Rounded up, a Browser coming back any earlier would be throttled again
+        return String.valueOf(Math.max(1, (nanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND));
+    }
+
+    /**
+     * Request passed on to the HttpRequestConnectionHandler.
+     */
+    private static final class Admitted {
+
+        private final RateLimiter.UserLimits user;
+        private final boolean webSocket;
+        // Its final response is being written
+        private boolean answered;
+
+        Admitted(final RateLimiter.UserLimits user, final boolean webSocket) {
+            this.user = user;
+            this.webSocket = webSocket;
+        }
+    }
+}
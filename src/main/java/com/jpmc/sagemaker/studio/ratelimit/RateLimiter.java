@@ -0,0 +1,151 @@
+package com.jpmc.sagemaker.studio.ratelimit;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits of every user of the proxy, shared by the {@link RateLimitHandler}s
+ * of all Browser connections. Each user has a token bucket for the request
+ * rate, kept as the time at which the bucket is full again, and counters of
+ * open requests and WebSockets. All of them are updated with compare-and-set,
+ * so users on different event loops never wait for each other. Users without
+ * open requests or WebSockets are dropped once idle for a while, by whichever
+ * event loop comes across the expiry first.
+ */
+@Log4j2
+public class RateLimiter {
+
+    private final RateLimitConfig config;
+    private final ConcurrentMap<String, UserLimits> users = new ConcurrentHashMap<>();
+    // Time that one token takes to come back
+    private final long tokenNanos;
+    // How far the bucket may run ahead of the current time, a full burst
+    private final long burstNanos;
+    private final long idleExpiryNanos;
+    private final AtomicLong nextExpiryNanos;
+
+    public RateLimiter(final RateLimitConfig config) {
+        this.config = config;
+        this.tokenNanos = (long) (TimeUnit.SECONDS.toNanos(1) / config.getRequestsPerSecond());
+        this.burstNanos = tokenNanos * config.getBurst();
+        this.idleExpiryNanos = TimeUnit.MILLISECONDS.toNanos(config.getIdleExpiryMillis());
+        this.nextExpiryNanos = new AtomicLong(System.nanoTime() + idleExpiryNanos);
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    RateLimitConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the limits of the user, created on the user's first request.
+     */
+    UserLimits user(final String user) {
+        final long nowNanos = System.nanoTime();
+        expireIdleUsers(nowNanos);
+        UserLimits limits = users.get(user);
+        if (limits == null) {
+            final UserLimits created = new UserLimits(nowNanos);
+            limits = users.putIfAbsent(user, created);
+            if (limits == null) {
+                limits = created;
+            }
+        }
+        limits.lastSeenNanos = nowNanos;
+        return limits;
+    }
+
+    /**
+     * @return the number of users whose limits are kept.
+     */
+    public int getUsers() {
+        return users.size();
+    }
+
+    private void expireIdleUsers(final long nowNanos) {
+        final long expiryNanos = nextExpiryNanos.get();
+        if (nowNanos - expiryNanos < 0 || !nextExpiryNanos.compareAndSet(expiryNanos, nowNanos + idleExpiryNanos)) {
+            return;
+        }
+        int expired = 0;
+        for (Map.Entry<String, UserLimits> entry : users.entrySet()) {
+            // A user that comes back in the meantime gets fresh limits, which only ever
+            // lets a few more requests through
+            if (entry.getValue().isIdle(nowNanos) && users.remove(entry.getKey(), entry.getValue())) {
+                expired++;
+            }
+        }
+        log.debug("Expired the limits of {} idle users, {} are kept.", expired, users.size());
+    }
+
+    /**
+     * Limits of one user.
+     */
+    final class UserLimits {
+
+        private final AtomicLong bucketFullNanos;
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger webSockets = new AtomicInteger();
+        private volatile long lastSeenNanos;
+
+        private UserLimits(final long nowNanos) {
+            this.bucketFullNanos = new AtomicLong(nowNanos);
+            this.lastSeenNanos = nowNanos;
+        }
+
+        /**
+         * Counts a request, or a WebSocket, unless the user has as many open as
+         * allowed.
+         *
+         * @return false if nothing was counted.
+         */
+        boolean tryOpen(final boolean webSocket) {
+            final AtomicInteger open = webSocket ? webSockets : requests;
+            final int limit = webSocket ? config.getMaxWebSockets() : config.getMaxConcurrentRequests();
+            int current;
+            do {
+                current = open.get();
+                if (current >= limit) {
+                    return false;
+                }
+            } while (!open.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void close(final boolean webSocket) {
+            (webSocket ? webSockets : requests).decrementAndGet();
+        }
+
+        /**
+         * Takes a token from the bucket of the user.
+         *
+         * @return 0 if a token was taken, otherwise how long until one is back.
+         */
+        long tryTakeToken() {
+            final long nowNanos = System.nanoTime();
+            long fullNanos;
+            long nextFullNanos;
+            do {
+                fullNanos = bucketFullNanos.get();
+                nextFullNanos = Math.max(fullNanos, nowNanos) + tokenNanos;
+                if (nextFullNanos - nowNanos > burstNanos) {
+                    return nextFullNanos - nowNanos - burstNanos;
+                }
+            } while (!bucketFullNanos.compareAndSet(fullNanos, nextFullNanos));
+            return 0;
+        }
+
+        private boolean isIdle(final long nowNanos) {
+            return requests.get() == 0 && webSockets.get() == 0 && nowNanos - lastSeenNanos > idleExpiryNanos;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheHandler;
+import com.jpmc.sagemaker.studio.metrics.ConnectTimingHandler;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInitializer;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+
+/**
+ * BackendHttpChannelInitializer initializes the HTTP part of the Channel
+ * Pipeline of pooled Backend Server connections, and of the streams of HTTP/2
+ * Backend connections. TLS is set up by the pool before this initializer runs.
+ */
+@ChannelHandler.Sharable
+public class BackendHttpChannelInitializer extends ChannelInitializer<Channel> {
+
+    private final ReverseProxyConfig reverseProxyConfig;
+    private final ResponseCache responseCache;
+    private final ProxyMetrics proxyMetrics;
+    private final MemoryBudget memoryBudget;
+    private final boolean secureCookies;
+
+    public BackendHttpChannelInitializer(final ReverseProxyConfig reverseProxyConfig,
+            final ResponseCache responseCache, final ProxyMetrics proxyMetrics, final MemoryBudget memoryBudget) {
+        this(reverseProxyConfig, responseCache, proxyMetrics, memoryBudget, false);
+    }
+
+    /**
+     * @param secureCookies true if Browser connections terminate TLS at the
+     *                      proxy, so cookies keep their Secure attribute.
+     */
+    public BackendHttpChannelInitializer(final ReverseProxyConfig reverseProxyConfig,
+            final ResponseCache responseCache, final ProxyMetrics proxyMetrics, final MemoryBudget memoryBudget,
+            final boolean secureCookies) {
+        this.reverseProxyConfig = reverseProxyConfig;
+        this.responseCache = responseCache;
+        this.proxyMetrics = proxyMetrics;
+        this.memoryBudget = memoryBudget;
+        this.secureCookies = secureCookies;
+    }
+
+    @Override
+    protected void initChannel(final Channel channel) throws Exception {
+        channel.config().setWriteBufferWaterMark(reverseProxyConfig.getWriteBufferWaterMark());
+        if (channel instanceof Http2StreamChannel) {
+            // A stream of an HTTP/2 connection, converting to the same HTTP/1.1 messages
+            // as the codec of an HTTP/1.1 connection
+            channel.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(false));
+        } else {
+            // The pool connects the channel once it is initialized
+            channel.pipeline().addLast(new ConnectTimingHandler(proxyMetrics));
+            final IdleTimeoutHandler idleTimeoutHandler = IdleTimeoutHandler.forHttp(reverseProxyConfig,
+                    proxyMetrics);
+            if (idleTimeoutHandler != null) {
+                channel.pipeline().addLast(idleTimeoutHandler);
+            }
+            // Equivalent to an HttpRequestEncoder and HttpResponseDecoder
+            // This needs to be the inverse of the ReverseProxyInitializer as incoming
+            // request to this server
+            // are already decoded as an HttpRequest and outbound needs to be converted back
+            // to bytes
+            channel.pipeline().addLast(new HttpClientCodec());
+        }
+        if (!reverseProxyConfig.isStreamingEnabled()) {
+            channel.pipeline().addLast(memoryBudget.isEnabled()
+                    ? new BudgetedHttpObjectAggregator(ReverseProxyInitializer.HTTP_MAX_CONTENT_LENGTH_BYTES,
+                            memoryBudget)
+                    : new HttpObjectAggregator(ReverseProxyInitializer.HTTP_MAX_CONTENT_LENGTH_BYTES));
+        }
+        channel.pipeline().addLast(new HeaderRewriteHandler(BackendConnectionPool.getRoute(channel), secureCookies));
+        if (responseCache.isEnabled()) {
+            channel.pipeline().addLast(new ResponseCacheHandler(responseCache));
+        }
+        channel.pipeline().addLast(new HttpResponseConnectionHandler());
+    }
+}
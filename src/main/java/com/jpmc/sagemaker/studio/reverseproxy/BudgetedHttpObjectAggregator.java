@@ -0,0 +1,156 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpMessage;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * HttpObjectAggregator that counts the bodies it aggregates in the
+ * {@link MemoryBudget} until the aggregated message is released. A message
+ * whose Content-Length is large is only aggregated if that many bytes fit in
+ * the budget. Otherwise a request from the Browser is answered with a 503, or a
+ * 413 if it could never fit, and a response from the Backend Server is
+ * replaced by a 503 for the Browser. Either way the 503 is passed on in place
+ * of the message, so the HttpRequestConnectionHandler writes the answer to a
+ * pipelined request after the responses to the requests before it. Bodies of
+ * unknown length are counted as they arrive and are only bounded by
+ * maxContentLength.
+ */
+@Log4j2
+public class BudgetedHttpObjectAggregator extends HttpObjectAggregator {
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private final MemoryBudget memoryBudget;
+    // Reserved for the message being passed to the aggregator
+    private long admittedBytes;
+    // Content of a message that was turned away
+    private boolean discarding;
+
+    public BudgetedHttpObjectAggregator(final int maxContentLength, final MemoryBudget memoryBudget) {
+        super(maxContentLength);
+        this.memoryBudget = memoryBudget;
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message)
+            throws Exception {
+        if (discarding) {
+            discarding = !(message instanceof LastHttpContent);
+            ReferenceCountUtil.release(message);
+            return;
+        }
+        if (message instanceof HttpMessage && !(message instanceof FullHttpMessage)) {
+            final long contentLength = HttpUtil.getContentLength((HttpMessage) message, -1L);
+            if (contentLength >= memoryBudget.getLargeBodyBytes()) {
+                if (!memoryBudget.tryReserve(contentLength)) {
+                    reject(channelHandlerContext, (HttpMessage) message, contentLength);
+                    return;
+                }
+                admittedBytes = contentLength;
+            }
+        }
+        try {
+            super.channelRead(channelHandlerContext, message);
+        } finally {
+            if (admittedBytes > 0) {
+                // Not aggregated after all, e.g. because it is larger than maxContentLength
+                memoryBudget.release(admittedBytes);
+                admittedBytes = 0;
+            }
+        }
+    }
+
+    @Override
+    protected FullHttpMessage beginAggregation(final HttpMessage start, final ByteBuf content) throws Exception {
+        // The budget is given back once the aggregated message is released, whoever
+        // releases it
+        final BudgetedContent budgetedContent = new BudgetedContent(content.alloc(),
+                maxCumulationBufferComponents(), admittedBytes);
+        admittedBytes = 0;
+        content.release();
+        return super.beginAggregation(start, budgetedContent);
+    }
+
+    @Override
+    protected void aggregate(final FullHttpMessage aggregated, final HttpContent content) throws Exception {
+        super.aggregate(aggregated, content);
+        ((BudgetedContent) aggregated.content()).countReadableBytes();
+    }
+
+    private void reject(final ChannelHandlerContext channelHandlerContext, final HttpMessage message,
+            final long contentLength) {
+        final boolean request = message instanceof HttpRequest;
+        log.warn("Turning away a {} with a body of {} bytes, {} of {} bytes in flight.",
+                request ? "request" : "response", contentLength, memoryBudget.getInFlightBytes(),
+                memoryBudget.getMaxInFlightBytes());
+        memoryBudget.rejected(request);
+        ReferenceCountUtil.release(message);
+        discarding = !(message instanceof LastHttpContent);
+
+        final HttpResponseStatus status = request && contentLength > memoryBudget.getMaxInFlightBytes()
+                ? HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE
+                : HttpResponseStatus.SERVICE_UNAVAILABLE;
+        final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status,
+                Unpooled.EMPTY_BUFFER);
+        HttpUtil.setContentLength(response, 0);
+        // The rest of the body is never read, so the connection cannot carry another
+        // message
+        HttpUtil.setKeepAlive(response, false);
+        if (request && HttpResponseStatus.SERVICE_UNAVAILABLE.equals(status)) {
+            response.headers().set(HttpHeaderNames.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        }
+        // In place of a request, the Browser connection is closed once the answer is written
+        // in request order, see HttpRequestConnectionHandler. In place of the Backend
+        // Server's response, the Backend connection is closed when it is released, see
+        // HttpResponseConnectionHandler.
+        channelHandlerContext.fireChannelRead(response);
+    }
+
+    /**
+     * Aggregated body holding its bytes of the budget until it is released.
+     */
+    private final class BudgetedContent extends CompositeByteBuf {
+
+        private long countedBytes;
+
+        BudgetedContent(final ByteBufAllocator allocator, final int maxNumComponents, final long admittedBytes) {
+            super(allocator, PlatformDependent.directBufferPreferred(), maxNumComponents);
+            this.countedBytes = admittedBytes;
+        }
+
+        /**
+         * Counts what arrived beyond the admitted Content-Length, which is all of
+         * a body of unknown length.
+         */
+        void countReadableBytes() {
+            if (readableBytes() > countedBytes) {
+                memoryBudget.reserve(readableBytes() - countedBytes);
+                countedBytes = readableBytes();
+            }
+        }
+
+        @Override
+        protected void deallocate() {
+            super.deallocate();
+            memoryBudget.release(countedBytes);
+        }
+    }
+}
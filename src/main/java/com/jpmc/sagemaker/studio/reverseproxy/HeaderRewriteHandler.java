@@ -0,0 +1,56 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+
+/**
+ * Rewrites requests on their way to the Backend Server and the cookies of its
+ * responses on their way back to the Browser. A pooled Backend channel always
+ * connects to the same route, so its header values are built once per
+ * connection.
+ */
+public class HeaderRewriteHandler extends ChannelDuplexHandler {
+
+    private final HeaderRewriter headerRewriter;
+    private final boolean secureCookies;
+
+    public HeaderRewriteHandler(final Route route) {
+        this(route, false);
+    }
+
+    /**
+     * @param secureCookies true if Browser connections terminate TLS at the
+     *                      proxy, see {@link HeaderRewriter#rewriteSetCookies(HttpHeaders, boolean)}.
+     */
+    public HeaderRewriteHandler(final Route route, final boolean secureCookies) {
+        this.headerRewriter = new HeaderRewriter(route);
+        this.secureCookies = secureCookies;
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext channelHandlerContext, final Object message,
+            final ChannelPromise promise) throws Exception {
+        if (message instanceof HttpRequest) {
+            headerRewriter.rewriteRequest(((HttpRequest) message).headers());
+        }
+        channelHandlerContext.write(message, promise);
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message)
+            throws Exception {
+        if (message instanceof HttpResponse) {
+            final HttpHeaders headers = ((HttpResponse) message).headers();
+            // Added by the codec of an HTTP/2 Backend connection for its own use
+            headers.remove(HttpConversionUtil.ExtensionHeaderNames.STREAM_ID.text());
+            HeaderRewriter.rewriteSetCookies(headers, secureCookies);
+        }
+        channelHandlerContext.fireChannelRead(message);
+    }
+}
@@ -0,0 +1,189 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.AsciiString;
+
+import java.util.List;
+
+/**
+ * Rewrites the headers that tie requests and responses to the host the Browser
+ * talks to. Header values derived from the route are built once, and cookies
+ * are scanned in place without splitting or decoding them.
+ */
+public final class HeaderRewriter {
+
+    private static final AsciiString X_CSRF_TOKEN = AsciiString.cached("x-csrf-token");
+    private static final AsciiString X_XSRF_TOKEN = AsciiString.cached("X-XSRFToken");
+    private static final String XSRF_COOKIE = "_xsrf";
+    private static final String HTTP_COOKIE_ATTRIBUTES = "; Path=/; HTTPOnly";
+    private static final String SECURE = "Secure";
+
+    private final AsciiString host;
+    private final AsciiString referer;
+    private final AsciiString origin;
+
+    public HeaderRewriter(final Route route) {
+        host = new AsciiString(route.getHost());
+        referer = new AsciiString("https://" + route.getHost() + "/jupyter/default/lab?");
+        origin = new AsciiString("https://" + route.getHost());
+    }
+
+    /**
+     * HTTP Request to Sagemaker Presigned URL was failing due to Host pointing to
+     * Proxy URL endpoint. It should be same as Sagemaker's Presigned URL endpoint.
+     * Services usually reject requests(400 Bad Request) having an inappropriate
+     * Host: header as this is often a sign of an SSL man-in-the-middle attack.
+     * https://stackoverflow.com/questions/43156023/what-is-http-host-header
+     * https://sage.amazon.com/questions/866200
+     * <p>
+     * The _xsrf cookie is also copied into the token headers Jupyter expects.
+     *
+     * @param headers HttpHeaders of a request to the Backend Server
+     */
+    public void rewriteRequest(final HttpHeaders headers) {
+        headers.set(HttpHeaderNames.HOST, host);
+        headers.set(HttpHeaderNames.REFERER, referer);
+        headers.set(HttpHeaderNames.ORIGIN, origin);
+        final String cookies = headers.get(HttpHeaderNames.COOKIE);
+        if (cookies != null) {
+            final String xsrfToken = findCookieValue(cookies, XSRF_COOKIE);
+            if (xsrfToken != null) {
+                headers.set(X_CSRF_TOKEN, xsrfToken);
+                headers.set(X_XSRF_TOKEN, xsrfToken);
+            }
+        }
+    }
+
+    /**
+     * The responses coming back from the Backend Server contain https cookies,
+     * but without frontend TLS the Browser talks http to the proxy. Domain,
+     * Secure and SameSite=None would make the Browser drop them, so they are
+     * removed, the Path is widened to / and HttpOnly is added. The name, value
+     * and lifetime are kept as sent.
+     *
+     * @param headers HttpHeaders of a response from the Backend Server
+     */
+    public static void rewriteSetCookies(final HttpHeaders headers) {
+        rewriteSetCookies(headers, false);
+    }
+
+    /**
+     * @param headers HttpHeaders of a response from the Backend Server
+     * @param secure  true if the Browser connection terminates TLS at the proxy,
+     *                which keeps Secure and SameSite=None.
+     */
+    public static void rewriteSetCookies(final HttpHeaders headers, final boolean secure) {
+        if (!headers.contains(HttpHeaderNames.SET_COOKIE)) {
+            return;
+        }
+        final List<String> setCookies = headers.getAll(HttpHeaderNames.SET_COOKIE);
+        headers.remove(HttpHeaderNames.SET_COOKIE);
+        for (String setCookie : setCookies) {
+            final String browserCookie = toBrowserSetCookie(setCookie, secure);
+            if (browserCookie != null) {
+                headers.add(HttpHeaderNames.SET_COOKIE, browserCookie);
+            }
+        }
+    }
+
+    /**
+     * @return the value of the last cookie with the given name, compared ignoring
+     *         case, in a Cookie header, or null.
+     */
+    static String findCookieValue(final String cookies, final String name) {
+        String value = null;
+        int start = 0;
+        while (start < cookies.length()) {
+            int end = cookies.indexOf(';', start);
+            if (end < 0) {
+                end = cookies.length();
+            }
+            final int nameStart = skipWhitespace(cookies, start, end);
+            final int equals = nameStart + name.length();
+            if (equals < end && cookies.charAt(equals) == '='
+                    && cookies.regionMatches(true, nameStart, name, 0, name.length())) {
+                final int valueEnd = trimEnd(cookies, equals + 1, end);
+                if (valueEnd > equals + 1) {
+                    value = cookies.substring(equals + 1, valueEnd);
+                }
+            }
+            start = end + 1;
+        }
+        return value;
+    }
+
+    /**
+     * @return the Set-Cookie header value for the http Browser connection, or null
+     *         if the cookie has no name.
+     */
+    static String toHttpSetCookie(final String setCookie) {
+        return toBrowserSetCookie(setCookie, false);
+    }
+
+    /**
+     * @return the Set-Cookie header value for the https Browser connection, or
+     *         null if the cookie has no name.
+     */
+    static String toHttpsSetCookie(final String setCookie) {
+        return toBrowserSetCookie(setCookie, true);
+    }
+
+    private static String toBrowserSetCookie(final String setCookie, final boolean secure) {
+        int end = setCookie.indexOf(';');
+        if (end < 0) {
+            end = setCookie.length();
+        }
+        final int nameStart = skipWhitespace(setCookie, 0, end);
+        final int equals = setCookie.indexOf('=', nameStart);
+        if (equals <= nameStart || equals >= end) {
+            return null;
+        }
+
+        final StringBuilder browserCookie = new StringBuilder(setCookie.length() + HTTP_COOKIE_ATTRIBUTES.length());
+        browserCookie.append(setCookie, nameStart, trimEnd(setCookie, nameStart, end));
+        while (end < setCookie.length()) {
+            final int start = skipWhitespace(setCookie, end + 1, setCookie.length());
+            end = setCookie.indexOf(';', start);
+            if (end < 0) {
+                end = setCookie.length();
+            }
+            if (isKeptAttribute(setCookie, start, end, secure)) {
+                browserCookie.append("; ").append(setCookie, start, trimEnd(setCookie, start, end));
+            }
+        }
+        return browserCookie.append(HTTP_COOKIE_ATTRIBUTES).toString();
+    }
+
+    private static boolean isKeptAttribute(final String setCookie, final int start, final int end,
+            final boolean secure) {
+        if (secure && trimEnd(setCookie, start, end) - start == SECURE.length()
+                && startsWithIgnoreCase(setCookie, start, end, SECURE)) {
+            return true;
+        }
+        return startsWithIgnoreCase(setCookie, start, end, "Max-Age=")
+                || startsWithIgnoreCase(setCookie, start, end, "Expires=")
+                || startsWithIgnoreCase(setCookie, start, end, "SameSite=")
+                        && (secure || !startsWithIgnoreCase(setCookie, start, end, "SameSite=None"));
+    }
+
+    private static boolean startsWithIgnoreCase(final String value, final int start, final int end,
+            final String prefix) {
+        return end - start >= prefix.length() && value.regionMatches(true, start, prefix, 0, prefix.length());
+    }
+
+    private static int skipWhitespace(final String value, int start, final int end) {
+        while (start < end && value.charAt(start) == ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(final String value, final int start, int end) {
+        while (end > start && value.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return end;
+    }
+}
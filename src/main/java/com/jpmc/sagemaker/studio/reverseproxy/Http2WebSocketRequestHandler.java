@@ -0,0 +1,314 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import com.jpmc.sagemaker.studio.metrics.ConnectTimingHandler;
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.backend.HappyEyeballsConnector;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.metrics.RequestTiming;
+import com.jpmc.sagemaker.studio.routing.Route;
+import com.jpmc.sagemaker.studio.routing.Router;
+import com.jpmc.sagemaker.studio.utils.NettyUtils;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.ssl.SslContext;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.log4j.Log4j2;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Channel Inbound Handler at the front of each HTTP/2 stream of a Browser. A
+ * stream opened with an extended CONNECT for the websocket protocol (RFC 8441)
+ * is bootstrapped into a WebSocket: the proxy sends an HTTP/1.1 upgrade to the
+ * Backend Server and, once that handshake is finished, relays the bytes of the
+ * DATA frames on the stream as they are. WebSocket frames are framed and masked
+ * the same way over both protocols. Streams carrying any other request are left
+ * to the HTTP handlers behind this one.
+ */
+@Log4j2
+public class Http2WebSocketRequestHandler extends ChannelInboundHandlerAdapter {
+
+    private static final AsciiString PROTOCOL = AsciiString.cached(":protocol");
+    private static final AsciiString WEBSOCKET = AsciiString.cached("websocket");
+
+    private final ReverseProxyConfig reverseProxyConfig;
+    private final Router router;
+    private final CircuitBreaker circuitBreaker;
+    private final SslContext backendSslContext;
+    private final ProxyMetrics proxyMetrics;
+    private final AddressResolverGroup<?> resolver;
+    // DATA frames from the Browser read before the Backend handshake is finished
+    private final Queue<Http2DataFrame> pendingFrames = new ArrayDeque<>();
+    private boolean webSocketConnect;
+    // Stays null if the request was rejected
+    private Channel backendWSChannel;
+    private ChannelFuture backendWSConnect;
+    private boolean backendHandshakeComplete;
+    // Finished by Http2WebSocketResponseHandler once the Browser has the 200
+    private RequestTiming timing = RequestTiming.NONE;
+
+    public Http2WebSocketRequestHandler(final ReverseProxyConfig reverseProxyConfig, final Router router,
+            final CircuitBreaker circuitBreaker, final SslContext backendSslContext, final ProxyMetrics proxyMetrics,
+            final AddressResolverGroup<?> resolver) {
+        this.reverseProxyConfig = reverseProxyConfig;
+        this.router = router;
+        this.circuitBreaker = circuitBreaker;
+        this.backendSslContext = backendSslContext;
+        this.proxyMetrics = proxyMetrics;
+        this.resolver = resolver;
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+        if (!webSocketConnect) {
+            if (!isWebSocketConnect(message)) {
+                channelHandlerContext.pipeline().remove(this);
+                channelHandlerContext.fireChannelRead(message);
+                return;
+            }
+            log.info("[STEP WS 1] Detected an extended CONNECT for a WS on an HTTP/2 stream.");
+            webSocketConnect = true;
+            connectBackend(channelHandlerContext, ((Http2HeadersFrame) message).headers());
+            return;
+        }
+
+        if (backendWSChannel == null) {
+            ReferenceCountUtil.release(message);
+        } else if (!(message instanceof Http2DataFrame)) {
+            // Trailers end the stream like an empty DATA frame would
+            if (message instanceof Http2HeadersFrame && ((Http2HeadersFrame) message).isEndStream()) {
+                NettyUtils.closeOnFlush(backendWSChannel);
+            }
+            ReferenceCountUtil.release(message);
+        } else if (!backendHandshakeComplete) {
+            pendingFrames.add((Http2DataFrame) message);
+        } else {
+            sendFrameToBackendServer(channelHandlerContext, (Http2DataFrame) message);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(final ChannelHandlerContext channelHandlerContext) {
+        if (backendHandshakeComplete) {
+            backendWSChannel.flush();
+        }
+        channelHandlerContext.fireChannelReadComplete();
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext channelHandlerContext, final Object event)
+            throws Exception {
+        if (event != WebSocketRelayEvent.BACKEND_HANDSHAKE_COMPLETE) {
+            super.userEventTriggered(channelHandlerContext, event);
+            return;
+        }
+
+        backendHandshakeComplete = true;
+        proxyMetrics.webSocketStreamOpened();
+        while (!pendingFrames.isEmpty()) {
+            sendFrameToBackendServer(channelHandlerContext, pendingFrames.poll());
+        }
+        backendWSChannel.flush();
+        channelHandlerContext.channel().config().setAutoRead(backendWSChannel.isWritable());
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext channelHandlerContext) {
+        // The stream window opened again, resume reading from the Backend Server. See
+        // Http2WebSocketResponseHandler#channelRead.
+        if (backendWSChannel != null && channelHandlerContext.channel().isWritable()) {
+            backendWSChannel.config().setAutoRead(true);
+        }
+        channelHandlerContext.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+        log.debug("WS Frontend Stream is Inactive");
+        timing.finish();
+        while (!pendingFrames.isEmpty()) {
+            pendingFrames.poll().release();
+        }
+        if (backendHandshakeComplete) {
+            proxyMetrics.webSocketClosed();
+        }
+        if (backendWSChannel != null && backendWSChannel.isActive()) {
+            NettyUtils.closeOnFlush(backendWSChannel);
+        } else if (backendWSConnect != null && !backendWSConnect.cancel(false)) {
+            // Cancelling a connect that is still going on closes all of its attempts
+            backendWSChannel.close();
+        }
+        super.channelInactive(channelHandlerContext);
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext channelHandlerContext, final Throwable cause) {
+        log.error("An exception is thrown:", cause);
+        channelHandlerContext.close();
+    }
+
+    /**
+     * Answers the stream with a status of its own and closes it, for extended
+     * CONNECT requests that did not make it to a WebSocket.
+     */
+    static void reject(final Channel streamChannel, final HttpResponseStatus status) {
+        streamChannel.writeAndFlush(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers().status(status.codeAsText()),
+                true)).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private static boolean isWebSocketConnect(final Object message) {
+        if (!(message instanceof Http2HeadersFrame)) {
+            return false;
+        }
+        final Http2Headers headers = ((Http2HeadersFrame) message).headers();
+        return HttpMethod.CONNECT.asciiName().contentEquals(headers.method())
+                && WEBSOCKET.contentEqualsIgnoreCase(headers.get(PROTOCOL));
+    }
+
+    private void connectBackend(final ChannelHandlerContext channelHandlerContext, final Http2Headers headers)
+            throws Exception {
+        final Channel streamChannel = channelHandlerContext.channel();
+        // Nothing is relayed before the Backend handshake is finished, and the stream is
+        // no longer an HTTP request.
+        streamChannel.config().setAutoRead(false);
+        final ChannelPipeline pipeline = channelHandlerContext.pipeline();
+        pipeline.remove(Http2StreamFrameToHttpObjectCodec.class);
+        if (pipeline.get(HttpObjectAggregator.class) != null) {
+            pipeline.remove(HttpObjectAggregator.class);
+        }
+        pipeline.remove(HttpRequestConnectionHandler.class);
+
+        final HttpRequest request = toUpgradeRequest(headers);
+        final Route route = router.route(request);
+        if (route == null) {
+            log.warn("No route for WS request {}", request.uri());
+            reject(streamChannel, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        if (!circuitBreaker.allowRequest(route)) {
+            log.debug("Circuit to {} is open, failing WS request {}", route, request.uri());
+            reject(streamChannel, HttpResponseStatus.SERVICE_UNAVAILABLE);
+            return;
+        }
+        if (!WebSocketVersion.V13.toHttpHeaderValue()
+                .equals(request.headers().get(HttpHeaderNames.SEC_WEBSOCKET_VERSION))) {
+            log.warn("WS protocol version {} not supported.",
+                    request.headers().get(HttpHeaderNames.SEC_WEBSOCKET_VERSION));
+            reject(streamChannel, HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+        timing = proxyMetrics.getRequestTimings().start(RequestTiming.Kind.WEBSOCKET, HttpMethod.CONNECT,
+                request.uri(), route);
+        timing.phase(RequestTiming.Phase.DECODED);
+        new HeaderRewriter(route).rewriteRequest(request.headers());
+        // See WebSocketRequestConnectionHandler#createBackendWSChannel
+        request.headers().remove(HttpHeaderNames.ORIGIN);
+
+        final URI jupyterURI = route.getWebSocketURI(request.uri());
+        log.debug("Creating Backend WS Channel for {}", jupyterURI);
+        final String expectedSubprotocol = request.headers().get(HttpHeaderNames.SEC_WEBSOCKET_PROTOCOL);
+        final Bootstrap bootstrap = new Bootstrap().group(streamChannel.eventLoop())
+                .channel(NettyUtils.connectionChannel(streamChannel).getClass()).resolver(resolver)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(final Channel channel) {
+                        channel.pipeline().addLast(new ConnectTimingHandler(proxyMetrics));
+                        // Bytes are relayed as they are, so the Backend leg gets no pings
+                        final IdleTimeoutHandler idleTimeoutHandler = IdleTimeoutHandler
+                                .forWebSocket(reverseProxyConfig, proxyMetrics);
+                        if (idleTimeoutHandler != null) {
+                            channel.pipeline().addLast(idleTimeoutHandler);
+                        }
+                        if (route.isTls()) {
+                            channel.pipeline().addLast(backendSslContext.newHandler(channel.alloc(),
+                                    route.getHost(), route.getPort()));
+                        }
+                        channel.pipeline().addLast(new HttpClientCodec());
+                        channel.pipeline().addLast(
+                                new HttpObjectAggregator(ReverseProxyInitializer.HTTP_MAX_CONTENT_LENGTH_BYTES));
+                        channel.pipeline().addLast(new Http2WebSocketResponseHandler(streamChannel,
+                                WebSocketClientHandshakerFactory.newHandshaker(jupyterURI, WebSocketVersion.V13,
+                                        expectedSubprotocol, true, request.headers(),
+                                        ReverseProxyInitializer.HTTP_MAX_CONTENT_LENGTH_BYTES),
+                                proxyMetrics, timing));
+                    }
+                }).option(ChannelOption.WRITE_BUFFER_WATER_MARK, reverseProxyConfig.getWebSocketWriteBufferWaterMark());
+        backendWSConnect = HappyEyeballsConnector.connect(bootstrap,
+                InetSocketAddress.createUnresolved(route.getHost(), route.getPort()))
+                .addListener((ChannelFutureListener) future -> {
+                    if (!future.isSuccess()) {
+                        log.warn("Backend WS connection failed for {}", request.uri(), future.cause());
+                        circuitBreaker.connectFailed(streamChannel, route);
+                        reject(streamChannel, HttpResponseStatus.BAD_GATEWAY);
+                    } else {
+                        // The attempt that connected, which need not be the first one
+                        backendWSChannel = future.channel();
+                        circuitBreaker.connected(route);
+                        timing.phase(RequestTiming.Phase.BACKEND_ACQUIRED);
+                        timing.awaitTlsHandshake(future.channel());
+                    }
+                });
+        backendWSChannel = backendWSConnect.channel();
+    }
+
+    /**
+     * @return the HTTP/1.1 form of the extended CONNECT: a GET of its path with
+     *         its regular headers. The handshaker adds the upgrade headers.
+     */
+    private static HttpRequest toUpgradeRequest(final Http2Headers headers) {
+        final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                String.valueOf(headers.path()));
+        for (Map.Entry<CharSequence, CharSequence> header : headers) {
+            if (!Http2Headers.PseudoHeaderName.hasPseudoHeaderFormat(header.getKey())) {
+                request.headers().add(header.getKey(), header.getValue());
+            }
+        }
+        if (headers.authority() != null) {
+            request.headers().set(HttpHeaderNames.HOST, headers.authority());
+        }
+        return request;
+    }
+
+    private void sendFrameToBackendServer(final ChannelHandlerContext channelHandlerContext,
+            final Http2DataFrame frame) {
+        proxyMetrics.webSocketRelayed(ProxyMetrics.Direction.BROWSER_TO_BACKEND, 0, frame.content().readableBytes());
+        backendWSChannel.write(frame.content()).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        if (frame.isEndStream()) {
+            NettyUtils.closeOnFlush(backendWSChannel);
+        } else if (!backendWSChannel.isWritable()) {
+            // Stop reading from the stream until the Backend channel drains below its low
+            // water mark. See Http2WebSocketResponseHandler#channelWritabilityChanged.
+            channelHandlerContext.channel().config().setAutoRead(false);
+            backendWSChannel.flush();
+        }
+    }
+}
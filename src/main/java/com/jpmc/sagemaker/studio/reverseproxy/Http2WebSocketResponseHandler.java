@@ -0,0 +1,172 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.metrics.RequestTiming;
+import com.jpmc.sagemaker.studio.utils.NettyUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Channel Handler of the Backend half of a WebSocket bootstrapped on an HTTP/2
+ * stream. It finishes the HTTP/1.1 handshake with the Backend Server, answers
+ * the extended CONNECT of the Browser with a 200 carrying the subprotocol and
+ * extensions the Backend Server chose, and then writes the bytes it reads to
+ * the stream as DATA frames. Reading pauses while the stream is unwritable.
+ */
+@Log4j2
+public class Http2WebSocketResponseHandler extends ChannelInboundHandlerAdapter {
+
+    private final Channel streamChannel;
+    private final WebSocketClientHandshaker webSocketClientHandshaker;
+    private final ProxyMetrics proxyMetrics;
+    private final RequestTiming timing;
+    // Bytes the Backend Server sent right behind the handshake response
+    private final Queue<ByteBuf> pendingBytes = new ArrayDeque<>();
+    private boolean answered;
+
+    public Http2WebSocketResponseHandler(final Channel streamChannel,
+            final WebSocketClientHandshaker webSocketClientHandshaker, final ProxyMetrics proxyMetrics,
+            final RequestTiming timing) {
+        this.streamChannel = streamChannel;
+        this.webSocketClientHandshaker = webSocketClientHandshaker;
+        this.proxyMetrics = proxyMetrics;
+        this.timing = timing;
+    }
+
+    @Override
+    public void channelActive(final ChannelHandlerContext channelHandlerContext) throws Exception {
+        log.info("[STEP WS 2a]  Initiating the backend WS Handshake for an HTTP/2 stream.");
+        timing.phaseOnSuccess(RequestTiming.Phase.REQUEST_WRITTEN,
+                webSocketClientHandshaker.handshake(channelHandlerContext.channel()));
+        channelHandlerContext.read();
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
+        if (!webSocketClientHandshaker.isHandshakeComplete()) {
+            if (message instanceof ByteBuf) {
+                // Replayed once the handshake is finished, see WebSocketResponseConnectionHandler
+                pendingBytes.add((ByteBuf) message);
+            } else if (message instanceof FullHttpResponse) {
+                completeHandshake(channelHandlerContext, (FullHttpResponse) message);
+            } else {
+                ReferenceCountUtil.release(message);
+                throw new Exception("Didn't receive a FullHttpResponse message to complete handshake");
+            }
+            return;
+        }
+        if (!(message instanceof ByteBuf)) {
+            ReferenceCountUtil.release(message);
+            throw new Exception("Unexpected message after the WS handshake " + message);
+        }
+
+        final ByteBuf bytes = (ByteBuf) message;
+        proxyMetrics.webSocketRelayed(ProxyMetrics.Direction.BACKEND_TO_BROWSER, 0, bytes.readableBytes());
+        streamChannel.write(new DefaultHttp2DataFrame(bytes)).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        if (!streamChannel.isWritable()) {
+            // Stop reading from the Backend Server until the Browser opens the stream window
+            // again. See Http2WebSocketRequestHandler#channelWritabilityChanged.
+            channelHandlerContext.channel().config().setAutoRead(false);
+            streamChannel.flush();
+        }
+    }
+
+    @Override
+    public void channelReadComplete(final ChannelHandlerContext channelHandlerContext) {
+        streamChannel.flush();
+        channelHandlerContext.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext channelHandlerContext) {
+        // The Backend Server drained the buffered bytes, resume reading from the stream.
+        // See Http2WebSocketRequestHandler#sendFrameToBackendServer.
+        if (channelHandlerContext.channel().isWritable()) {
+            streamChannel.config().setAutoRead(true);
+        }
+        channelHandlerContext.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext channelHandlerContext) {
+        log.debug("WS Backend Channel of an HTTP/2 stream is Inactive");
+        while (!pendingBytes.isEmpty()) {
+            pendingBytes.poll().release();
+        }
+        if (!answered) {
+            Http2WebSocketRequestHandler.reject(streamChannel, HttpResponseStatus.BAD_GATEWAY);
+        } else if (streamChannel.isActive()) {
+            // Ends the stream the way a closed TCP connection ends a WebSocket over HTTP/1.1
+            streamChannel.writeAndFlush(new DefaultHttp2DataFrame(true)).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext channelHandlerContext, final Throwable cause) {
+        log.error("An exception is thrown: ", cause);
+        NettyUtils.closeOnFlush(channelHandlerContext.channel());
+    }
+
+    private void completeHandshake(final ChannelHandlerContext channelHandlerContext,
+            final FullHttpResponse response) {
+        timing.status(response.status().code());
+        timing.phase(RequestTiming.Phase.FIRST_BYTE);
+        try {
+            if (!HttpResponseStatus.SWITCHING_PROTOCOLS.equals(response.status())) {
+                log.warn("Backend Server declined the WS upgrade with {}", response.status());
+                answered = true;
+                Http2WebSocketRequestHandler.reject(streamChannel, response.status());
+                channelHandlerContext.close();
+                return;
+            }
+            log.info("[STEP WS 4] Finalizing the backend WS handshake...");
+            webSocketClientHandshaker.finishHandshake(channelHandlerContext.channel(), response);
+
+            final Http2Headers headers = new DefaultHttp2Headers().status(HttpResponseStatus.OK.codeAsText());
+            final String subprotocol = response.headers().get(HttpHeaderNames.SEC_WEBSOCKET_PROTOCOL);
+            if (subprotocol != null) {
+                headers.set(HttpHeaderNames.SEC_WEBSOCKET_PROTOCOL, subprotocol);
+            }
+            final String extensions = response.headers().get(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS);
+            if (extensions != null) {
+                // The Backend Server chose these from the Browser's own offer, so both legs
+                // agree on them and frames pass through as they are
+                headers.set(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS, extensions);
+            }
+            timing.finishOnFlush(streamChannel.write(new DefaultHttp2HeadersFrame(headers))
+                    .addListener(ChannelFutureListener.CLOSE_ON_FAILURE));
+            answered = true;
+        } finally {
+            response.release();
+        }
+
+        // Frames are relayed untouched, so the codecs can go
+        NettyUtils.removeWebSocketFrameCodec(channelHandlerContext.pipeline());
+        // The HTTP codec is only removed later, so bytes replayed from its context reach
+        // this handler
+        final ChannelHandlerContext codecContext = channelHandlerContext.pipeline().context(HttpClientCodec.class);
+        while (!pendingBytes.isEmpty()) {
+            codecContext.fireChannelRead(pendingBytes.poll());
+        }
+        streamChannel.flush();
+        log.info("[STEP WS 4] Ready to relay the WS between an HTTP/2 stream and the Backend Server.");
+        streamChannel.pipeline().fireUserEventTriggered(WebSocketRelayEvent.BACKEND_HANDSHAKE_COMPLETE);
+    }
+}
@@ -0,0 +1,214 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.metrics.RequestTiming;
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * One request of a Browser connection and its response. The exchange is
+ * attached to the Backend channel serving it, so the response can be relayed
+ * in request order through the {@link HttpExchangeQueue} of the Browser
+ * connection. While a dispatched request waits for its response it counts
+ * towards the load of its route, and its response is reported to the
+ * {@link CircuitBreaker}. The phases the exchange goes through are recorded in
+ * its {@link RequestTiming}.
+ */
+final class HttpExchange {
+
+    private static final AttributeKey<HttpExchange> EXCHANGE = AttributeKey.valueOf("httpExchange");
+
+    private final HttpExchangeQueue queue;
+    private final HttpMethod method;
+    private final String uri;
+    private final Route route;
+    private final CircuitBreaker circuitBreaker;
+    private final RequestTiming timing;
+    // Request parts received before there is a Backend connection to send them on
+    private final Queue<HttpObject> pendingRequest = new ArrayDeque<>();
+    // Response parts read before it is this exchange's turn to write to the Browser
+    private final Queue<HttpObject> heldResponse = new ArrayDeque<>();
+    private boolean dispatched;
+    private long dispatchedAtNanos;
+    private boolean outstanding;
+    private boolean responseHeadersReceived;
+    private Channel backendChannel;
+    private boolean responseComplete;
+    private boolean closeAfterResponse;
+
+    /**
+     * @param request sent to the Backend Server of the route, along with the
+     *                rest of its body.
+     */
+    HttpExchange(final HttpExchangeQueue queue, final HttpRequest request, final Route route,
+            final CircuitBreaker circuitBreaker, final RequestTiming timing) {
+        this.queue = queue;
+        this.method = request.method();
+        this.uri = request.uri();
+        this.route = route;
+        this.circuitBreaker = circuitBreaker;
+        this.timing = timing;
+        pendingRequest.add(request);
+    }
+
+    /**
+     * An exchange answered by the proxy itself.
+     */
+    HttpExchange(final HttpExchangeQueue queue) {
+        this.queue = queue;
+        this.method = null;
+        this.uri = null;
+        this.route = null;
+        this.circuitBreaker = null;
+        this.timing = RequestTiming.NONE;
+        this.dispatched = true;
+    }
+
+    /**
+     * @return the exchange the Backend channel is serving, or null.
+     */
+    static HttpExchange of(final Channel backendChannel) {
+        return backendChannel.attr(EXCHANGE).get();
+    }
+
+    HttpExchangeQueue getQueue() {
+        return queue;
+    }
+
+    String getUri() {
+        return uri;
+    }
+
+    Route getRoute() {
+        return route;
+    }
+
+    RequestTiming getTiming() {
+        return timing;
+    }
+
+    /**
+     * @return true if the request may be sent to a Backend Server while earlier
+     *         requests are still waiting for their response. Only requests
+     *         without side effects are, others wait until the requests before
+     *         them are answered.
+     */
+    boolean isSafe() {
+        return HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method) || HttpMethod.OPTIONS.equals(method)
+                || HttpMethod.TRACE.equals(method);
+    }
+
+    boolean isHead() {
+        return HttpMethod.HEAD.equals(method);
+    }
+
+    boolean isDispatched() {
+        return dispatched;
+    }
+
+    void setDispatched() {
+        dispatched = true;
+        dispatchedAtNanos = System.nanoTime();
+        outstanding = true;
+        route.getLoad().requestStarted();
+    }
+
+    /**
+     * The headers of the final response arrived.
+     */
+    void responseStarted(final HttpResponseStatus status) {
+        responseHeadersReceived = true;
+        timing.status(status.code());
+        timing.phase(RequestTiming.Phase.FIRST_BYTE);
+        if (outstanding) {
+            final long latencyNanos = System.nanoTime() - dispatchedAtNanos;
+            route.getLoad().latencyObserved(latencyNanos);
+            circuitBreaker.responseReceived(queue.getFrontendChannel(), route, status, latencyNanos);
+        }
+    }
+
+    /**
+     * The Backend Server closed the connection before the response headers
+     * arrived.
+     */
+    void responseFailed() {
+        if (outstanding && !responseHeadersReceived) {
+            circuitBreaker.responseFailed(queue.getFrontendChannel(), route);
+        }
+    }
+
+    Channel getBackendChannel() {
+        return backendChannel;
+    }
+
+    void attach(final Channel backendChannel) {
+        this.backendChannel = backendChannel;
+        backendChannel.attr(EXCHANGE).set(this);
+    }
+
+    /**
+     * Detaches the exchange from its Backend channel once the whole response has
+     * been read, before the channel goes back to the pool.
+     */
+    void detach() {
+        if (backendChannel != null && backendChannel.attr(EXCHANGE).compareAndSet(this, null)) {
+            backendChannel = null;
+        }
+    }
+
+    Queue<HttpObject> getPendingRequest() {
+        return pendingRequest;
+    }
+
+    Queue<HttpObject> getHeldResponse() {
+        return heldResponse;
+    }
+
+    boolean isResponseComplete() {
+        return responseComplete;
+    }
+
+    void setResponseComplete() {
+        responseComplete = true;
+        finishOutstanding();
+    }
+
+    boolean isCloseAfterResponse() {
+        return closeAfterResponse;
+    }
+
+    void setCloseAfterResponse() {
+        closeAfterResponse = true;
+    }
+
+    /**
+     * Releases the request and response parts the exchange still holds, and
+     * records the timing of a request that was not answered.
+     */
+    void release() {
+        finishOutstanding();
+        timing.finish();
+        while (!pendingRequest.isEmpty()) {
+            ReferenceCountUtil.release(pendingRequest.poll());
+        }
+        while (!heldResponse.isEmpty()) {
+            ReferenceCountUtil.release(heldResponse.poll());
+        }
+    }
+
+    private void finishOutstanding() {
+        if (outstanding) {
+            outstanding = false;
+            route.getLoad().requestFinished();
+        }
+    }
+}
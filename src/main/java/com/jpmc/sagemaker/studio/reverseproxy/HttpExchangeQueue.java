@@ -0,0 +1,171 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.HttpObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Exchanges of one Browser connection that have not been answered yet, in the
+ * order of their requests. Pipelined requests are served by Backend connections
+ * in parallel, but only the oldest exchange writes its response to the Browser.
+ * Later ones hold what they read until it is their turn. Only used from the
+ * event loop of the Browser channel.
+ */
+final class HttpExchangeQueue implements Iterable<HttpExchange> {
+
+    private final Channel frontendChannel;
+    private final Runnable onAdvance;
+    private final Deque<HttpExchange> exchanges = new ArrayDeque<>();
+
+    /**
+     * @param onAdvance called whenever the oldest exchange was answered, to send
+     *                  requests that waited for it.
+     */
+    HttpExchangeQueue(final Channel frontendChannel, final Runnable onAdvance) {
+        this.frontendChannel = frontendChannel;
+        this.onAdvance = onAdvance;
+    }
+
+    Channel getFrontendChannel() {
+        return frontendChannel;
+    }
+
+    void add(final HttpExchange exchange) {
+        exchanges.add(exchange);
+    }
+
+    int size() {
+        return exchanges.size();
+    }
+
+    boolean isEmpty() {
+        return exchanges.isEmpty();
+    }
+
+    /**
+     * @return the oldest exchange, the one writing to the Browser, or null.
+     */
+    HttpExchange peek() {
+        return exchanges.peek();
+    }
+
+    boolean isHead(final HttpExchange exchange) {
+        return exchanges.peek() == exchange;
+    }
+
+    /**
+     * @return true if the request of the exchange can be sent to its Backend
+     *         Server now. A request with side effects waits for the responses to
+     *         all requests before it, and holds back all requests after it until
+     *         its own response arrived.
+     */
+    boolean canDispatch(final HttpExchange exchange) {
+        for (HttpExchange earlier : exchanges) {
+            if (earlier == exchange) {
+                return true;
+            }
+            if (!earlier.isResponseComplete() && (!earlier.isSafe() || !exchange.isSafe())) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a part of the response of the exchange to the Browser, or holds it
+     * until the responses before it are written.
+     *
+     * @param last true for the end of the final response to the request.
+     */
+    void relay(final HttpExchange exchange, final HttpObject message, final boolean last) {
+        if (last) {
+            exchange.setResponseComplete();
+        }
+        if (!isHead(exchange)) {
+            exchange.getHeldResponse().add(message);
+            if (last) {
+                // The requests held back by this one can go now
+                onAdvance.run();
+            }
+            return;
+        }
+        final ChannelFuture future = last ? frontendChannel.writeAndFlush(message) : frontendChannel.write(message);
+        future.addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        if (last && finish(exchange, future)) {
+            advance();
+        }
+    }
+
+    /**
+     * Releases everything the exchanges hold and closes the Backend connections
+     * that are still serving them.
+     */
+    void clear() {
+        while (!exchanges.isEmpty()) {
+            final HttpExchange exchange = exchanges.poll();
+            exchange.release();
+            final Channel backendChannel = exchange.getBackendChannel();
+            if (backendChannel != null) {
+                exchange.detach();
+                BackendConnectionPool.closeIfLeasedBy(backendChannel, frontendChannel);
+            }
+        }
+    }
+
+    @Override
+    public Iterator<HttpExchange> iterator() {
+        return exchanges.iterator();
+    }
+
+    /**
+     * Writes the held responses of the exchanges that are now the oldest.
+     */
+    private void advance() {
+        HttpExchange head;
+        while ((head = exchanges.peek()) != null) {
+            ChannelFuture lastWrite = null;
+            while (!head.getHeldResponse().isEmpty()) {
+                lastWrite = frontendChannel.write(head.getHeldResponse().poll());
+                lastWrite.addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+            }
+            frontendChannel.flush();
+            if (!head.isResponseComplete()) {
+                // Reading the rest of the response stopped while it was held
+                if (head.getBackendChannel() != null && frontendChannel.isWritable()) {
+                    head.getBackendChannel().read();
+                }
+                break;
+            }
+            if (!finish(head, lastWrite)) {
+                return;
+            }
+        }
+        onAdvance.run();
+    }
+
+    /**
+     * @return false if the Browser connection closes after this response, so no
+     *         later response is written.
+     */
+    private boolean finish(final HttpExchange exchange, final ChannelFuture lastWrite) {
+        exchanges.remove(exchange);
+        if (lastWrite != null) {
+            exchange.getTiming().finishOnFlush(lastWrite);
+        }
+        if (!exchange.isCloseAfterResponse()) {
+            return true;
+        }
+        if (lastWrite != null) {
+            lastWrite.addListener(ChannelFutureListener.CLOSE);
+        } else {
+            frontendChannel.close();
+        }
+        return false;
+    }
+}
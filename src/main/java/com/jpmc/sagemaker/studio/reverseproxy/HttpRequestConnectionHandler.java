@@ -1,154 +1,480 @@
 package com.jpmc.sagemaker.studio.reverseproxy;
 
-import com.jpmc.sagemaker.studio.utils.BackendServerURLUtils;
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.cache.CachedResponse;
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.metrics.RequestTiming;
+import com.jpmc.sagemaker.studio.routing.Route;
+import com.jpmc.sagemaker.studio.routing.Router;
+import com.jpmc.sagemaker.studio.utils.HttpUtils;
 import com.jpmc.sagemaker.studio.utils.NettyUtils;
-import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
-import io.netty.channel.ChannelInitializer;
-import io.netty.channel.ChannelOption;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaders;
-import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
 import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+import io.netty.handler.ssl.ApplicationProtocolNames;
 import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslContextBuilder;
-import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
-import lombok.Setter;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
 import lombok.extern.log4j.Log4j2;
 
-import java.util.Arrays;
 
 /**
  * Channel Inbound Handler to process the HTTP request and send it to Downstream
- * Server
+ * Server. Requests are either aggregated into a FullHttpRequest or, in
+ * streaming mode, forwarded as an HttpRequest followed by HttpContent chunks
+ * while reads from the Browser follow the writability of the Backend channel.
+ * Each request goes to the Backend Server picked by the {@link Router}, unless
+ * it can be answered from the {@link ResponseCache}, or the circuit to the
+ * Backend Server is open and it is answered with a 503, see
+ * {@link CircuitBreaker}. Pipelined requests are
+ * sent on Backend connections of their own and answered in request order, see
+ * {@link HttpExchangeQueue}. On HTTP/2 connections each stream channel has a
+ * handler of its own, serving the single request of the stream. Proxied
+ * requests and WebSocket handshakes are timed phase by phase, see
+ * {@link RequestTiming}.
  */
 @Log4j2
 public class HttpRequestConnectionHandler extends ChannelInboundHandlerAdapter {
 
-    private static final String UPGRADE = "Upgrade";
-    private static final String WEBSOCKET = "WebSocket";
     private static final String WEBSOCKET_HANDLER = "webSocketRequestConnectionHandler";
 
-    @Setter
-    private Channel backendHttpChannel;
+    private final ReverseProxyConfig reverseProxyConfig;
+    private final BackendConnectionPool backendConnectionPool;
+    private final SslContext backendSslContext;
+    private final Router router;
+    private final ResponseCache responseCache;
+    private final ProxyMetrics proxyMetrics;
+    private final CircuitBreaker circuitBreaker;
+    // Requests of the Browser that have not been answered yet, in order
+    private HttpExchangeQueue exchanges;
+    // Exchange whose request body is still being received
+    private HttpExchange uploading;
+    // Backend channel last written to, the ones written to before it are flushed
+    private Channel unflushedBackendChannel;
+    // Backend connection leased when the Browser connected, before its first request
+    private Future<Channel> preconnect;
+    private Route preconnectRoute;
+    // Streamed WebSocket upgrade request waiting for its (empty) LastHttpContent
+    private HttpRequest pendingUpgradeRequest;
+    private String pendingWebsocketURL;
+    private Route pendingUpgradeRoute;
+    private RequestTiming pendingUpgradeTiming;
+    // WebSocket upgrade waiting for the responses to the requests before it
+    private FullHttpRequest deferredUpgradeRequest;
+    // Content of a request that was answered by the proxy itself
+    private boolean discardingContent;
+
+    public HttpRequestConnectionHandler(final ReverseProxyConfig reverseProxyConfig,
+            final BackendConnectionPool backendConnectionPool, final SslContext backendSslContext,
+            final Router router, final ResponseCache responseCache, final ProxyMetrics proxyMetrics,
+            final CircuitBreaker circuitBreaker) {
+        this.reverseProxyConfig = reverseProxyConfig;
+        this.backendConnectionPool = backendConnectionPool;
+        this.backendSslContext = backendSslContext;
+        this.router = router;
+        this.responseCache = responseCache;
+        this.proxyMetrics = proxyMetrics;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public void handlerAdded(final ChannelHandlerContext channelHandlerContext) {
+        exchanges = new HttpExchangeQueue(channelHandlerContext.channel(),
+                () -> exchangeAnswered(channelHandlerContext));
+    }
 
     @Override
     public void channelActive(final ChannelHandlerContext channelHandlerContext) {
         log.debug("HTTP Frontend Channel is Active");
+        // The request is most likely for the default route, there is nothing else to go
+        // by before it arrives. An HTTP/2 stream is only opened along with its request.
+        final Route defaultRoute = router.getRouteTable().getDefaultRoute();
+        if (defaultRoute != null && defaultRoute.getHealth().isClosed()
+                && !(channelHandlerContext.channel() instanceof Http2StreamChannel)) {
+            preconnect = backendConnectionPool.preconnect(channelHandlerContext.channel(), defaultRoute);
+            preconnectRoute = defaultRoute;
+        }
         channelHandlerContext.read();
     }
 
     @Override
     public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
-        if (!(message instanceof FullHttpRequest)) {
-            throw new IllegalStateException("Something went wrong. Received a non-FullHttpRequest " + message);
+        if (message instanceof HttpRequest) {
+            handleHttpRequest(channelHandlerContext, (HttpRequest) message);
+        } else if (message instanceof FullHttpResponse) {
+            // In place of a request the BudgetedHttpObjectAggregator turned away
+            final FullHttpResponse response = (FullHttpResponse) message;
+            answer(response, HttpUtil.isKeepAlive(response));
+        } else if (message instanceof HttpContent) {
+            handleHttpContent(channelHandlerContext, (HttpContent) message);
+        } else {
+            ReferenceCountUtil.release(message);
+            throw new IllegalStateException("Something went wrong. Received a non-HttpObject " + message);
         }
+    }
 
-        final FullHttpRequest request = (FullHttpRequest) message;
+    private void handleHttpRequest(final ChannelHandlerContext channelHandlerContext, final HttpRequest request) {
         final HttpHeaders headers = request.headers();
 
         log.debug("HTTP Request Received: {}.", request);
 
-        final String frontendWebsocketURL = getWebSocketURL(request);
-
-        // HTTP Request to Sagemaker Presigned URL was failing due to Host pointing to
-        // Proxy URL endpoint.
-        // It should be same as Sagemaker's Presigned URL endpoint. Services usually
-        // reject requests(400 Bad Request) having
-        // an inappropriate Host: header as this is often a sign of an SSL
-        // man-in-the-middle attack.
-        // https://stackoverflow.com/questions/43156023/what-is-http-host-header
-        // https://sage.amazon.com/questions/866200
-        request.headers().set("Host", BackendServerURLUtils.getRemoteHost());
-        request.headers().set("Referer", "https://"+BackendServerURLUtils.getRemoteHost()+"/jupyter/default/lab?");
-        request.headers().set("Origin", "https://"+BackendServerURLUtils.getRemoteHost());
-        String cookieString = request.headers().get("Cookie");
-        if (cookieString != null) {
-            String[] cookies = cookieString.split("; ");
-            for (String cookie : cookies) {
-                String[] nameAndValue = cookie.split("=");
-                if ("_xsrf".equalsIgnoreCase(nameAndValue[0])) {
-                    request.headers().set("x-csrf-token", nameAndValue[1]);
-                    request.headers().set("X-XSRFToken", nameAndValue[1]);    
-                }
-            }
+        if (channelHandlerContext.channel() instanceof Http2StreamChannel) {
+            // Added by the HTTP/2 codec for its own use, they mean nothing to the Backend
+            // Server
+            headers.remove(HttpConversionUtil.ExtensionHeaderNames.STREAM_ID.text());
+            headers.remove(HttpConversionUtil.ExtensionHeaderNames.SCHEME.text());
         }
 
-        if (isWebSocketUpgradeRequest(headers)) {
-            log.info("[STEP WS 1] Detected HTTP upgrade WS request.");
-            channelHandlerContext.pipeline().replace(this, WEBSOCKET_HANDLER,
-                    new WebSocketRequestConnectionHandler(request, frontendWebsocketURL));
+        final String frontendWebsocketURL = getWebSocketURL(channelHandlerContext.channel(), request);
+
+        final Route route = router.route(request);
+        if (route == null) {
+            log.warn("No route for request {}", request.uri());
+            rejectRequest(channelHandlerContext, request);
             return;
-        } else if (backendHttpChannel == null) {
-            log.debug("Creating a BackendHTTP Channel.");
-            final ChannelFuture backendHttPChannelFuture = createBackendHttpChannel(channelHandlerContext.channel());
-            backendHttpChannel = backendHttPChannelFuture.channel();
-
-            backendHttPChannelFuture.addListener((ChannelFutureListener) futureListener -> {
-                if (futureListener.isSuccess()) {
-                    // There is no connection caching at the moment.
-                    // RFC 2616 HTTP/1.1 section 14.10 says:
-                    // HTTP/1.1 applications that do not support persistent
-                    // connections MUST include the "close" connection
-                    // option in every message
-                    // https://tools.ietf.org/html/rfc2616#section-14.10
-                    HttpUtil.setKeepAlive(request, false);
-                    sendMessageToBackendServer(request);
-                } else {
-                    log.warn("Connection failed for request {}", request);
-                    // Close the connection if the connection attempt has failed.
-                    channelHandlerContext.channel().close();
-                }
-            });
+        }
+
+        if (!circuitBreaker.allowRequest(route)) {
+            log.debug("Circuit to {} is open, failing request {}", route, request.uri());
+            rejectUnavailable(channelHandlerContext, request, route);
+            return;
+        }
+
+        if (HttpUtils.isWebSocketUpgradeRequest(headers)) {
+            // Requests to the pooled Backend connections are rewritten by their
+            // HeaderRewriteHandler, the WS connection to the Backend Server is not pooled.
+            new HeaderRewriter(route).rewriteRequest(headers);
+            final RequestTiming timing = proxyMetrics.getRequestTimings().start(RequestTiming.Kind.WEBSOCKET,
+                    request.method(), request.uri(), route);
+            if (request instanceof FullHttpRequest) {
+                timing.phase(RequestTiming.Phase.DECODED);
+                upgradeToWebSocket(channelHandlerContext, (FullHttpRequest) request, frontendWebsocketURL, route,
+                        timing);
+            } else {
+                pendingUpgradeRequest = request;
+                pendingWebsocketURL = frontendWebsocketURL;
+                pendingUpgradeRoute = route;
+                pendingUpgradeTiming = timing;
+            }
+            return;
+        }
+
+        if (responseCache.isEnabled()) {
+            final CachedResponse cached = responseCache.lookup(route, request);
+            if (cached != null) {
+                responseCache.revalidateIfStale(channelHandlerContext.channel(), route, request, cached,
+                        backendConnectionPool);
+                answerFromCache(channelHandlerContext, request, cached);
+                return;
+            }
+        }
+
+        // Connection is a hop-by-hop header. The pooled Backend connection is kept open
+        // regardless of what the Browser asked for on its own connection, which is closed
+        // after the response if the Browser asked for that.
+        final boolean keepAlive = HttpUtil.isKeepAlive(request);
+        HttpUtil.setKeepAlive(request, true);
 
-        } else if (backendHttpChannel.isActive()) {
-            sendMessageToBackendServer(request);
+        final HttpExchange exchange = new HttpExchange(exchanges, request, route, circuitBreaker,
+                proxyMetrics.getRequestTimings().start(RequestTiming.Kind.HTTP, request.method(), request.uri(),
+                        route));
+        if (!keepAlive) {
+            exchange.setCloseAfterResponse();
+        }
+        exchanges.add(exchange);
+        if (request instanceof LastHttpContent) {
+            exchange.getTiming().phase(RequestTiming.Phase.DECODED);
+        } else {
+            uploading = exchange;
+        }
+        if (exchanges.canDispatch(exchange)) {
+            dispatch(channelHandlerContext, exchange);
         } else {
-            throw new IllegalStateException("Backend HTTP Channel is present but not active");
-        }
-    }
-
-    private ChannelFuture createBackendHttpChannel(final Channel frontendChannel) throws Exception {
-        // Required for HTTPS request
-        // TODO: Remove InsecureTrustManagerFactory once we have backend encryption
-        // enabled
-        final SslContext sslCtx = SslContextBuilder.forClient().trustManager(InsecureTrustManagerFactory.INSTANCE)
-                .build();
-
-        return new Bootstrap().group(frontendChannel.eventLoop()).channel(frontendChannel.getClass())
-                .handler(new ChannelInitializer<SocketChannel>() {
-                    @Override
-                    protected void initChannel(final SocketChannel channel) throws Exception {
-                        channel.pipeline().addLast(sslCtx.newHandler(frontendChannel.alloc()));
-                        // Equivalent to an HttpRequestEncoder and HttpResponseDecoder
-                        // This needs to be the inverse of the ReverseProxyInitializer as incoming
-                        // request to this server
-                        // are already decoded as an HttpRequest and outbound needs to be converted back
-                        // to bytes
-                        channel.pipeline().addLast(new HttpClientCodec());
-                        channel.pipeline().addLast(
-                                new HttpObjectAggregator(ReverseProxyInitializer.HTTP_MAX_CONTENT_LENGTH_BYTES));
-                        channel.pipeline().addLast(new HttpResponseConnectionHandler(frontendChannel));
+            log.debug("Holding back pipelined request {} until the requests before it are answered", request.uri());
+        }
+        if (!canReadMore()) {
+            // Hold the rest of a streamed body, or further pipelined requests, back until
+            // there is a Backend connection to write them to.
+            channelHandlerContext.channel().config().setAutoRead(false);
+        }
+    }
+
+    /**
+     * Sends the request of the exchange to its Backend Server, on a connection
+     * of its own so pipelined requests are served in parallel.
+     */
+    private void dispatch(final ChannelHandlerContext channelHandlerContext, final HttpExchange exchange) {
+        exchange.setDispatched();
+        acquireBackendHttpChannel(channelHandlerContext.channel(), exchange.getRoute())
+                .addListener((Future<Channel> future) -> {
+                    if (!future.isSuccess()) {
+                        log.warn("Connection failed for request {}", exchange.getUri(), future.cause());
+                        circuitBreaker.connectFailed(channelHandlerContext.channel(), exchange.getRoute());
+                        exchange.release();
+                        // Close the connection if the connection attempt has failed.
+                        channelHandlerContext.channel().close();
+                    } else if (!channelHandlerContext.channel().isActive()) {
+                        circuitBreaker.connected(exchange.getRoute());
+                        exchange.release();
+                        BackendConnectionPool.release(future.getNow(), true);
+                    } else {
+                        circuitBreaker.connected(exchange.getRoute());
+                        final Channel backendHttpChannel = future.getNow();
+                        exchange.getTiming().phase(RequestTiming.Phase.BACKEND_ACQUIRED);
+                        exchange.getTiming().awaitTlsHandshake(backendHttpChannel);
+                        exchange.attach(backendHttpChannel);
+                        while (!exchange.getPendingRequest().isEmpty()) {
+                            sendMessageToBackendServer(channelHandlerContext, exchange,
+                                    exchange.getPendingRequest().poll());
+                        }
+                        backendHttpChannel.flush();
+                        backendHttpChannel.read();
+                        if (canReadMore()) {
+                            channelHandlerContext.channel().config().setAutoRead(true);
+                        }
                     }
-                }).option(ChannelOption.AUTO_READ, false)
-                // Currently connecting to Personal Sagemaker's Jupyter Server
-                // TODO:For Phase 1:Update this to map to Customer's N/B server based on Routing
-                // Logic
-                .connect(BackendServerURLUtils.getRemoteHost(), BackendServerURLUtils.getRemotePort());
+                });
+    }
+
+    /**
+     * @return the preconnected Backend connection if the request goes to its
+     *         route, a connection from the pool otherwise.
+     */
+    private Future<Channel> acquireBackendHttpChannel(final Channel frontendChannel, final Route route) {
+        final Future<Channel> preconnected = endPreconnect(frontendChannel, route.equals(preconnectRoute));
+        return preconnected != null ? preconnected : backendConnectionPool.acquire(frontendChannel, route);
+    }
+
+    private Future<Channel> endPreconnect(final Channel frontendChannel, final boolean use) {
+        if (preconnect == null) {
+            return null;
+        }
+        final Future<Channel> preconnected = backendConnectionPool.endPreconnect(frontendChannel, preconnect, use);
+        proxyMetrics.preconnectEnded(preconnected != null);
+        preconnect = null;
+        return preconnected;
+    }
+
+    /**
+     * Sends the requests that waited for the exchange answered last, and
+     * resumes reading from the Browser once fewer requests are outstanding.
+     */
+    private void exchangeAnswered(final ChannelHandlerContext channelHandlerContext) {
+        for (HttpExchange exchange : exchanges) {
+            if (!exchange.isDispatched()) {
+                if (!exchanges.canDispatch(exchange)) {
+                    break;
+                }
+                dispatch(channelHandlerContext, exchange);
+            }
+        }
+        if (deferredUpgradeRequest != null && exchanges.isEmpty()) {
+            final FullHttpRequest upgradeRequest = deferredUpgradeRequest;
+            deferredUpgradeRequest = null;
+            upgradeToWebSocket(channelHandlerContext, upgradeRequest, pendingWebsocketURL, pendingUpgradeRoute,
+                    pendingUpgradeTiming);
+        } else if (canReadMore()) {
+            channelHandlerContext.channel().config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * @return false while the request body being received has no Backend
+     *         connection that can take it, or while as many requests as allowed
+     *         are waiting for their responses.
+     */
+    private boolean canReadMore() {
+        if (deferredUpgradeRequest != null || exchanges.size() >= reverseProxyConfig.getMaxPipelinedRequests()) {
+            return false;
+        }
+        return uploading == null
+                || uploading.getBackendChannel() != null && uploading.getBackendChannel().isWritable();
+    }
+
+    private void handleHttpContent(final ChannelHandlerContext channelHandlerContext, final HttpContent content) {
+        if (discardingContent) {
+            content.release();
+            discardingContent = !(content instanceof LastHttpContent);
+        } else if (pendingUpgradeRequest != null) {
+            content.release();
+            if (content instanceof LastHttpContent) {
+                final HttpRequest upgradeRequest = pendingUpgradeRequest;
+                pendingUpgradeRequest = null;
+                pendingUpgradeTiming.phase(RequestTiming.Phase.DECODED);
+                upgradeToWebSocket(channelHandlerContext,
+                        new DefaultFullHttpRequest(upgradeRequest.protocolVersion(), upgradeRequest.method(),
+                                upgradeRequest.uri(), Unpooled.EMPTY_BUFFER, upgradeRequest.headers(),
+                                ((LastHttpContent) content).trailingHeaders()),
+                        pendingWebsocketURL, pendingUpgradeRoute, pendingUpgradeTiming);
+            }
+        } else if (uploading != null) {
+            final HttpExchange exchange = uploading;
+            if (content instanceof LastHttpContent) {
+                uploading = null;
+                exchange.getTiming().phase(RequestTiming.Phase.DECODED);
+            }
+            if (exchange.getBackendChannel() != null) {
+                sendMessageToBackendServer(channelHandlerContext, exchange, content);
+            } else {
+                exchange.getPendingRequest().add(content);
+            }
+        } else {
+            content.release();
+            throw new IllegalStateException("Received HTTP content without a request " + content);
+        }
+    }
+
+    private void upgradeToWebSocket(final ChannelHandlerContext channelHandlerContext, final FullHttpRequest request,
+            final String frontendWebsocketURL, final Route route, final RequestTiming timing) {
+        if (!exchanges.isEmpty()) {
+            // The handshake response must not overtake the responses to earlier requests
+            log.debug("Deferring the WS upgrade until earlier requests are answered.");
+            deferredUpgradeRequest = request;
+            pendingWebsocketURL = frontendWebsocketURL;
+            pendingUpgradeRoute = route;
+            pendingUpgradeTiming = timing;
+            channelHandlerContext.channel().config().setAutoRead(false);
+            return;
+        }
+        log.info("[STEP WS 1] Detected HTTP upgrade WS request.");
+        endPreconnect(channelHandlerContext.channel(), false);
+        channelHandlerContext.pipeline().replace(this, WEBSOCKET_HANDLER,
+                new WebSocketRequestConnectionHandler(request, frontendWebsocketURL, route, reverseProxyConfig,
+                        backendSslContext, proxyMetrics, backendConnectionPool.getResolver(), circuitBreaker,
+                        timing));
+    }
+
+    private void answerFromCache(final ChannelHandlerContext channelHandlerContext, final HttpRequest request,
+            final CachedResponse cached) {
+        log.debug("Answering {} from the response cache", request.uri());
+        final boolean keepAlive = HttpUtil.isKeepAlive(request);
+        final FullHttpResponse response = responseCache.toResponse(request, cached);
+        ReferenceCountUtil.release(request);
+        discardingContent = !(request instanceof LastHttpContent);
+        HttpUtil.setKeepAlive(response, keepAlive);
+        answer(response, keepAlive);
+    }
+
+    private void rejectRequest(final ChannelHandlerContext channelHandlerContext, final HttpRequest request) {
+        ReferenceCountUtil.release(request);
+        discardingContent = !(request instanceof LastHttpContent);
+        final DefaultFullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(),
+                HttpResponseStatus.NOT_FOUND,
+                Unpooled.copiedBuffer("No route for " + request.uri(), CharsetUtil.UTF_8));
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        HttpUtil.setKeepAlive(response, false);
+        answer(response, false);
+    }
+
+    /**
+     * Fails a request to a Backend Server whose circuit is open. The connection
+     * stays open, the Browser's other requests may go elsewhere.
+     */
+    private void rejectUnavailable(final ChannelHandlerContext channelHandlerContext, final HttpRequest request,
+            final Route route) {
+        final boolean keepAlive = HttpUtil.isKeepAlive(request);
+        ReferenceCountUtil.release(request);
+        discardingContent = !(request instanceof LastHttpContent);
+        final DefaultFullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(),
+                HttpResponseStatus.SERVICE_UNAVAILABLE,
+                Unpooled.copiedBuffer(route + " is unavailable", CharsetUtil.UTF_8));
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        response.headers().set(HttpHeaderNames.RETRY_AFTER, circuitBreaker.getRetryAfterSeconds(route));
+        HttpUtil.setKeepAlive(response, keepAlive);
+        answer(response, keepAlive);
+    }
+
+    /**
+     * Answers a request from the proxy itself, after the responses to the
+     * requests before it.
+     */
+    private void answer(final FullHttpResponse response, final boolean keepAlive) {
+        final HttpExchange exchange = new HttpExchange(exchanges);
+        if (!keepAlive) {
+            exchange.setCloseAfterResponse();
+        }
+        exchanges.add(exchange);
+        exchanges.relay(exchange, response, true);
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext channelHandlerContext, final Object event)
+            throws Exception {
+        if (event instanceof HttpServerUpgradeHandler.UpgradeEvent
+                || event instanceof CleartextHttp2ServerUpgradeHandler.PriorKnowledgeUpgradeEvent
+                || isHttp2Negotiated(channelHandlerContext, event)) {
+            // The connection speaks HTTP/2 from now on, its requests arrive on stream channels
+            // with handlers of their own. See ReverseProxyInitializer.
+            log.debug("Browser connection switched to HTTP/2");
+            endPreconnect(channelHandlerContext.channel(), false);
+            if (channelHandlerContext.pipeline().get(HttpObjectAggregator.class) != null) {
+                channelHandlerContext.pipeline().remove(HttpObjectAggregator.class);
+            }
+            channelHandlerContext.pipeline().remove(this);
+        }
+        super.userEventTriggered(channelHandlerContext, event);
+    }
+
+    @Override
+    public void channelReadComplete(final ChannelHandlerContext channelHandlerContext) {
+        if (unflushedBackendChannel != null) {
+            unflushedBackendChannel.flush();
+            unflushedBackendChannel = null;
+        }
+        channelHandlerContext.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext channelHandlerContext) {
+        // The Browser drained its buffered response bytes, resume reading the response
+        // from the Backend Server. See HttpResponseConnectionHandler#channelReadComplete.
+        if (channelHandlerContext.channel().isWritable()) {
+            final HttpExchange head = exchanges.peek();
+            if (head != null && head.getBackendChannel() != null
+                    && BackendConnectionPool.isLeasedBy(head.getBackendChannel(), channelHandlerContext.channel())) {
+                head.getBackendChannel().read();
+            }
+        }
+        channelHandlerContext.fireChannelWritabilityChanged();
     }
 
     @Override
     public void channelInactive(final ChannelHandlerContext channelHandlerContext) {
         log.debug("HTTP Frontend Channel is Inactive");
-        if (backendHttpChannel != null) {
-            NettyUtils.closeOnFlush(backendHttpChannel);
+        endPreconnect(channelHandlerContext.channel(), false);
+        // A Backend connection still serving this Browser would carry a response nobody
+        // reads, so it cannot go back to the pool.
+        exchanges.clear();
+        uploading = null;
+        if (deferredUpgradeRequest != null) {
+            deferredUpgradeRequest.release();
+            deferredUpgradeRequest = null;
+            pendingUpgradeTiming.finish();
         }
     }
 
@@ -158,19 +484,49 @@ public class HttpRequestConnectionHandler extends ChannelInboundHandlerAdapter {
         NettyUtils.closeOnFlush(channelHandlerContext.channel());
     }
 
-    private void sendMessageToBackendServer(final FullHttpRequest message) {
+    private void sendMessageToBackendServer(final ChannelHandlerContext channelHandlerContext,
+            final HttpExchange exchange, final HttpObject message) {
         log.debug("Sending HTTP message to Backend Server: {}.", message);
-        backendHttpChannel.writeAndFlush(message).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        final Channel backendHttpChannel = exchange.getBackendChannel();
+        final ChannelFuture written = backendHttpChannel.write(message)
+                .addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        if (unflushedBackendChannel != null && unflushedBackendChannel != backendHttpChannel) {
+            // An earlier request of this read was written to another Backend channel,
+            // which channelReadComplete would no longer flush
+            unflushedBackendChannel.flush();
+        }
+        unflushedBackendChannel = backendHttpChannel;
+        if (message instanceof LastHttpContent) {
+            exchange.getTiming().phaseOnSuccess(RequestTiming.Phase.REQUEST_WRITTEN, written);
+            // The request is complete, nothing is left to hold back for it.
+            if (canReadMore()) {
+                channelHandlerContext.channel().config().setAutoRead(true);
+            }
+        } else if (!backendHttpChannel.isWritable()) {
+            // Stop reading the request body until the Backend channel drains below its low
+            // water mark. See HttpResponseConnectionHandler#channelWritabilityChanged.
+            // Pause before flushing, a flush that drains the channel right away fires the
+            // writability change that resumes reading.
+            channelHandlerContext.channel().config().setAutoRead(false);
+            backendHttpChannel.flush();
+        }
     }
 
-    private static boolean isWebSocketUpgradeRequest(final HttpHeaders headers) {
-        return headers.getAll(HttpHeaderNames.CONNECTION).stream()
-                .anyMatch(h -> Arrays.asList(h.split(",")).stream().anyMatch(v -> v.trim().equalsIgnoreCase(UPGRADE)))
-                && WEBSOCKET.equalsIgnoreCase(headers.get(HttpHeaderNames.UPGRADE));
+    /**
+     * @return true for the end of a TLS handshake in which ALPN picked h2.
+     */
+    private static boolean isHttp2Negotiated(final ChannelHandlerContext channelHandlerContext,
+            final Object event) {
+        if (!(event instanceof SslHandshakeCompletionEvent) || !((SslHandshakeCompletionEvent) event).isSuccess()) {
+            return false;
+        }
+        final SslHandler sslHandler = channelHandlerContext.pipeline().get(SslHandler.class);
+        return sslHandler != null && ApplicationProtocolNames.HTTP_2.equals(sslHandler.applicationProtocol());
     }
 
-    private String getWebSocketURL(FullHttpRequest request) {
-        // TODO: Need to support WSS for non-desktop mode testing
-        return "ws://" + request.headers().get("Host") + request.uri();
+    private static String getWebSocketURL(final Channel channel, final HttpRequest request) {
+        // The Browser connection, not one of its HTTP/2 streams, terminates TLS
+        final boolean secure = NettyUtils.connectionChannel(channel).pipeline().get(SslHandler.class) != null;
+        return (secure ? "wss://" : "ws://") + request.headers().get("Host") + request.uri();
     }
 }
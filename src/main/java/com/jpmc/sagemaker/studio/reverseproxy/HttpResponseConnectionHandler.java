@@ -1,25 +1,33 @@
 package com.jpmc.sagemaker.studio.reverseproxy;
 
-import com.jpmc.sagemaker.studio.utils.HttpUtils;
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
 import com.jpmc.sagemaker.studio.utils.NettyUtils;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
-import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
 import lombok.extern.log4j.Log4j2;
 
 /**
- * Channel Handler to send the response back from Backend server to the Browser
+ * Channel Handler to send the response back from Backend server to the Browser.
+ * The Backend channel is pooled, so the Browser channel it answers to is the
+ * one it is currently leased to in the {@link BackendConnectionPool}. Responses
+ * are relayed through the {@link HttpExchange} of the request, in request
+ * order, and read from the Backend Server only while it is their turn and the
+ * Browser channel is writable.
  */
 @Log4j2
 public class HttpResponseConnectionHandler extends ChannelInboundHandlerAdapter {
 
-    private final Channel frontendChannel;
-
-    public HttpResponseConnectionHandler(final Channel frontendChannel) {
-        this.frontendChannel = frontendChannel;
-    }
+    private boolean informational;
+    private boolean reusable;
 
     @Override
     public void channelActive(final ChannelHandlerContext channelHandlerContext) {
@@ -29,27 +37,119 @@ public class HttpResponseConnectionHandler extends ChannelInboundHandlerAdapter
 
     @Override
     public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) {
-        if (!(message instanceof FullHttpResponse)) {
-            throw new IllegalStateException("Something went wrong. Received a non-FullHttpResponse " + message);
+        if (!(message instanceof HttpObject)) {
+            ReferenceCountUtil.release(message);
+            throw new IllegalStateException("Something went wrong. Received a non-HttpObject " + message);
+        }
+
+        final Channel frontendChannel = BackendConnectionPool.getFrontendChannel(channelHandlerContext.channel());
+        final HttpExchange exchange = HttpExchange.of(channelHandlerContext.channel());
+
+        if (frontendChannel == null || exchange == null) {
+            ReferenceCountUtil.release(message);
+            throw new IllegalStateException("Received an HTTP Response on an idle Backend Channel");
         }
 
-        final FullHttpResponse response = (FullHttpResponse) message;
+        if (message instanceof HttpResponse) {
+            final HttpResponse response = (HttpResponse) message;
+
+            log.debug("HTTP Response received {}", response);
 
-        log.debug("HTTP Response received {}", response);
+            // A 100 Continue is followed by the actual response on the same connection
+            informational = HttpStatusClass.INFORMATIONAL.equals(response.status().codeClass());
+            if (!informational) {
+                // Connection is a hop-by-hop header. Whether the Backend Server keeps this
+                // connection open has no bearing on the Browser connection, which stays open
+                // unless the Browser asked to close it.
+                reusable = HttpUtil.isKeepAlive(response);
+                if (isCloseDelimited(exchange, response)) {
+                    // Without an aggregator to add a Content-Length, the Browser can only
+                    // tell where the body ends the same way, when its connection closes
+                    reusable = false;
+                    exchange.setCloseAfterResponse();
+                }
+                HttpUtil.setKeepAlive(response, !exchange.isCloseAfterResponse());
+                exchange.responseStarted(response.status());
+            }
+        }
 
-        // Currently we are only supporting http but the response coming back from
-        // Backend Server contains https cookies
-        // Need to convert https SET-Cookie to http SET-Cookie
-        // TODO: Remove this once we start supporting HTTPS
-        HttpUtils.convertHttpsToHttpCookie(response);
+        final boolean last = message instanceof LastHttpContent && !informational;
+        if (last) {
+            exchange.detach();
+            BackendConnectionPool.release(channelHandlerContext.channel(), reusable);
+        }
+        exchange.getQueue().relay(exchange, (HttpObject) message, last);
+    }
 
-        frontendChannel.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    @Override
+    public void channelReadComplete(final ChannelHandlerContext channelHandlerContext) {
+        final Channel frontendChannel = BackendConnectionPool.getFrontendChannel(channelHandlerContext.channel());
+        final HttpExchange exchange = HttpExchange.of(channelHandlerContext.channel());
+        if (frontendChannel != null && exchange != null && exchange.getQueue().isHead(exchange)) {
+            frontendChannel.flush();
+            // Keep reading the response only while the Browser keeps up. Reading resumes
+            // from HttpRequestConnectionHandler#channelWritabilityChanged otherwise, or
+            // once the responses to earlier pipelined requests are written.
+            if (frontendChannel.isWritable()) {
+                channelHandlerContext.read();
+            }
+        }
+        channelHandlerContext.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext channelHandlerContext) {
+        // The Backend Server drained the buffered request body, resume reading it from
+        // the Browser. See HttpRequestConnectionHandler#sendMessageToBackendServer.
+        final Channel frontendChannel = BackendConnectionPool.getFrontendChannel(channelHandlerContext.channel());
+        if (frontendChannel != null && channelHandlerContext.channel().isWritable()) {
+            frontendChannel.config().setAutoRead(true);
+        }
+        channelHandlerContext.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext channelHandlerContext, final Object event)
+            throws Exception {
+        if (event instanceof IdleStateEvent
+                && BackendConnectionPool.getFrontendChannel(channelHandlerContext.channel()) == null) {
+            log.debug("Closing idle pooled HTTP Backend Channel");
+            channelHandlerContext.close();
+            return;
+        }
+        super.userEventTriggered(channelHandlerContext, event);
     }
 
     @Override
     public void channelInactive(final ChannelHandlerContext channelHandlerContext) {
         log.debug("HTTP Backend Channel is Inactive");
-        NettyUtils.closeOnFlush(frontendChannel);
+        final Channel frontendChannel = BackendConnectionPool.getFrontendChannel(channelHandlerContext.channel());
+        if (frontendChannel != null) {
+            // The Backend Server went away before answering, so the Browser will never get
+            // its response on this connection. A preconnected Browser has not sent its
+            // request yet and gets another connection for it.
+            if (!BackendConnectionPool.isPreconnected(channelHandlerContext.channel())) {
+                final HttpExchange exchange = HttpExchange.of(channelHandlerContext.channel());
+                if (exchange != null) {
+                    exchange.responseFailed();
+                }
+                NettyUtils.closeOnFlush(frontendChannel);
+            }
+            BackendConnectionPool.release(channelHandlerContext.channel(), false);
+        }
+    }
+
+    /**
+     * @return true if the body of the response, as streamed, ends when the
+     *         Backend Server closes the connection.
+     */
+    private static boolean isCloseDelimited(final HttpExchange exchange, final HttpResponse response) {
+        if (HttpUtil.isContentLengthSet(response) || HttpUtil.isTransferEncodingChunked(response)
+                || exchange.isHead()) {
+            return false;
+        }
+        final int code = response.status().code();
+        return code != HttpResponseStatus.NO_CONTENT.code() && code != HttpResponseStatus.NOT_MODIFIED.code();
     }
 
     @Override
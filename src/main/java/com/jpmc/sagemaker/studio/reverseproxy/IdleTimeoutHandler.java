@@ -0,0 +1,96 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics.ReapCause;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes a connection that read or wrote nothing for longer than its idle
+ * timeouts, so abandoned Browser tabs and silent Backend Servers do not hold
+ * channels and their buffers forever. Closing one leg of a WebSocket closes the
+ * other one too. Every connection closed is counted by the timeout that
+ * expired.
+ */
+@Log4j2
+public class IdleTimeoutHandler extends IdleStateHandler {
+
+    public static final String NAME = "idleTimeoutHandler";
+
+    private final ProxyMetrics proxyMetrics;
+
+    public IdleTimeoutHandler(final long readerIdleTimeMillis, final long writerIdleTimeMillis,
+            final long allIdleTimeMillis, final ProxyMetrics proxyMetrics) {
+        // Output still being drained to a slow peer counts as writing
+        super(true, readerIdleTimeMillis, writerIdleTimeMillis, allIdleTimeMillis, TimeUnit.MILLISECONDS);
+        this.proxyMetrics = proxyMetrics;
+    }
+
+    /**
+     * @return the handler for an HTTP connection, null if no HTTP idle timeout
+     *         is configured.
+     */
+    public static IdleTimeoutHandler forHttp(final ReverseProxyConfig reverseProxyConfig,
+            final ProxyMetrics proxyMetrics) {
+        return newHandler(reverseProxyConfig.getReaderIdleTimeoutMillis(),
+                reverseProxyConfig.getWriterIdleTimeoutMillis(), reverseProxyConfig.getAllIdleTimeoutMillis(),
+                proxyMetrics);
+    }
+
+    /**
+     * @return the handler for a WebSocket leg, null if no WebSocket idle timeout
+     *         is configured.
+     */
+    public static IdleTimeoutHandler forWebSocket(final ReverseProxyConfig reverseProxyConfig,
+            final ProxyMetrics proxyMetrics) {
+        return newHandler(reverseProxyConfig.getWebSocketReaderIdleTimeoutMillis(),
+                reverseProxyConfig.getWebSocketWriterIdleTimeoutMillis(),
+                reverseProxyConfig.getWebSocketAllIdleTimeoutMillis(), proxyMetrics);
+    }
+
+    /**
+     * Swaps the HTTP timeouts of a Browser connection for the WebSocket ones,
+     * once it asked for an upgrade.
+     */
+    public static void useWebSocketTimeouts(final ChannelPipeline pipeline,
+            final ReverseProxyConfig reverseProxyConfig, final ProxyMetrics proxyMetrics) {
+        if (pipeline.get(NAME) != null) {
+            pipeline.remove(NAME);
+        }
+        final IdleTimeoutHandler handler = forWebSocket(reverseProxyConfig, proxyMetrics);
+        if (handler != null) {
+            pipeline.addFirst(NAME, handler);
+        }
+    }
+
+    @Override
+    protected void channelIdle(final ChannelHandlerContext channelHandlerContext, final IdleStateEvent event) {
+        log.debug("Closing {}, it was idle: {}", channelHandlerContext.channel(), event.state());
+        proxyMetrics.connectionReaped(toReapCause(event));
+        channelHandlerContext.close();
+    }
+
+    private static IdleTimeoutHandler newHandler(final long readerIdleTimeMillis, final long writerIdleTimeMillis,
+            final long allIdleTimeMillis, final ProxyMetrics proxyMetrics) {
+        if (readerIdleTimeMillis <= 0 && writerIdleTimeMillis <= 0 && allIdleTimeMillis <= 0) {
+            return null;
+        }
+        return new IdleTimeoutHandler(readerIdleTimeMillis, writerIdleTimeMillis, allIdleTimeMillis, proxyMetrics);
+    }
+
+    private static ReapCause toReapCause(final IdleStateEvent event) {
+        switch (event.state()) {
+            case READER_IDLE:
+                return ReapCause.READER_IDLE;
+            case WRITER_IDLE:
+                return ReapCause.WRITER_IDLE;
+            default:
+                return ReapCause.ALL_IDLE;
+        }
+    }
+}
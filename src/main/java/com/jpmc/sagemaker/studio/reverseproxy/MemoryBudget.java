@@ -0,0 +1,78 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide count of the bytes held by aggregated HTTP bodies, shared by
+ * the aggregators of all Browser and Backend channels. Large bodies reserve
+ * their Content-Length before they are aggregated and are turned away when it
+ * does not fit, see {@link BudgetedHttpObjectAggregator}. Updated with atomics
+ * from any event loop.
+ */
+public class MemoryBudget {
+
+    private final MemoryBudgetConfig config;
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder rejectedResponses = new LongAdder();
+
+    public MemoryBudget(final MemoryBudgetConfig config) {
+        this.config = config;
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    long getLargeBodyBytes() {
+        return config.getLargeBodyBytes();
+    }
+
+    public long getMaxInFlightBytes() {
+        return config.getMaxInFlightBytes();
+    }
+
+    /**
+     * @return true if the bytes fit in the budget and are now counted, false if
+     *         nothing was reserved.
+     */
+    boolean tryReserve(final long bytes) {
+        long current;
+        do {
+            current = inFlightBytes.get();
+            if (current + bytes > config.getMaxInFlightBytes()) {
+                return false;
+            }
+        } while (!inFlightBytes.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * Counts bytes that are let through regardless of the budget.
+     */
+    void reserve(final long bytes) {
+        inFlightBytes.addAndGet(bytes);
+    }
+
+    void release(final long bytes) {
+        inFlightBytes.addAndGet(-bytes);
+    }
+
+    void rejected(final boolean request) {
+        (request ? rejectedRequests : rejectedResponses).increment();
+    }
+
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    /**
+     * @param requests whether to count the rejected requests from Browsers or
+     *                 responses from Backend Servers.
+     */
+    public long getRejections(final boolean requests) {
+        return (requests ? rejectedRequests : rejectedResponses).sum();
+    }
+}
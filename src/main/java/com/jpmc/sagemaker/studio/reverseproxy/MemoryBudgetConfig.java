@@ -0,0 +1,37 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Settings of the budget for aggregated HTTP bodies. Defaults can be
+ * overridden through JVM system properties on the start command.
+ */
+@Value
+@Builder
+public class MemoryBudgetConfig {
+
+    private static final String PROPERTY_PREFIX = "reverseproxy.memory.";
+
+    boolean enabled;
+
+    /**
+     * Bytes of request and response bodies being aggregated or relayed at once,
+     * across all connections.
+     */
+    long maxInFlightBytes;
+
+    /**
+     * Bodies whose Content-Length is at least this large are only aggregated if
+     * they fit in the budget. Smaller ones are always let through, and counted.
+     */
+    long largeBodyBytes;
+
+    public static MemoryBudgetConfig fromSystemProperties() {
+        return MemoryBudgetConfig.builder()
+                .enabled(Boolean.getBoolean(PROPERTY_PREFIX + "enabled"))
+                .maxInFlightBytes(Long.getLong(PROPERTY_PREFIX + "maxInFlightBytes", 512L * 1024 * 1024))
+                .largeBodyBytes(Long.getLong(PROPERTY_PREFIX + "largeBodyBytes", 1024L * 1024))
+                .build();
+    }
+}
@@ -0,0 +1,183 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import io.netty.channel.WriteBufferWaterMark;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Settings of the proxied HTTP pipelines. Defaults can be overridden through JVM
+ * system properties on the start command.
+ */
+@Value
+@Builder(toBuilder = true)
+public class ReverseProxyConfig {
+
+    private static final String PROPERTY_PREFIX = "reverseproxy.http.";
+
+    /**
+     * Forward HTTP messages chunk by chunk instead of aggregating them up to
+     * {@link ReverseProxyInitializer#HTTP_MAX_CONTENT_LENGTH_BYTES}.
+     */
+    boolean streamingEnabled;
+
+    /**
+     * Requests of one Browser connection that may wait for their responses at
+     * once. Reading further pipelined requests pauses once this is reached.
+     */
+    int maxPipelinedRequests;
+
+    /**
+     * Accept HTTP/2 from Browsers over cleartext connections, either with prior
+     * knowledge or through an Upgrade from HTTP/1.1. Each stream is served like
+     * a request of its own on a pooled HTTP/1.1 Backend connection.
+     */
+    boolean http2Enabled;
+
+    /**
+     * Streams a Browser may have open at once on one HTTP/2 connection.
+     */
+    int http2MaxConcurrentStreams;
+
+    /**
+     * Flow control window of each HTTP/2 stream, the request body bytes a
+     * Browser may send before the proxy read them.
+     */
+    int http2InitialWindowSizeBytes;
+
+    /**
+     * Outbound bytes below which a channel becomes writable again.
+     */
+    int writeBufferLowWaterMarkBytes;
+
+    /**
+     * Outbound bytes above which a channel becomes unwritable and the peer channel
+     * stops reading.
+     */
+    int writeBufferHighWaterMarkBytes;
+
+    /**
+     * Outbound bytes below which a WebSocket channel becomes writable again.
+     */
+    int webSocketWriteBufferLowWaterMarkBytes;
+
+    /**
+     * Outbound bytes above which a WebSocket channel becomes unwritable and the
+     * peer channel stops reading frames.
+     */
+    int webSocketWriteBufferHighWaterMarkBytes;
+
+    /**
+     * Frame bytes from the Browser buffered until the Backend handshake is
+     * finished. Reading from the Browser pauses once this is reached.
+     */
+    int webSocketMaxPendingFrameBytes;
+
+    /**
+     * Once both WebSocket handshakes are finished, relay raw bytes between the
+     * Browser and the Backend Server instead of decoding and re-encoding every
+     * frame.
+     */
+    boolean webSocketTunnelEnabled;
+
+    /**
+     * Compress frames to the Browser when it offers permessage-deflate and the
+     * Backend Server declines it. Connections compressed by the proxy are never
+     * tunnelled.
+     */
+    boolean webSocketCompressionEnabled;
+
+    /**
+     * Deflate level used when the proxy compresses frames itself.
+     */
+    int webSocketCompressionLevel;
+
+    /**
+     * Milliseconds an HTTP connection, from a Browser or to a Backend Server,
+     * may go without reading anything before it is closed. 0 disables the
+     * timeout. A Browser connection waiting for a slow response reads nothing,
+     * so this has to outlast the slowest Backend Server.
+     */
+    long readerIdleTimeoutMillis;
+
+    /**
+     * Milliseconds an HTTP connection may go without writing anything before it
+     * is closed. 0 disables the timeout.
+     */
+    long writerIdleTimeoutMillis;
+
+    /**
+     * Milliseconds an HTTP connection may go without reading or writing before
+     * it is closed. 0 disables the timeout.
+     */
+    long allIdleTimeoutMillis;
+
+    /**
+     * Milliseconds a WebSocket leg, to the Browser or to the Backend Server, may
+     * go without reading anything before both legs are closed. 0 disables the
+     * timeout.
+     */
+    long webSocketReaderIdleTimeoutMillis;
+
+    /**
+     * Milliseconds a WebSocket leg may go without writing anything before both
+     * legs are closed. 0 disables the timeout.
+     */
+    long webSocketWriterIdleTimeoutMillis;
+
+    /**
+     * Milliseconds a WebSocket leg may go without reading or writing before both
+     * legs are closed. 0 disables the timeout.
+     */
+    long webSocketAllIdleTimeoutMillis;
+
+    /**
+     * Milliseconds a WebSocket leg may go without reading before the proxy pings
+     * its peer. A peer that sends nothing, not even the pong, for another
+     * interval is considered dead and both legs are closed. 0 disables the
+     * pings, which are never sent in tunnel mode or on HTTP/2 streams.
+     */
+    long webSocketPingIntervalMillis;
+
+    public WriteBufferWaterMark getWriteBufferWaterMark() {
+        return new WriteBufferWaterMark(writeBufferLowWaterMarkBytes, writeBufferHighWaterMarkBytes);
+    }
+
+    public WriteBufferWaterMark getWebSocketWriteBufferWaterMark() {
+        return new WriteBufferWaterMark(webSocketWriteBufferLowWaterMarkBytes, webSocketWriteBufferHighWaterMarkBytes);
+    }
+
+    public static ReverseProxyConfig fromSystemProperties() {
+        return ReverseProxyConfig.builder()
+                .streamingEnabled(Boolean.getBoolean(PROPERTY_PREFIX + "streamingEnabled"))
+                .maxPipelinedRequests(Integer.getInteger(PROPERTY_PREFIX + "maxPipelinedRequests", 8))
+                .http2Enabled(Boolean.getBoolean(PROPERTY_PREFIX + "http2Enabled"))
+                .http2MaxConcurrentStreams(Integer.getInteger(PROPERTY_PREFIX + "http2MaxConcurrentStreams", 100))
+                .http2InitialWindowSizeBytes(
+                        Integer.getInteger(PROPERTY_PREFIX + "http2InitialWindowSizeBytes", 1024 * 1024))
+                .writeBufferLowWaterMarkBytes(Integer.getInteger(PROPERTY_PREFIX + "writeBufferLowWaterMarkBytes",
+                        WriteBufferWaterMark.DEFAULT.low()))
+                .writeBufferHighWaterMarkBytes(Integer.getInteger(PROPERTY_PREFIX + "writeBufferHighWaterMarkBytes",
+                        WriteBufferWaterMark.DEFAULT.high()))
+                .webSocketWriteBufferLowWaterMarkBytes(Integer.getInteger(
+                        PROPERTY_PREFIX + "webSocketWriteBufferLowWaterMarkBytes", WriteBufferWaterMark.DEFAULT.low()))
+                .webSocketWriteBufferHighWaterMarkBytes(Integer.getInteger(
+                        PROPERTY_PREFIX + "webSocketWriteBufferHighWaterMarkBytes",
+                        WriteBufferWaterMark.DEFAULT.high()))
+                .webSocketMaxPendingFrameBytes(
+                        Integer.getInteger(PROPERTY_PREFIX + "webSocketMaxPendingFrameBytes", 256 * 1024))
+                .webSocketTunnelEnabled(Boolean.getBoolean(PROPERTY_PREFIX + "webSocketTunnelEnabled"))
+                .webSocketCompressionEnabled(Boolean
+                        .parseBoolean(System.getProperty(PROPERTY_PREFIX + "webSocketCompressionEnabled", "true")))
+                .webSocketCompressionLevel(Integer.getInteger(PROPERTY_PREFIX + "webSocketCompressionLevel", 6))
+                .readerIdleTimeoutMillis(Long.getLong(PROPERTY_PREFIX + "readerIdleTimeoutMillis", 0))
+                .writerIdleTimeoutMillis(Long.getLong(PROPERTY_PREFIX + "writerIdleTimeoutMillis", 0))
+                .allIdleTimeoutMillis(Long.getLong(PROPERTY_PREFIX + "allIdleTimeoutMillis", 0))
+                .webSocketReaderIdleTimeoutMillis(
+                        Long.getLong(PROPERTY_PREFIX + "webSocketReaderIdleTimeoutMillis", 0))
+                .webSocketWriterIdleTimeoutMillis(
+                        Long.getLong(PROPERTY_PREFIX + "webSocketWriterIdleTimeoutMillis", 0))
+                .webSocketAllIdleTimeoutMillis(Long.getLong(PROPERTY_PREFIX + "webSocketAllIdleTimeoutMillis", 0))
+                .webSocketPingIntervalMillis(Long.getLong(PROPERTY_PREFIX + "webSocketPingIntervalMillis", 0))
+                .build();
+    }
+}
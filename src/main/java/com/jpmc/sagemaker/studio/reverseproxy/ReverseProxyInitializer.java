@@ -1,33 +1,219 @@
 package com.jpmc.sagemaker.studio.reverseproxy;
 
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import com.jpmc.sagemaker.studio.backend.BackendSslContextFactory;
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.metrics.FrontendMetricsHandler;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimitHandler;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimiter;
+import com.jpmc.sagemaker.studio.routing.Router;
+import com.jpmc.sagemaker.studio.tls.FrontendTls;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.ChannelPipeline;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.AsciiString;
 import lombok.extern.log4j.Log4j2;
 
+import javax.inject.Inject;
+import javax.inject.Named;
+
 /**
  * ReverseProxyInitializer initializes the Channel Pipeline for the Reverse
- * Proxy Server
+ * Proxy Server. With HTTP/2 enabled, a connection that starts with the HTTP/2
+ * preface or asks for an Upgrade to h2c is switched to HTTP/2, and each of its
+ * streams gets a pipeline of its own that converts the stream to HTTP/1.1
+ * messages for the same handlers. With frontend TLS enabled, the connection
+ * starts with a TLS handshake and HTTP/2 is picked through ALPN instead.
  */
 @Log4j2
-public class ReverseProxyInitializer extends ChannelInitializer<SocketChannel> {
+public class ReverseProxyInitializer extends ChannelInitializer<Channel> {
 
     // TODO: Update this with the Ideal value(not sure right now what it should be)
     public static final int HTTP_MAX_CONTENT_LENGTH_BYTES = 200 * 1024 * 1024;
 
+    private static final String HTTP2_FRAME_CODEC = "http2FrameCodec";
+    // SETTINGS_ENABLE_CONNECT_PROTOCOL, which lets Browsers bootstrap WebSockets on a
+    // stream (RFC 8441)
+    private static final char SETTINGS_ENABLE_CONNECT_PROTOCOL = 0x8;
+
+    private final ReverseProxyConfig reverseProxyConfig;
+    private final BackendConnectionPool backendConnectionPool;
+    private final SslContext backendSslContext;
+    private final Router router;
+    private final ResponseCache responseCache;
+    private final ProxyMetrics proxyMetrics;
+    private final MemoryBudget memoryBudget;
+    private final RateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final FrontendTls frontendTls;
+
+    @Inject
+    public ReverseProxyInitializer(final ReverseProxyConfig reverseProxyConfig,
+            final BackendConnectionPool backendConnectionPool,
+            @Named(BackendSslContextFactory.BACKEND_SSL_CONTEXT) final SslContext backendSslContext,
+            final Router router, final ResponseCache responseCache, final ProxyMetrics proxyMetrics,
+            final MemoryBudget memoryBudget, final RateLimiter rateLimiter, final CircuitBreaker circuitBreaker,
+            final FrontendTls frontendTls) {
+        this.reverseProxyConfig = reverseProxyConfig;
+        this.backendConnectionPool = backendConnectionPool;
+        this.backendSslContext = backendSslContext;
+        this.router = router;
+        this.responseCache = responseCache;
+        this.proxyMetrics = proxyMetrics;
+        this.memoryBudget = memoryBudget;
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.frontendTls = frontendTls;
+    }
+
     @Override
-    protected void initChannel(final SocketChannel socketChannel) throws Exception {
+    protected void initChannel(final Channel channel) throws Exception {
         log.debug("Initiating a Channel Pipeline for ReverseProxy.");
 
+        channel.config().setWriteBufferWaterMark(reverseProxyConfig.getWriteBufferWaterMark());
+        final IdleTimeoutHandler idleTimeoutHandler = IdleTimeoutHandler.forHttp(reverseProxyConfig, proxyMetrics);
+        if (idleTimeoutHandler != null) {
+            // Ahead of the codec, so any bytes read or written count. A WebSocket upgrade
+            // swaps in the WebSocket timeouts.
+            channel.pipeline().addLast(IdleTimeoutHandler.NAME, idleTimeoutHandler);
+        }
+
         // Equivalent to an HttpRequestDecoder and HttpResponseEncoder
-        socketChannel.pipeline().addLast(new HttpServerCodec());
-        // TODO: What should maxContentLength be?
-        // Are large notebook files still loadable? Otherwise might need to tweak this
-        // setting
-        socketChannel.pipeline().addLast(new HttpObjectAggregator(HTTP_MAX_CONTENT_LENGTH_BYTES));
+        final HttpServerCodec httpServerCodec = new HttpServerCodec();
+        if (frontendTls.isEnabled()) {
+            channel.pipeline().addLast(frontendTls.newHandler(channel.alloc()));
+            // Over TLS, Browsers only speak HTTP/2 once ALPN picked h2. Neither the preface
+            // nor an Upgrade to h2c is looked for.
+            channel.pipeline().addLast(reverseProxyConfig.isHttp2Enabled() ? new Http2AlpnHandler()
+                    : httpServerCodec);
+        } else if (reverseProxyConfig.isHttp2Enabled()) {
+            // Takes the codec's place once it saw whether the connection starts with the
+            // HTTP/2 preface. Requests that do not ask for h2c pass the upgrade handler.
+            channel.pipeline().addLast(new CleartextHttp2ServerUpgradeHandler(httpServerCodec,
+                    new HttpServerUpgradeHandler(httpServerCodec, this::newUpgradeCodec,
+                            HTTP_MAX_CONTENT_LENGTH_BYTES),
+                    new Http2PriorKnowledgeHandler()));
+        } else {
+            channel.pipeline().addLast(httpServerCodec);
+        }
+        // Once the connection switches to HTTP/2, HttpRequestConnectionHandler takes itself
+        // and the aggregator out and the metrics handler counts the connection.
+        addHttpHandlers(channel.pipeline());
+    }
+
+    /**
+     * Adds the handlers behind the codec of a Browser connection, or of one of
+     * its HTTP/2 streams.
+     */
+    private void addHttpHandlers(final ChannelPipeline pipeline) {
+        // Behind the codec so it sees requests and responses, and WebSocket frames once a
+        // handshake replaced the codec
+        pipeline.addLast(new FrontendMetricsHandler(proxyMetrics));
+        if (rateLimiter.isEnabled()) {
+            // Ahead of the aggregator, so a throttled request is turned away on its headers
+            pipeline.addLast(new RateLimitHandler(rateLimiter, proxyMetrics));
+        }
+        // In streaming mode request bodies are forwarded chunk by chunk, bounded by
+        // the write buffer water marks instead of maxContentLength
+        if (!reverseProxyConfig.isStreamingEnabled()) {
+            // TODO: What should maxContentLength be?
+            // Are large notebook files still loadable? Otherwise might need to tweak this
+            // setting
+            pipeline.addLast(memoryBudget.isEnabled()
+                    ? new BudgetedHttpObjectAggregator(HTTP_MAX_CONTENT_LENGTH_BYTES, memoryBudget)
+                    : new HttpObjectAggregator(HTTP_MAX_CONTENT_LENGTH_BYTES));
+        }
         // Business logic to handle incoming connections from the browser/client
-        socketChannel.pipeline().addLast(new HttpRequestConnectionHandler());
+        pipeline.addLast(new HttpRequestConnectionHandler(reverseProxyConfig, backendConnectionPool,
+                backendSslContext, router, responseCache, proxyMetrics, circuitBreaker));
+    }
+
+    private HttpServerUpgradeHandler.UpgradeCodec newUpgradeCodec(final CharSequence protocol) {
+        if (!AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)) {
+            return null;
+        }
+        log.debug("Upgrading a Browser connection to h2c.");
+        return new Http2ServerUpgradeCodec(newHttp2FrameCodec(), newHttp2MultiplexHandler());
+    }
+
+    private Http2FrameCodec newHttp2FrameCodec() {
+        final Http2Settings settings = Http2Settings.defaultSettings()
+                .maxConcurrentStreams(reverseProxyConfig.getHttp2MaxConcurrentStreams())
+                .initialWindowSize(reverseProxyConfig.getHttp2InitialWindowSizeBytes());
+        settings.put(SETTINGS_ENABLE_CONNECT_PROTOCOL, Long.valueOf(1));
+        // The :protocol pseudo header of an extended CONNECT fails the validation of this
+        // Netty version. Requests are validated when they are converted to HTTP/1.1.
+        return Http2FrameCodecBuilder.forServer().initialSettings(settings).validateHeaders(false).build();
+    }
+
+    private Http2MultiplexHandler newHttp2MultiplexHandler() {
+        return new Http2MultiplexHandler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(final Channel streamChannel) {
+                // Each stream carries a single request, or a WebSocket
+                streamChannel.pipeline().addLast(new Http2WebSocketRequestHandler(reverseProxyConfig, router,
+                        circuitBreaker, backendSslContext, proxyMetrics, backendConnectionPool.getResolver()));
+                streamChannel.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(true));
+                addHttpHandlers(streamChannel.pipeline());
+            }
+        });
+    }
+
+    /**
+     * Stands in for the HTTP/2 handlers of a connection that started with the
+     * HTTP/2 preface, and puts them in its place when it is added.
+     */
+    private final class Http2PriorKnowledgeHandler extends ChannelHandlerAdapter {
+
+        @Override
+        public void handlerAdded(final ChannelHandlerContext channelHandlerContext) {
+            log.debug("Browser connection started with the HTTP/2 preface.");
+            // The multiplex handler looks for the frame codec when it is added
+            channelHandlerContext.pipeline().addAfter(channelHandlerContext.name(), HTTP2_FRAME_CODEC,
+                    newHttp2FrameCodec());
+            channelHandlerContext.pipeline().addAfter(HTTP2_FRAME_CODEC, null, newHttp2MultiplexHandler());
+            channelHandlerContext.pipeline().remove(this);
+        }
+    }
+
+    /**
+     * Puts the HTTP/2 handlers, or the HTTP/1.1 codec, in its place once the
+     * TLS handshake picked the protocol.
+     */
+    private final class Http2AlpnHandler extends ApplicationProtocolNegotiationHandler {
+
+        Http2AlpnHandler() {
+            super(ApplicationProtocolNames.HTTP_1_1);
+        }
 
+        @Override
+        protected void configurePipeline(final ChannelHandlerContext channelHandlerContext, final String protocol) {
+            if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                log.debug("Browser connection negotiated h2.");
+                channelHandlerContext.pipeline().addAfter(channelHandlerContext.name(), HTTP2_FRAME_CODEC,
+                        newHttp2FrameCodec());
+                channelHandlerContext.pipeline().addAfter(HTTP2_FRAME_CODEC, null, newHttp2MultiplexHandler());
+            } else {
+                channelHandlerContext.pipeline().addAfter(channelHandlerContext.name(), null, new HttpServerCodec());
+            }
+        }
     }
 }
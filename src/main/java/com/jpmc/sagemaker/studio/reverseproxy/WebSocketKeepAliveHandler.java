@@ -0,0 +1,69 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics.ReapCause;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameEncoder;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.CharsetUtil;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pings the peer of one WebSocket leg once it sent nothing for a ping interval,
+ * and closes the leg when the peer stays silent for another interval, which
+ * closes the other leg too. Sits behind the frame decoder; until the handshake
+ * replaced the HTTP codec with the frame codecs no ping is sent. The pongs
+ * answering the proxy's own pings are not relayed.
+ */
+@Log4j2
+public class WebSocketKeepAliveHandler extends IdleStateHandler {
+
+    private static final ByteBuf PING_PAYLOAD = Unpooled
+            .unreleasableBuffer(Unpooled.copiedBuffer("reverseproxy", CharsetUtil.US_ASCII));
+
+    private final ProxyMetrics proxyMetrics;
+    private boolean pingOutstanding;
+
+    public WebSocketKeepAliveHandler(final long pingIntervalMillis, final ProxyMetrics proxyMetrics) {
+        super(pingIntervalMillis, 0, 0, TimeUnit.MILLISECONDS);
+        this.proxyMetrics = proxyMetrics;
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message)
+            throws Exception {
+        // Anything read shows the peer is alive, not just the pong
+        pingOutstanding = false;
+        if (message instanceof PongWebSocketFrame
+                && PING_PAYLOAD.equals(((PongWebSocketFrame) message).content())) {
+            ((PongWebSocketFrame) message).release();
+            return;
+        }
+        super.channelRead(channelHandlerContext, message);
+    }
+
+    @Override
+    protected void channelIdle(final ChannelHandlerContext channelHandlerContext, final IdleStateEvent event) {
+        if (channelHandlerContext.pipeline().get(WebSocketFrameEncoder.class) == null) {
+            // The handshake is not finished yet
+            return;
+        }
+        if (pingOutstanding) {
+            log.debug("Closing {}, its peer did not answer a ping.", channelHandlerContext.channel());
+            proxyMetrics.connectionReaped(ReapCause.PING_TIMEOUT);
+            channelHandlerContext.close();
+            return;
+        }
+        pingOutstanding = true;
+        channelHandlerContext.writeAndFlush(new PingWebSocketFrame(PING_PAYLOAD.duplicate()))
+                .addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    }
+}
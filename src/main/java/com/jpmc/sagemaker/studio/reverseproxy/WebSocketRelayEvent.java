@@ -0,0 +1,14 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+/**
+ * User events exchanged between the Browser and Backend halves of a proxied
+ * WebSocket connection.
+ */
+public enum WebSocketRelayEvent {
+
+    /**
+     * Fired on the Browser channel once the Backend handshake is finished and
+     * frames can be written to the Backend channel.
+     */
+    BACKEND_HANDSHAKE_COMPLETE
+}
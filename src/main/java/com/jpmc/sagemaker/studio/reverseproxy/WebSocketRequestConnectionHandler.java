@@ -1,34 +1,50 @@
 package com.jpmc.sagemaker.studio.reverseproxy;
 
-import com.jpmc.sagemaker.studio.utils.BackendServerURLUtils;
+import com.jpmc.sagemaker.studio.metrics.ConnectTimingHandler;
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.backend.HappyEyeballsConnector;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.metrics.RequestTiming;
+import com.jpmc.sagemaker.studio.routing.Route;
 import com.jpmc.sagemaker.studio.utils.NettyUtils;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBufHolder;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.ChannelOption;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
 import io.netty.handler.codec.http.websocketx.WebSocketHandshakeException;
 import io.netty.handler.codec.http.websocketx.WebSocketVersion;
 import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslContextBuilder;
-import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.util.ReferenceCountUtil;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Queue;
 
 /**
  * Channel Inbound Handler to process the WS request and send it to Downstream
- * Server
+ * Server. Frames that arrive before the Backend handshake is finished are held
+ * in a bounded buffer, and reading from the Browser pauses while the Backend
+ * channel is unwritable. In tunnel mode the Browser is not read from until both
+ * handshakes are finished, after which raw bytes are relayed without framing.
+ * The {@link RequestTiming} of the handshake is finished by
+ * {@link WebSocketResponseConnectionHandler} once the Browser has the handshake
+ * response, or here if the Browser goes away before.
  */
 @Log4j2
 public class WebSocketRequestConnectionHandler extends ChannelInboundHandlerAdapter {
@@ -38,25 +54,128 @@ public class WebSocketRequestConnectionHandler extends ChannelInboundHandlerAdap
     @Setter
     private String frontendWebsocketURL;
     private final HttpRequest request;
+    private final Route route;
+    private final ReverseProxyConfig reverseProxyConfig;
+    private final SslContext backendSslContext;
+    private final ProxyMetrics proxyMetrics;
+    private final AddressResolverGroup<?> resolver;
+    private final CircuitBreaker circuitBreaker;
+    private final RequestTiming timing;
+    private final Queue<Object> pendingFrames = new ArrayDeque<>();
+    private long pendingFrameBytes;
+    private boolean backendHandshakeComplete;
 
-    public WebSocketRequestConnectionHandler(final HttpRequest request, final String frontendWebsocketURL) {
+    public WebSocketRequestConnectionHandler(final HttpRequest request, final String frontendWebsocketURL,
+            final Route route, final ReverseProxyConfig reverseProxyConfig, final SslContext backendSslContext,
+            final ProxyMetrics proxyMetrics, final AddressResolverGroup<?> resolver,
+            final CircuitBreaker circuitBreaker, final RequestTiming timing) {
         this.request = request;
         this.frontendWebsocketURL = frontendWebsocketURL;
+        this.route = route;
+        this.reverseProxyConfig = reverseProxyConfig;
+        this.backendSslContext = backendSslContext;
+        this.proxyMetrics = proxyMetrics;
+        this.resolver = resolver;
+        this.circuitBreaker = circuitBreaker;
+        this.timing = timing;
     }
 
     @Override
     public void handlerAdded(final ChannelHandlerContext channelHandlerContext) throws Exception {
+        channelHandlerContext.channel().config()
+                .setWriteBufferWaterMark(reverseProxyConfig.getWebSocketWriteBufferWaterMark());
+        if (reverseProxyConfig.isWebSocketTunnelEnabled()) {
+            // Nothing may reach the frame decoder before it is taken out of the pipeline
+            channelHandlerContext.channel().config().setAutoRead(false);
+        }
+        IdleTimeoutHandler.useWebSocketTimeouts(channelHandlerContext.pipeline(), reverseProxyConfig, proxyMetrics);
+        if (isKeepAliveEnabled()) {
+            // The handshake puts the frame codecs in the HTTP codec's place, ahead of this
+            channelHandlerContext.pipeline().addAfter(
+                    channelHandlerContext.pipeline().context(HttpServerCodec.class).name(), null,
+                    new WebSocketKeepAliveHandler(reverseProxyConfig.getWebSocketPingIntervalMillis(), proxyMetrics));
+        }
         if (backendWSChannel == null) {
             final ChannelFuture backendWSChannelFuture = createBackendWSChannel(channelHandlerContext.channel());
             backendWSChannel = backendWSChannelFuture.channel();
-            backendWSChannelFuture.addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+            backendWSChannelFuture.addListener((ChannelFutureListener) future -> {
+                if (!future.isSuccess()) {
+                    log.warn("Backend WS connection failed for {}", request.uri(), future.cause());
+                    circuitBreaker.connectFailed(channelHandlerContext.channel(), route);
+                    NettyUtils.closeOnFlush(channelHandlerContext.channel());
+                } else {
+                    // The attempt that connected, which need not be the first one
+                    backendWSChannel = future.channel();
+                    circuitBreaker.connected(route);
+                    timing.phase(RequestTiming.Phase.BACKEND_ACQUIRED);
+                    timing.awaitTlsHandshake(future.channel());
+                }
+            });
         }
     }
 
     @Override
     public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
         log.debug("WS Request Received: {}.", message);
-        sendMessageToBackendServer(message);
+        if (backendHandshakeComplete) {
+            sendMessageToBackendServer(channelHandlerContext, message);
+            return;
+        }
+
+        pendingFrames.add(message);
+        if (message instanceof ByteBufHolder) {
+            pendingFrameBytes += ((ByteBufHolder) message).content().readableBytes();
+        }
+        if (pendingFrameBytes >= reverseProxyConfig.getWebSocketMaxPendingFrameBytes()) {
+            log.debug("Pausing WS reads until the backend handshake completes.");
+            channelHandlerContext.channel().config().setAutoRead(false);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(final ChannelHandlerContext channelHandlerContext) {
+        if (backendHandshakeComplete) {
+            backendWSChannel.flush();
+        }
+        channelHandlerContext.fireChannelReadComplete();
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext channelHandlerContext, final Object event)
+            throws Exception {
+        if (event != WebSocketRelayEvent.BACKEND_HANDSHAKE_COMPLETE) {
+            super.userEventTriggered(channelHandlerContext, event);
+            return;
+        }
+
+        backendHandshakeComplete = true;
+        log.debug("Relaying {} WS frames received before the backend handshake completed.", pendingFrames.size());
+        while (!pendingFrames.isEmpty()) {
+            backendWSChannel.write(pendingFrames.poll()).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        }
+        pendingFrameBytes = 0;
+        backendWSChannel.flush();
+        channelHandlerContext.channel().config().setAutoRead(backendWSChannel.isWritable());
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext channelHandlerContext) {
+        // The Browser drained its buffered frames, resume reading from the Backend
+        // Server. See WebSocketResponseConnectionHandler#channelRead.
+        if (channelHandlerContext.channel().isWritable()) {
+            backendWSChannel.config().setAutoRead(true);
+        }
+        channelHandlerContext.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext channelHandlerContext) {
+        log.debug("WS Frontend Channel is Inactive");
+        timing.finish();
+        while (!pendingFrames.isEmpty()) {
+            ReferenceCountUtil.release(pendingFrames.poll());
+        }
+        NettyUtils.closeOnFlush(backendWSChannel);
     }
 
     @Override
@@ -66,10 +185,7 @@ public class WebSocketRequestConnectionHandler extends ChannelInboundHandlerAdap
     }
 
     private ChannelFuture createBackendWSChannel(final Channel frontendChannel) throws Exception {
-        // TODO:For Phase 0:Update this to map to previously created Sagemaker N/B.
-        // TODO:For Phase 1:Update this to map to Customer's N/B server based on Routing
-        // Logic
-        final URI jupyterURI = BackendServerURLUtils.getJupyterURI(request);
+        final URI jupyterURI = route.getWebSocketURI(request.uri());
         log.debug("Creating Backend WS Channel for {}", jupyterURI);
 
         final String versionFromHeader = request.headers().get(HttpHeaderNames.SEC_WEBSOCKET_VERSION);
@@ -81,38 +197,58 @@ public class WebSocketRequestConnectionHandler extends ChannelInboundHandlerAdap
 
         final String expectedSubprotocol = request.headers().get(HttpHeaderNames.SEC_WEBSOCKET_PROTOCOL);
 
-        // Required for HTTPS request
-        // TODO: Remove InsecureTrustManagerFactory once we have backend encryption
-        // enabled
-        final SslContext sslCtx = SslContextBuilder.forClient().trustManager(InsecureTrustManagerFactory.INSTANCE)
-                .build();
-
         // WS Upgrade request was failing due to the present of "Origin" in the request
         // https://sage.amazon.com/questions/869751
         request.headers().remove(HttpHeaderNames.ORIGIN);
 
-        return new Bootstrap().group(frontendChannel.eventLoop()).channel(frontendChannel.getClass())
-                .handler(new ChannelInitializer<SocketChannel>() {
+        final Bootstrap bootstrap = new Bootstrap().group(frontendChannel.eventLoop())
+                .channel(frontendChannel.getClass()).resolver(resolver).handler(new ChannelInitializer<Channel>() {
                     @Override
-                    protected void initChannel(final SocketChannel channel) throws Exception {
-                        channel.pipeline().addLast(sslCtx.newHandler(frontendChannel.alloc()));
+                    protected void initChannel(final Channel channel) throws Exception {
+                        channel.pipeline().addLast(new ConnectTimingHandler(proxyMetrics));
+                        final IdleTimeoutHandler idleTimeoutHandler = IdleTimeoutHandler
+                                .forWebSocket(reverseProxyConfig, proxyMetrics);
+                        if (idleTimeoutHandler != null) {
+                            channel.pipeline().addLast(idleTimeoutHandler);
+                        }
+                        if (route.isTls()) {
+                            channel.pipeline().addLast(backendSslContext.newHandler(frontendChannel.alloc(),
+                                    route.getHost(), route.getPort()));
+                        }
                         channel.pipeline().addLast(new HttpClientCodec());
+                        if (isKeepAliveEnabled()) {
+                            // Ends up behind the frame codecs, which take the HTTP codec's place
+                            channel.pipeline().addLast(new WebSocketKeepAliveHandler(
+                                    reverseProxyConfig.getWebSocketPingIntervalMillis(), proxyMetrics));
+                        }
                         channel.pipeline().addLast(
                                 new HttpObjectAggregator(ReverseProxyInitializer.HTTP_MAX_CONTENT_LENGTH_BYTES));
                         channel.pipeline().addLast(new WebSocketResponseConnectionHandler(frontendChannel,
                                 WebSocketClientHandshakerFactory.newHandshaker(jupyterURI, version, expectedSubprotocol,
                                         true, request.headers(), ReverseProxyInitializer.HTTP_MAX_CONTENT_LENGTH_BYTES),
-                                request, frontendWebsocketURL));
+                                request, frontendWebsocketURL, reverseProxyConfig, timing));
                     }
-                })
-                // Currently connecting to Personal Sagemaker's Jupyter Server
-                // TODO:For Phase 1:Update this to map to Customer's N/B server based on Routing
-                // Logic
-                .connect(jupyterURI.getHost(), jupyterURI.getPort());
+                }).option(ChannelOption.WRITE_BUFFER_WATER_MARK, reverseProxyConfig.getWebSocketWriteBufferWaterMark());
+        return HappyEyeballsConnector.connect(bootstrap,
+                InetSocketAddress.createUnresolved(route.getHost(), route.getPort()));
     }
 
-    private void sendMessageToBackendServer(final Object message) {
+    private boolean isKeepAliveEnabled() {
+        // Raw bytes leave no frame boundary to put a ping between
+        return reverseProxyConfig.getWebSocketPingIntervalMillis() > 0
+                && !reverseProxyConfig.isWebSocketTunnelEnabled();
+    }
+
+    private void sendMessageToBackendServer(final ChannelHandlerContext channelHandlerContext, final Object message) {
         log.debug("Sending WS message to Backend Server: {}.", message);
-        backendWSChannel.writeAndFlush(message).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        backendWSChannel.write(message).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        if (!backendWSChannel.isWritable()) {
+            // Stop reading from the Browser until the Backend channel drains below its low
+            // water mark. See WebSocketResponseConnectionHandler#channelWritabilityChanged.
+            // Pause before flushing, a flush that drains the channel right away fires the
+            // writability change that resumes reading.
+            channelHandlerContext.channel().config().setAutoRead(false);
+            backendWSChannel.flush();
+        }
     }
 }
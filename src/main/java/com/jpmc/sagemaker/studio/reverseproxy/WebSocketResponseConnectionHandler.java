@@ -1,45 +1,80 @@
 package com.jpmc.sagemaker.studio.reverseproxy;
 
+import com.jpmc.sagemaker.studio.metrics.RequestTiming;
 import com.jpmc.sagemaker.studio.utils.HttpUtils;
 import com.jpmc.sagemaker.studio.utils.NettyUtils;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameDecoder;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionDecoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionEncoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionUtil;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
 import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
 import lombok.extern.log4j.Log4j2;
 
+import java.util.ArrayDeque;
+import java.util.Queue;
+
 /**
- * Channel Handler to send the WS Frames back from Backend server to the Browser
+ * Channel Handler to send the WS Frames back from Backend server to the Browser.
+ * Reading from the Backend Server pauses while the Browser channel is
+ * unwritable. In tunnel mode the frame codec is removed once the handshake is
+ * finished and raw bytes are relayed to the Browser.
+ * <p>
+ * The Browser is told the WebSocket extensions the Backend Server accepted, so
+ * compressed frames pass through as they are. Only when the Backend Server
+ * declines compression that the Browser offered does the proxy compress the
+ * Browser leg itself.
  */
 @Log4j2
-
 public class WebSocketResponseConnectionHandler extends ChannelInboundHandlerAdapter {
 
     private final WebSocketClientHandshaker webSocketClientHandshaker;
     private final Channel frontendChannel;
     private final HttpRequest originalUpgradeRequest;
     private final String frontendWebsocketURL;
+    private final ReverseProxyConfig reverseProxyConfig;
+    private final RequestTiming timing;
+    // Bytes the Backend Server sent right behind the handshake response
+    private final Queue<ByteBuf> pendingBytes = new ArrayDeque<>();
+    // Compression the proxy does itself on the Browser leg
+    private WebSocketServerExtension frontendCompression;
 
     public WebSocketResponseConnectionHandler(final Channel frontendChannel,
             final WebSocketClientHandshaker webSocketClientHandshaker, final HttpRequest originalUpgradeRequest,
-            final String frontendWebsocketURL) {
+            final String frontendWebsocketURL, final ReverseProxyConfig reverseProxyConfig,
+            final RequestTiming timing) {
         this.frontendChannel = frontendChannel;
         this.webSocketClientHandshaker = webSocketClientHandshaker;
         this.originalUpgradeRequest = originalUpgradeRequest;
         this.frontendWebsocketURL = frontendWebsocketURL;
+        this.reverseProxyConfig = reverseProxyConfig;
+        this.timing = timing;
     }
 
     @Override
     public void channelActive(final ChannelHandlerContext channelHandlerContext) throws Exception {
         log.info("[STEP WS 2a]  Initiating the backend WS Handshake.");
-        webSocketClientHandshaker.handshake(channelHandlerContext.channel());
+        timing.phaseOnSuccess(RequestTiming.Phase.REQUEST_WRITTEN,
+                webSocketClientHandshaker.handshake(channelHandlerContext.channel()));
         log.info("[STEP WS 2a]  Backend Handshake Initiated.");
         channelHandlerContext.read();
     }
@@ -48,17 +83,44 @@ public class WebSocketResponseConnectionHandler extends ChannelInboundHandlerAda
     public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) throws Exception {
         log.debug("WS Response Received {}", message);
         if (!webSocketClientHandshaker.isHandshakeComplete()) {
+            if (message instanceof ByteBuf) {
+                // The HTTP codec hands on whatever follows the 101 response as is. It is
+                // replayed once the frame decoder is in place.
+                pendingBytes.add((ByteBuf) message);
+                return;
+            }
             if (!(message instanceof FullHttpResponse)) {
                 throw new Exception("Didn't receive a FullHttpResponse message to complete handshake");
             }
+            timing.status(((FullHttpResponse) message).status().code());
+            timing.phase(RequestTiming.Phase.FIRST_BYTE);
 
-            completeFrontendWsHandshake().addListener(future -> {
+            final ChannelFuture frontendHandshake = completeFrontendWsHandshake((FullHttpResponse) message);
+            timing.finishOnFlush(frontendHandshake);
+            frontendHandshake.addListener(future -> {
                 if (future.isSuccess()) {
                     log.info("[STEP WS 4] Finalizing the backend WS handshake...");
                     webSocketClientHandshaker.finishHandshake(channelHandlerContext.channel(),
                             (FullHttpResponse) message);
                     log.info(
                             "[STEP WS 4] Finalized the backend WS handshake.  Ready to proxy messages in both directions!");
+                    if (frontendCompression != null) {
+                        addFrontendCompression();
+                    } else if (reverseProxyConfig.isWebSocketTunnelEnabled()) {
+                        // Frames are relayed untouched either way, so the codecs can go
+                        log.debug("Relaying raw bytes between the Browser and the Backend Server.");
+                        NettyUtils.removeWebSocketFrameCodec(channelHandlerContext.pipeline());
+                        NettyUtils.removeWebSocketFrameCodec(frontendChannel.pipeline());
+                    }
+                    // The HTTP codec is only removed later, so bytes replayed from its context reach
+                    // whatever now follows it
+                    final ChannelHandlerContext codecContext = channelHandlerContext.pipeline()
+                            .context(HttpClientCodec.class);
+                    while (!pendingBytes.isEmpty()) {
+                        codecContext.fireChannelRead(pendingBytes.poll());
+                    }
+                    frontendChannel.flush();
+                    frontendChannel.pipeline().fireUserEventTriggered(WebSocketRelayEvent.BACKEND_HANDSHAKE_COMPLETE);
                 } else {
                     log.info("Since the frontend handshake didn't work, closing the backend context.");
                     NettyUtils.closeOnFlush(channelHandlerContext.channel());
@@ -75,7 +137,40 @@ public class WebSocketResponseConnectionHandler extends ChannelInboundHandlerAda
                     + response.content().toString(CharsetUtil.UTF_8) + ')');
         }
 
-        frontendChannel.writeAndFlush(message).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        frontendChannel.write(message).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        if (!frontendChannel.isWritable()) {
+            // Stop reading from the Backend Server until the Browser channel drains below
+            // its low water mark. See WebSocketRequestConnectionHandler#channelWritabilityChanged.
+            // Pause before flushing, a flush that drains the channel right away fires the
+            // writability change that resumes reading.
+            channelHandlerContext.channel().config().setAutoRead(false);
+            frontendChannel.flush();
+        }
+    }
+
+    @Override
+    public void channelReadComplete(final ChannelHandlerContext channelHandlerContext) {
+        frontendChannel.flush();
+        channelHandlerContext.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext channelHandlerContext) {
+        // The Backend Server drained the buffered frames, resume reading from the
+        // Browser. See WebSocketRequestConnectionHandler#sendMessageToBackendServer.
+        if (channelHandlerContext.channel().isWritable()) {
+            frontendChannel.config().setAutoRead(true);
+        }
+        channelHandlerContext.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext channelHandlerContext) {
+        log.debug("WS Backend Channel is Inactive");
+        while (!pendingBytes.isEmpty()) {
+            ReferenceCountUtil.release(pendingBytes.poll());
+        }
+        NettyUtils.closeOnFlush(frontendChannel);
     }
 
     @Override
@@ -84,7 +179,7 @@ public class WebSocketResponseConnectionHandler extends ChannelInboundHandlerAda
         NettyUtils.closeOnFlush(channelHandlerContext.channel());
     }
 
-    private ChannelFuture completeFrontendWsHandshake() {
+    private ChannelFuture completeFrontendWsHandshake(final FullHttpResponse backendResponse) {
         log.info("Frontend WS Handshake for URL {}", frontendWebsocketURL);
         final WebSocketServerHandshaker handshaker = new WebSocketServerHandshakerFactory(frontendWebsocketURL, null,
                 true).newHandshaker(originalUpgradeRequest);
@@ -95,11 +190,52 @@ public class WebSocketResponseConnectionHandler extends ChannelInboundHandlerAda
             channelFuture = WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(frontendChannel);
         } else {
             log.info("[STEP WS 3] Finalizing Frontend Handshake with Browser");
-            channelFuture = handshaker.handshake(frontendChannel, originalUpgradeRequest,
-                    HttpUtils.createResponseHeadersFromRequestHeaders(originalUpgradeRequest.headers()),
+            final HttpHeaders responseHeaders = HttpUtils
+                    .createResponseHeadersFromRequestHeaders(originalUpgradeRequest.headers());
+            final String backendExtensions = backendResponse.headers().get(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS);
+            if (backendExtensions != null) {
+                // The Backend Server chose these from the Browser's own offer, which it was
+                // sent as is, so both legs agree on them
+                responseHeaders.set(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS, backendExtensions);
+            } else {
+                frontendCompression = negotiateFrontendCompression();
+                if (frontendCompression != null) {
+                    responseHeaders.set(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS,
+                            HttpUtils.toWebSocketExtensionHeaderValue(frontendCompression.newReponseData()));
+                }
+            }
+            channelFuture = handshaker.handshake(frontendChannel, originalUpgradeRequest, responseHeaders,
                     frontendChannel.newPromise());
             log.info("[STEP WS 3] Frontend Handshake with Browser finalized");
         }
         return channelFuture;
     }
+
+    private WebSocketServerExtension negotiateFrontendCompression() {
+        final String offer = originalUpgradeRequest.headers().get(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS);
+        if (offer == null || !reverseProxyConfig.isWebSocketCompressionEnabled()) {
+            return null;
+        }
+        final WebSocketServerExtensionHandshaker extensionHandshaker = new PerMessageDeflateServerExtensionHandshaker(
+                reverseProxyConfig.getWebSocketCompressionLevel(), false, 15, false, false);
+        for (WebSocketExtensionData extensionData : WebSocketExtensionUtil.extractExtensions(offer)) {
+            final WebSocketServerExtension extension = extensionHandshaker.handshakeExtension(extensionData);
+            if (extension != null) {
+                log.debug("Compressing WS frames to the Browser, the Backend Server declined {}", offer);
+                return extension;
+            }
+        }
+        return null;
+    }
+
+    private void addFrontendCompression() {
+        // Inflates Browser frames after the frame decoder and deflates frames to the
+        // Browser before the frame encoder
+        final ChannelPipeline pipeline = frontendChannel.pipeline();
+        final String decoderName = pipeline.context(WebSocketFrameDecoder.class).name();
+        final WebSocketExtensionDecoder extensionDecoder = frontendCompression.newExtensionDecoder();
+        final WebSocketExtensionEncoder extensionEncoder = frontendCompression.newExtensionEncoder();
+        pipeline.addAfter(decoderName, extensionDecoder.getClass().getName(), extensionDecoder);
+        pipeline.addAfter(decoderName, extensionEncoder.getClass().getName(), extensionEncoder);
+    }
 }
@@ -0,0 +1,180 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import com.jpmc.sagemaker.studio.utils.HttpUtils;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Replicas of a Backend Server sharing the requests of one routing rule.
+ * Requests are spread by the group's {@link LoadBalancer}, except those for
+ * kernels and sessions: a path under /api/kernels or /api/sessions always goes
+ * to the same replica, picked by rendezvous hashing. The hash is of the
+ * affinity cookie, which a Browser sends with every request, so a kernel is
+ * created on the replica its sessions, WebSocket and HTTP requests go to later.
+ * Clients without the cookie are hashed by their Authorization header, or else
+ * by the kernel or session id in the path. Only a reload of the route table
+ * changes the members, which moves just the kernels of replicas that came or
+ * went. Other requests avoid members whose circuit is open while another
+ * member's is closed; a kernel stays on its replica either way.
+ */
+public final class BackendGroup {
+
+    /**
+     * Set by Jupyter on the first page a Browser loads, and required on the
+     * requests that create kernels and sessions.
+     */
+    public static final String DEFAULT_AFFINITY_COOKIE = "_xsrf";
+
+    private static final String[] STICKY_SEGMENTS = { "/api/kernels", "/api/sessions" };
+    private static final LoadBalancer SINGLE_MEMBER = members -> members[0];
+
+    private final Route[] members;
+    private final long[] memberHashes;
+    private final LoadBalancer loadBalancer;
+    private final String affinityCookie;
+
+    /**
+     * @throws IllegalArgumentException if there are no members.
+     */
+    public BackendGroup(final List<Route> members, final LoadBalancer loadBalancer) {
+        this(members, loadBalancer, DEFAULT_AFFINITY_COOKIE);
+    }
+
+    /**
+     * @param affinityCookie name of the cookie kernels and sessions are kept on
+     *                       one replica by, null or empty to go by the
+     *                       Authorization header or the id only.
+     * @throws IllegalArgumentException if there are no members.
+     */
+    public BackendGroup(final List<Route> members, final LoadBalancer loadBalancer, final String affinityCookie) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("A backend group needs at least one member");
+        }
+        this.members = members.toArray(new Route[0]);
+        this.memberHashes = new long[this.members.length];
+        for (int i = 0; i < this.members.length; i++) {
+            memberHashes[i] = mix(this.members[i].toString().hashCode());
+        }
+        this.loadBalancer = this.members.length == 1 ? SINGLE_MEMBER : loadBalancer;
+        this.affinityCookie = affinityCookie == null || affinityCookie.isEmpty() ? null : affinityCookie;
+    }
+
+    public static BackendGroup of(final Route route) {
+        return new BackendGroup(Collections.singletonList(route), SINGLE_MEMBER);
+    }
+
+    /**
+     * @param request null to pick a member for a request not received yet.
+     * @return the member the request goes to.
+     */
+    public Route select(final HttpRequest request) {
+        if (members.length == 1) {
+            return members[0];
+        }
+        if (request != null) {
+            final Route sticky = selectSticky(request);
+            if (sticky != null) {
+                return sticky;
+            }
+        }
+        final Route selected = loadBalancer.select(members);
+        return selected.getHealth().isClosed() ? selected : selectClosed(selected);
+    }
+
+    public List<Route> getMembers() {
+        return Collections.unmodifiableList(Arrays.asList(members));
+    }
+
+    /**
+     * Ejects a member whose circuit is open for the next one that is closed.
+     *
+     * @return the selected member if all circuits are open.
+     */
+    private Route selectClosed(final Route selected) {
+        int index = 0;
+        while (members[index] != selected) {
+            index++;
+        }
+        for (int i = 1; i < members.length; i++) {
+            final Route member = members[(index + i) % members.length];
+            if (member.getHealth().isClosed()) {
+                return member;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return the member with the highest hash of the affinity key and the
+     *         member, null if the request is not for a kernel or session.
+     */
+    private Route selectSticky(final HttpRequest request) {
+        final String uri = request.uri();
+        int pathEnd = uri.indexOf('?');
+        if (pathEnd < 0) {
+            pathEnd = uri.length();
+        }
+        for (String segment : STICKY_SEGMENTS) {
+            final int segmentStart = uri.indexOf(segment);
+            final int segmentEnd = segmentStart + segment.length();
+            // The collection itself is where kernels and sessions are created, but
+            // /api/kernelspecs is not part of it
+            if (segmentStart < 0 || segmentEnd > pathEnd
+                    || segmentEnd < pathEnd && uri.charAt(segmentEnd) != '/') {
+                continue;
+            }
+            final String affinityKey = affinityKey(request.headers());
+            if (affinityKey != null) {
+                return rendezvous(affinityKey, 0, affinityKey.length());
+            }
+            final int idStart = Math.min(segmentEnd + 1, pathEnd);
+            int idEnd = uri.indexOf('/', idStart);
+            if (idEnd < 0 || idEnd > pathEnd) {
+                idEnd = pathEnd;
+            }
+            return idEnd > idStart ? rendezvous(uri, idStart, idEnd) : null;
+        }
+        return null;
+    }
+
+    /**
+     * @return the value of the affinity cookie, or else of the Authorization
+     *         header, null if the request has neither.
+     */
+    private String affinityKey(final HttpHeaders headers) {
+        final String value = affinityCookie == null ? null : HttpUtils.getCookieValue(headers, affinityCookie);
+        return value != null ? value : headers.get(HttpHeaderNames.AUTHORIZATION);
+    }
+
+    private Route rendezvous(final String key, final int start, final int end) {
+        int keyHash = 0;
+        for (int i = start; i < end; i++) {
+            keyHash = 31 * keyHash + key.charAt(i);
+        }
+        int selected = 0;
+        long highest = Long.MIN_VALUE;
+        for (int i = 0; i < members.length; i++) {
+            final long hash = mix(memberHashes[i] ^ keyHash);
+            if (hash > highest) {
+                highest = hash;
+                selected = i;
+            }
+        }
+        return members[selected];
+    }
+
+    // Finalizer of MurmurHash3, spreads similar ids and members over all bits
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
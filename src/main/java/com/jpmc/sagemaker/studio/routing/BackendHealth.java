@@ -0,0 +1,140 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit state of one Backend Server and the failures that lead to it, see
+ * the CircuitBreaker of the backend package, which decides when the circuit
+ * opens and probes the Backend Server while it is open. A {@link BackendGroup}
+ * skips members whose circuit is not closed. Updated from every event loop, so
+ * all state is lock-free; the failure window is reset without stopping
+ * concurrent updates, which may then be lost.
+ */
+public final class BackendHealth {
+
+    /**
+     * State of the circuit to a Backend Server.
+     */
+    public enum State {
+        /**
+         * Requests are sent.
+         */
+        CLOSED,
+        /**
+         * Requests fail fast until the Backend Server is probed.
+         */
+        OPEN,
+        /**
+         * The Backend Server is being probed, requests still fail fast.
+         */
+        PROBING
+    }
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveConnectFailures = new AtomicInteger();
+    private final AtomicLong windowStartNanos = new AtomicLong(System.nanoTime());
+    private final LongAdder windowResponses = new LongAdder();
+    private final LongAdder windowFailures = new LongAdder();
+    private volatile long openNanos;
+    private volatile long retryAtNanos;
+
+    public State getState() {
+        return state.get();
+    }
+
+    public boolean isClosed() {
+        return state.get() == State.CLOSED;
+    }
+
+    /**
+     * @return when the Backend Server is probed next, in System#nanoTime.
+     */
+    public long getRetryAtNanos() {
+        return retryAtNanos;
+    }
+
+    /**
+     * @return the connect failures since the last successful connect,
+     *         including this one.
+     */
+    public int connectFailed() {
+        return consecutiveConnectFailures.incrementAndGet();
+    }
+
+    public void connected() {
+        if (consecutiveConnectFailures.get() != 0) {
+            consecutiveConnectFailures.set(0);
+        }
+    }
+
+    /**
+     * Counts a response in the window, starting a new window once the current
+     * one is over.
+     *
+     * @return true if the failures reached the rate of a window with at least
+     *         the minimum responses.
+     */
+    public boolean recordResponse(final boolean failed, final long nowNanos, final long windowNanos,
+            final int minimumResponses, final int failureRatePercent) {
+        final long startNanos = windowStartNanos.get();
+        if (nowNanos - startNanos > windowNanos && windowStartNanos.compareAndSet(startNanos, nowNanos)) {
+            windowResponses.reset();
+            windowFailures.reset();
+        }
+        windowResponses.increment();
+        if (!failed) {
+            return false;
+        }
+        windowFailures.increment();
+        final long responses = windowResponses.sum();
+        return responses >= minimumResponses && windowFailures.sum() * 100 >= responses * failureRatePercent;
+    }
+
+    /**
+     * Opens a closed circuit.
+     *
+     * @return true if this call opened it.
+     */
+    public boolean open(final long nowNanos, final long openNanos) {
+        if (!state.compareAndSet(State.CLOSED, State.OPEN)) {
+            return false;
+        }
+        this.openNanos = openNanos;
+        this.retryAtNanos = nowNanos + openNanos;
+        return true;
+    }
+
+    /**
+     * @return true if this call moved the open circuit to probing.
+     */
+    public boolean startProbe() {
+        return state.compareAndSet(State.OPEN, State.PROBING);
+    }
+
+    /**
+     * Closes the circuit after a successful probe, with all failures forgotten.
+     */
+    public void probeSucceeded(final long nowNanos) {
+        consecutiveConnectFailures.set(0);
+        windowStartNanos.set(nowNanos);
+        windowResponses.reset();
+        windowFailures.reset();
+        state.set(State.CLOSED);
+    }
+
+    /**
+     * Opens the circuit again after a failed probe, for twice as long as before.
+     *
+     * @return how long the circuit stays open.
+     */
+    public long probeFailed(final long nowNanos, final long maxOpenNanos) {
+        final long nextOpenNanos = Math.min(openNanos * 2, maxOpenNanos);
+        openNanos = nextOpenNanos;
+        retryAtNanos = nowNanos + nextOpenNanos;
+        state.set(State.OPEN);
+        return nextOpenNanos;
+    }
+}
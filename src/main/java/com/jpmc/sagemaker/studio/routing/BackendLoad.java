@@ -0,0 +1,68 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Requests in flight to one Backend Server and its recent response latency,
+ * read by the {@link LoadBalancer} of its {@link BackendGroup}. Updated from
+ * every event loop on every request, so the count is kept in a lock-free adder
+ * and the latency estimate is written without synchronization; a lost update
+ * only skews the estimate until the next response.
+ */
+public final class BackendLoad {
+
+    // How long it takes a latency peak to fade once responses got faster
+    private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // Cost of a Backend Server that is busy but never answered yet, so it is sent
+    // one request at a time until its latency is known
+    private static final double UNKNOWN_LATENCY_COST = Double.MAX_VALUE / 2;
+
+    private final LongAdder outstanding = new LongAdder();
+    private volatile double latencyEwmaNanos;
+    private volatile long observedAtNanos = System.nanoTime();
+
+    public void requestStarted() {
+        outstanding.increment();
+    }
+
+    public void requestFinished() {
+        outstanding.decrement();
+    }
+
+    /**
+     * @param latencyNanos from sending a request to reading the headers of its
+     *                     response.
+     */
+    public void latencyObserved(final long latencyNanos) {
+        final long nowNanos = System.nanoTime();
+        final double ewmaNanos = latencyEwmaNanos;
+        if (latencyNanos > ewmaNanos) {
+            // Peaks are taken as they are, so a Backend Server that slows down is avoided
+            // right away rather than once the average caught up
+            latencyEwmaNanos = latencyNanos;
+        } else {
+            final double weight = Math.exp(-(nowNanos - observedAtNanos) / DECAY_NANOS);
+            latencyEwmaNanos = ewmaNanos * weight + latencyNanos * (1 - weight);
+        }
+        observedAtNanos = nowNanos;
+    }
+
+    public long getOutstanding() {
+        return outstanding.sum();
+    }
+
+    /**
+     * @return the expected wait for a new request: the latency estimate, fading
+     *         while no response is observed, times the requests in flight plus
+     *         this one.
+     */
+    public double getPeakEwmaCost(final long nowNanos) {
+        final long pending = outstanding.sum();
+        final double ewmaNanos = latencyEwmaNanos;
+        if (ewmaNanos == 0 && pending != 0) {
+            return UNKNOWN_LATENCY_COST + pending;
+        }
+        return ewmaNanos * Math.exp(-Math.max(0, nowNanos - observedAtNanos) / DECAY_NANOS) * (pending + 1);
+    }
+}
@@ -0,0 +1,13 @@
+package com.jpmc.sagemaker.studio.routing;
+
+/**
+ * Sends a request to the member with fewer requests in flight, of two picked
+ * at random.
+ */
+final class LeastRequestsLoadBalancer extends PowerOfTwoChoicesLoadBalancer {
+
+    @Override
+    double cost(final Route member, final long nowNanos) {
+        return member.getLoad().getOutstanding();
+    }
+}
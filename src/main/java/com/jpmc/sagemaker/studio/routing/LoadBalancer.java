@@ -0,0 +1,34 @@
+package com.jpmc.sagemaker.studio.routing;
+
+/**
+ * Picks the member of a {@link BackendGroup} a request goes to. Called from
+ * every event loop at once, so implementations only use lock-free state.
+ */
+public interface LoadBalancer {
+
+    String ROUND_ROBIN = "round-robin";
+    String LEAST_REQUESTS = "least-requests";
+    String PEAK_EWMA = "peak-ewma";
+
+    /**
+     * @param members at least two.
+     */
+    Route select(Route[] members);
+
+    /**
+     * @return a new balancer of the strategy, for one group.
+     * @throws IllegalArgumentException for an unknown strategy.
+     */
+    static LoadBalancer forName(final String name) {
+        switch (name) {
+            case ROUND_ROBIN:
+                return new RoundRobinLoadBalancer();
+            case LEAST_REQUESTS:
+                return new LeastRequestsLoadBalancer();
+            case PEAK_EWMA:
+                return new PeakEwmaLoadBalancer();
+            default:
+                throw new IllegalArgumentException("Unknown load balancer " + name);
+        }
+    }
+}
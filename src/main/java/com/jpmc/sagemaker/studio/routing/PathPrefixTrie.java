@@ -0,0 +1,81 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import java.util.Arrays;
+
+/**
+ * Character trie answering longest path prefix matches in O(path length). A
+ * prefix only matches at a path segment boundary, so "/jupyter/user-1" matches
+ * "/jupyter/user-1/lab" but not "/jupyter/user-10". A prefix ending in '/'
+ * matches anything below it. The trie is filled while a {@link RouteTable} is
+ * built and only read afterwards.
+ */
+final class PathPrefixTrie<V> {
+
+    private final Node<V> root = new Node<>();
+
+    void put(final String prefix, final V value) {
+        Node<V> node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.childOrCreate(prefix.charAt(i));
+        }
+        node.value = value;
+        node.matchesAnySuffix = prefix.endsWith("/");
+    }
+
+    /**
+     * @return the value of the longest prefix of path[0, end) that matches at a
+     *         segment boundary, or null.
+     */
+    V longestPrefixMatch(final CharSequence path, final int end) {
+        V match = null;
+        Node<V> node = root;
+        for (int i = 0; i < end; i++) {
+            final char c = path.charAt(i);
+            if (node.value != null && (node.matchesAnySuffix || c == '/')) {
+                match = node.value;
+            }
+            node = node.child(c);
+            if (node == null) {
+                return match;
+            }
+        }
+        return node.value != null ? node.value : match;
+    }
+
+    private static final class Node<V> {
+
+        private static final char[] NO_KEYS = new char[0];
+
+        // Sorted, parallel to children
+        private char[] keys = NO_KEYS;
+        private Node<?>[] children = new Node<?>[0];
+        private V value;
+        private boolean matchesAnySuffix;
+
+        @SuppressWarnings("unchecked")
+        Node<V> child(final char key) {
+            final int index = Arrays.binarySearch(keys, key);
+            return index >= 0 ? (Node<V>) children[index] : null;
+        }
+
+        Node<V> childOrCreate(final char key) {
+            final Node<V> existing = child(key);
+            if (existing != null) {
+                return existing;
+            }
+            final int insertAt = -(Arrays.binarySearch(keys, key) + 1);
+            final char[] newKeys = new char[keys.length + 1];
+            final Node<?>[] newChildren = new Node<?>[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+            final Node<V> created = new Node<>();
+            newKeys[insertAt] = key;
+            newChildren[insertAt] = created;
+            keys = newKeys;
+            children = newChildren;
+            return created;
+        }
+    }
+}
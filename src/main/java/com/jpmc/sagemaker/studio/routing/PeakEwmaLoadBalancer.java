@@ -0,0 +1,14 @@
+package com.jpmc.sagemaker.studio.routing;
+
+/**
+ * Sends a request to the member expected to answer first, of two picked at
+ * random, weighing the requests in flight by the recent peak latency. See
+ * {@link BackendLoad#getPeakEwmaCost(long)}.
+ */
+final class PeakEwmaLoadBalancer extends PowerOfTwoChoicesLoadBalancer {
+
+    @Override
+    double cost(final Route member, final long nowNanos) {
+        return member.getLoad().getPeakEwmaCost(nowNanos);
+    }
+}
@@ -0,0 +1,26 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares two members picked at random and sends the request to the cheaper
+ * one. Reading the load of two members instead of all of them keeps a pick
+ * cheap, and keeps event loops that pick at the same time from all piling onto
+ * the single least loaded member.
+ */
+abstract class PowerOfTwoChoicesLoadBalancer implements LoadBalancer {
+
+    @Override
+    public Route select(final Route[] members) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(members.length);
+        int second = random.nextInt(members.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        final long nowNanos = System.nanoTime();
+        return cost(members[second], nowNanos) < cost(members[first], nowNanos) ? members[second] : members[first];
+    }
+
+    abstract double cost(Route member, long nowNanos);
+}
@@ -0,0 +1,16 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends requests to the members in turn, whatever their load.
+ */
+final class RoundRobinLoadBalancer implements LoadBalancer {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public Route select(final Route[] members) {
+        return members[Math.floorMod(next.getAndIncrement(), members.length)];
+    }
+}
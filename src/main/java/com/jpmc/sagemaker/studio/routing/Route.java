@@ -0,0 +1,49 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Value;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Backend Server a request is routed to. Routes are values, so requests routed
+ * to the same host, port and TLS setting share pooled connections. The load a
+ * route carries for balancing and the state of its circuit are not part of its
+ * value.
+ */
+@Value
+@Builder
+public class Route {
+
+    String host;
+
+    int port;
+
+    /**
+     * Connect to the Backend Server over TLS.
+     */
+    boolean tls;
+
+    @Builder.Default
+    @EqualsAndHashCode.Exclude
+    BackendLoad load = new BackendLoad();
+
+    @Builder.Default
+    @EqualsAndHashCode.Exclude
+    BackendHealth health = new BackendHealth();
+
+    /**
+     * @return the Backend Server URI for a WebSocket upgrade of the given request
+     *         URI, dropping its query string.
+     */
+    public URI getWebSocketURI(final String requestUri) throws URISyntaxException {
+        return new URI(tls ? "wss" : "ws", null, host, port, new URI(requestUri).getPath(), null, null);
+    }
+
+    @Override
+    public String toString() {
+        return (tls ? "https://" : "http://") + host + ":" + port;
+    }
+}
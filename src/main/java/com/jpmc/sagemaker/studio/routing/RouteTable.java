@@ -0,0 +1,192 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the routing rules. A request is matched, in order, by
+ * header value, by cookie value, by the longest path prefix and finally by the
+ * default route. Each rule names a {@link BackendGroup}, which picks the member
+ * the request goes to.
+ */
+public final class RouteTable {
+
+    private final Map<String, Map<String, BackendGroup>> headerRoutes;
+    private final Map<String, Map<String, BackendGroup>> cookieRoutes;
+    private final PathPrefixTrie<BackendGroup> pathRoutes;
+    private final BackendGroup defaultGroup;
+    private final int size;
+
+    private RouteTable(final Builder builder) {
+        this.headerRoutes = builder.headerRoutes;
+        this.cookieRoutes = builder.cookieRoutes;
+        this.pathRoutes = builder.pathRoutes;
+        this.defaultGroup = builder.defaultGroup;
+        this.size = builder.size;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the route for the request, or null if no rule matches and there is
+     *         no default route.
+     */
+    public Route lookup(final HttpRequest request) {
+        final BackendGroup group = lookupGroup(request);
+        return group != null ? group.select(request) : null;
+    }
+
+    /**
+     * @return the default route, a member of the default group picked without a
+     *         request, or null if there is none.
+     */
+    public Route getDefaultRoute() {
+        return defaultGroup != null ? defaultGroup.select(null) : null;
+    }
+
+    /**
+     * @return the number of rules, not counting the default route.
+     */
+    public int size() {
+        return size;
+    }
+
+    private BackendGroup lookupGroup(final HttpRequest request) {
+        final HttpHeaders headers = request.headers();
+
+        for (Map.Entry<String, Map<String, BackendGroup>> headerRoute : headerRoutes.entrySet()) {
+            final String value = headers.get(headerRoute.getKey());
+            if (value != null) {
+                final BackendGroup group = headerRoute.getValue().get(value);
+                if (group != null) {
+                    return group;
+                }
+            }
+        }
+
+        if (!cookieRoutes.isEmpty()) {
+            for (String cookieHeader : headers.getAll(HttpHeaderNames.COOKIE)) {
+                final BackendGroup group = lookupCookie(cookieHeader);
+                if (group != null) {
+                    return group;
+                }
+            }
+        }
+
+        final String uri = request.uri();
+        int pathEnd = uri.indexOf('?');
+        if (pathEnd < 0) {
+            pathEnd = uri.length();
+        }
+        final BackendGroup group = pathRoutes.longestPrefixMatch(uri, pathEnd);
+        return group != null ? group : defaultGroup;
+    }
+
+    private BackendGroup lookupCookie(final String cookieHeader) {
+        int start = 0;
+        while (start < cookieHeader.length()) {
+            int end = cookieHeader.indexOf(';', start);
+            if (end < 0) {
+                end = cookieHeader.length();
+            }
+            final int equals = cookieHeader.indexOf('=', start);
+            if (equals > start && equals < end) {
+                final Map<String, BackendGroup> routesByValue = cookieRoutes
+                        .get(cookieHeader.substring(start, equals).trim());
+                if (routesByValue != null) {
+                    final BackendGroup group = routesByValue.get(cookieHeader.substring(equals + 1, end).trim());
+                    if (group != null) {
+                        return group;
+                    }
+                }
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Collects rules for a new {@link RouteTable}. Later rules for the same key
+     * replace earlier ones.
+     */
+    public static final class Builder {
+
+        private final Map<String, Map<String, BackendGroup>> headerRoutes = new HashMap<>();
+        private final Map<String, Map<String, BackendGroup>> cookieRoutes = new HashMap<>();
+        private final PathPrefixTrie<BackendGroup> pathRoutes = new PathPrefixTrie<>();
+        private BackendGroup defaultGroup;
+        private int size;
+        private boolean built;
+
+        private Builder() {
+        }
+
+        public Builder pathPrefix(final String prefix, final Route route) {
+            return pathPrefix(prefix, BackendGroup.of(route));
+        }
+
+        public Builder pathPrefix(final String prefix, final BackendGroup group) {
+            if (!prefix.startsWith("/")) {
+                throw new IllegalArgumentException("Path prefix must start with '/': " + prefix);
+            }
+            pathRoutes.put(prefix, group);
+            size++;
+            return this;
+        }
+
+        public Builder header(final String name, final String value, final Route route) {
+            return header(name, value, BackendGroup.of(route));
+        }
+
+        public Builder header(final String name, final String value, final BackendGroup group) {
+            // Header names are case insensitive, HttpHeaders#get is too
+            headerRoutes.computeIfAbsent(name.toLowerCase(), key -> new HashMap<>()).put(value, group);
+            size++;
+            return this;
+        }
+
+        public Builder cookie(final String name, final String value, final Route route) {
+            return cookie(name, value, BackendGroup.of(route));
+        }
+
+        public Builder cookie(final String name, final String value, final BackendGroup group) {
+            cookieRoutes.computeIfAbsent(name, key -> new HashMap<>()).put(value, group);
+            size++;
+            return this;
+        }
+
+        /**
+         * @param route null for no default route.
+         */
+        public Builder defaultRoute(final Route route) {
+            return defaultGroup(route != null ? BackendGroup.of(route) : null);
+        }
+
+        public Builder defaultGroup(final BackendGroup group) {
+            this.defaultGroup = group;
+            return this;
+        }
+
+        public RouteTable build() {
+            if (built) {
+                // The trie is shared with the table, it must not change after publication
+                throw new IllegalStateException("A RouteTable.Builder can only be built once");
+            }
+            built = true;
+            freeze(headerRoutes);
+            freeze(cookieRoutes);
+            return new RouteTable(this);
+        }
+
+        private static void freeze(final Map<String, Map<String, BackendGroup>> routes) {
+            routes.replaceAll((key, routesByValue) -> Collections.unmodifiableMap(routesByValue));
+        }
+    }
+}
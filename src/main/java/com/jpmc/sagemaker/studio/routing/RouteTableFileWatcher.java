@@ -0,0 +1,90 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads the route table file into a {@link Router} whenever it changes. The
+ * file is polled rather than watched, which also covers editors and config
+ * agents that replace it by renaming. A file that fails to parse is logged and
+ * the previous table stays in use.
+ */
+@Log4j2
+public class RouteTableFileWatcher {
+
+    private final Path routeTableFile;
+    private final Router router;
+    private final Route defaultRoute;
+    private final String affinityCookie;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "route-table-watcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private FileTime lastModifiedTime;
+    private long lastSize = -1;
+
+    public RouteTableFileWatcher(final Path routeTableFile, final Router router, final Route defaultRoute) {
+        this(routeTableFile, router, defaultRoute, BackendGroup.DEFAULT_AFFINITY_COOKIE);
+    }
+
+    /**
+     * @param affinityCookie cookie that keeps kernels on one replica of a
+     *                       group, see {@link BackendGroup}.
+     */
+    public RouteTableFileWatcher(final Path routeTableFile, final Router router, final Route defaultRoute,
+            final String affinityCookie) {
+        this.routeTableFile = routeTableFile;
+        this.router = router;
+        this.defaultRoute = defaultRoute;
+        this.affinityCookie = affinityCookie;
+    }
+
+    /**
+     * Loads the file into the router right away.
+     */
+    public synchronized void load() throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(routeTableFile, BasicFileAttributes.class);
+        try (BufferedReader reader = Files.newBufferedReader(routeTableFile, StandardCharsets.UTF_8)) {
+            router.setRouteTable(RouteTableParser.parse(reader, defaultRoute, affinityCookie));
+        } finally {
+            // Do not retry a broken file until it changes again
+            lastModifiedTime = attributes.lastModifiedTime();
+            lastSize = attributes.size();
+        }
+    }
+
+    public void start(final long pollIntervalMillis) {
+        executor.scheduleWithFixedDelay(this::reloadIfChanged, pollIntervalMillis, pollIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private synchronized void reloadIfChanged() {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(routeTableFile, BasicFileAttributes.class);
+            if (attributes.lastModifiedTime().equals(lastModifiedTime) && attributes.size() == lastSize) {
+                return;
+            }
+            log.info("Reloading the route table from {}", routeTableFile);
+            load();
+        } catch (final IOException | RuntimeException exception) {
+            log.error("Unable to reload the route table from {}, keeping the current one.", routeTableFile,
+                    exception);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses route table files. Every non-empty line that is not a '#' comment is
+ * one rule of whitespace separated fields:
+ *
+ * <pre>
+ * # match  key                     backend                                        [tls|plaintext] [balancer]
+ * path     /jupyter/user-a/        d-aaaaaaaaaaaa.studio.us-east-1.sagemaker.aws:443
+ * cookie   studio_user=user-b      d-bbbbbbbbbbbb.studio.us-east-1.sagemaker.aws:443
+ * header   X-Studio-Domain=d-ccc   d-cccccccccccc.studio.us-east-1.sagemaker.aws:443
+ * path     /jupyter/shared/        replica-1.internal:8888,replica-2.internal:8888  plaintext  peak-ewma
+ * default  *                       d-wvneonphlfwk.studio.us-east-1.sagemaker.aws:443
+ * </pre>
+ *
+ * Backends use TLS unless the rule says "plaintext". A rule may name several
+ * comma separated replicas, which form a {@link BackendGroup} balanced by
+ * "round-robin", "least-requests" (the default) or "peak-ewma", see
+ * {@link LoadBalancer}.
+ */
+public final class RouteTableParser {
+
+    private RouteTableParser() {
+    }
+
+    /**
+     * @param defaultRoute route used when the file has no default rule, may be
+     *                     null
+     * @throws IllegalArgumentException naming the line of the first invalid rule
+     */
+    public static RouteTable parse(final BufferedReader reader, final Route defaultRoute) throws IOException {
+        return parse(reader, defaultRoute, BackendGroup.DEFAULT_AFFINITY_COOKIE);
+    }
+
+    /**
+     * @param defaultRoute   route used when the file has no default rule, may
+     *                       be null
+     * @param affinityCookie cookie that keeps kernels on one replica of a
+     *                       group, see {@link BackendGroup}
+     * @throws IllegalArgumentException naming the line of the first invalid rule
+     */
+    public static RouteTable parse(final BufferedReader reader, final Route defaultRoute,
+            final String affinityCookie) throws IOException {
+        final RouteTable.Builder builder = RouteTable.builder().defaultRoute(defaultRoute);
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                parseRule(line, builder, affinityCookie);
+            } catch (final IllegalArgumentException exception) {
+                throw new IllegalArgumentException(
+                        "Invalid route on line " + lineNumber + ": " + exception.getMessage(), exception);
+            }
+        }
+        return builder.build();
+    }
+
+    private static void parseRule(final String line, final RouteTable.Builder builder,
+            final String affinityCookie) {
+        final String[] fields = line.split("\\s+");
+        if (fields.length < 3 || fields.length > 5) {
+            throw new IllegalArgumentException(
+                    "Expected <match> <key> <host:port>[,<host:port>...] [tls|plaintext] [balancer] but got " + line);
+        }
+        final String transport = fields.length == 3 ? "tls" : fields[3];
+        final List<Route> members = new ArrayList<>();
+        for (String backend : fields[2].split(",")) {
+            members.add(parseRoute(backend, transport));
+        }
+        final BackendGroup group = new BackendGroup(members,
+                LoadBalancer.forName(fields.length == 5 ? fields[4] : LoadBalancer.LEAST_REQUESTS), affinityCookie);
+        final String match = fields[0];
+        final String key = fields[1];
+
+        switch (match) {
+            case "path":
+                builder.pathPrefix(key, group);
+                break;
+            case "cookie":
+                builder.cookie(name(key), value(key), group);
+                break;
+            case "header":
+                builder.header(name(key), value(key), group);
+                break;
+            case "default":
+                builder.defaultGroup(group);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown match type " + match);
+        }
+    }
+
+    private static Route parseRoute(final String backend, final String transport) {
+        final int colon = backend.lastIndexOf(':');
+        if (colon <= 0 || colon == backend.length() - 1) {
+            throw new IllegalArgumentException("Expected host:port but got " + backend);
+        }
+        if (!"tls".equals(transport) && !"plaintext".equals(transport)) {
+            throw new IllegalArgumentException("Expected tls or plaintext but got " + transport);
+        }
+        final int port;
+        try {
+            port = Integer.parseInt(backend.substring(colon + 1));
+        } catch (final NumberFormatException exception) {
+            throw new IllegalArgumentException("Invalid port in " + backend);
+        }
+        return Route.builder().host(backend.substring(0, colon)).port(port).tls("tls".equals(transport)).build();
+    }
+
+    private static String name(final String key) {
+        final int equals = key.indexOf('=');
+        if (equals <= 0) {
+            throw new IllegalArgumentException("Expected name=value but got " + key);
+        }
+        return key.substring(0, equals);
+    }
+
+    private static String value(final String key) {
+        return key.substring(key.indexOf('=') + 1);
+    }
+}
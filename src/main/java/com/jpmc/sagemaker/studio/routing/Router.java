@@ -0,0 +1,37 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import io.netty.handler.codec.http.HttpRequest;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Routes requests with the current {@link RouteTable}. Lookups read the table
+ * snapshot without locking; a reload swaps in a new snapshot, so requests in
+ * flight and open connections keep the route they already got.
+ */
+@Log4j2
+public class Router {
+
+    private final AtomicReference<RouteTable> routeTable;
+
+    public Router(final RouteTable routeTable) {
+        this.routeTable = new AtomicReference<>(routeTable);
+    }
+
+    /**
+     * @return the route for the request, or null if there is none.
+     */
+    public Route route(final HttpRequest request) {
+        return routeTable.get().lookup(request);
+    }
+
+    public RouteTable getRouteTable() {
+        return routeTable.get();
+    }
+
+    public void setRouteTable(final RouteTable newRouteTable) {
+        routeTable.set(newRouteTable);
+        log.info("Route table updated, {} rules.", newRouteTable.size());
+    }
+}
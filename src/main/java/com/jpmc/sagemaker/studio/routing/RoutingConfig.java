@@ -0,0 +1,59 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Where requests are routed to. Defaults can be overridden through JVM system
+ * properties on the start command.
+ */
+@Value
+@Builder
+public class RoutingConfig {
+
+    private static final String PROPERTY_PREFIX = "reverseproxy.routing.";
+
+    /**
+     * Route table file, see {@link RouteTableParser}. Without one every request
+     * goes to the default backend.
+     */
+    String routeTableFile;
+
+    /**
+     * How often the route table file is checked for changes.
+     */
+    long reloadIntervalMillis;
+
+    /**
+     * Backend for requests that match no rule, unless the route table file has a
+     * default rule.
+     */
+    String defaultHost;
+
+    int defaultPort;
+
+    boolean defaultTls;
+
+    /**
+     * Cookie that keeps the kernels and sessions of a Browser on one replica of
+     * a {@link BackendGroup}, empty for none.
+     */
+    String affinityCookie;
+
+    public Route getDefaultRoute() {
+        return Route.builder().host(defaultHost).port(defaultPort).tls(defaultTls).build();
+    }
+
+    public static RoutingConfig fromSystemProperties() {
+        return RoutingConfig.builder()
+                .routeTableFile(System.getProperty(PROPERTY_PREFIX + "routeTableFile"))
+                .reloadIntervalMillis(Long.getLong(PROPERTY_PREFIX + "reloadIntervalMillis", 1_000L))
+                .defaultHost(System.getProperty(PROPERTY_PREFIX + "defaultHost",
+                        "d-wvneonphlfwk.studio.us-east-1.sagemaker.aws"))
+                .defaultPort(Integer.getInteger(PROPERTY_PREFIX + "defaultPort", 443))
+                .defaultTls(Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "defaultTls", "true")))
+                .affinityCookie(System.getProperty(PROPERTY_PREFIX + "affinityCookie",
+                        BackendGroup.DEFAULT_AFFINITY_COOKIE))
+                .build();
+    }
+}
@@ -1,42 +1,36 @@
 package com.jpmc.sagemaker.studio.server;
 
 import com.jpmc.sagemaker.studio.health.PingInitializer;
-import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import lombok.extern.log4j.Log4j2;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 /**
  * HealthCheckServer class bootstraps the Netty Server for deep_ping request and
  * uses HttpRequestDecoder and PingHandler as the Channel Inbound Handler and
- * HttpResponseEncoder as Channel Outbound Handler
+ * HttpResponseEncoder as Channel Outbound Handler. It runs on the event loops
+ * of the shared {@link ServerTransport}.
  */
 @Log4j2
+@Singleton
 public class HealthCheckServer implements StudioServer {
 
     private static final int INET_PORT = 8080;
+    private final ServerTransport serverTransport;
     private PingInitializer pingInitializer;
     private Channel channel;
 
     @Inject
-    public HealthCheckServer(final PingInitializer pingInitializer) {
+    public HealthCheckServer(final ServerTransport serverTransport, final PingInitializer pingInitializer) {
+        this.serverTransport = serverTransport;
         this.pingInitializer = pingInitializer;
     }
 
     @Override
     public void startServer() throws InterruptedException {
-        final ServerBootstrap serverBootstrap = new ServerBootstrap();
-        final EventLoopGroup bossGroup = new NioEventLoopGroup();
-        final EventLoopGroup workerGroup = new NioEventLoopGroup();
-
-        serverBootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
-                .childHandler(pingInitializer);
-
-        channel = serverBootstrap.bind(INET_PORT).sync().channel();
+        channel = serverTransport.bind(INET_PORT, pingInitializer, 1).get(0);
         log.info("Started health check server on port {}", INET_PORT);
     }
 
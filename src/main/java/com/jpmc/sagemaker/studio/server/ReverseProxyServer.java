@@ -1,52 +1,48 @@
 package com.jpmc.sagemaker.studio.server;
 
 import com.jpmc.sagemaker.studio.reverseproxy.ReverseProxyInitializer;
-import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import lombok.extern.log4j.Log4j2;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * ReverseProxyServer class bootstraps the Netty Server to proxy the
  * HTTP/Websocket requests
  */
 @Log4j2
+@Singleton
 public class ReverseProxyServer implements StudioServer {
 
     private static final int INET_PORT = 8081;
 
+    private final ServerTransport serverTransport;
     private final ReverseProxyInitializer reverseProxyInitializer;
-    private Channel channel;
+    private List<Channel> channels = Collections.emptyList();
 
     @Inject
-    public ReverseProxyServer(final ReverseProxyInitializer reverseProxyInitializer) {
+    public ReverseProxyServer(final ServerTransport serverTransport,
+            final ReverseProxyInitializer reverseProxyInitializer) {
+        this.serverTransport = serverTransport;
         this.reverseProxyInitializer = reverseProxyInitializer;
     }
 
     @Override
     public void startServer() throws InterruptedException {
         log.debug("Starting a reverse proxy server.");
-        final ServerBootstrap serverBootstrap = new ServerBootstrap();
-        // TODO: Likely need to tune the number of threads per worker group
-        // Default is number of available processors * 2
-        final EventLoopGroup bossGroup = new NioEventLoopGroup();
-        final EventLoopGroup workerGroup = new NioEventLoopGroup();
-
-        serverBootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
-                .childHandler(reverseProxyInitializer);
-
-        channel = serverBootstrap.bind(INET_PORT).sync().channel();
-        log.info("Started reverse proxy server on port {}.", INET_PORT);
+        channels = serverTransport.bind(INET_PORT, reverseProxyInitializer);
+        log.info("Started reverse proxy server on port {} with {} acceptor(s).", INET_PORT, channels.size());
     }
 
     @Override
     public void stopServer() throws InterruptedException {
-        if (channel != null) {
+        for (final Channel channel : channels) {
             channel.closeFuture().sync();
+        }
+        if (!channels.isEmpty()) {
             log.info("Stopped reverse proxy server.");
         }
     }
@@ -0,0 +1,70 @@
+package com.jpmc.sagemaker.studio.server;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Event loop groups and transport shared by all Studio Servers, so the health
+ * check server does not spin up its own threads next to the proxy's.
+ */
+@Log4j2
+public class ServerTransport {
+
+    @Getter
+    private final TransportType transportType;
+    private final int acceptorThreads;
+    private final EventLoopGroup bossGroup;
+    @Getter
+    private final EventLoopGroup workerGroup;
+
+    public ServerTransport(final ServerTransportConfig config) {
+        this.transportType = TransportType.select(config.isNativeTransportPreferred());
+        this.acceptorThreads = transportType.isReusePortSupported() ? config.getAcceptorThreads() : 1;
+        this.bossGroup = transportType.newEventLoopGroup(acceptorThreads, new DefaultThreadFactory("boss"));
+        this.workerGroup = transportType.newEventLoopGroup(config.getWorkerThreads(),
+                new DefaultThreadFactory("worker"));
+        log.info("Using the {} transport with {} acceptor and {} worker threads.", transportType, acceptorThreads,
+                config.getWorkerThreads());
+    }
+
+    /**
+     * Binds the configured number of acceptor channels to the port.
+     */
+    public List<Channel> bind(final int port, final ChannelHandler childHandler) throws InterruptedException {
+        return bind(port, childHandler, acceptorThreads);
+    }
+
+    /**
+     * Binds the given number of acceptor channels to the port. More than one
+     * acceptor shares the port through SO_REUSEPORT.
+     */
+    public List<Channel> bind(final int port, final ChannelHandler childHandler, final int acceptors)
+            throws InterruptedException {
+        final int acceptorChannels = transportType.isReusePortSupported() ? acceptors : 1;
+        final ServerBootstrap serverBootstrap = new ServerBootstrap().group(bossGroup, workerGroup)
+                .channel(transportType.getServerChannelClass()).childHandler(childHandler);
+        if (acceptorChannels > 1) {
+            serverBootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+
+        final List<Channel> channels = new ArrayList<>(acceptorChannels);
+        for (int i = 0; i < acceptorChannels; i++) {
+            channels.add(serverBootstrap.bind(port).sync().channel());
+        }
+        return channels;
+    }
+
+    public void shutdownGracefully() {
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+    }
+}
@@ -0,0 +1,44 @@
+package com.jpmc.sagemaker.studio.server;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Transport and thread settings shared by all Studio Servers. Defaults can be
+ * overridden through JVM system properties on the start command.
+ */
+@Value
+@Builder
+public class ServerTransportConfig {
+
+    private static final String PROPERTY_PREFIX = "reverseproxy.transport.";
+
+    /**
+     * Use the native epoll transport when it can be loaded, NIO otherwise.
+     */
+    boolean nativeTransportPreferred;
+
+    /**
+     * Number of server channels bound to the proxy port through SO_REUSEPORT, each
+     * accepting on its own boss thread. Only one is used when the transport does
+     * not support SO_REUSEPORT.
+     */
+    int acceptorThreads;
+
+    /**
+     * Number of event loops serving the accepted connections and their Backend
+     * connections.
+     */
+    int workerThreads;
+
+    public static ServerTransportConfig fromSystemProperties() {
+        final int availableProcessors = Runtime.getRuntime().availableProcessors();
+        return ServerTransportConfig.builder()
+                .nativeTransportPreferred(Boolean.parseBoolean(
+                        System.getProperty(PROPERTY_PREFIX + "nativeTransportPreferred", "true")))
+                .acceptorThreads(Integer.getInteger(PROPERTY_PREFIX + "acceptorThreads",
+                        Math.max(1, availableProcessors / 2)))
+                .workerThreads(Integer.getInteger(PROPERTY_PREFIX + "workerThreads", availableProcessors * 2))
+                .build();
+    }
+}
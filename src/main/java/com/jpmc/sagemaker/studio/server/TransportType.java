@@ -0,0 +1,100 @@
+package com.jpmc.sagemaker.studio.server;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Netty transports the servers can run on. EPOLL is the native Linux
+ * transport bundled with netty-all; NIO works everywhere.
+ */
+public enum TransportType {
+
+    EPOLL {
+        @Override
+        public boolean isAvailable() {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        public boolean isReusePortSupported() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(final int threads, final ThreadFactory threadFactory) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> getServerChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends DatagramChannel> getDatagramChannelClass() {
+            return EpollDatagramChannel.class;
+        }
+    },
+
+    NIO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public boolean isReusePortSupported() {
+            return false;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(final int threads, final ThreadFactory threadFactory) {
+            return new NioEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> getServerChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends DatagramChannel> getDatagramChannelClass() {
+            return NioDatagramChannel.class;
+        }
+    };
+
+    public abstract boolean isAvailable();
+
+    /**
+     * @return true if several server channels can bind the same port through
+     *         SO_REUSEPORT and have the kernel spread accepts across them.
+     */
+    public abstract boolean isReusePortSupported();
+
+    public abstract EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory);
+
+    public abstract Class<? extends ServerChannel> getServerChannelClass();
+
+    /**
+     * @return the UDP channel of the transport, used for DNS queries.
+     */
+    public abstract Class<? extends DatagramChannel> getDatagramChannelClass();
+
+    /**
+     * @return the native transport when it is preferred and can be loaded on this
+     *         host, NIO otherwise.
+     */
+    public static TransportType select(final boolean nativeTransportPreferred) {
+        return nativeTransportPreferred && EPOLL.isAvailable() ? EPOLL : NIO;
+    }
+}
@@ -0,0 +1,233 @@
+package com.jpmc.sagemaker.studio.tls;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import io.netty.handler.ssl.ReferenceCountedOpenSslEngine;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Terminates TLS for Browser connections. All connections share one server
+ * SslContext, and with it the TLS session cache, so a Browser reconnecting to
+ * any event loop resumes its session instead of a full handshake.
+ *
+ * <p>
+ * With the OpenSSL provider, session tickets are encrypted with keys of our
+ * own that are rotated every ticketKeyRotationMillis, keeping the previous key
+ * to decrypt the tickets it issued, and the OCSP response read from disk is
+ * stapled to every handshake. The certificate, key and OCSP response files are
+ * polled like the route table file, and a changed certificate or key builds a
+ * new SslContext that new connections pick up. A file that fails to load is
+ * logged and the current one stays in use.
+ */
+@Log4j2
+public class FrontendTls {
+
+    private static final int TICKET_KEY_PART_BYTES = 16;
+
+    private final FrontendTlsConfig config;
+    private final boolean http2Enabled;
+    private final SslProvider provider;
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "frontend-tls-reloader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile SslContext sslContext;
+    private volatile byte[] ocspResponse;
+    private OpenSslSessionTicketKey ticketKey;
+    private OpenSslSessionTicketKey previousTicketKey;
+    private String certificateVersion;
+    private String ocspResponseVersion;
+
+    /**
+     * @param http2Enabled to offer h2 through ALPN, next to http/1.1.
+     */
+    public FrontendTls(final FrontendTlsConfig config, final boolean http2Enabled) {
+        this.config = config;
+        this.http2Enabled = http2Enabled;
+        this.provider = config.isOpenSslPreferred() && OpenSsl.isAvailable() ? SslProvider.OPENSSL
+                : SslProvider.JDK;
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    public SslProvider getProvider() {
+        return provider;
+    }
+
+    public SslContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Loads the certificate, key and OCSP response right away.
+     *
+     * @throws IOException if one of the files cannot be read, or the
+     *                     certificate and key do not make a server context.
+     */
+    public synchronized void load() throws IOException {
+        log.info("Building the Frontend SSL Context with the {} provider.", provider);
+        if (provider == SslProvider.OPENSSL && config.getTicketKeyRotationMillis() > 0 && ticketKey == null) {
+            ticketKey = newTicketKey();
+        }
+        loadCertificate();
+        loadOcspResponse();
+    }
+
+    public void start() {
+        if (config.getReloadIntervalMillis() > 0) {
+            executor.scheduleWithFixedDelay(this::reloadIfChanged, config.getReloadIntervalMillis(),
+                    config.getReloadIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (ticketKey != null) {
+            executor.scheduleAtFixedRate(this::rotateTicketKeys, config.getTicketKeyRotationMillis(),
+                    config.getTicketKeyRotationMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the SslHandler of a new Browser connection, which staples the
+     *         current OCSP response.
+     */
+    public SslHandler newHandler(final ByteBufAllocator allocator) {
+        final SslHandler sslHandler = sslContext.newHandler(allocator);
+        final byte[] response = ocspResponse;
+        if (response != null && sslHandler.engine() instanceof ReferenceCountedOpenSslEngine) {
+            ((ReferenceCountedOpenSslEngine) sslHandler.engine()).setOcspResponse(response);
+        }
+        return sslHandler;
+    }
+
+    /**
+     * Takes a new session ticket key for the tickets issued from now on, and
+     * keeps the current one to accept the tickets it issued.
+     */
+    synchronized void rotateTicketKeys() {
+        previousTicketKey = ticketKey;
+        ticketKey = newTicketKey();
+        applyTicketKeys(sslContext);
+        log.debug("Rotated the session ticket key.");
+    }
+
+    private synchronized void reloadIfChanged() {
+        try {
+            if (!version(config.getCertificateChainFile(), config.getPrivateKeyFile()).equals(certificateVersion)) {
+                log.info("Reloading the Frontend certificate from {}", config.getCertificateChainFile());
+                loadCertificate();
+            }
+            if (staplesOcsp() && !version(config.getOcspResponseFile()).equals(ocspResponseVersion)) {
+                log.info("Reloading the OCSP response from {}", config.getOcspResponseFile());
+                loadOcspResponse();
+            }
+        } catch (final IOException | RuntimeException exception) {
+            log.error("Unable to reload the Frontend certificate, keeping the current one.", exception);
+        }
+    }
+
+    private void loadCertificate() throws IOException {
+        final String version = version(config.getCertificateChainFile(), config.getPrivateKeyFile());
+        final SslContextBuilder builder = SslContextBuilder
+                .forServer(Paths.get(config.getCertificateChainFile()).toFile(),
+                        Paths.get(config.getPrivateKeyFile()).toFile())
+                .sslProvider(provider)
+                .sessionCacheSize(config.getSessionCacheSize())
+                .sessionTimeout(config.getSessionTimeoutSeconds())
+                .enableOcsp(staplesOcsp());
+        if (http2Enabled) {
+            // HTTP/2 forbids the weaker cipher suites, see ReverseProxyInitializer for what
+            // happens once h2 is negotiated
+            builder.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                    .applicationProtocolConfig(new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+                            ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                            ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                            ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1));
+        }
+        final SslContext context = builder.build();
+        // Sessions cached by the previous context are lost, tickets survive the reload
+        applyTicketKeys(context);
+        sslContext = context;
+        certificateVersion = version;
+    }
+
+    private void loadOcspResponse() throws IOException {
+        if (config.getOcspResponseFile() == null) {
+            return;
+        }
+        if (!staplesOcsp()) {
+            log.warn("OCSP stapling needs the OpenSSL provider, not stapling {}", config.getOcspResponseFile());
+            return;
+        }
+        final String version = version(config.getOcspResponseFile());
+        ocspResponse = Files.readAllBytes(Paths.get(config.getOcspResponseFile()));
+        ocspResponseVersion = version;
+    }
+
+    private boolean staplesOcsp() {
+        return config.getOcspResponseFile() != null && provider == SslProvider.OPENSSL
+                && OpenSsl.isOcspSupported();
+    }
+
+    private void applyTicketKeys(final SslContext context) {
+        if (ticketKey == null || !(context.sessionContext() instanceof OpenSslSessionContext)) {
+            return;
+        }
+        // The first key encrypts new tickets, all of them decrypt
+        final OpenSslSessionContext sessionContext = (OpenSslSessionContext) context.sessionContext();
+        if (previousTicketKey == null) {
+            sessionContext.setTicketKeys(ticketKey);
+        } else {
+            sessionContext.setTicketKeys(ticketKey, previousTicketKey);
+        }
+    }
+
+    private OpenSslSessionTicketKey newTicketKey() {
+        final byte[] parts = new byte[3 * TICKET_KEY_PART_BYTES];
+        random.nextBytes(parts);
+        return new OpenSslSessionTicketKey(Arrays.copyOfRange(parts, 0, TICKET_KEY_PART_BYTES),
+                Arrays.copyOfRange(parts, TICKET_KEY_PART_BYTES, 2 * TICKET_KEY_PART_BYTES),
+                Arrays.copyOfRange(parts, 2 * TICKET_KEY_PART_BYTES, 3 * TICKET_KEY_PART_BYTES));
+    }
+
+    /**
+     * @return the modification times and sizes of the files, which change when
+     *         one of them is rewritten or replaced by renaming.
+     */
+    private static String version(final String... files) throws IOException {
+        final StringBuilder version = new StringBuilder();
+        for (String file : files) {
+            final Path path = Paths.get(file);
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            version.append(attributes.lastModifiedTime()).append('/').append(attributes.size()).append(' ');
+        }
+        return version.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package com.jpmc.sagemaker.studio.tls;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * TLS settings for Browser connections to the Reverse Proxy Server. Defaults
+ * can be overridden through JVM system properties on the start command.
+ */
+@Value
+@Builder
+public class FrontendTlsConfig {
+
+    private static final String PROPERTY_PREFIX = "reverseproxy.tls.";
+
+    /**
+     * Terminate TLS on the proxy's own port, instead of in a separate hop in
+     * front of it.
+     */
+    boolean enabled;
+
+    /**
+     * PEM file with the certificate followed by its chain.
+     */
+    String certificateChainFile;
+
+    /**
+     * PEM file with the PKCS#8 private key of the certificate.
+     */
+    String privateKeyFile;
+
+    /**
+     * File with a DER encoded OCSP response for the certificate, stapled to
+     * every handshake. Kept fresh by whatever fetches it from the responder.
+     * Null to not staple. Only the OpenSSL provider staples.
+     */
+    String ocspResponseFile;
+
+    /**
+     * Use the OpenSSL provider (netty-tcnative) when it is on the classpath.
+     */
+    boolean openSslPreferred;
+
+    /**
+     * Number of TLS sessions kept for resumption, shared by all Browser
+     * connections.
+     */
+    long sessionCacheSize;
+
+    /**
+     * Time a TLS session may be resumed for, from the cache or a ticket.
+     */
+    long sessionTimeoutSeconds;
+
+    /**
+     * Time after which a new session ticket key takes over. Tickets issued
+     * under the previous key are still accepted for one more period. 0 to keep
+     * the key OpenSSL generates for the context. Only the OpenSSL provider
+     * issues tickets.
+     */
+    long ticketKeyRotationMillis;
+
+    /**
+     * Interval the certificate, key and OCSP response files are polled at, and
+     * reloaded once they changed. 0 to never reload them.
+     */
+    long reloadIntervalMillis;
+
+    public static FrontendTlsConfig fromSystemProperties() {
+        return FrontendTlsConfig.builder()
+                .enabled(Boolean.getBoolean(PROPERTY_PREFIX + "enabled"))
+                .certificateChainFile(System.getProperty(PROPERTY_PREFIX + "certificateChainFile"))
+                .privateKeyFile(System.getProperty(PROPERTY_PREFIX + "privateKeyFile"))
+                .ocspResponseFile(System.getProperty(PROPERTY_PREFIX + "ocspResponseFile"))
+                .openSslPreferred(
+                        Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "openSslPreferred", "true")))
+                .sessionCacheSize(Long.getLong(PROPERTY_PREFIX + "sessionCacheSize", 10_240L))
+                .sessionTimeoutSeconds(Long.getLong(PROPERTY_PREFIX + "sessionTimeoutSeconds", 3600L))
+                .ticketKeyRotationMillis(Long.getLong(PROPERTY_PREFIX + "ticketKeyRotationMillis", 3_600_000L))
+                .reloadIntervalMillis(Long.getLong(PROPERTY_PREFIX + "reloadIntervalMillis", 60_000L))
+                .build();
+    }
+}
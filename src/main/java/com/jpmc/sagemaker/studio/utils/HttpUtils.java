@@ -1,17 +1,18 @@
 package com.jpmc.sagemaker.studio.utils;
 
-import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.cookie.Cookie;
 import io.netty.handler.codec.http.cookie.DefaultCookie;
-import io.netty.handler.codec.http.cookie.ClientCookieDecoder;
 import io.netty.handler.codec.http.cookie.ServerCookieDecoder;
 import io.netty.handler.codec.http.cookie.ServerCookieEncoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -20,31 +21,6 @@ import java.util.Set;
 public class HttpUtils {
 
     private static final String HTTP_HEADERS_SERVER = "Server";
-    private static final String HTTP_HEADERS_SEC_WEBSOCKET_EXTENSIONS = "permessage-deflate";
-
-    /**
-     * Util method to convert the HTTPS SET-COOKIE cookies to HTTP SET-COOKIE
-     * cookies ClientCookieDecoder is used to decode the cookies and
-     * ServerCookieEncoder is used to encode the cookies
-     * 
-     * @param response HttpResponse Object
-     */
-    public static void convertHttpsToHttpCookie(final FullHttpResponse response) {
-        final List<String> setCookies = response.headers().getAll(HttpHeaderNames.SET_COOKIE);
-        if (setCookies != null && !setCookies.isEmpty()) {
-            response.headers().remove(HttpHeaderNames.SET_COOKIE);
-            final List<Cookie> httpCookies = new LinkedList<>();
-            for (String cookieS : setCookies) {
-                final Cookie secureCookie = ClientCookieDecoder.STRICT.decode(cookieS);
-                final Cookie httpCookie = createHttpCookieFromSecureCookie(secureCookie);
-                if (httpCookie != null)
-                    httpCookies.add(httpCookie);
-            }
-            for (Cookie cookie : httpCookies) {
-                response.headers().add(HttpHeaderNames.SET_COOKIE, ServerCookieEncoder.STRICT.encode(cookie));
-            }
-        }
-    }
 
     /**
      * Util method to create ResponseHeaders from RequestHeaders ServerCookieDecoder
@@ -75,11 +51,66 @@ public class HttpUtils {
         }
 
         responseHeaders.add(HttpHeaderNames.SERVER, HTTP_HEADERS_SERVER);
-        responseHeaders.add(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS, HTTP_HEADERS_SEC_WEBSOCKET_EXTENSIONS);
 
         return responseHeaders;
     }
 
+    /**
+     * Util method to check whether a request asks to be upgraded to a WebSocket.
+     * The Connection header may list several comma separated options.
+     *
+     * @param headers HttpHeaders of the request
+     * @return true for a WebSocket upgrade request
+     */
+    public static boolean isWebSocketUpgradeRequest(final HttpHeaders headers) {
+        return headers.contains(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET, true)
+                && headers.containsValue(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE, true);
+    }
+
+    /**
+     * Util method to find the value of a cookie in the Cookie headers of a
+     * request, without decoding the other cookies
+     *
+     * @param headers HttpHeaders of the request
+     * @param name    name of the cookie
+     * @return the value of the first cookie with that name, or null
+     */
+    public static String getCookieValue(final HttpHeaders headers, final String name) {
+        for (String cookieHeader : headers.getAll(HttpHeaderNames.COOKIE)) {
+            int start = 0;
+            while (start < cookieHeader.length()) {
+                int end = cookieHeader.indexOf(';', start);
+                if (end < 0) {
+                    end = cookieHeader.length();
+                }
+                final int equals = cookieHeader.indexOf('=', start);
+                if (equals > start && equals < end && cookieHeader.substring(start, equals).trim().equals(name)) {
+                    return cookieHeader.substring(equals + 1, end).trim();
+                }
+                start = end + 1;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Util method to format a negotiated WebSocket extension as the value of a
+     * Sec-WebSocket-Extensions header
+     *
+     * @param extensionData WebSocketExtensionData Object
+     * @return Header value such as "permessage-deflate; client_max_window_bits=15"
+     */
+    public static String toWebSocketExtensionHeaderValue(final WebSocketExtensionData extensionData) {
+        final StringBuilder headerValue = new StringBuilder(extensionData.name());
+        for (Map.Entry<String, String> parameter : extensionData.parameters().entrySet()) {
+            headerValue.append("; ").append(parameter.getKey());
+            if (parameter.getValue() != null) {
+                headerValue.append('=').append(parameter.getValue());
+            }
+        }
+        return headerValue.toString();
+    }
+
     private static Cookie createHttpCookieFromSecureCookie(final Cookie secureCookie) {
         if (!secureCookie.name().equals("Path") || secureCookie.value() != null) {
             final Cookie cookieOutput = new DefaultCookie(secureCookie.name(), secureCookie.value());
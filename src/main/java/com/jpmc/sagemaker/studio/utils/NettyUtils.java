@@ -3,6 +3,10 @@ package com.jpmc.sagemaker.studio.utils;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameEncoder;
+import io.netty.handler.codec.http2.Http2StreamChannel;
 import lombok.NonNull;
 
 public class NettyUtils {
@@ -15,4 +19,26 @@ public class NettyUtils {
             channel.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
         }
     }
+
+    /**
+     * Returns the channel of the connection the specified channel belongs to: the
+     * parent of an HTTP/2 stream channel, the channel itself otherwise. Channels
+     * to the Backend Servers are opened with the same transport.
+     */
+    public static Channel connectionChannel(@NonNull final Channel channel) {
+        return channel instanceof Http2StreamChannel ? channel.parent() : channel;
+    }
+
+    /**
+     * Removes the WebSocket frame encoder and decoder installed by a handshaker,
+     * leaving the channel to carry raw bytes.
+     */
+    public static void removeWebSocketFrameCodec(@NonNull final ChannelPipeline pipeline) {
+        if (pipeline.get(WebSocketFrameDecoder.class) != null) {
+            pipeline.remove(WebSocketFrameDecoder.class);
+        }
+        if (pipeline.get(WebSocketFrameEncoder.class) != null) {
+            pipeline.remove(WebSocketFrameEncoder.class);
+        }
+    }
 }
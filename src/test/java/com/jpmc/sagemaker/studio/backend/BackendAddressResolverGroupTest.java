@@ -0,0 +1,253 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.dns.DatagramDnsQuery;
+import io.netty.handler.codec.dns.DatagramDnsQueryDecoder;
+import io.netty.handler.codec.dns.DatagramDnsResponse;
+import io.netty.handler.codec.dns.DatagramDnsResponseEncoder;
+import io.netty.handler.codec.dns.DefaultDnsRawRecord;
+import io.netty.handler.codec.dns.DnsQuestion;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.ResolvedAddressTypes;
+import io.netty.util.NetUtil;
+import io.netty.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves Backend host names against a local stand-in DNS server that counts
+ * the queries it answers.
+ */
+public class BackendAddressResolverGroupTest {
+
+    private static final String HOST = "backend.test";
+
+    // Answers by question name and type, names without an answer do not exist
+    private final Map<String, List<byte[]>> answers = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> queries = new ConcurrentHashMap<>();
+    // Questions by name and type that are left to time out
+    private final Set<String> unanswered = ConcurrentHashMap.newKeySet();
+
+    private EventLoopGroup eventLoopGroup;
+    private Channel dnsServer;
+    private BackendAddressResolverGroup resolverGroup;
+
+    @Before
+    public void startDnsServer() throws Exception {
+        eventLoopGroup = new NioEventLoopGroup(1);
+        dnsServer = new Bootstrap().group(eventLoopGroup).channel(NioDatagramChannel.class)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(final Channel channel) {
+                        channel.pipeline().addLast(new DatagramDnsQueryDecoder(), new DatagramDnsResponseEncoder(),
+                                new StandInDnsServer());
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+    }
+
+    @After
+    public void stop() {
+        if (resolverGroup != null) {
+            resolverGroup.close();
+        }
+        dnsServer.close();
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    @Test
+    public void cachesAddressesForTheTtlOfTheirRecords() throws Exception {
+        answer(HOST, DnsRecordType.A, "10.0.0.1");
+        answer(HOST, DnsRecordType.AAAA, "fd00::1");
+        startResolver(ResolvedAddressTypes.IPV6_PREFERRED, 50);
+
+        // Handed out once the preferred family answered, the other one may still follow
+        assertEquals("fd00:0:0:0:0:0:0:1", resolveAll(HOST).get(0).getHostAddress());
+        List<InetAddress> addresses = null;
+        for (int i = 0; i < 50 && (addresses == null || addresses.size() < 2); i++) {
+            Thread.sleep(10);
+            addresses = resolveAll(HOST);
+        }
+        assertEquals(2, addresses.size());
+        assertEquals("fd00:0:0:0:0:0:0:1", addresses.get(0).getHostAddress());
+        assertEquals("10.0.0.1", addresses.get(1).getHostAddress());
+        assertEquals(1, queryCount(HOST, DnsRecordType.A));
+        assertEquals(1, queryCount(HOST, DnsRecordType.AAAA));
+    }
+
+    @Test
+    public void doesNotWaitForTheOtherFamilyOnceThePreferredOneAnswered() throws Exception {
+        answer(HOST, DnsRecordType.A, "10.0.0.1");
+        unanswered.add(HOST + '.' + DnsRecordType.AAAA.name());
+        startResolver(ResolvedAddressTypes.IPV4_PREFERRED, 50);
+
+        final long startNanos = System.nanoTime();
+        assertEquals(Collections.singletonList(InetAddress.getByName("10.0.0.1")), resolveAll(HOST));
+        // Well within the 1s query timeout of the AAAA query
+        assertTrue(System.nanoTime() - startNanos < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void connectsToTheNextAddressWhenOneIsUnreachable() throws Exception {
+        final Channel backendServer = new ServerBootstrap().group(eventLoopGroup)
+                .channel(NioServerSocketChannel.class).childHandler(new ChannelInboundHandlerAdapter())
+                .bind("127.0.0.1", 0).sync().channel();
+        try {
+            // Nothing listens on 127.0.0.2, connecting to it is refused
+            answer(HOST, DnsRecordType.A, "127.0.0.2", "127.0.0.1");
+            startResolver(ResolvedAddressTypes.IPV4_ONLY, 50);
+            final BackendConnectionPool pool = new BackendConnectionPool(BackendConnectionPoolConfig.builder()
+                    .maxConnectionsPerHost(1).maxPendingAcquires(1).acquireTimeoutMillis(5_000)
+                    .maxIdleMillis(60_000).build(), null, new NoopHandler(), resolverGroup);
+            final Channel browser = new Bootstrap().group(eventLoopGroup).channel(NioSocketChannel.class)
+                    .handler(new ChannelInboundHandlerAdapter()).register().sync().channel();
+            final Route route = Route.builder().host(HOST)
+                    .port(((InetSocketAddress) backendServer.localAddress()).getPort()).build();
+
+            final Channel backendChannel = browser.eventLoop().submit(() -> pool.acquire(browser, route)).get()
+                    .sync().getNow();
+            assertEquals(backendServer.localAddress(), backendChannel.remoteAddress());
+            backendChannel.close();
+            browser.close();
+        } finally {
+            backendServer.close();
+        }
+    }
+
+    @Test
+    public void cachesHostNamesThatDoNotExist() throws Exception {
+        startResolver(ResolvedAddressTypes.IPV4_ONLY, 50);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                resolveAll("missing.test");
+                throw new AssertionError("missing.test was resolved");
+            } catch (final UnknownHostException expected) {
+                // Served from the negative cache after the first attempt
+            }
+        }
+        assertEquals(1, queryCount("missing.test", DnsRecordType.A));
+    }
+
+    @Test
+    public void refreshesAddressesInUseBeforeTheyExpire() throws Exception {
+        answer(HOST, DnsRecordType.A, "10.0.0.1");
+        startResolver(ResolvedAddressTypes.IPV4_ONLY, 80);
+        assertEquals("10.0.0.1", resolveAll(HOST).get(0).getHostAddress());
+
+        // Due for a refresh 200ms into its 1s TTL, the cached address is still used meanwhile
+        answer(HOST, DnsRecordType.A, "10.0.0.2");
+        Thread.sleep(300);
+        assertEquals("10.0.0.1", resolveAll(HOST).get(0).getHostAddress());
+        String address = null;
+        for (int i = 0; i < 50 && !"10.0.0.2".equals(address); i++) {
+            Thread.sleep(10);
+            address = resolveAll(HOST).get(0).getHostAddress();
+        }
+        assertEquals("10.0.0.2", address);
+        assertEquals(2, queryCount(HOST, DnsRecordType.A));
+    }
+
+    private void startResolver(final ResolvedAddressTypes resolvedAddressTypes, final int refreshAheadPercent) {
+        final InetSocketAddress dnsAddress = (InetSocketAddress) dnsServer.localAddress();
+        resolverGroup = new BackendAddressResolverGroup(BackendDnsConfig.builder().asyncEnabled(true)
+                .minTtlSeconds(1).maxTtlSeconds(60).negativeTtlSeconds(60).refreshAheadPercent(refreshAheadPercent)
+                .queryTimeoutMillis(1_000).resolvedAddressTypes(resolvedAddressTypes)
+                .nameServers(Collections.singletonList("127.0.0.1:" + dnsAddress.getPort())).build(),
+                NioDatagramChannel.class);
+    }
+
+    private List<InetAddress> resolveAll(final String host) throws Exception {
+        final AddressResolver<InetSocketAddress> resolver = resolverGroup.getResolver(eventLoopGroup.next());
+        final Future<List<InetSocketAddress>> future = resolver
+                .resolveAll(InetSocketAddress.createUnresolved(host, 443)).await();
+        if (!future.isSuccess()) {
+            throw (Exception) future.cause();
+        }
+        final List<InetAddress> addresses = new ArrayList<>();
+        for (InetSocketAddress address : future.getNow()) {
+            addresses.add(address.getAddress());
+        }
+        return addresses;
+    }
+
+    private void answer(final String host, final DnsRecordType type, final String... addresses) {
+        final List<byte[]> records = new ArrayList<>();
+        for (String address : addresses) {
+            records.add(NetUtil.createByteArrayFromIpAddressString(address));
+        }
+        answers.put(host + '.' + type.name(), records);
+    }
+
+    private int queryCount(final String host, final DnsRecordType type) {
+        final AtomicInteger count = queries.get(host + '.' + type.name());
+        return count == null ? 0 : count.get();
+    }
+
+    // Added to the channel of every connection attempt
+    @ChannelHandler.Sharable
+    private static final class NoopHandler extends ChannelInboundHandlerAdapter {
+    }
+
+    private final class StandInDnsServer extends SimpleChannelInboundHandler<DatagramDnsQuery> {
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext channelHandlerContext, final DatagramDnsQuery query) {
+            final DnsQuestion question = query.recordAt(DnsSection.QUESTION);
+            // Names in questions are fully qualified
+            final String host = question.name().substring(0, question.name().length() - 1);
+            final String key = host + '.' + question.type().name();
+            queries.computeIfAbsent(key, name -> new AtomicInteger()).incrementAndGet();
+            if (unanswered.contains(key)) {
+                return;
+            }
+
+            final DatagramDnsResponse response = new DatagramDnsResponse(query.recipient(), query.sender(),
+                    query.id());
+            response.addRecord(DnsSection.QUESTION, question);
+            final List<byte[]> addresses = answers.get(key);
+            if (addresses != null) {
+                for (byte[] address : addresses) {
+                    response.addRecord(DnsSection.ANSWER, new DefaultDnsRawRecord(question.name(), question.type(),
+                            1, Unpooled.wrappedBuffer(address)));
+                }
+            } else if (!answers.keySet().stream().anyMatch(answered -> answered.startsWith(host + '.'))) {
+                response.setCode(DnsResponseCode.NXDOMAIN);
+            }
+            channelHandlerContext.writeAndFlush(response);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Callable;
+
+/**
+ * Leases connections to a local stand-in Backend Server, from frontend channels
+ * connected to that same server.
+ */
+public class BackendConnectionPoolTest {
+
+    private EventLoopGroup eventLoopGroup;
+    private Channel backendServer;
+    private Route route;
+    private BackendConnectionPool pool;
+
+    @Before
+    public void startBackendServer() throws Exception {
+        eventLoopGroup = new NioEventLoopGroup(1);
+        backendServer = new ServerBootstrap().group(eventLoopGroup).channel(NioServerSocketChannel.class)
+                .childHandler(new NoopHandler()).bind("127.0.0.1", 0).sync().channel();
+        route = Route.builder().host("127.0.0.1").port(((InetSocketAddress) backendServer.localAddress()).getPort())
+                .build();
+        pool = new BackendConnectionPool(BackendConnectionPoolConfig.builder().maxConnectionsPerHost(4)
+                .maxPendingAcquires(4).acquireTimeoutMillis(1_000).maxIdleMillis(60_000).preconnectEnabled(true)
+                .maxPreconnectsPerEventLoop(1).build(), null, new NoopHandler());
+    }
+
+    @After
+    public void stop() {
+        backendServer.close();
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    @Test
+    public void limitsPreconnectsPerEventLoop() throws Exception {
+        final Channel firstBrowser = connectBrowser();
+        final Channel secondBrowser = connectBrowser();
+
+        final Future<Channel> preconnect = onEventLoop(() -> pool.preconnect(firstBrowser, route));
+        assertNotNull(preconnect);
+        assertNull(onEventLoop(() -> pool.preconnect(secondBrowser, route)));
+
+        onEventLoop(() -> pool.endPreconnect(firstBrowser, preconnect, false));
+        assertNotNull(onEventLoop(() -> pool.preconnect(secondBrowser, route)));
+    }
+
+    @Test
+    public void reusesPreconnectedConnections() throws Exception {
+        final Channel browser = connectBrowser();
+
+        final Future<Channel> preconnect = onEventLoop(() -> pool.preconnect(browser, route));
+        final Channel backendChannel = preconnect.sync().getNow();
+        // The lease is recorded by listeners on the event loop, which may still be running
+        // when sync() returns
+        assertTrue(onEventLoop(() -> BackendConnectionPool.isPreconnected(backendChannel)));
+        assertSame(preconnect, onEventLoop(() -> pool.endPreconnect(browser, preconnect, true)));
+        assertSame(browser, BackendConnectionPool.getFrontendChannel(backendChannel));
+        assertFalse(BackendConnectionPool.isPreconnected(backendChannel));
+
+        // A preconnect that the request does not use goes back to the pool
+        BackendConnectionPool.release(backendChannel, true);
+        final Future<Channel> unused = onEventLoop(() -> pool.preconnect(browser, route));
+        unused.sync();
+        // Lets the lease listeners finish first
+        onEventLoop(() -> null);
+        assertNull(onEventLoop(() -> pool.endPreconnect(browser, unused, false)));
+        assertSame(backendChannel, onEventLoop(() -> pool.acquire(browser, route)).sync().getNow());
+    }
+
+    private Channel connectBrowser() throws InterruptedException {
+        return new Bootstrap().group(eventLoopGroup).channel(NioSocketChannel.class).handler(new NoopHandler())
+                .connect(backendServer.localAddress()).sync().channel();
+    }
+
+    private <T> T onEventLoop(final Callable<T> task) throws Exception {
+        return eventLoopGroup.next().submit(task).get();
+    }
+
+    @ChannelHandler.Sharable
+    private static final class NoopHandler extends ChannelInboundHandlerAdapter {
+    }
+}
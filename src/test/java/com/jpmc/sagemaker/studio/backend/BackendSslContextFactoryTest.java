@@ -0,0 +1,109 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Counts full versus resumed handshakes against a local TLS stand-in for the
+ * Backend Server.
+ */
+public class BackendSslContextFactoryTest {
+
+    private static final String HOST = "localhost";
+    private static final int CONNECTIONS = 20;
+
+    private final BackendSslContextConfig config = BackendSslContextConfig.builder().openSslPreferred(false)
+            .sessionCacheSize(16).sessionTimeoutSeconds(60).build();
+
+    private EventLoopGroup eventLoopGroup;
+    private Channel backendServerChannel;
+    private int port;
+
+    @Before
+    public void startBackendServer() throws Exception {
+        final SelfSignedCertificate certificate = new SelfSignedCertificate();
+        // TLSv1.2 keeps resumption visible as a reused session id on the client
+        final SslContext serverSslContext = SslContextBuilder
+                .forServer(certificate.certificate(), certificate.privateKey()).protocols("TLSv1.2").build();
+
+        eventLoopGroup = new NioEventLoopGroup(1);
+        backendServerChannel = new ServerBootstrap().group(eventLoopGroup).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(final SocketChannel channel) {
+                        channel.pipeline().addLast(serverSslContext.newHandler(channel.alloc()));
+                    }
+                }).bind(HOST, 0).sync().channel();
+        port = ((InetSocketAddress) backendServerChannel.localAddress()).getPort();
+    }
+
+    @After
+    public void stopBackendServer() {
+        backendServerChannel.close();
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    @Test
+    public void sharedContextResumesRepeatHandshakes() throws Exception {
+        final SslContext sslContext = BackendSslContextFactory.create(config);
+        final Set<BigInteger> sessionIds = new HashSet<>();
+        int resumed = 0;
+
+        for (int i = 0; i < CONNECTIONS; i++) {
+            if (!sessionIds.add(handshake(sslContext))) {
+                resumed++;
+            }
+        }
+
+        assertEquals(CONNECTIONS - 1, resumed);
+    }
+
+    @Test
+    public void contextPerConnectionNeverResumes() throws Exception {
+        final Set<BigInteger> sessionIds = new HashSet<>();
+        int resumed = 0;
+
+        for (int i = 0; i < CONNECTIONS; i++) {
+            if (!sessionIds.add(handshake(BackendSslContextFactory.create(config)))) {
+                resumed++;
+            }
+        }
+
+        assertEquals(0, resumed);
+    }
+
+    private BigInteger handshake(final SslContext sslContext) throws Exception {
+        final Channel channel = new Bootstrap().group(eventLoopGroup).channel(NioSocketChannel.class)
+                .handler(new ChannelInboundHandlerAdapter()).connect(HOST, port).sync().channel();
+        final SslHandler sslHandler = sslContext.newHandler(channel.alloc(), HOST, port);
+        channel.pipeline().addLast(sslHandler);
+        try {
+            sslHandler.handshakeFuture().sync();
+            return new BigInteger(1, sslHandler.engine().getSession().getId());
+        } finally {
+            channel.close().sync();
+        }
+    }
+}
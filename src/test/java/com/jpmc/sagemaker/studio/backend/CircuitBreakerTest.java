@@ -0,0 +1,140 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudget;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudgetConfig;
+import com.jpmc.sagemaker.studio.routing.BackendHealth;
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.resolver.DefaultAddressResolverGroup;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens circuits to Backend Servers on localhost and probes them with real
+ * connections. The frontend channel only lends its event loop and transport.
+ */
+public class CircuitBreakerTest {
+
+    private final ProxyMetrics proxyMetrics = new ProxyMetrics(ImmediateEventExecutor.INSTANCE,
+            new ResponseCache(ResponseCacheConfig.fromSystemProperties()),
+            new MemoryBudget(MemoryBudgetConfig.fromSystemProperties()));
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(CircuitBreakerConfig.builder().enabled(true)
+            .consecutiveConnectFailures(2).windowMillis(10_000).minimumResponses(4).failureRatePercent(50)
+            .slowResponseMillis(1_000).openMillis(50).maxOpenMillis(200).probeTimeoutMillis(1_000).build(), null,
+            DefaultAddressResolverGroup.INSTANCE, proxyMetrics);
+
+    private EventLoopGroup eventLoopGroup;
+    private Channel frontendChannel;
+
+    @Before
+    public void registerFrontendChannel() throws Exception {
+        eventLoopGroup = new NioEventLoopGroup(1);
+        frontendChannel = new NioSocketChannel();
+        eventLoopGroup.register(frontendChannel).sync();
+    }
+
+    @After
+    public void shutdown() {
+        frontendChannel.close();
+        eventLoopGroup.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void connectFailuresOpenTheCircuitUntilAProbeSucceeds() throws Exception {
+        final Channel backend = new ServerBootstrap().group(eventLoopGroup).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInboundHandlerAdapter()).bind("127.0.0.1", 0).sync().channel();
+        final Route route = route(((InetSocketAddress) backend.localAddress()).getPort());
+
+        circuitBreaker.connectFailed(frontendChannel, route);
+        assertTrue(circuitBreaker.allowRequest(route));
+        circuitBreaker.connectFailed(frontendChannel, route);
+        assertFalse(circuitBreaker.allowRequest(route));
+        assertEquals(1, circuitBreaker.getRetryAfterSeconds(route));
+        assertEquals(1, proxyMetrics.getCircuitChanges(true));
+        assertEquals(1, proxyMetrics.getCircuitRejectedRequests());
+
+        awaitState(route, BackendHealth.State.CLOSED);
+        assertTrue(circuitBreaker.allowRequest(route));
+        assertEquals(1, proxyMetrics.getCircuitChanges(false));
+        backend.close().sync();
+    }
+
+    @Test
+    public void failedProbesKeepTheCircuitOpen() throws Exception {
+        // Nothing listens on the port once the server is closed again
+        final Channel closed = new ServerBootstrap().group(eventLoopGroup).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInboundHandlerAdapter()).bind("127.0.0.1", 0).sync().channel();
+        final Route route = route(((InetSocketAddress) closed.localAddress()).getPort());
+        closed.close().sync();
+
+        circuitBreaker.connectFailed(frontendChannel, route);
+        circuitBreaker.connectFailed(frontendChannel, route);
+        // The open time doubles with every failed probe, up to maxOpenMillis
+        Thread.sleep(600);
+        assertFalse(route.getHealth().isClosed());
+        assertEquals(0, proxyMetrics.getCircuitChanges(false));
+        assertTrue(route.getHealth().getRetryAtNanos() - System.nanoTime() <= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void failedResponsesOpenTheCircuitOnceTheWindowHasEnough() {
+        final Route route = route(1);
+        final long slowNanos = TimeUnit.SECONDS.toNanos(2);
+
+        circuitBreaker.responseReceived(frontendChannel, route, HttpResponseStatus.BAD_GATEWAY, 0);
+        circuitBreaker.responseFailed(frontendChannel, route);
+        circuitBreaker.responseReceived(frontendChannel, route, HttpResponseStatus.OK, slowNanos);
+        assertTrue(route.getHealth().isClosed());
+        circuitBreaker.responseReceived(frontendChannel, route, HttpResponseStatus.OK, 0);
+        circuitBreaker.responseReceived(frontendChannel, route, HttpResponseStatus.OK, 0);
+        circuitBreaker.responseReceived(frontendChannel, route, HttpResponseStatus.OK, 0);
+        assertTrue(route.getHealth().isClosed());
+        // 4 of 7 failed
+        circuitBreaker.responseReceived(frontendChannel, route, HttpResponseStatus.SERVICE_UNAVAILABLE, 0);
+        assertFalse(route.getHealth().isClosed());
+    }
+
+    @Test
+    public void disabledBreakerNeverOpens() {
+        final CircuitBreaker disabled = new CircuitBreaker(CircuitBreakerConfig.builder().build(), null, null,
+                proxyMetrics);
+        final Route route = route(1);
+        for (int i = 0; i < 100; i++) {
+            disabled.connectFailed(frontendChannel, route);
+            disabled.responseFailed(frontendChannel, route);
+        }
+        assertTrue(disabled.allowRequest(route));
+        assertTrue(route.getHealth().isClosed());
+    }
+
+    private static Route route(final int port) {
+        return Route.builder().host("127.0.0.1").port(port).tls(false).build();
+    }
+
+    private static void awaitState(final Route route, final BackendHealth.State state) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (route.getHealth().getState() != state && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(state, route.getHealth().getState());
+    }
+}
@@ -0,0 +1,151 @@
+package com.jpmc.sagemaker.studio.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Callable;
+
+/**
+ * Leases channels to local TLS stand-ins for the Backend Server that do and do
+ * not accept h2 through ALPN.
+ */
+public class Http2BackendConnectionsTest {
+
+    private static final String HOST = "localhost";
+
+    private EventLoopGroup eventLoopGroup;
+    private Channel backendServer;
+    private Channel browser;
+    private BackendConnectionPool pool;
+
+    @Before
+    public void start() throws Exception {
+        eventLoopGroup = new NioEventLoopGroup(1);
+        pool = new BackendConnectionPool(BackendConnectionPoolConfig.builder().maxConnectionsPerHost(4)
+                .maxPendingAcquires(4).acquireTimeoutMillis(5_000).maxIdleMillis(60_000)
+                .http2MaxConcurrentStreams(2).http2InitialWindowSizeBytes(1024 * 1024).build(),
+                BackendSslContextFactory.create(BackendSslContextConfig.builder().sessionCacheSize(16)
+                        .sessionTimeoutSeconds(60).http2Enabled(true).build()),
+                new NoopHandler());
+    }
+
+    @After
+    public void stop() {
+        if (browser != null) {
+            browser.close();
+        }
+        backendServer.close();
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    @Test
+    public void sharesConnectionsUpToTheStreamLimit() throws Exception {
+        final Route route = startBackendServer(true);
+
+        final Channel first = onEventLoop(() -> pool.acquire(browser, route)).sync().getNow();
+        final Channel second = onEventLoop(() -> pool.acquire(browser, route)).sync().getNow();
+        final Channel third = onEventLoop(() -> pool.acquire(browser, route)).sync().getNow();
+
+        assertTrue(first instanceof Http2StreamChannel);
+        assertSame(first.parent(), second.parent());
+        // Past http2MaxConcurrentStreams a second connection is opened
+        assertNotSame(first.parent(), third.parent());
+        assertEquals(route, BackendConnectionPool.getRoute(third));
+
+        // A stream carries one request only
+        onEventLoop(() -> {
+            BackendConnectionPool.release(first, true);
+            return null;
+        });
+        assertFalse(first.isOpen());
+        assertSame(first.parent(), onEventLoop(() -> pool.acquire(browser, route)).sync().getNow().parent());
+    }
+
+    @Test
+    public void fallsBackToHttp11Connections() throws Exception {
+        final Route route = startBackendServer(false);
+
+        final Channel first = onEventLoop(() -> pool.acquire(browser, route)).sync().getNow();
+        final Channel second = onEventLoop(() -> pool.acquire(browser, route)).sync().getNow();
+
+        assertFalse(first instanceof Http2StreamChannel);
+        assertFalse(second instanceof Http2StreamChannel);
+        assertNotSame(first, second);
+    }
+
+    private Route startBackendServer(final boolean speaksHttp2) throws Exception {
+        final SelfSignedCertificate certificate = new SelfSignedCertificate();
+        final SslContextBuilder builder = SslContextBuilder.forServer(certificate.certificate(),
+                certificate.privateKey());
+        if (speaksHttp2) {
+            builder.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                    .applicationProtocolConfig(new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+                            ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                            ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                            ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1));
+        }
+        final SslContext serverSslContext = builder.build();
+
+        backendServer = new ServerBootstrap().group(eventLoopGroup).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(final SocketChannel channel) {
+                        channel.pipeline().addLast(serverSslContext.newHandler(channel.alloc()),
+                                new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+                                    @Override
+                                    protected void configurePipeline(final ChannelHandlerContext context,
+                                            final String protocol) {
+                                        if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                                            context.pipeline().addLast(Http2FrameCodecBuilder.forServer().build(),
+                                                    new Http2MultiplexHandler(new NoopHandler()));
+                                        }
+                                    }
+                                });
+                    }
+                }).bind(HOST, 0).sync().channel();
+        browser = new Bootstrap().group(eventLoopGroup).channel(NioSocketChannel.class).handler(new NoopHandler())
+                .connect(backendServer.localAddress()).sync().channel();
+        return Route.builder().host(HOST).port(((InetSocketAddress) backendServer.localAddress()).getPort())
+                .tls(true).build();
+    }
+
+    private <T> T onEventLoop(final Callable<T> task) throws Exception {
+        return eventLoopGroup.next().submit(task).get();
+    }
+
+    @ChannelHandler.Sharable
+    private static final class NoopHandler extends ChannelInboundHandlerAdapter {
+    }
+}
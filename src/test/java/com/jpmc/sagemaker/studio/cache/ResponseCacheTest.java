@@ -0,0 +1,109 @@
+package com.jpmc.sagemaker.studio.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class ResponseCacheTest {
+
+    private static final Route ROUTE = Route.builder().host("studio.local").port(443).tls(true).build();
+
+    private final ResponseCache responseCache = new ResponseCache(ResponseCacheConfig.builder().enabled(true)
+            .maxSizeBytes(250).maxEntrySizeBytes(100).pathMarkers(Collections.singletonList("/static/"))
+            .staleWhileRevalidateMillis(60_000).build());
+
+    @Test
+    public void onlySharedStaticAssetsAreCached() {
+        assertNotNull(responseCache.keyFor(ROUTE, request("/jupyter/default/static/lab/main.js?v=1")));
+        assertNull(responseCache.keyFor(ROUTE, request("/jupyter/default/api/contents")));
+
+        final HttpRequest authorized = request("/static/main.js");
+        authorized.headers().set("Authorization", "Bearer token");
+        assertNull(responseCache.keyFor(ROUTE, authorized));
+
+        assertFalse(responseCache.isCacheable(response("no-store", "\"v1\"")));
+        assertFalse(responseCache.isCacheable(response("private, max-age=60", null)));
+        assertFalse(responseCache.isCacheable(response(null, null)));
+        final HttpResponse withCookie = response("max-age=60", null);
+        withCookie.headers().set("Set-Cookie", "a=b");
+        assertFalse(responseCache.isCacheable(withCookie));
+        assertTrue(responseCache.isCacheable(response("max-age=60", null)));
+        assertTrue(responseCache.isCacheable(response(null, "\"v1\"")));
+    }
+
+    @Test
+    public void answersConditionalRequestsWithNotModified() {
+        final HttpRequest request = request("/static/main.js");
+        responseCache.store(responseCache.keyFor(ROUTE, request), response("max-age=60", "\"v1\"").headers(),
+                body(10));
+
+        final HttpRequest conditional = request("/static/main.js");
+        conditional.headers().set("If-None-Match", "\"v0\", W/\"v1\"");
+        final FullHttpResponse notModified = responseCache.toResponse(conditional,
+                responseCache.lookup(ROUTE, conditional));
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, notModified.status());
+        assertEquals("\"v1\"", notModified.headers().get("ETag"));
+
+        final FullHttpResponse cached = responseCache.toResponse(request, responseCache.lookup(ROUTE, request));
+        assertEquals(HttpResponseStatus.OK, cached.status());
+        assertEquals(10, cached.content().readableBytes());
+        cached.release();
+        assertEquals(2, responseCache.getHits());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntriesBeyondTheBudget() {
+        final ByteBuf first = body(100);
+        responseCache.store(responseCache.keyFor(ROUTE, request("/static/1.js")), response("max-age=60", null)
+                .headers(), first);
+        responseCache.store(responseCache.keyFor(ROUTE, request("/static/2.js")), response("max-age=60", null)
+                .headers(), body(100));
+        // Using the first entry makes the second one the least recently used
+        responseCache.toResponse(request("/static/1.js"), responseCache.lookup(ROUTE, request("/static/1.js")))
+                .release();
+        responseCache.store(responseCache.keyFor(ROUTE, request("/static/3.js")), response("max-age=60", null)
+                .headers(), body(100));
+
+        assertEquals(2, responseCache.getEntries());
+        assertEquals(200, responseCache.getSizeBytes());
+        assertEquals(1, responseCache.getEvictions());
+        assertNull(responseCache.lookup(ROUTE, request("/static/2.js")));
+        assertEquals(1, first.refCnt());
+    }
+
+    private static HttpRequest request(final String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    private static HttpResponse response(final String cacheControl, final String etag) {
+        final HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        if (cacheControl != null) {
+            response.headers().set("Cache-Control", cacheControl);
+        }
+        if (etag != null) {
+            response.headers().set("ETag", etag);
+        }
+        return response;
+    }
+
+    private static ByteBuf body(final int size) {
+        return Unpooled.buffer(size).writeZero(size);
+    }
+}
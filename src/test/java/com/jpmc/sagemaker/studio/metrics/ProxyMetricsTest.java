@@ -0,0 +1,95 @@
+package com.jpmc.sagemaker.studio.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudget;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudgetConfig;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+public class ProxyMetricsTest {
+
+    private final ProxyMetrics proxyMetrics = new ProxyMetrics(ImmediateEventExecutor.INSTANCE, new ResponseCache(
+            ResponseCacheConfig.builder().enabled(false).pathMarkers(Collections.emptyList()).build()),
+            new MemoryBudget(MemoryBudgetConfig.builder().enabled(false).build()));
+
+    @Test
+    public void splitsEachPowerOfTwoIntoTwoBuckets() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(0, LatencyHistogram.bucketOf(16));
+        assertEquals(1, LatencyHistogram.bucketOf(17));
+        assertEquals(1, LatencyHistogram.bucketOf(24));
+        assertEquals(2, LatencyHistogram.bucketOf(25));
+        assertEquals(2, LatencyHistogram.bucketOf(32));
+        assertEquals(3, LatencyHistogram.bucketOf(33));
+        assertEquals(LatencyHistogram.bucketOf(Long.MAX_VALUE), LatencyHistogram.bucketOf(1L << 26));
+    }
+
+    @Test
+    public void recordsTheTrafficOfABrowserConnection() {
+        final EmbeddedChannel channel = new EmbeddedChannel(new FrontendMetricsHandler(proxyMetrics));
+        assertEquals(1, proxyMetrics.getActiveHttpConnections());
+
+        channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/api/contents"));
+        channel.writeOutbound(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND));
+        channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/api/kernels/1/channels"));
+        channel.writeOutbound(
+                new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SWITCHING_PROTOCOLS));
+        assertEquals(2, proxyMetrics.getRequests());
+        assertEquals(1, proxyMetrics.getResponses(HttpStatusClass.CLIENT_ERROR));
+        assertEquals(2, proxyMetrics.getTimeToFirstByte().getCount());
+        assertEquals(0, proxyMetrics.getActiveHttpConnections());
+        assertEquals(1, proxyMetrics.getActiveWebSocketConnections());
+
+        channel.writeInbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[10])));
+        // Tunnel mode relays bytes without framing
+        channel.writeOutbound(Unpooled.wrappedBuffer(new byte[7]));
+        assertEquals(1, proxyMetrics.getWebSocketFrames(ProxyMetrics.Direction.BROWSER_TO_BACKEND));
+        assertEquals(10, proxyMetrics.getWebSocketBytes(ProxyMetrics.Direction.BROWSER_TO_BACKEND));
+        assertEquals(0, proxyMetrics.getWebSocketFrames(ProxyMetrics.Direction.BACKEND_TO_BROWSER));
+        assertEquals(7, proxyMetrics.getWebSocketBytes(ProxyMetrics.Direction.BACKEND_TO_BROWSER));
+
+        channel.finishAndReleaseAll();
+        assertEquals(0, proxyMetrics.getActiveWebSocketConnections());
+    }
+
+    @Test
+    public void writesThePrometheusTextFormat() {
+        proxyMetrics.requestReceived();
+        proxyMetrics.responseSent(HttpStatusClass.SUCCESS);
+        proxyMetrics.timeToFirstByte(TimeUnit.MICROSECONDS.toNanos(20));
+        proxyMetrics.timeToFirstByte(TimeUnit.SECONDS.toNanos(90));
+
+        final ByteBuf out = Unpooled.buffer();
+        proxyMetrics.writeTo(out);
+        final String text = out.toString(CharsetUtil.US_ASCII);
+        out.release();
+
+        assertTrue(text.contains("# TYPE proxy_http_requests_total counter\nproxy_http_requests_total 1\n"));
+        assertTrue(text.contains("proxy_http_responses_total{status_class=\"2xx\"} 1\n"));
+        assertTrue(text.contains("proxy_http_time_to_first_byte_seconds_bucket{le=\"0.000016\"} 0\n"));
+        assertTrue(text.contains("proxy_http_time_to_first_byte_seconds_bucket{le=\"0.000024\"} 1\n"));
+        assertTrue(text.contains("proxy_http_time_to_first_byte_seconds_bucket{le=\"33.554432\"} 1\n"));
+        assertTrue(text.contains("proxy_http_time_to_first_byte_seconds_bucket{le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("proxy_http_time_to_first_byte_seconds_sum 90.000020\n"));
+        assertTrue(text.contains("proxy_http_time_to_first_byte_seconds_count 2\n"));
+        assertTrue(text.contains("proxy_cache_requests_total{result=\"hit\"} 0\n"));
+    }
+}
@@ -0,0 +1,90 @@
+package com.jpmc.sagemaker.studio.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RequestTimingsTest {
+
+    private static final Route ROUTE = Route.builder().host("studio.local").port(8888).build();
+
+    @Test
+    public void keepsTheSlowestOfTheLastRequests() throws Exception {
+        // Rounded up to 4
+        final RequestTimings timings = new RequestTimings(
+                RequestTimingConfig.builder().enabled(true).bufferSize(3).windowMillis(60_000).slowestCount(2).build());
+        final List<RequestTiming> started = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            started.add(timings.start(RequestTiming.Kind.HTTP, HttpMethod.GET, "/" + i, ROUTE));
+            Thread.sleep(2);
+        }
+        // The earlier a request started the slower it is, but the first two were overwritten
+        for (RequestTiming timing : started) {
+            timing.phase(RequestTiming.Phase.DECODED);
+            timing.finish();
+        }
+
+        assertEquals(6, timings.getRecorded());
+        final List<RequestTiming> slowest = timings.getSlowest();
+        assertEquals(2, slowest.size());
+        assertEquals("/2", slowest.get(0).getUri());
+        assertEquals("/3", slowest.get(1).getUri());
+
+        final ByteBuf out = Unpooled.buffer();
+        timings.writeTo(out);
+        final String text = out.toString(CharsetUtil.UTF_8);
+        out.release();
+        assertTrue(text, text.startsWith("# 2 slowest requests finished in the last 60 s, 6 recorded in total\n"));
+        assertTrue(text, text.contains(" kind=http method=GET uri=/2 route=http://studio.local:8888 status=- "));
+        assertTrue(text, text.contains(" decoded_ms="));
+    }
+
+    @Test
+    public void forgetsRequestsThatFinishedBeforeTheWindow() throws Exception {
+        final RequestTimings timings = new RequestTimings(
+                RequestTimingConfig.builder().enabled(true).bufferSize(4).windowMillis(1).slowestCount(2).build());
+        timings.start(RequestTiming.Kind.WEBSOCKET, HttpMethod.GET, "/api/kernels/1/channels", ROUTE).finish();
+        Thread.sleep(10);
+
+        assertEquals(1, timings.getRecorded());
+        assertTrue(timings.getSlowest().isEmpty());
+    }
+
+    @Test
+    public void leavesTheQueryOutOfTheUri() {
+        final RequestTimings timings = new RequestTimings(
+                RequestTimingConfig.builder().enabled(true).bufferSize(4).windowMillis(60_000).slowestCount(2).build());
+        timings.start(RequestTiming.Kind.WEBSOCKET, HttpMethod.GET, "/api/kernels/1/channels?token=secret", ROUTE)
+                .finish();
+
+        final ByteBuf out = Unpooled.buffer();
+        timings.writeTo(out);
+        final String text = out.toString(CharsetUtil.UTF_8);
+        out.release();
+        assertEquals("/api/kernels/1/channels", timings.getSlowest().get(0).getUri());
+        assertFalse(text, text.contains("secret"));
+    }
+
+    @Test
+    public void disabledTimingsRecordNothing() {
+        final RequestTimings timings = new RequestTimings(RequestTimingConfig.builder().build());
+        final RequestTiming timing = timings.start(RequestTiming.Kind.HTTP, HttpMethod.GET, "/", ROUTE);
+        timing.phase(RequestTiming.Phase.DECODED);
+        timing.finish();
+
+        assertSame(RequestTiming.NONE, timing);
+        assertEquals(-1, timing.getPhaseNanos(RequestTiming.Phase.DECODED));
+        assertEquals(0, timings.getRecorded());
+    }
+}
@@ -0,0 +1,166 @@
+package com.jpmc.sagemaker.studio.ratelimit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudget;
+import com.jpmc.sagemaker.studio.reverseproxy.MemoryBudgetConfig;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.Test;
+
+public class RateLimitHandlerTest {
+
+    private final ProxyMetrics proxyMetrics = new ProxyMetrics(ImmediateEventExecutor.INSTANCE,
+            new ResponseCache(ResponseCacheConfig.builder().enabled(false).build()),
+            new MemoryBudget(MemoryBudgetConfig.builder().enabled(false).build()));
+
+    @Test
+    public void throttlesRequestsBeyondTheBurstOfEachUser() {
+        final EmbeddedChannel channel = newChannel(newRateLimiter(1, 2, 10));
+
+        assertAdmitted(channel, newRequest("alice"));
+        assertAdmitted(channel, newRequest("alice"));
+        channel.writeInbound(newRequest("alice"));
+
+        assertNull(channel.readInbound());
+        final FullHttpResponse response = channel.readOutbound();
+        assertEquals(HttpResponseStatus.TOO_MANY_REQUESTS, response.status());
+        assertEquals("1", response.headers().get(HttpHeaderNames.RETRY_AFTER));
+        assertTrue(channel.isActive());
+        assertEquals(1, proxyMetrics.getThrottledRequests(true));
+        response.release();
+        // Another user has a bucket of its own
+        assertAdmitted(channel, newRequest("bob"));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void limitsConcurrentRequestsAcrossConnections() {
+        final RateLimiter rateLimiter = newRateLimiter(1000, 1000, 1);
+        final EmbeddedChannel first = newChannel(rateLimiter);
+        final EmbeddedChannel second = newChannel(rateLimiter);
+
+        first.writeInbound(newRequest("alice"));
+        ReferenceCountUtil.release(first.readInbound());
+        second.writeInbound(newRequest("alice"));
+
+        final FullHttpResponse response = second.readOutbound();
+        assertEquals(HttpResponseStatus.TOO_MANY_REQUESTS, response.status());
+        assertEquals(1, proxyMetrics.getThrottledRequests(false));
+        response.release();
+
+        // Answering the first request makes room for another
+        first.writeOutbound(newResponse(HttpResponseStatus.OK));
+        ReferenceCountUtil.release(first.readOutbound());
+        assertAdmitted(second, newRequest("alice"));
+        first.finishAndReleaseAll();
+        second.finishAndReleaseAll();
+    }
+
+    @Test
+    public void answersThrottledPipelinedRequestsAfterTheRequestsBeforeThem() {
+        final EmbeddedChannel channel = newChannel(newRateLimiter(1000, 1000, 1));
+
+        channel.writeInbound(newRequest("alice"), newRequest("alice"), newRequest("alice"));
+        ReferenceCountUtil.release(channel.readInbound());
+        assertNull(channel.readInbound());
+        assertNull(channel.readOutbound());
+
+        channel.writeOutbound(newResponse(HttpResponseStatus.OK));
+        final FullHttpResponse answered = channel.readOutbound();
+        assertEquals(HttpResponseStatus.OK, answered.status());
+        final FullHttpResponse throttled = channel.readOutbound();
+        assertEquals(HttpResponseStatus.TOO_MANY_REQUESTS, throttled.status());
+        assertFalse(HttpUtil.isKeepAlive(throttled));
+        assertFalse(channel.isActive());
+        answered.release();
+        throttled.release();
+    }
+
+    @Test
+    public void countsWebSocketsUntilTheirConnectionCloses() {
+        final RateLimiter rateLimiter = newRateLimiter(1000, 1000, 1);
+        final EmbeddedChannel first = newChannel(rateLimiter);
+        final FullHttpRequest upgrade = newRequest("alice");
+        upgrade.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE)
+                .set(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET);
+        assertAdmitted(first, upgrade.retainedDuplicate());
+        first.writeOutbound(newResponse(HttpResponseStatus.SWITCHING_PROTOCOLS));
+        ReferenceCountUtil.release(first.readOutbound());
+
+        // A plain request of the same user is not held back by the WebSocket
+        final EmbeddedChannel second = newChannel(rateLimiter);
+        assertAdmitted(second, newRequest("alice"));
+        second.writeInbound(upgrade.retainedDuplicate());
+        final FullHttpResponse response = second.readOutbound();
+        assertEquals(HttpResponseStatus.TOO_MANY_REQUESTS, response.status());
+        response.release();
+
+        first.finishAndReleaseAll();
+        final EmbeddedChannel third = newChannel(rateLimiter);
+        assertAdmitted(third, upgrade);
+        second.finishAndReleaseAll();
+        third.finishAndReleaseAll();
+    }
+
+    private EmbeddedChannel newChannel(final RateLimiter rateLimiter) {
+        return new EmbeddedChannel(new RateLimitHandler(rateLimiter, proxyMetrics));
+    }
+
+    private static RateLimiter newRateLimiter(final double requestsPerSecond, final int burst,
+            final int maxConcurrentRequests) {
+        return new RateLimiter(RateLimitConfig.builder()
+                .enabled(true)
+                .userCookie("studio_user")
+                .requestsPerSecond(requestsPerSecond)
+                .burst(burst)
+                .maxConcurrentRequests(maxConcurrentRequests)
+                .maxWebSockets(1)
+                .idleExpiryMillis(60_000)
+                .build());
+    }
+
+    private static void assertAdmitted(final EmbeddedChannel channel, final FullHttpRequest request) {
+        channel.writeInbound(request);
+        final FullHttpRequest admitted = channel.readInbound();
+        assertEquals(request, admitted);
+        admitted.release();
+        // Answered, so the next request is not held back by the concurrency limit
+        if (!request.headers().contains(HttpHeaderNames.UPGRADE)) {
+            channel.writeOutbound(newResponse(HttpResponseStatus.OK));
+            ReferenceCountUtil.release(channel.readOutbound());
+        }
+    }
+
+    private static FullHttpRequest newRequest(final String user) {
+        final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                "/jupyter/default/api/sessions");
+        request.headers().set(HttpHeaderNames.COOKIE, "_xsrf=token; studio_user=" + user);
+        return request;
+    }
+
+    private static FullHttpResponse newResponse(final HttpResponseStatus status) {
+        final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status,
+                Unpooled.EMPTY_BUFFER);
+        HttpUtil.setContentLength(response, 0);
+        return response;
+    }
+}
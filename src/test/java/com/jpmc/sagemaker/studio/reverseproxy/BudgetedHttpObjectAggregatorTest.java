@@ -0,0 +1,188 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPoolConfig;
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.backend.CircuitBreakerConfig;
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.routing.Route;
+import com.jpmc.sagemaker.studio.routing.RouteTable;
+import com.jpmc.sagemaker.studio.routing.Router;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BudgetedHttpObjectAggregatorTest {
+
+    private static final Route ROUTE = Route.builder().host("studio.local").port(8888).build();
+
+    private final MemoryBudget memoryBudget = new MemoryBudget(
+            MemoryBudgetConfig.builder().enabled(true).maxInFlightBytes(1000).largeBodyBytes(100).build());
+    private final EmbeddedChannel channel = new EmbeddedChannel(
+            new BudgetedHttpObjectAggregator(10_000, memoryBudget));
+
+    @After
+    public void close() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void countsBodiesUntilTheyAreReleased() {
+        channel.writeInbound(withContentLength(newRequest(), 800), new DefaultLastHttpContent(body(800)));
+        final FullHttpRequest admitted = channel.readInbound();
+        // Unknown length, counted as it arrives
+        channel.writeInbound(newRequest(), new DefaultHttpContent(body(30)), new DefaultLastHttpContent(body(30)));
+        final FullHttpRequest chunked = channel.readInbound();
+        assertEquals(860, memoryBudget.getInFlightBytes());
+
+        admitted.release();
+        chunked.release();
+        assertEquals(0, memoryBudget.getInFlightBytes());
+    }
+
+    @Test
+    public void turnsAwayLargeRequestsThatDoNotFit() {
+        channel.writeInbound(withContentLength(newRequest(), 800), new DefaultLastHttpContent(body(800)));
+        final FullHttpRequest admitted = channel.readInbound();
+        // Small bodies keep flowing
+        channel.writeInbound(withContentLength(newRequest(), 50), new DefaultLastHttpContent(body(50)));
+        ((FullHttpRequest) channel.readInbound()).release();
+
+        // Turned away on its headers, before any of the body is read
+        channel.writeInbound(withContentLength(newRequest(), 300));
+
+        // Passed on to be answered in request order
+        final FullHttpResponse response = channel.readInbound();
+        assertNull(channel.readInbound());
+        assertNull(channel.readOutbound());
+        assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+        assertEquals("1", response.headers().get(HttpHeaderNames.RETRY_AFTER));
+        assertFalse(HttpUtil.isKeepAlive(response));
+        assertEquals(1, memoryBudget.getRejections(true));
+        assertEquals(800, memoryBudget.getInFlightBytes());
+        response.release();
+        admitted.release();
+    }
+
+    @Test
+    public void answersRequestsThatCouldNeverFitWithA413() {
+        channel.writeInbound(withContentLength(newRequest(), 2000), new DefaultLastHttpContent(body(2000)));
+
+        final FullHttpResponse response = channel.readInbound();
+        assertEquals(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, response.status());
+        assertNull(channel.readInbound());
+        assertEquals(0, memoryBudget.getInFlightBytes());
+        response.release();
+    }
+
+    @Test
+    public void answersAPipelinedRequestThatDoesNotFitAfterTheRequestsBeforeIt() {
+        final List<Promise<Channel>> acquired = new ArrayList<>();
+        final ResponseCache responseCache = new ResponseCache(ResponseCacheConfig.builder().build());
+        final ProxyMetrics proxyMetrics = new ProxyMetrics(ImmediateEventExecutor.INSTANCE, responseCache,
+                memoryBudget);
+        final BackendConnectionPool backendConnectionPool = new BackendConnectionPool(
+                BackendConnectionPoolConfig.fromSystemProperties(), null, null) {
+            // Leased once the test completes the promise
+            @Override
+            public Future<Channel> acquire(final Channel frontendChannel, final Route route) {
+                final Promise<Channel> promise = frontendChannel.eventLoop().newPromise();
+                acquired.add(promise);
+                return promise;
+            }
+        };
+        final EmbeddedChannel browser = new EmbeddedChannel(new BudgetedHttpObjectAggregator(10_000, memoryBudget),
+                new HttpRequestConnectionHandler(ReverseProxyConfig.fromSystemProperties(), backendConnectionPool,
+                        null, new Router(RouteTable.builder().defaultRoute(ROUTE).build()), responseCache,
+                        proxyMetrics, new CircuitBreaker(CircuitBreakerConfig.builder().build(), null, null,
+                                proxyMetrics)));
+        final EmbeddedChannel backend = new EmbeddedChannel();
+        try {
+            browser.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                    "/jupyter/default/api/status"), LastHttpContent.EMPTY_LAST_CONTENT);
+            browser.writeInbound(withContentLength(newRequest(), 2000), new DefaultLastHttpContent(body(2000)));
+
+            // Held until the response to the GET is written
+            assertNull(browser.readOutbound());
+            assertTrue(browser.isActive());
+
+            assertEquals(1, acquired.size());
+            acquired.get(0).setSuccess(backend);
+            ((FullHttpRequest) backend.readOutbound()).release();
+            final HttpExchange exchange = HttpExchange.of(backend);
+            final FullHttpResponse ok = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            HttpUtil.setContentLength(ok, 0);
+            exchange.getQueue().relay(exchange, ok, true);
+
+            final FullHttpResponse first = browser.readOutbound();
+            final FullHttpResponse second = browser.readOutbound();
+            assertEquals(HttpResponseStatus.OK, first.status());
+            assertEquals(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, second.status());
+            assertFalse(browser.isOpen());
+            first.release();
+            second.release();
+        } finally {
+            browser.finishAndReleaseAll();
+            backend.finishAndReleaseAll();
+        }
+    }
+
+    @Test
+    public void replacesLargeResponsesThatDoNotFitWithA503() {
+        channel.writeInbound(withContentLength(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK),
+                2000), new DefaultHttpContent(body(1000)), new DefaultLastHttpContent(body(1000)));
+
+        final FullHttpResponse response = channel.readInbound();
+        assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+        assertFalse(HttpUtil.isKeepAlive(response));
+        assertNull(channel.readInbound());
+        assertTrue(channel.isActive());
+        assertEquals(1, memoryBudget.getRejections(false));
+        assertEquals(0, memoryBudget.getInFlightBytes());
+        response.release();
+    }
+
+    private static HttpRequest newRequest() {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/jupyter/default/api/contents");
+    }
+
+    private static <T extends HttpMessage> T withContentLength(final T message, final int contentLength) {
+        HttpUtil.setContentLength(message, contentLength);
+        return message;
+    }
+
+    private static ByteBuf body(final int bytes) {
+        return Unpooled.wrappedBuffer(new byte[bytes]);
+    }
+}
@@ -0,0 +1,66 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class HeaderRewriterTest {
+
+    private final HeaderRewriter headerRewriter = new HeaderRewriter(
+            Route.builder().host("d-1.studio.local").port(443).tls(true).build());
+
+    @Test
+    public void rewritesHostAndCopiesTheXsrfCookie() {
+        final HttpHeaders headers = new DefaultHttpHeaders().set("Host", "localhost:8080")
+                .set("Origin", "http://localhost:8080")
+                .set("Cookie", "theme=dark; _XSRF=2|1f2e|5a6b==; studio_user=user-1");
+        headerRewriter.rewriteRequest(headers);
+
+        assertEquals("d-1.studio.local", headers.get("Host"));
+        assertEquals("https://d-1.studio.local", headers.get("Origin"));
+        assertEquals("https://d-1.studio.local/jupyter/default/lab?", headers.get("Referer"));
+        assertEquals("2|1f2e|5a6b==", headers.get("x-csrf-token"));
+        assertEquals("2|1f2e|5a6b==", headers.get("X-XSRFToken"));
+    }
+
+    @Test
+    public void findsCookieValuesInPlace() {
+        assertEquals("b", HeaderRewriter.findCookieValue("a=b", "a"));
+        assertEquals("c", HeaderRewriter.findCookieValue("a=b; a=c ", "a"));
+        assertNull(HeaderRewriter.findCookieValue("ab=c; a; a=", "a"));
+    }
+
+    @Test
+    public void keepsOnlyTheCookieAttributesTheBrowserAcceptsOverHttp() {
+        assertEquals("a=b; Path=/; HTTPOnly", HeaderRewriter.toHttpSetCookie("a=b; Secure; Path=/x"));
+        assertEquals("session=\"x=y\"; Max-Age=0; SameSite=Lax; Path=/; HTTPOnly", HeaderRewriter.toHttpSetCookie(
+                "session=\"x=y\"; Domain=studio.local; Max-Age=0; SameSite=Lax; secure; HttpOnly"));
+        assertEquals("a=; Expires=Thu, 01 Jan 1970 00:00:00 GMT; Path=/; HTTPOnly",
+                HeaderRewriter.toHttpSetCookie("a=; Expires=Thu, 01 Jan 1970 00:00:00 GMT; SameSite=None; Secure"));
+        assertNull(HeaderRewriter.toHttpSetCookie("Path"));
+
+        final HttpHeaders headers = new DefaultHttpHeaders().add("Set-Cookie", "a=b; Secure").add("Set-Cookie", "=x")
+                .add("Set-Cookie", "c=d");
+        HeaderRewriter.rewriteSetCookies(headers);
+        assertEquals(Arrays.asList("a=b; Path=/; HTTPOnly", "c=d; Path=/; HTTPOnly"), headers.getAll("Set-Cookie"));
+    }
+
+    @Test
+    public void keepsSecureAttributesOverHttps() {
+        assertEquals("a=b; Secure; Path=/; HTTPOnly", HeaderRewriter.toHttpsSetCookie("a=b; Secure; Path=/x"));
+        assertEquals("a=; Expires=Thu, 01 Jan 1970 00:00:00 GMT; SameSite=None; secure; Path=/; HTTPOnly",
+                HeaderRewriter.toHttpsSetCookie(
+                        "a=; Domain=studio.local; Expires=Thu, 01 Jan 1970 00:00:00 GMT; SameSite=None; secure"));
+        assertEquals("a=b; Path=/; HTTPOnly", HeaderRewriter.toHttpsSetCookie("a=b; Secured=x"));
+
+        final HttpHeaders headers = new DefaultHttpHeaders().add("Set-Cookie", "a=b; Secure");
+        HeaderRewriter.rewriteSetCookies(headers, true);
+        assertEquals("a=b; Secure; Path=/; HTTPOnly", headers.get("Set-Cookie"));
+    }
+}
@@ -0,0 +1,144 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.backend.CircuitBreakerConfig;
+import com.jpmc.sagemaker.studio.metrics.RequestTiming;
+import com.jpmc.sagemaker.studio.metrics.RequestTimingConfig;
+import com.jpmc.sagemaker.studio.metrics.RequestTimings;
+import com.jpmc.sagemaker.studio.routing.Route;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpExchangeQueueTest {
+
+    private static final Route ROUTE = Route.builder().host("studio.local").port(8888).build();
+    private static final CircuitBreaker CIRCUIT_BREAKER = new CircuitBreaker(CircuitBreakerConfig.builder().build(),
+            null, null, null);
+
+    private final EmbeddedChannel browser = new EmbeddedChannel();
+    private final AtomicInteger advances = new AtomicInteger();
+    private final HttpExchangeQueue exchanges = new HttpExchangeQueue(browser, advances::incrementAndGet);
+    private final RequestTimings timings = new RequestTimings(
+            RequestTimingConfig.builder().enabled(true).bufferSize(8).windowMillis(60_000).slowestCount(8).build());
+
+    @Test
+    public void relaysResponsesInRequestOrder() {
+        final HttpExchange first = exchange(HttpMethod.GET, "/first");
+        final HttpExchange second = exchange(HttpMethod.GET, "/second");
+
+        final HttpResponse secondResponse = response();
+        exchanges.relay(second, secondResponse, true);
+        assertNull(browser.readOutbound());
+
+        final HttpResponse firstResponse = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        exchanges.relay(first, firstResponse, false);
+        exchanges.relay(first, LastHttpContent.EMPTY_LAST_CONTENT, true);
+        assertSame(firstResponse, browser.readOutbound());
+        assertSame(LastHttpContent.EMPTY_LAST_CONTENT, browser.readOutbound());
+        assertSame(secondResponse, browser.readOutbound());
+        assertTrue(exchanges.isEmpty());
+    }
+
+    @Test
+    public void holdsRequestsWithSideEffectsBackUntilEarlierOnesAreAnswered() {
+        final HttpExchange get = exchange(HttpMethod.GET, "/get");
+        final HttpExchange otherGet = exchange(HttpMethod.GET, "/other");
+        final HttpExchange post = exchange(HttpMethod.POST, "/post");
+        final HttpExchange getAfterPost = exchange(HttpMethod.GET, "/after");
+
+        assertTrue(exchanges.canDispatch(get));
+        assertTrue(exchanges.canDispatch(otherGet));
+        assertFalse(exchanges.canDispatch(post));
+        assertFalse(exchanges.canDispatch(getAfterPost));
+
+        // A response that is held for its turn still lets the requests after it go
+        exchanges.relay(otherGet, response(), true);
+        exchanges.relay(get, response(), true);
+        assertEquals(2, advances.get());
+        assertTrue(exchanges.canDispatch(post));
+        assertFalse(exchanges.canDispatch(getAfterPost));
+
+        exchanges.relay(post, response(), true);
+        assertTrue(exchanges.canDispatch(getAfterPost));
+        exchanges.clear();
+    }
+
+    @Test
+    public void stopsAfterAResponseThatClosesTheConnection() {
+        final HttpExchange rejected = new HttpExchange(exchanges);
+        rejected.setCloseAfterResponse();
+        exchanges.add(rejected);
+        final HttpExchange next = exchange(HttpMethod.GET, "/next");
+
+        exchanges.relay(next, response(), true);
+        exchanges.relay(rejected, response(), true);
+        assertFalse(browser.isOpen());
+        final HttpObject written = browser.readOutbound();
+        assertEquals(HttpResponseStatus.OK, ((HttpResponse) written).status());
+        assertNull(browser.readOutbound());
+        exchanges.clear();
+    }
+
+    @Test
+    public void timesExchangesUntilTheirResponseIsFlushed() {
+        final HttpExchange first = exchange(HttpMethod.GET, "/first");
+        final HttpExchange second = timedExchange("/second");
+        final HttpExchange unanswered = timedExchange("/unanswered");
+
+        second.responseStarted(HttpResponseStatus.OK);
+        exchanges.relay(second, response(), true);
+        // Held until the first response is written
+        assertEquals(0, timings.getRecorded());
+        exchanges.relay(first, response(), true);
+        assertEquals(1, timings.getRecorded());
+        final RequestTiming timing = timings.getSlowest().get(0);
+        assertEquals("/second", timing.getUri());
+        assertEquals(200, timing.getStatus());
+        assertEquals(-1, timing.getPhaseNanos(RequestTiming.Phase.BACKEND_ACQUIRED));
+        assertTrue(timing.getPhaseNanos(RequestTiming.Phase.FIRST_BYTE) >= 0);
+        assertTrue(timing.getPhaseNanos(RequestTiming.Phase.LAST_BYTE_FLUSHED) >= timing
+                .getPhaseNanos(RequestTiming.Phase.FIRST_BYTE));
+
+        // The Browser went away before its response
+        exchanges.clear();
+        assertEquals(2, timings.getRecorded());
+        assertEquals(0, unanswered.getTiming().getStatus());
+        assertEquals(-1, unanswered.getTiming().getPhaseNanos(RequestTiming.Phase.LAST_BYTE_FLUSHED));
+    }
+
+    private HttpExchange exchange(final HttpMethod method, final String uri) {
+        return exchange(method, uri, RequestTiming.NONE);
+    }
+
+    private HttpExchange timedExchange(final String uri) {
+        return exchange(HttpMethod.GET, uri, timings.start(RequestTiming.Kind.HTTP, HttpMethod.GET, uri, ROUTE));
+    }
+
+    private HttpExchange exchange(final HttpMethod method, final String uri, final RequestTiming timing) {
+        final HttpExchange exchange = new HttpExchange(exchanges,
+                new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, uri), ROUTE, CIRCUIT_BREAKER, timing);
+        exchanges.add(exchange);
+        return exchange;
+    }
+
+    private static HttpResponse response() {
+        return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    }
+}
@@ -0,0 +1,373 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPoolConfig;
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.backend.CircuitBreakerConfig;
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimitConfig;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimiter;
+import com.jpmc.sagemaker.studio.routing.Route;
+import com.jpmc.sagemaker.studio.routing.RouteTable;
+import com.jpmc.sagemaker.studio.routing.Router;
+import com.jpmc.sagemaker.studio.tls.FrontendTls;
+import com.jpmc.sagemaker.studio.tls.FrontendTlsConfig;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.CharsetUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Relays responses of a local stand-in Backend Server through the proxy to a
+ * Browser speaking HTTP/1.x on a plain socket, so how the Browser connection is
+ * framed and closed can be read off the bytes it receives. In streaming mode,
+ * either side can stop reading to check the proxy stops relaying to it.
+ */
+public class HttpResponseConnectionHandlerTest {
+
+    // Large enough to outgrow the socket buffers of both connections
+    private static final int LARGE_BODY_BYTES = 128 * 1024 * 1024;
+    private static final byte[] BODY_CHUNK = new byte[64 * 1024];
+
+    private EventLoopGroup eventLoopGroup;
+    private Channel backendServer;
+    private Channel proxyServer;
+    // Answers each request to the Backend Server once its body was read
+    private volatile BiConsumer<ChannelHandlerContext, HttpRequest> backend = (channelHandlerContext,
+            request) -> respond(channelHandlerContext, "ok");
+    private volatile boolean backendReads = true;
+    private volatile Channel backendChannel;
+    private final AtomicLong backendBodyBytes = new AtomicLong();
+
+    @Before
+    public void start() throws Exception {
+        eventLoopGroup = new NioEventLoopGroup(1);
+        backendServer = new ServerBootstrap().group(eventLoopGroup).channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.SO_RCVBUF, 64 * 1024)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(final Channel channel) {
+                        backendChannel = channel;
+                        channel.config().setAutoRead(backendReads);
+                        channel.pipeline().addLast(new HttpServerCodec());
+                        channel.pipeline().addLast(new SimpleChannelInboundHandler<HttpObject>() {
+                            private HttpRequest request;
+
+                            @Override
+                            protected void channelRead0(final ChannelHandlerContext channelHandlerContext,
+                                    final HttpObject message) {
+                                if (message instanceof HttpRequest) {
+                                    request = (HttpRequest) message;
+                                }
+                                if (message instanceof HttpContent) {
+                                    backendBodyBytes.addAndGet(((HttpContent) message).content().readableBytes());
+                                }
+                                if (message instanceof LastHttpContent) {
+                                    backend.accept(channelHandlerContext, request);
+                                }
+                            }
+                        });
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+        proxyServer = startProxy(ReverseProxyConfig.fromSystemProperties());
+    }
+
+    @After
+    public void stop() {
+        proxyServer.close();
+        backendServer.close();
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    @Test
+    public void keepsTheBrowserConnectionOpenBetweenRequests() throws Exception {
+        try (Socket browser = connect(proxyServer)) {
+            for (int i = 0; i < 2; i++) {
+                send(browser, "GET /api/status HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                final String response = readResponse(browser.getInputStream());
+                assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+                assertFalse(response, response.contains("connection: close"));
+                assertTrue(response, response.endsWith("\r\n\r\nok"));
+            }
+        }
+    }
+
+    @Test
+    public void closesTheBrowserConnectionItAskedToClose() throws Exception {
+        try (Socket browser = connect(proxyServer)) {
+            send(browser, "GET /api/status HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+            final String response = readToEnd(browser.getInputStream());
+            assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(response, response.contains("connection: close"));
+            assertTrue(response, response.endsWith("\r\n\r\nok"));
+        }
+    }
+
+    @Test
+    public void closesHttp10BrowserConnectionsAfterTheResponse() throws Exception {
+        try (Socket browser = connect(proxyServer)) {
+            send(browser, "GET /api/status HTTP/1.0\r\nHost: localhost\r\n\r\n");
+            final String response = readToEnd(browser.getInputStream());
+            assertTrue(response, response.contains("connection: close"));
+            assertTrue(response, response.endsWith("\r\n\r\nok"));
+        }
+    }
+
+    @Test
+    public void closesTheBrowserConnectionAfterACloseDelimitedStreamedBody() throws Exception {
+        proxyServer.close();
+        proxyServer = startProxy(streaming());
+        backend = (channelHandlerContext, request) -> {
+            final HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+            channelHandlerContext.write(response);
+            channelHandlerContext.write(new DefaultHttpContent(Unpooled.copiedBuffer("first,", CharsetUtil.UTF_8)));
+            channelHandlerContext.writeAndFlush(new DefaultLastHttpContent(
+                    Unpooled.copiedBuffer("last", CharsetUtil.UTF_8))).addListener(ChannelFutureListener.CLOSE);
+        };
+
+        try (Socket browser = connect(proxyServer)) {
+            send(browser, "GET /files/notebook.ipynb HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            final String response = readToEnd(browser.getInputStream());
+            assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(response, response.contains("connection: close"));
+            assertTrue(response, response.endsWith("\r\n\r\nfirst,last"));
+        }
+    }
+
+    @Test
+    public void keepsStreamedBodiesWithALengthOnAnOpenConnection() throws Exception {
+        proxyServer.close();
+        proxyServer = startProxy(streaming());
+
+        try (Socket browser = connect(proxyServer)) {
+            for (int i = 0; i < 2; i++) {
+                send(browser, "GET /api/status HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                final String response = readResponse(browser.getInputStream());
+                assertFalse(response, response.contains("connection: close"));
+                assertTrue(response, response.endsWith("\r\n\r\nok"));
+            }
+        }
+    }
+
+    @Test
+    public void readsStreamedResponsesOnlyAsFastAsTheBrowser() throws Exception {
+        proxyServer.close();
+        proxyServer = startProxy(streaming());
+        final AtomicLong flushedBytes = new AtomicLong();
+        backend = (channelHandlerContext, request) -> {
+            final HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            HttpUtil.setContentLength(response, LARGE_BODY_BYTES);
+            channelHandlerContext.write(response);
+            for (int written = 0; written < LARGE_BODY_BYTES; written += BODY_CHUNK.length) {
+                channelHandlerContext.write(new DefaultHttpContent(Unpooled.wrappedBuffer(BODY_CHUNK)))
+                        .addListener(future -> flushedBytes.addAndGet(BODY_CHUNK.length));
+            }
+            channelHandlerContext.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        };
+
+        try (Socket browser = connect(proxyServer)) {
+            send(browser, "GET /files/data.csv HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            final InputStream in = browser.getInputStream();
+            readHead(in);
+            // The Browser does not read, so the proxy stops reading from the Backend Server
+            // once the socket buffers and the Browser channel's high water mark are full
+            final long relayed = awaitStalled(flushedBytes);
+            assertTrue(relayed + " bytes relayed", relayed < LARGE_BODY_BYTES / 2);
+
+            assertEquals(LARGE_BODY_BYTES, skip(in, LARGE_BODY_BYTES));
+        }
+    }
+
+    @Test
+    public void readsStreamedRequestBodiesOnlyAsFastAsTheBackendServer() throws Exception {
+        proxyServer.close();
+        proxyServer = startProxy(streaming());
+        backendReads = false;
+        backend = (channelHandlerContext, request) -> respond(channelHandlerContext,
+                String.valueOf(backendBodyBytes.get()));
+
+        try (Socket browser = connect(proxyServer)) {
+            send(browser, "PUT /api/contents/data.csv HTTP/1.1\r\nHost: localhost\r\nContent-Length: "
+                    + LARGE_BODY_BYTES + "\r\n\r\n");
+            final AtomicLong sentBytes = new AtomicLong();
+            final Thread upload = new Thread(() -> {
+                try {
+                    for (int sent = 0; sent < LARGE_BODY_BYTES; sent += BODY_CHUNK.length) {
+                        browser.getOutputStream().write(BODY_CHUNK);
+                        sentBytes.addAndGet(BODY_CHUNK.length);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            upload.start();
+            // The Backend Server does not read, so the proxy stops reading the body from the
+            // Browser once the Backend channel is above its high water mark
+            final long sent = awaitStalled(sentBytes);
+            assertTrue(sent + " bytes sent", sent < LARGE_BODY_BYTES / 2);
+
+            backendChannel.eventLoop().execute(() -> backendChannel.config().setAutoRead(true));
+            upload.join(10_000);
+            final String response = readResponse(browser.getInputStream());
+            assertTrue(response, response.endsWith("\r\n\r\n" + LARGE_BODY_BYTES));
+        }
+    }
+
+    /**
+     * @return the count once it stopped growing, or after 10 s.
+     */
+    private static long awaitStalled(final AtomicLong count) throws InterruptedException {
+        final long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        long previous;
+        do {
+            previous = count.get();
+            Thread.sleep(250);
+        } while (count.get() != previous && System.nanoTime() - deadlineNanos < 0);
+        return count.get();
+    }
+
+    private static ReverseProxyConfig streaming() {
+        return ReverseProxyConfig.fromSystemProperties().toBuilder().streamingEnabled(true)
+                .writeBufferLowWaterMarkBytes(8 * 1024).writeBufferHighWaterMarkBytes(32 * 1024).build();
+    }
+
+    private Channel startProxy(final ReverseProxyConfig reverseProxyConfig) throws Exception {
+        final Route route = Route.builder().host("127.0.0.1")
+                .port(((InetSocketAddress) backendServer.localAddress()).getPort()).build();
+        final ResponseCache responseCache = new ResponseCache(ResponseCacheConfig.builder().build());
+        final MemoryBudget memoryBudget = new MemoryBudget(MemoryBudgetConfig.builder().build());
+        final ProxyMetrics proxyMetrics = new ProxyMetrics(eventLoopGroup, responseCache, memoryBudget);
+        final BackendConnectionPool backendConnectionPool = new BackendConnectionPool(
+                BackendConnectionPoolConfig.fromSystemProperties(), null,
+                new BackendHttpChannelInitializer(reverseProxyConfig, responseCache, proxyMetrics, memoryBudget));
+        return new ServerBootstrap().group(eventLoopGroup).channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.SO_RCVBUF, 64 * 1024)
+                .childHandler(new ReverseProxyInitializer(reverseProxyConfig, backendConnectionPool, null,
+                        new Router(RouteTable.builder().defaultRoute(route).build()), responseCache, proxyMetrics,
+                        memoryBudget, new RateLimiter(RateLimitConfig.builder().build()),
+                        new CircuitBreaker(CircuitBreakerConfig.builder().build(), null, null, proxyMetrics),
+                        new FrontendTls(FrontendTlsConfig.builder().build(), false)))
+                .bind("127.0.0.1", 0).sync().channel();
+    }
+
+    private static void respond(final ChannelHandlerContext channelHandlerContext, final String body) {
+        final DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.OK, Unpooled.copiedBuffer(body, CharsetUtil.UTF_8));
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        channelHandlerContext.writeAndFlush(response);
+    }
+
+    private static Socket connect(final Channel server) throws IOException {
+        final Socket socket = new Socket();
+        // Set before connecting, so the window is not scaled beyond it
+        socket.setReceiveBufferSize(64 * 1024);
+        socket.setSoTimeout(5_000);
+        socket.connect(server.localAddress());
+        return socket;
+    }
+
+    private static void send(final Socket socket, final String request) throws IOException {
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+    }
+
+    /**
+     * Reads one response framed by its Content-Length.
+     */
+    private static String readResponse(final InputStream in) throws IOException {
+        final String head = readHead(in);
+        int contentLength = 0;
+        for (String line : head.split("\r\n")) {
+            if (line.toLowerCase(Locale.ROOT).startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        final byte[] body = new byte[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            final int n = in.read(body, read, contentLength - read);
+            assertTrue("Connection closed in the middle of the body", n >= 0);
+            read += n;
+        }
+        return head + new String(body, StandardCharsets.US_ASCII);
+    }
+
+    private static String readHead(final InputStream in) throws IOException {
+        final StringBuilder head = new StringBuilder();
+        while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+            final int b = in.read();
+            assertTrue("Connection closed in the middle of the headers", b >= 0);
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    private static long skip(final InputStream in, final long bytes) throws IOException {
+        final byte[] buffer = new byte[64 * 1024];
+        long skipped = 0;
+        int n;
+        while (skipped < bytes && (n = in.read(buffer, 0, (int) Math.min(buffer.length, bytes - skipped))) >= 0) {
+            skipped += n;
+        }
+        return skipped;
+    }
+
+    /**
+     * Reads until the proxy closes the connection, failing with a
+     * SocketTimeoutException if it does not.
+     */
+    private static String readToEnd(final InputStream in) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
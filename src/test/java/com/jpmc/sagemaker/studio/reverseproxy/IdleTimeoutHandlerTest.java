@@ -0,0 +1,90 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics.ReapCause;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.Test;
+
+public class IdleTimeoutHandlerTest {
+
+    private static final int PING_OPCODE = 0x89;
+
+    private final ProxyMetrics proxyMetrics = new ProxyMetrics(ImmediateEventExecutor.INSTANCE,
+            new ResponseCache(ResponseCacheConfig.builder().enabled(false).build()),
+            new MemoryBudget(MemoryBudgetConfig.builder().enabled(false).build()));
+
+    @Test
+    public void closesConnectionsThatReadNothing() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new IdleTimeoutHandler(50, 0, 0, proxyMetrics));
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[] { 1 }));
+        ((ByteBuf) channel.readInbound()).release();
+        assertTrue(channel.isOpen());
+
+        waitAndRunTimers(channel);
+        assertFalse(channel.isOpen());
+        assertEquals(1, proxyMetrics.getReapedConnections(ReapCause.READER_IDLE));
+        assertEquals(0, proxyMetrics.getReapedConnections(ReapCause.ALL_IDLE));
+    }
+
+    @Test
+    public void noTimeoutsNoHandler() {
+        assertNull(IdleTimeoutHandler.forHttp(ReverseProxyConfig.builder().build(), proxyMetrics));
+        assertNull(IdleTimeoutHandler.forWebSocket(ReverseProxyConfig.builder().allIdleTimeoutMillis(1000).build(),
+                proxyMetrics));
+    }
+
+    @Test
+    public void pingsSilentPeersAndClosesDeadOnes() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new WebSocket13FrameEncoder(false),
+                new WebSocketKeepAliveHandler(50, proxyMetrics));
+
+        waitAndRunTimers(channel);
+        assertPing(channel.readOutbound());
+        // The pong to the proxy's ping is not relayed, other pongs are
+        channel.writeInbound(new PongWebSocketFrame(Unpooled.copiedBuffer("reverseproxy", CharsetUtil.US_ASCII)));
+        assertNull(channel.readInbound());
+        channel.writeInbound(new PongWebSocketFrame(Unpooled.copiedBuffer("browser", CharsetUtil.US_ASCII)));
+        ((PongWebSocketFrame) channel.readInbound()).release();
+
+        waitAndRunTimers(channel);
+        assertPing(channel.readOutbound());
+        assertTrue(channel.isOpen());
+        waitAndRunTimers(channel);
+        assertFalse(channel.isOpen());
+        assertEquals(1, proxyMetrics.getReapedConnections(ReapCause.PING_TIMEOUT));
+    }
+
+    @Test
+    public void waitsForTheHandshakeBeforePinging() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new WebSocketKeepAliveHandler(50, proxyMetrics));
+
+        waitAndRunTimers(channel);
+        waitAndRunTimers(channel);
+        assertNull(channel.readOutbound());
+        assertTrue(channel.isOpen());
+        channel.finishAndReleaseAll();
+    }
+
+    private static void waitAndRunTimers(final EmbeddedChannel channel) throws InterruptedException {
+        Thread.sleep(80);
+        channel.runScheduledPendingTasks();
+    }
+
+    private static void assertPing(final ByteBuf frame) {
+        assertEquals(PING_OPCODE, frame.getUnsignedByte(0));
+        frame.release();
+    }
+}
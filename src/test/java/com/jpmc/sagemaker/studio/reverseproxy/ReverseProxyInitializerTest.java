@@ -0,0 +1,193 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPool;
+import com.jpmc.sagemaker.studio.backend.BackendConnectionPoolConfig;
+import com.jpmc.sagemaker.studio.backend.CircuitBreaker;
+import com.jpmc.sagemaker.studio.backend.CircuitBreakerConfig;
+import com.jpmc.sagemaker.studio.cache.ResponseCache;
+import com.jpmc.sagemaker.studio.cache.ResponseCacheConfig;
+import com.jpmc.sagemaker.studio.metrics.ProxyMetrics;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimitConfig;
+import com.jpmc.sagemaker.studio.ratelimit.RateLimiter;
+import com.jpmc.sagemaker.studio.routing.RouteTable;
+import com.jpmc.sagemaker.studio.routing.Router;
+import com.jpmc.sagemaker.studio.tls.FrontendTls;
+import com.jpmc.sagemaker.studio.tls.FrontendTlsConfig;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2SettingsFrame;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Speaks HTTP/2 with prior knowledge, or after ALPN picked it, to the pipeline
+ * of a Browser connection, from a client channel whose bytes are passed back
+ * and forth by the test.
+ */
+public class ReverseProxyInitializerTest {
+
+    private final ResponseCache responseCache = new ResponseCache(ResponseCacheConfig.fromSystemProperties());
+    private final MemoryBudget memoryBudget = new MemoryBudget(MemoryBudgetConfig.fromSystemProperties());
+    private final ProxyMetrics proxyMetrics = new ProxyMetrics(ImmediateEventExecutor.INSTANCE, responseCache,
+            memoryBudget);
+    private final ReverseProxyConfig reverseProxyConfig = ReverseProxyConfig.fromSystemProperties().toBuilder()
+            .http2Enabled(true).build();
+    private final EmbeddedChannel proxy = newProxy(new FrontendTls(FrontendTlsConfig.builder().build(), false));
+    private final List<Object> settingsFrames = new ArrayList<>();
+    private final List<Http2Headers> responseHeaders = new ArrayList<>();
+    private final EmbeddedChannel browser = new EmbeddedChannel(
+            Http2FrameCodecBuilder.forClient().validateHeaders(false).build(),
+            new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()), new ChannelInboundHandlerAdapter() {
+                // Frames of the connection itself
+                @Override
+                public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) {
+                    if (message instanceof Http2SettingsFrame) {
+                        settingsFrames.add(message);
+                    }
+                    ReferenceCountUtil.release(message);
+                }
+            });
+
+    @Test
+    public void switchesToHttp2WhenAlpnPicksH2() throws Exception {
+        final SelfSignedCertificate certificate = new SelfSignedCertificate();
+        final FrontendTls frontendTls = new FrontendTls(FrontendTlsConfig.builder().enabled(true)
+                .certificateChainFile(certificate.certificate().getPath())
+                .privateKeyFile(certificate.privateKey().getPath()).build(), true);
+        frontendTls.load();
+        final EmbeddedChannel tlsProxy = newProxy(frontendTls);
+        final SslHandler sslHandler = SslContextBuilder.forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .applicationProtocolConfig(new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+                        ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                        ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                        ApplicationProtocolNames.HTTP_2))
+                .build().newHandler(ByteBufAllocator.DEFAULT);
+        final EmbeddedChannel tlsBrowser = new EmbeddedChannel(sslHandler);
+        try {
+            exchangeBytes(tlsBrowser, tlsProxy);
+
+            assertEquals(ApplicationProtocolNames.HTTP_2, sslHandler.applicationProtocol());
+            assertNotNull(tlsProxy.pipeline().get(Http2FrameCodec.class));
+            assertNull(tlsProxy.pipeline().get(HttpServerCodec.class));
+            assertNull(tlsProxy.pipeline().get(HttpRequestConnectionHandler.class));
+        } finally {
+            tlsBrowser.finishAndReleaseAll();
+            tlsProxy.finishAndReleaseAll();
+        }
+    }
+
+    @After
+    public void close() {
+        browser.finishAndReleaseAll();
+        proxy.finishAndReleaseAll();
+    }
+
+    @Test
+    public void switchesToHttp2OnThePreface() {
+        exchangeBytes();
+
+        assertNotNull(proxy.pipeline().get(Http2FrameCodec.class));
+        assertNull(proxy.pipeline().get(HttpRequestDecoder.class));
+        assertNull(proxy.pipeline().get(HttpRequestConnectionHandler.class));
+        assertEquals(1, proxyMetrics.getActiveHttpConnections());
+        assertEquals(1, settingsFrames.size());
+        final Http2SettingsFrame settings = (Http2SettingsFrame) settingsFrames.get(0);
+        assertEquals(Long.valueOf(1), settings.settings().get((char) 0x8));
+        assertEquals(reverseProxyConfig.getHttp2MaxConcurrentStreams(),
+                settings.settings().maxConcurrentStreams().intValue());
+    }
+
+    @Test
+    public void answersWebSocketConnectsWithoutRouteOnTheirStream() throws Exception {
+        exchangeBytes();
+        final Http2StreamChannel stream = new Http2StreamChannelBootstrap(browser)
+                .handler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(final ChannelHandlerContext channelHandlerContext, final Object message) {
+                        if (message instanceof Http2HeadersFrame) {
+                            responseHeaders.add(((Http2HeadersFrame) message).headers());
+                        }
+                        ReferenceCountUtil.release(message);
+                    }
+                }).open().sync().getNow();
+
+        final Http2Headers connect = new DefaultHttp2Headers().method("CONNECT").scheme("http")
+                .path("/jupyter/default/api/kernels/1/channels").authority("localhost");
+        connect.set(":protocol", "websocket");
+        connect.set("sec-websocket-version", "13");
+        stream.writeAndFlush(new DefaultHttp2HeadersFrame(connect));
+        exchangeBytes();
+
+        assertEquals(1, responseHeaders.size());
+        assertEquals("404", responseHeaders.get(0).status().toString());
+        assertTrue(proxy.isActive());
+    }
+
+    // No routes, so streams are answered by the proxy itself
+    private EmbeddedChannel newProxy(final FrontendTls frontendTls) {
+        return new EmbeddedChannel(new ReverseProxyInitializer(reverseProxyConfig,
+                new BackendConnectionPool(BackendConnectionPoolConfig.fromSystemProperties(), null,
+                        new BackendHttpChannelInitializer(reverseProxyConfig, responseCache, proxyMetrics,
+                                memoryBudget)),
+                null, new Router(RouteTable.builder().build()), responseCache, proxyMetrics, memoryBudget,
+                new RateLimiter(RateLimitConfig.fromSystemProperties()),
+                new CircuitBreaker(CircuitBreakerConfig.fromSystemProperties(), null, null, proxyMetrics),
+                frontendTls));
+    }
+
+    private void exchangeBytes() {
+        exchangeBytes(browser, proxy);
+    }
+
+    private static void exchangeBytes(final EmbeddedChannel browser, final EmbeddedChannel proxy) {
+        boolean moved;
+        do {
+            moved = false;
+            ByteBuf bytes;
+            browser.runPendingTasks();
+            // The client only flushes its preface along with the first frame otherwise
+            browser.flush();
+            while ((bytes = browser.readOutbound()) != null) {
+                // A flush of an SslHandler with nothing to write still writes an empty buffer
+                moved |= bytes.isReadable();
+                proxy.writeInbound(bytes);
+            }
+            proxy.runPendingTasks();
+            while ((bytes = proxy.readOutbound()) != null) {
+                moved |= bytes.isReadable();
+                browser.writeInbound(bytes);
+            }
+        } while (moved);
+    }
+}
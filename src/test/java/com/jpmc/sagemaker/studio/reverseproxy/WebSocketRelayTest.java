@@ -0,0 +1,484 @@
+package com.jpmc.sagemaker.studio.reverseproxy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.jpmc.sagemaker.studio.metrics.RequestTiming;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameEncoder;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionDecoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionEncoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionUtil;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateClientExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Relays frames between the two halves of a proxied WebSocket, the Browser
+ * channel and the Backend channel, whose bytes are passed back and forth by
+ * the test. Flushes to either channel can be held back to keep it unwritable.
+ */
+public class WebSocketRelayTest {
+
+    private static final String URL = "ws://studio.local:8888/api/kernels/1/channels";
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final Pattern KEY = Pattern.compile("(?i)sec-websocket-key: *(\\S+)");
+    private static final ByteBuf END_OF_HEAD = Unpooled.copiedBuffer("\r\n\r\n", CharsetUtil.US_ASCII);
+
+    private final HeldFlushes frontendFlushes = new HeldFlushes();
+    private final HeldFlushes backendFlushes = new HeldFlushes();
+    // Released once the test is done
+    private final List<Object> received = new ArrayList<>();
+    private EmbeddedChannel frontend;
+    private EmbeddedChannel backend;
+    private String upgradeRequest;
+    // What the Browser got behind the handshake response
+    private ByteBuf afterHandshake;
+
+    @After
+    public void tearDown() {
+        if (frontend != null) {
+            frontend.finishAndReleaseAll();
+        }
+        if (backend != null) {
+            backend.finishAndReleaseAll();
+        }
+        received.forEach(ReferenceCountUtil::release);
+    }
+
+    @Test
+    public void holdsFramesUntilTheBackendHandshakeCompletes() throws Exception {
+        connect(smallWaterMarks().webSocketMaxPendingFrameBytes(1024).build(), null);
+
+        frontend.writeInbound(new TextWebSocketFrame(repeat('a', 600)));
+        assertTrue(frontend.config().isAutoRead());
+        frontend.writeInbound(new TextWebSocketFrame(repeat('b', 600)));
+        assertFalse("Reading goes on past the pending frame limit", frontend.config().isAutoRead());
+
+        backendAccepts(null, null);
+
+        final List<WebSocketFrame> frames = decode(true, received(backend));
+        assertEquals(2, frames.size());
+        assertEquals(repeat('a', 600), text(frames.get(0)));
+        assertEquals(repeat('b', 600), text(frames.get(1)));
+        assertTrue(frontend.config().isAutoRead());
+    }
+
+    @Test
+    public void pausesTheBrowserWhileTheBackendIsUnwritable() throws Exception {
+        connect(smallWaterMarks().build(), null);
+        backendAccepts(null, null);
+
+        backendFlushes.held = true;
+        frontend.writeInbound(encode(true, new TextWebSocketFrame(repeat('a', 64))));
+        assertFalse(frontend.config().isAutoRead());
+        assertNull(backend.readOutbound());
+
+        backendFlushes.held = false;
+        backend.flush();
+        assertTrue(frontend.config().isAutoRead());
+        final List<WebSocketFrame> frames = decode(true, received(backend));
+        assertEquals(1, frames.size());
+        assertEquals(repeat('a', 64), text(frames.get(0)));
+    }
+
+    @Test
+    public void keepsReadingTheBrowserWhenTheFlushDrainsTheBackend() throws Exception {
+        connect(smallWaterMarks().build(), null);
+        backendAccepts(null, null);
+
+        // Unwritable until flushed, and flushed right away
+        frontend.writeInbound(encode(true, new TextWebSocketFrame(repeat('a', 64))));
+
+        assertTrue("Reading stays paused after the flush resumed it", frontend.config().isAutoRead());
+        assertEquals(repeat('a', 64), text(decode(true, received(backend)).get(0)));
+    }
+
+    @Test
+    public void pausesTheBackendWhileTheBrowserIsUnwritable() throws Exception {
+        connect(smallWaterMarks().build(), null);
+        backendAccepts(null, null);
+
+        frontendFlushes.held = true;
+        backend.writeInbound(encode(false, new TextWebSocketFrame(repeat('a', 64))));
+        assertFalse(backend.config().isAutoRead());
+        assertNull(frontend.readOutbound());
+
+        frontendFlushes.held = false;
+        frontend.flush();
+        assertTrue(backend.config().isAutoRead());
+        final List<WebSocketFrame> frames = decode(false, received(frontend));
+        assertEquals(1, frames.size());
+        assertEquals(repeat('a', 64), text(frames.get(0)));
+    }
+
+    @Test
+    public void keepsReadingTheBackendWhenTheFlushDrainsTheBrowser() throws Exception {
+        connect(smallWaterMarks().build(), null);
+        backendAccepts(null, null);
+
+        backend.writeInbound(encode(false, new TextWebSocketFrame(repeat('a', 64))));
+
+        assertTrue("Reading stays paused after the flush resumed it", backend.config().isAutoRead());
+        assertEquals(repeat('a', 64), text(decode(false, received(frontend)).get(0)));
+    }
+
+    @Test
+    public void tunnelsTheBytesThatFollowTheHandshakeResponse() throws Exception {
+        connect(ReverseProxyConfig.fromSystemProperties().toBuilder().webSocketTunnelEnabled(true).build(), null);
+        final ByteBuf frames = Unpooled.wrappedBuffer(encode(false, new TextWebSocketFrame("first")),
+                encode(false, new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[] { 1, 2, 3 }))));
+        final byte[] sent = ByteBufUtil.getBytes(frames);
+
+        // The handshake response is still on its way to the Browser when the frames are read
+        frontendFlushes.held = true;
+        backendAnswers(null, frames);
+        assertNull(frontend.readOutbound());
+        frontendFlushes.held = false;
+        frontend.flush();
+        backend.runPendingTasks();
+        final String head = browserHandshake();
+
+        assertTrue(head, head.startsWith("HTTP/1.1 101 "));
+        assertArrayEquals(sent, ByteBufUtil.getBytes(afterHandshake));
+        assertNull(frontend.pipeline().get(WebSocketFrameDecoder.class));
+        assertNull(frontend.pipeline().get(WebSocketFrameEncoder.class));
+        assertNull(backend.pipeline().get(WebSocketFrameDecoder.class));
+        assertNull(backend.pipeline().get(WebSocketFrameEncoder.class));
+        assertTrue(frontend.config().isAutoRead());
+
+        final ByteBuf reply = encode(true, new TextWebSocketFrame("reply"));
+        final byte[] replied = ByteBufUtil.getBytes(reply);
+        frontend.writeInbound(reply);
+        assertArrayEquals(replied, ByteBufUtil.getBytes(received(backend)));
+    }
+
+    @Test
+    public void passesTheExtensionsTheBackendAcceptedThrough() throws Exception {
+        final String offer = "permessage-deflate; client_max_window_bits";
+        connect(ReverseProxyConfig.fromSystemProperties(), offer);
+
+        final String head = backendAccepts("permessage-deflate", null);
+
+        assertTrue(upgradeRequest, upgradeRequest.contains("sec-websocket-extensions: " + offer));
+        assertEquals("permessage-deflate", header(head, "sec-websocket-extensions"));
+        assertNull(frontend.pipeline().get(WebSocketExtensionEncoder.class));
+        assertNull(frontend.pipeline().get(WebSocketExtensionDecoder.class));
+
+        // Frames compressed by either end reach the other with RSV1 and the payload untouched
+        final WebSocketServerExtension backendDeflate = new PerMessageDeflateServerExtensionHandshaker()
+                .handshakeExtension(WebSocketExtensionUtil.extractExtensions("permessage-deflate").get(0));
+        final ByteBuf toBrowser = encode(false, new TextWebSocketFrame(repeat('a', 256)),
+                backendDeflate.newExtensionEncoder());
+        final WebSocketFrame deflatedByBackend = decode(false, toBrowser).get(0);
+        backend.writeInbound(toBrowser);
+        final WebSocketFrame relayedToBrowser = decode(false, received(frontend)).get(0);
+        assertEquals(WebSocketExtension.RSV1, relayedToBrowser.rsv());
+        assertEquals(deflatedByBackend.content(), relayedToBrowser.content());
+
+        final ByteBuf toBackend = encode(true, new TextWebSocketFrame(repeat('b', 256)),
+                browserDeflate("permessage-deflate").newExtensionEncoder());
+        final WebSocketFrame deflatedByBrowser = decode(true, toBackend).get(0);
+        frontend.writeInbound(toBackend);
+        final WebSocketFrame relayedToBackend = decode(true, received(backend)).get(0);
+        assertEquals(WebSocketExtension.RSV1, relayedToBackend.rsv());
+        assertEquals(deflatedByBrowser.content(), relayedToBackend.content());
+    }
+
+    @Test
+    public void compressesTheBrowserLegWhenTheBackendDeclines() throws Exception {
+        connect(ReverseProxyConfig.fromSystemProperties(), "permessage-deflate");
+
+        final String accepted = header(backendAccepts(null, null), "sec-websocket-extensions");
+
+        assertNotNull(accepted);
+        assertNotNull(frontend.pipeline().get(WebSocketExtensionEncoder.class));
+        assertNotNull(frontend.pipeline().get(WebSocketExtensionDecoder.class));
+        assertBrowserLegCompressed(accepted);
+    }
+
+    @Test
+    public void keepsTheFrameCodecsInTunnelModeWhileCompressing() throws Exception {
+        connect(ReverseProxyConfig.fromSystemProperties().toBuilder().webSocketTunnelEnabled(true).build(),
+                "permessage-deflate");
+
+        final String accepted = header(backendAccepts(null, null), "sec-websocket-extensions");
+
+        assertNotNull(accepted);
+        assertNotNull(frontend.pipeline().get(WebSocketFrameDecoder.class));
+        assertNotNull(frontend.pipeline().get(WebSocketFrameEncoder.class));
+        assertNotNull(backend.pipeline().get(WebSocketFrameDecoder.class));
+        assertNotNull(backend.pipeline().get(WebSocketFrameEncoder.class));
+        assertBrowserLegCompressed(accepted);
+    }
+
+    @Test
+    public void leavesTheBrowserLegUncompressedWhenCompressionIsDisabled() throws Exception {
+        connect(ReverseProxyConfig.fromSystemProperties().toBuilder().webSocketCompressionEnabled(false).build(),
+                "permessage-deflate");
+
+        final String head = backendAccepts(null, null);
+
+        assertNull(head, header(head, "sec-websocket-extensions"));
+        assertNull(frontend.pipeline().get(WebSocketExtensionEncoder.class));
+        backend.writeInbound(encode(false, new TextWebSocketFrame(repeat('a', 256))));
+        final WebSocketFrame relayed = decode(false, received(frontend)).get(0);
+        assertEquals(0, relayed.rsv());
+        assertEquals(repeat('a', 256), text(relayed));
+    }
+
+    /**
+     * Checks that frames are deflated between the Browser and the proxy only,
+     * with the extension the Browser was told about.
+     */
+    private void assertBrowserLegCompressed(final String accepted) {
+        final WebSocketClientExtension browserDeflate = browserDeflate(accepted);
+        assertNotNull(accepted, browserDeflate);
+
+        backend.writeInbound(encode(false, new TextWebSocketFrame(repeat('a', 256))));
+        final ByteBuf toBrowser = received(frontend);
+        final WebSocketFrame deflated = decode(false, toBrowser).get(0);
+        assertEquals(WebSocketExtension.RSV1, deflated.rsv());
+        assertTrue(deflated.content().readableBytes() < 256);
+        assertEquals(repeat('a', 256), text(decode(false, toBrowser, browserDeflate.newExtensionDecoder()).get(0)));
+
+        frontend.writeInbound(encode(true, new TextWebSocketFrame(repeat('b', 256)),
+                browserDeflate.newExtensionEncoder()));
+        final WebSocketFrame inflated = decode(true, received(backend)).get(0);
+        assertEquals(0, inflated.rsv());
+        assertEquals(repeat('b', 256), text(inflated));
+    }
+
+    /**
+     * @return the compression of a Browser that was told it may use the
+     *         extension, or null if the Browser would not accept it.
+     */
+    private static WebSocketClientExtension browserDeflate(final String accepted) {
+        return new PerMessageDeflateClientExtensionHandshaker()
+                .handshakeExtension(WebSocketExtensionUtil.extractExtensions(accepted).get(0));
+    }
+
+    private static String header(final String head, final String name) {
+        for (String line : head.split("\r\n")) {
+            final int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Water marks every frame of the tests goes over.
+     */
+    private static ReverseProxyConfig.ReverseProxyConfigBuilder smallWaterMarks() {
+        return ReverseProxyConfig.fromSystemProperties().toBuilder().webSocketWriteBufferLowWaterMarkBytes(8)
+                .webSocketWriteBufferHighWaterMarkBytes(16);
+    }
+
+    /**
+     * Sets up both halves of the proxy the way a Browser upgrade request does,
+     * up to the handshake request sent to the Backend Server.
+     *
+     * @param browserOffer the extensions the Browser asks for, or null.
+     */
+    private void connect(final ReverseProxyConfig reverseProxyConfig, final String browserOffer) throws Exception {
+        final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                "/api/kernels/1/channels");
+        request.headers().set(HttpHeaderNames.HOST, "studio.local")
+                .set(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET)
+                .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE)
+                .set(HttpHeaderNames.SEC_WEBSOCKET_KEY, "dGhlIHNhbXBsZSBub25jZQ==")
+                .set(HttpHeaderNames.SEC_WEBSOCKET_VERSION, WebSocketVersion.V13.toHttpHeaderValue());
+        if (browserOffer != null) {
+            request.headers().set(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS, browserOffer);
+        }
+
+        frontend = new EmbeddedChannel(frontendFlushes, new HttpServerCodec());
+        // Registered once it has the water marks the Backend channel is connected with
+        backend = new EmbeddedChannel(DefaultChannelId.newInstance(), false, false, backendFlushes, new HttpClientCodec(),
+                new HttpObjectAggregator(ReverseProxyInitializer.HTTP_MAX_CONTENT_LENGTH_BYTES),
+                new WebSocketResponseConnectionHandler(frontend,
+                        WebSocketClientHandshakerFactory.newHandshaker(URI.create(URL), WebSocketVersion.V13, null,
+                                true, request.headers(), ReverseProxyInitializer.HTTP_MAX_CONTENT_LENGTH_BYTES),
+                        request, URL, reverseProxyConfig, RequestTiming.NONE));
+        backend.config().setWriteBufferWaterMark(reverseProxyConfig.getWebSocketWriteBufferWaterMark());
+        backend.register();
+
+        final WebSocketRequestConnectionHandler requestHandler = new WebSocketRequestConnectionHandler(request, URL,
+                null, reverseProxyConfig, null, null, null, null, RequestTiming.NONE);
+        requestHandler.setBackendWSChannel(backend);
+        frontend.pipeline().addLast(requestHandler);
+    }
+
+    /**
+     * Answers the handshake request the proxy sent to the Backend Server.
+     *
+     * @return the head of the handshake response the Browser got.
+     * @see #backendAnswers(String, ByteBuf)
+     */
+    private String backendAccepts(final String extensions, final ByteBuf following) throws Exception {
+        backendAnswers(extensions, following);
+        return browserHandshake();
+    }
+
+    /**
+     * Answers the handshake request the proxy sent to the Backend Server.
+     *
+     * @param extensions the Backend Server accepts, or null.
+     * @param following  bytes the Backend Server sends in the same read as the
+     *                   handshake response, or null.
+     */
+    private void backendAnswers(final String extensions, final ByteBuf following) throws Exception {
+        upgradeRequest = received(backend).toString(CharsetUtil.US_ASCII);
+        final Matcher key = KEY.matcher(upgradeRequest);
+        assertTrue(upgradeRequest, key.find());
+
+        final StringBuilder response = new StringBuilder("HTTP/1.1 101 Switching Protocols\r\n")
+                .append("upgrade: websocket\r\nconnection: upgrade\r\nsec-websocket-accept: ")
+                .append(accept(key.group(1))).append("\r\n");
+        if (extensions != null) {
+            response.append("sec-websocket-extensions: ").append(extensions).append("\r\n");
+        }
+        final ByteBuf head = Unpooled.copiedBuffer(response.append("\r\n"), CharsetUtil.US_ASCII);
+        backend.writeInbound(following == null ? head : Unpooled.wrappedBuffer(head, following));
+    }
+
+    /**
+     * @return the head of the handshake response the Browser got.
+     */
+    private String browserHandshake() {
+        afterHandshake = received(frontend);
+        final int endOfHead = ByteBufUtil.indexOf(END_OF_HEAD, afterHandshake);
+        assertTrue("No handshake response", endOfHead >= 0);
+        return afterHandshake.readCharSequence(endOfHead + END_OF_HEAD.readableBytes(), CharsetUtil.US_ASCII)
+                .toString();
+    }
+
+    /**
+     * @return the bytes the proxy wrote to the channel since the last call.
+     */
+    private ByteBuf received(final EmbeddedChannel channel) {
+        final ByteBuf bytes = Unpooled.buffer();
+        received.add(bytes);
+        for (ByteBuf written = channel.readOutbound(); written != null; written = channel.readOutbound()) {
+            bytes.writeBytes(written);
+            written.release();
+        }
+        return bytes;
+    }
+
+    /**
+     * @param masked     as frames from the Browser are.
+     * @param extensions encoders of the extensions the sender agreed on.
+     */
+    private static ByteBuf encode(final boolean masked, final WebSocketFrame frame,
+            final ChannelHandler... extensions) {
+        final EmbeddedChannel encoder = new EmbeddedChannel(new WebSocket13FrameEncoder(masked));
+        encoder.pipeline().addLast(extensions);
+        encoder.writeOutbound(frame);
+        final ByteBuf bytes = Unpooled.buffer();
+        for (ByteBuf written = encoder.readOutbound(); written != null; written = encoder.readOutbound()) {
+            bytes.writeBytes(written);
+            written.release();
+        }
+        encoder.finishAndReleaseAll();
+        return bytes;
+    }
+
+    /**
+     * Decodes the frames in the bytes, leaving the bytes as they are.
+     *
+     * @param masked     as frames from the Browser are.
+     * @param extensions decoders of the extensions the receiver agreed on.
+     */
+    private List<WebSocketFrame> decode(final boolean masked, final ByteBuf bytes,
+            final ChannelHandler... extensions) {
+        final EmbeddedChannel decoder = new EmbeddedChannel(
+                new WebSocket13FrameDecoder(masked, true, ReverseProxyInitializer.HTTP_MAX_CONTENT_LENGTH_BYTES));
+        decoder.pipeline().addLast(extensions);
+        decoder.writeInbound(bytes.retainedDuplicate());
+        final List<WebSocketFrame> frames = new ArrayList<>();
+        for (WebSocketFrame frame = decoder.readInbound(); frame != null; frame = decoder.readInbound()) {
+            frames.add(frame);
+            received.add(frame);
+        }
+        decoder.finishAndReleaseAll();
+        return frames;
+    }
+
+    private static String text(final WebSocketFrame frame) {
+        return frame.content().toString(CharsetUtil.UTF_8);
+    }
+
+    private static String repeat(final char character, final int count) {
+        final StringBuilder text = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            text.append(character);
+        }
+        return text.toString();
+    }
+
+    private static String accept(final String key) throws Exception {
+        return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1")
+                .digest((key + ACCEPT_GUID).getBytes(CharsetUtil.US_ASCII)));
+    }
+
+    /**
+     * Holds back flushes while asked to, leaving what was written in the
+     * outbound buffer of the channel.
+     */
+    private static final class HeldFlushes extends ChannelOutboundHandlerAdapter {
+
+        private boolean held;
+
+        @Override
+        public void flush(final ChannelHandlerContext channelHandlerContext) {
+            if (!held) {
+                channelHandlerContext.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+public class BackendGroupTest {
+
+    private final Route first = route("replica-1.studio.local");
+    private final Route second = route("replica-2.studio.local");
+    private final Route third = route("replica-3.studio.local");
+
+    @Test
+    public void roundRobinTakesTurns() {
+        final BackendGroup group = new BackendGroup(Arrays.asList(first, second, third),
+                LoadBalancer.forName(LoadBalancer.ROUND_ROBIN));
+
+        assertEquals(first, group.select(request("/lab")));
+        assertEquals(second, group.select(request("/lab")));
+        assertEquals(third, group.select(request("/lab")));
+        assertEquals(first, group.select(request("/lab")));
+    }
+
+    @Test
+    public void leastRequestsAvoidsBusyMembers() {
+        final BackendGroup group = new BackendGroup(Arrays.asList(first, second),
+                LoadBalancer.forName(LoadBalancer.LEAST_REQUESTS));
+        first.getLoad().requestStarted();
+        first.getLoad().requestStarted();
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(second, group.select(request("/lab")));
+        }
+        first.getLoad().requestFinished();
+        first.getLoad().requestFinished();
+        second.getLoad().requestStarted();
+        assertEquals(first, group.select(request("/lab")));
+    }
+
+    @Test
+    public void peakEwmaPrefersFastMembers() {
+        final BackendGroup group = new BackendGroup(Arrays.asList(first, second),
+                LoadBalancer.forName(LoadBalancer.PEAK_EWMA));
+        first.getLoad().latencyObserved(TimeUnit.MILLISECONDS.toNanos(500));
+        second.getLoad().latencyObserved(TimeUnit.MILLISECONDS.toNanos(5));
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(second, group.select(request("/lab")));
+        }
+        // Enough requests in flight outweigh the latency
+        for (int i = 0; i < 200; i++) {
+            second.getLoad().requestStarted();
+        }
+        assertEquals(first, group.select(request("/lab")));
+    }
+
+    @Test
+    public void kernelsAndSessionsStickToOneMember() {
+        final BackendGroup group = new BackendGroup(Arrays.asList(first, second, third),
+                LoadBalancer.forName(LoadBalancer.ROUND_ROBIN));
+
+        final Set<Route> selected = new HashSet<>();
+        for (int kernel = 0; kernel < 30; kernel++) {
+            final Route route = group.select(request("/jupyter/default/api/kernels/k-" + kernel + "/channels"));
+            assertEquals(route, group.select(request("/jupyter/default/api/kernels/k-" + kernel)));
+            assertEquals(route, group.select(request("/api/kernels/k-" + kernel + "/interrupt?session_id=1")));
+            selected.add(route);
+        }
+        assertEquals(3, selected.size());
+        assertEquals(group.select(request("/api/sessions/s-1")), group.select(request("/api/sessions/s-1?x=1")));
+    }
+
+    @Test
+    public void kernelsAreReachedOnTheReplicaThatCreatedThem() {
+        final BackendGroup group = new BackendGroup(Arrays.asList(first, second, third),
+                LoadBalancer.forName(LoadBalancer.ROUND_ROBIN));
+
+        final Set<Route> selected = new HashSet<>();
+        for (int browser = 0; browser < 30; browser++) {
+            final String cookie = "username-studio=u; _xsrf=2|browser-" + browser;
+            final Route created = group.select(request(HttpMethod.POST, "/jupyter/default/api/sessions", cookie));
+            assertEquals(created, group.select(request(HttpMethod.POST, "/api/kernels", cookie)));
+            // Ids are picked by the replica once the kernel and its session exist
+            final String kernelId = UUID.randomUUID().toString();
+            final String sessionId = UUID.randomUUID().toString();
+            assertEquals(created, group.select(request(HttpMethod.GET,
+                    "/jupyter/default/api/kernels/" + kernelId + "/channels?session_id=" + sessionId, cookie)));
+            assertEquals(created,
+                    group.select(request(HttpMethod.PATCH, "/jupyter/default/api/sessions/" + sessionId, cookie)));
+            selected.add(created);
+        }
+        assertEquals(3, selected.size());
+    }
+
+    @Test
+    public void clientsWithoutTheCookieStickByTheirAuthorization() {
+        final BackendGroup group = new BackendGroup(Arrays.asList(first, second, third),
+                LoadBalancer.forName(LoadBalancer.ROUND_ROBIN));
+
+        final HttpRequest create = request(HttpMethod.POST, "/api/kernels", null);
+        create.headers().set(HttpHeaderNames.AUTHORIZATION, "token abc");
+        final HttpRequest channels = request(HttpMethod.GET, "/api/kernels/" + UUID.randomUUID() + "/channels", null);
+        channels.headers().set(HttpHeaderNames.AUTHORIZATION, "token abc");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(group.select(create), group.select(channels));
+        }
+    }
+
+    @Test
+    public void kernelSpecsAreBalanced() {
+        final BackendGroup group = new BackendGroup(Arrays.asList(first, second),
+                LoadBalancer.forName(LoadBalancer.ROUND_ROBIN));
+
+        final String cookie = "_xsrf=2|browser";
+        assertNotEquals(group.select(request(HttpMethod.GET, "/api/kernelspecs", cookie)),
+                group.select(request(HttpMethod.GET, "/api/kernelspecs", cookie)));
+    }
+
+    @Test
+    public void removingAMemberOnlyMovesItsKernels() {
+        final BackendGroup group = new BackendGroup(Arrays.asList(first, second, third),
+                LoadBalancer.forName(LoadBalancer.LEAST_REQUESTS));
+        final BackendGroup shrunk = new BackendGroup(Arrays.asList(first, second),
+                LoadBalancer.forName(LoadBalancer.LEAST_REQUESTS));
+
+        for (int kernel = 0; kernel < 100; kernel++) {
+            final HttpRequest request = request("/api/kernels/k-" + kernel + "/channels");
+            final Route before = group.select(request);
+            if (!before.equals(third)) {
+                assertEquals(before, shrunk.select(request));
+            } else {
+                assertNotEquals(third, shrunk.select(request));
+            }
+        }
+    }
+
+    @Test
+    public void membersWithAnOpenCircuitAreEjected() {
+        final BackendGroup group = new BackendGroup(Arrays.asList(first, second, third),
+                LoadBalancer.forName(LoadBalancer.ROUND_ROBIN));
+        first.getHealth().open(System.nanoTime(), TimeUnit.SECONDS.toNanos(5));
+        third.getHealth().open(System.nanoTime(), TimeUnit.SECONDS.toNanos(5));
+
+        for (int i = 0; i < 6; i++) {
+            assertEquals(second, group.select(request("/lab")));
+        }
+        second.getHealth().open(System.nanoTime(), TimeUnit.SECONDS.toNanos(5));
+        // With every circuit open the balancer's pick stands, and is answered with a 503
+        assertFalse(group.select(request("/lab")).getHealth().isClosed());
+    }
+
+    @Test
+    public void parsesGroupsOfReplicas() throws IOException {
+        final RouteTable routeTable = RouteTableParser.parse(new BufferedReader(new StringReader(
+                "path /shared/ replica-1.studio.local:8888,replica-2.studio.local:8888 plaintext round-robin\n")),
+                null);
+
+        final Route route = routeTable.lookup(request("/shared/lab"));
+        assertEquals(8888, route.getPort());
+        assertFalse(route.isTls());
+        assertNotEquals(route, routeTable.lookup(request("/shared/lab")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownBalancers() throws IOException {
+        RouteTableParser.parse(new BufferedReader(new StringReader("default * a:1,b:1 tls random\n")), null);
+    }
+
+    @Test
+    public void loadIsNotPartOfTheRoute() {
+        final Route busy = route("replica-1.studio.local");
+        busy.getLoad().requestStarted();
+        assertEquals(first, busy);
+        assertEquals(first.hashCode(), busy.hashCode());
+    }
+
+    private static Route route(final String host) {
+        return Route.builder().host(host).port(443).tls(true).build();
+    }
+
+    private static HttpRequest request(final String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    private static HttpRequest request(final HttpMethod method, final String uri, final String cookie) {
+        final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, method, uri);
+        if (cookie != null) {
+            request.headers().set(HttpHeaderNames.COOKIE, cookie);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,110 @@
+package com.jpmc.sagemaker.studio.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+public class RouteTableTest {
+
+    private static final Route DEFAULT = route("default.studio.local");
+    private static final Route USER_1 = route("d-user-1.studio.local");
+    private static final Route USER_10 = route("d-user-10.studio.local");
+    private static final Route KERNELS = route("kernels.studio.local");
+    private static final Route COOKIE = route("cookie.studio.local");
+    private static final Route HEADER = route("header.studio.local");
+
+    private final RouteTable routeTable = RouteTable.builder()
+            .pathPrefix("/jupyter/user-1", USER_1)
+            .pathPrefix("/jupyter/user-10/", USER_10)
+            .pathPrefix("/jupyter/user-1/api/kernels", KERNELS)
+            .cookie("studio_user", "user-c", COOKIE)
+            .header("X-Studio-Domain", "d-h", HEADER)
+            .defaultRoute(DEFAULT)
+            .build();
+
+    @Test
+    public void pathPrefixMatchesLongestPrefixAtSegmentBoundary() {
+        assertEquals(USER_1, routeTable.lookup(request("/jupyter/user-1")));
+        assertEquals(USER_1, routeTable.lookup(request("/jupyter/user-1/lab?reset")));
+        assertEquals(USER_1, routeTable.lookup(request("/jupyter/user-1?token=abc")));
+        assertEquals(USER_10, routeTable.lookup(request("/jupyter/user-10/lab")));
+        assertEquals(KERNELS, routeTable.lookup(request("/jupyter/user-1/api/kernels/42/channels")));
+        assertEquals(USER_1, routeTable.lookup(request("/jupyter/user-1/api/kernelspecs")));
+        assertEquals(DEFAULT, routeTable.lookup(request("/jupyter/user-11/lab")));
+        assertEquals(DEFAULT, routeTable.lookup(request("/jupyter/user-10")));
+    }
+
+    @Test
+    public void headerWinsOverCookieWhichWinsOverPath() {
+        final HttpRequest request = request("/jupyter/user-1/lab");
+        request.headers().set("Cookie", "_xsrf=2|abc; studio_user=user-c");
+        assertEquals(COOKIE, routeTable.lookup(request));
+
+        request.headers().set("x-studio-domain", "d-h");
+        assertEquals(HEADER, routeTable.lookup(request));
+
+        request.headers().set("x-studio-domain", "d-unknown");
+        request.headers().set("Cookie", "studio_user=user-unknown");
+        assertEquals(USER_1, routeTable.lookup(request));
+    }
+
+    @Test
+    public void noDefaultRouteMeansNoRoute() {
+        assertNull(RouteTable.builder().pathPrefix("/a/", USER_1).build().lookup(request("/b/c")));
+    }
+
+    @Test
+    public void parsesRouteTableFile() throws IOException {
+        final RouteTable parsed = parse("# user domains\n"
+                + "path    /jupyter/user-1/   d-user-1.studio.local:443\n"
+                + "\n"
+                + "cookie  studio_user=user-c cookie.studio.local:8443 plaintext\n"
+                + "default *                  default.studio.local:443 tls\n");
+
+        assertEquals(2, parsed.size());
+        assertEquals(USER_1, parsed.lookup(request("/jupyter/user-1/lab")));
+        assertEquals(DEFAULT, parsed.lookup(request("/other")));
+
+        final HttpRequest request = request("/jupyter/user-1/lab");
+        request.headers().set("Cookie", "studio_user=user-c");
+        final Route cookieRoute = parsed.lookup(request);
+        assertEquals("cookie.studio.local", cookieRoute.getHost());
+        assertEquals(8443, cookieRoute.getPort());
+        assertFalse(cookieRoute.isTls());
+        assertTrue(USER_1.isTls());
+    }
+
+    @Test
+    public void rejectsInvalidRuleWithLineNumber() throws IOException {
+        try {
+            parse("path /a/ a.studio.local:443\npath /b/ b.studio.local\n");
+            fail("Expected the missing port to be rejected");
+        } catch (final IllegalArgumentException exception) {
+            assertTrue(exception.getMessage(), exception.getMessage().startsWith("Invalid route on line 2"));
+        }
+    }
+
+    private static RouteTable parse(final String routeTableFile) throws IOException {
+        return RouteTableParser.parse(new BufferedReader(new StringReader(routeTableFile)), null);
+    }
+
+    private static Route route(final String host) {
+        return Route.builder().host(host).port(443).tls(true).build();
+    }
+
+    private static HttpRequest request(final String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+}
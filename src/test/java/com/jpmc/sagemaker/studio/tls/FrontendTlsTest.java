@@ -0,0 +1,193 @@
+package com.jpmc.sagemaker.studio.tls;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assume.assumeTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslSessionContext;
+import io.netty.handler.ssl.ReferenceCountedOpenSslEngine;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handshakes with the Frontend SslContext from client channels whose bytes are
+ * passed back and forth by the test.
+ */
+public class FrontendTlsTest {
+
+    private static final String HOST = "localhost";
+    private static final int PORT = 8081;
+    private static final byte[] OCSP_RESPONSE = "stand-in OCSP response".getBytes(StandardCharsets.US_ASCII);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File certificateChainFile;
+    private File privateKeyFile;
+    private File ocspResponseFile;
+    private final List<EmbeddedChannel> channels = new ArrayList<>();
+    private FrontendTls frontendTls;
+
+    @Before
+    public void writeCertificate() throws Exception {
+        assumeTrue(OpenSsl.isAvailable());
+        certificateChainFile = folder.newFile("chain.pem");
+        privateKeyFile = folder.newFile("key.pem");
+        ocspResponseFile = folder.newFile("ocsp.der");
+        replaceCertificate(new SelfSignedCertificate(HOST));
+        Files.write(ocspResponseFile.toPath(), OCSP_RESPONSE);
+    }
+
+    @After
+    public void stop() {
+        for (EmbeddedChannel channel : channels) {
+            channel.finishAndReleaseAll();
+        }
+        if (frontendTls != null) {
+            frontendTls.stop();
+        }
+    }
+
+    @Test
+    public void negotiatesH2AndStaplesTheOcspResponse() throws Exception {
+        frontendTls = new FrontendTls(config().build(), true);
+        frontendTls.load();
+        final SslContext clientSslContext = SslContextBuilder.forClient().sslProvider(SslProvider.OPENSSL)
+                .trustManager(InsecureTrustManagerFactory.INSTANCE).enableOcsp(true)
+                .applicationProtocolConfig(new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+                        ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                        ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                        ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1))
+                .build();
+
+        final SslHandler client = handshake(clientSslContext);
+
+        assertEquals(SslProvider.OPENSSL, frontendTls.getProvider());
+        assertEquals(ApplicationProtocolNames.HTTP_2, client.applicationProtocol());
+        assertArrayEquals(OCSP_RESPONSE, ((ReferenceCountedOpenSslEngine) client.engine()).getOcspResponse());
+    }
+
+    @Test
+    public void reloadsAChangedCertificate() throws Exception {
+        frontendTls = new FrontendTls(config().reloadIntervalMillis(10).build(), false);
+        frontendTls.load();
+        final BigInteger before = peerSerialNumber(handshake(newJdkClientSslContext()));
+        final SslContext loaded = frontendTls.getSslContext();
+        frontendTls.start();
+
+        replaceCertificate(new SelfSignedCertificate(HOST));
+        final long deadline = System.currentTimeMillis() + 5_000;
+        while (frontendTls.getSslContext() == loaded && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertNotSame(loaded, frontendTls.getSslContext());
+        assertNotEquals(before, peerSerialNumber(handshake(newJdkClientSslContext())));
+    }
+
+    @Test
+    public void ticketsIssuedBeforeARotationStillResume() throws Exception {
+        frontendTls = new FrontendTls(config().build(), false);
+        frontendTls.load();
+        final OpenSslSessionContext sessionContext = (OpenSslSessionContext) frontendTls.getSslContext()
+                .sessionContext();
+        // Without the server side cache, only a ticket resumes the session
+        sessionContext.setSessionCacheEnabled(false);
+        final SslContext clientSslContext = newJdkClientSslContext();
+
+        handshake(clientSslContext);
+        frontendTls.rotateTicketKeys();
+        handshake(clientSslContext);
+        handshake(clientSslContext);
+
+        // Decrypted with the previous key, which renews the ticket under the current one
+        assertEquals(1, sessionContext.stats().ticketKeyRenew());
+        assertEquals(1, sessionContext.stats().ticketKeyResume());
+        assertEquals(0, sessionContext.stats().ticketKeyFail());
+    }
+
+    private FrontendTlsConfig.FrontendTlsConfigBuilder config() {
+        return FrontendTlsConfig.builder().enabled(true).openSslPreferred(true)
+                .certificateChainFile(certificateChainFile.getPath()).privateKeyFile(privateKeyFile.getPath())
+                .ocspResponseFile(ocspResponseFile.getPath()).sessionCacheSize(64).sessionTimeoutSeconds(60)
+                .ticketKeyRotationMillis(60_000);
+    }
+
+    private void replaceCertificate(final SelfSignedCertificate certificate) throws Exception {
+        Files.copy(certificate.certificate().toPath(), certificateChainFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(certificate.privateKey().toPath(), privateKeyFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        // A new certificate may have the same size, and the copy the same modification time
+        final FileTime modified = Files.getLastModifiedTime(certificateChainFile.toPath());
+        Files.setLastModifiedTime(certificateChainFile.toPath(), FileTime.fromMillis(modified.toMillis() + 1_000));
+    }
+
+    private static SslContext newJdkClientSslContext() throws Exception {
+        // Only resumes TLSv1.3 sessions from tickets, not TLSv1.2 ones
+        return SslContextBuilder.forClient().sslProvider(SslProvider.JDK).protocols("TLSv1.3")
+                .trustManager(InsecureTrustManagerFactory.INSTANCE).build();
+    }
+
+    private static BigInteger peerSerialNumber(final SslHandler client) throws Exception {
+        return ((X509Certificate) client.engine().getSession().getPeerCertificates()[0]).getSerialNumber();
+    }
+
+    private SslHandler handshake(final SslContext clientSslContext) {
+        final SslHandler client = clientSslContext.newHandler(ByteBufAllocator.DEFAULT, HOST, PORT);
+        final EmbeddedChannel clientChannel = new EmbeddedChannel(client);
+        final EmbeddedChannel serverChannel = new EmbeddedChannel(frontendTls.newHandler(ByteBufAllocator.DEFAULT));
+        exchangeBytes(clientChannel, serverChannel);
+        client.handshakeFuture().syncUninterruptibly();
+        // The session tickets of TLSv1.3 follow the handshake, along with the first data
+        serverChannel.writeOutbound(Unpooled.wrappedBuffer(new byte[1]));
+        exchangeBytes(clientChannel, serverChannel);
+        // Closing frees the OpenSSL engines along with what they received
+        channels.add(clientChannel);
+        channels.add(serverChannel);
+        return client;
+    }
+
+    private static void exchangeBytes(final EmbeddedChannel clientChannel, final EmbeddedChannel serverChannel) {
+        boolean moved;
+        do {
+            moved = false;
+            ByteBuf bytes;
+            while ((bytes = clientChannel.readOutbound()) != null) {
+                serverChannel.writeInbound(bytes);
+                moved = true;
+            }
+            while ((bytes = serverChannel.readOutbound()) != null) {
+                clientChannel.writeInbound(bytes);
+                moved = true;
+            }
+        } while (moved);
+    }
+}